@@ -0,0 +1,17 @@
+package org.huang.saademo.common;
+
+import lombok.Getter;
+
+/**
+ * 准入控制拒绝请求时抛出，由 AdmissionExceptionHandler 转成 429 + Retry-After
+ */
+@Getter
+public class AdmissionRejectedException extends RuntimeException {
+    
+    private final long retryAfterSeconds;
+    
+    public AdmissionRejectedException(String message, long retryAfterSeconds) {
+        super(message);
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+}
@@ -0,0 +1,11 @@
+package org.huang.saademo.common;
+
+/**
+ * 舱壁已满（排队数超限或等待超时），HTTP 请求同样会被转成 429 + Retry-After
+ */
+public class BulkheadFullException extends AdmissionRejectedException {
+    
+    public BulkheadFullException(String message, long retryAfterSeconds) {
+        super(message, retryAfterSeconds);
+    }
+}
@@ -0,0 +1,11 @@
+package org.huang.saademo.common;
+
+/**
+ * 模型调用的自适应并发上限已满且排队超限或超时，HTTP 请求同样会被转成 429 + Retry-After
+ */
+public class ConcurrencyLimitExceededException extends AdmissionRejectedException {
+    
+    public ConcurrencyLimitExceededException(String message, long retryAfterSeconds) {
+        super(message, retryAfterSeconds);
+    }
+}
@@ -9,6 +9,9 @@ public class Constants {
     public static final String SSE_EVENT_CONTEXT = "[CONTEXT]"; // 事件类型：压缩上下文
     public static final String SSE_EVENT_TIMEOUT = "[TIMEOUT]"; // 事件类型：超时
     public static final String SSE_EVENT_INTERRUPT = "[INTERRUPT]"; // 事件类型：中断
+    public static final String SSE_EVENT_CONNECTION = "[CONNECTION]"; // 事件类型：多路复用连接建立
+    public static final String SSE_EVENT_CHANNEL = "[CHANNEL]"; // 事件类型：频道声明
+    public static final String SSE_EVENT_CHANNEL_END = "[CHANNEL_END]"; // 事件类型：频道结束
     
     // 工具使用：批准
     public static final Integer TOOL_APPROVE = 0;
@@ -0,0 +1,25 @@
+package org.huang.saademo.common;
+
+import lombok.Getter;
+
+import java.time.Duration;
+
+/**
+ * 流式输出超过了配置的时限，运行已经被取消，调用方应向客户端发送 [TIMEOUT] 事件
+ */
+@Getter
+public class StreamDeadlineExceededException extends RuntimeException {
+    
+    public enum Kind {
+        TIME_TO_FIRST_TOKEN, INTER_TOKEN, TOTAL
+    }
+    
+    private final Kind kind;
+    private final Duration limit;
+    
+    public StreamDeadlineExceededException(Kind kind, Duration limit) {
+        super(kind + " deadline of " + limit.toMillis() + " ms exceeded");
+        this.kind = kind;
+        this.limit = limit;
+    }
+}
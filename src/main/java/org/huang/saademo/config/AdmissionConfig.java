@@ -0,0 +1,31 @@
+package org.huang.saademo.config;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+
+/**
+ * 流式接口准入控制配置，对应 application.yaml 中的 admission
+ */
+@Setter
+@Getter
+@Configuration
+@ConfigurationProperties(prefix = "admission")
+public class AdmissionConfig {
+    
+    // 同时在线的流式会话上限
+    private int maxConcurrentSessions = 100;
+    
+    // 还没有统计数据时假设的单个会话耗时
+    private Duration initialServiceTime = Duration.ofSeconds(30);
+    
+    // 会话耗时的指数加权平均系数，越大越偏向最近的会话
+    private double serviceTimeAlpha = 0.2;
+    
+    private Duration minRetryAfter = Duration.ofSeconds(1);
+    
+    private Duration maxRetryAfter = Duration.ofSeconds(60);
+}
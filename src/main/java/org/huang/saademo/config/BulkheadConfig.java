@@ -0,0 +1,57 @@
+package org.huang.saademo.config;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 舱壁（bulkhead）配置，对应 application.yaml 中的 bulkhead.specs。
+ * interactive 舱壁的并发上限就是 admission.max-concurrent-sessions，不在这里配置。
+ */
+@Setter
+@Getter
+@Configuration
+@ConfigurationProperties(prefix = "bulkhead")
+public class BulkheadConfig {
+    
+    public static final String INTERACTIVE = "interactive"; // SSE 流式对话
+    public static final String BLOCKING = "blocking"; // 同步 invoke 调用
+    public static final String COMPRESSION = "compression"; // 上下文压缩
+    public static final String BACKGROUND_COMPRESSION = "background-compression"; // 软阈值触发的后台提前压缩
+    public static final String INGESTION = "ingestion"; // RAG 文档入库
+    
+    private Map<String, Spec> specs = defaultSpecs();
+    
+    @Setter
+    @Getter
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Spec {
+        // 优先级越高越重要，低优先级的舱壁在高优先级舱壁饱和时会先让出
+        private int priority;
+        private int maxConcurrent;
+        // 最多允许多少个调用排队等待，超过直接拒绝
+        private int maxQueue;
+        // 排队等待的最长时间
+        private Duration maxWait;
+        // 更高优先级的舱壁饱和时是否让位。只有批处理类的工作让位：上下文压缩运行在已经占用 interactive 名额的会话内，
+        // 同步调用本身就是前台请求，让位只会让它们在高峰期等满 max-wait 后被拒绝
+        private boolean yieldToHigherPriority = true;
+    }
+    
+    private static Map<String, Spec> defaultSpecs() {
+        Map<String, Spec> specs = new LinkedHashMap<>();
+        specs.put(BLOCKING, new Spec(50, 20, 50, Duration.ofSeconds(5), false));
+        specs.put(COMPRESSION, new Spec(40, 4, 20, Duration.ofSeconds(30), false));
+        specs.put(BACKGROUND_COMPRESSION, new Spec(20, 2, 20, Duration.ofSeconds(60), true));
+        specs.put(INGESTION, new Spec(10, 2, 10, Duration.ofSeconds(60), true));
+        return specs;
+    }
+}
@@ -0,0 +1,46 @@
+package org.huang.saademo.config;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+
+/**
+ * 上下文压缩配置，对应 application.yaml 中的 context-compression。
+ * 一轮对话结束后上下文超过 token-limit * soft-ratio 就在后台提前压缩，下一次模型调用前直接换上压缩结果；
+ * 超过 token-limit 而后台结果还没有准备好时才在模型调用前同步压缩。
+ * 两种压缩都只把最近 recent-turns 轮之前、上一次压缩之后的那段对话压缩成一条摘要，摘要攒够 fold-fan-in 条合并一次。
+ */
+@Setter
+@Getter
+@Configuration
+@ConfigurationProperties(prefix = "context-compression")
+public class ContextCompressionConfig {
+    
+    // 硬上限，超过后本次模型调用前必须压缩
+    private int tokenLimit = 100_000;
+    
+    // 是否在后台提前压缩，关闭后只在超过硬上限时同步压缩
+    private boolean backgroundEnabled = true;
+    
+    // 软阈值占硬上限的比例
+    private double softRatio = 0.7;
+    
+    // 超过硬上限时，同一会话的后台压缩还在进行中就最多等它这么久，超时再同步压缩
+    private Duration awaitInFlight = Duration.ofSeconds(10);
+    
+    // 后台压缩结果的保留时间，会话在这段时间内没有下一轮对话就丢弃
+    private Duration ttl = Duration.ofMinutes(30);
+    
+    // 原样保留的最近几轮对话（从一条用户消息开始算一轮），合计超过 token-limit 的一半时少保留几轮
+    private int recentTurns = 3;
+    
+    // 同一层的摘要攒够这么多条就合并成上一层的一条
+    private int foldFanIn = 4;
+    
+    public int getSoftLimit() {
+        return (int) (tokenLimit * softRatio);
+    }
+}
@@ -0,0 +1,52 @@
+package org.huang.saademo.config;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * DashScope 出站 HTTP 连接池配置，对应 application.yaml 中的 dashscope.transport
+ */
+@Setter
+@Getter
+@Configuration
+@ConfigurationProperties(prefix = "dashscope.transport")
+public class HttpTransportConfig {
+    
+    // 每个目标主机的最大连接数（reactor-netty 按主机分别建池），HTTP/1.1 下也就是每个主机的最大并发请求数
+    private int maxConnections = 100;
+    
+    // 连接池满时允许排队等待连接的请求数，超过后直接失败，避免无限排队
+    private int pendingAcquireMaxCount = 200;
+    
+    // 排队等待连接的最长时间
+    private Duration pendingAcquireTimeout = Duration.ofSeconds(10);
+    
+    // 空闲连接超过该时间后关闭，需要小于服务端的 keep-alive 超时，避免拿到已被服务端关闭的连接
+    private Duration maxIdleTime = Duration.ofSeconds(30);
+    
+    // 连接的最长存活时间，定期重建连接，让 DNS 变化和服务端扩缩容能生效
+    private Duration maxLifeTime = Duration.ofMinutes(5);
+    
+    // 后台清理空闲连接的间隔，0 表示只在获取连接时检查
+    private Duration evictionInterval = Duration.ofSeconds(15);
+    
+    private Duration connectTimeout = Duration.ofSeconds(5);
+    
+    // 两次读取之间的最长间隔；流式输出每个分片都会重置计时，所以不会截断正常的长输出
+    private Duration responseTimeout = Duration.ofSeconds(60);
+    
+    // 是否启用 HTTP/2，只对 https 生效（通过 ALPN 协商，服务端不支持时退回 HTTP/1.1）
+    private boolean http2Enabled = false;
+    
+    // 是否把连接池指标注册到 Micrometer
+    private boolean metricsEnabled = true;
+    
+    // 按主机单独设置最大连接数，key 为 host:port，例如 dashscope.aliyuncs.com:443
+    private Map<String, Integer> hostMaxConnections = new LinkedHashMap<>();
+}
@@ -0,0 +1,41 @@
+package org.huang.saademo.config;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+
+/**
+ * 模型调用自适应并发限制配置，对应 application.yaml 中的 model-concurrency，每个模型各自学习自己的并发上限
+ */
+@Setter
+@Getter
+@Configuration
+@ConfigurationProperties(prefix = "model-concurrency")
+public class ModelConcurrencyConfig {
+    
+    private boolean enabled = true;
+    
+    private int initialLimit = 20;
+    
+    private int minLimit = 1;
+    
+    private int maxLimit = 200;
+    
+    // 延迟超过基线的多少倍视为拥塞
+    private double latencyTolerance = 2.0;
+    
+    // 拥塞时的乘性减小系数
+    private double backoffRatio = 0.9;
+    
+    // 被限流（429）时的乘性减小系数
+    private double throttleBackoffRatio = 0.5;
+    
+    // 超出并发上限的调用最多排队多少个，超过直接拒绝
+    private int maxQueue = 100;
+    
+    // 排队等待的最长时间
+    private Duration maxWait = Duration.ofSeconds(10);
+}
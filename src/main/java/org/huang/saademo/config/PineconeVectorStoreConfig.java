@@ -4,6 +4,7 @@ import com.alibaba.cloud.ai.dashscope.api.DashScopeApi;
 import com.alibaba.cloud.ai.dashscope.embedding.DashScopeEmbeddingModel;
 import com.alibaba.cloud.ai.dashscope.embedding.DashScopeEmbeddingOptions;
 import jakarta.annotation.Resource;
+import org.huang.saademo.manager.DashScopeTransport;
 import org.springframework.ai.document.MetadataMode;
 import org.springframework.ai.embedding.EmbeddingModel;
 import org.springframework.ai.embedding.TokenCountBatchingStrategy;
@@ -25,13 +26,16 @@ public class PineconeVectorStoreConfig {
     
     @Resource
     private ApiKeyConfig apiKeyConfig;
+    @Resource
+    private DashScopeTransport dashScopeTransport;
     private static final int VECTOR_DIMENSION = 1024;
     private static final String MODEL_NAME = "text-embedding-v4";
     
     @Bean(name="dashscopeEmbeddingModel-v4")
     @Primary
     public EmbeddingModel dashscopeEmbeddingModel(){
-        DashScopeApi api = DashScopeApi.builder().apiKey(apiKeyConfig.getQwenKey()).build();
+        // 和对话模型共用同一个连接池
+        DashScopeApi api = dashScopeTransport.dashScopeApiBuilder().apiKey(apiKeyConfig.getQwenKey()).build();
         DashScopeEmbeddingOptions options = DashScopeEmbeddingOptions.builder()
                 .model(MODEL_NAME)
                 .textType("document")
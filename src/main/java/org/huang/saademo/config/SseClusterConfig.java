@@ -0,0 +1,30 @@
+package org.huang.saademo.config;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+
+/**
+ * 跨节点 SSE 投递配置，对应 application.yaml 中的 sse.cluster。
+ * 开启后，持有会话连接的节点订阅该会话的 Redis topic，其他节点上产生的事件按批发布到这个 topic。
+ */
+@Setter
+@Getter
+@Configuration
+@ConfigurationProperties(prefix = "sse.cluster")
+public class SseClusterConfig {
+    
+    private boolean enabled = false;
+    
+    // topic 名为前缀 + sessionId
+    private String topicPrefix = "sse:session:";
+    
+    // 同一会话的事件最多攒这么久再发布
+    private Duration batchWindow = Duration.ofMillis(20);
+    
+    // 攒够这么多事件立即发布
+    private int batchMaxEvents = 64;
+}
@@ -0,0 +1,30 @@
+package org.huang.saademo.config;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+
+/**
+ * SSE 心跳与空闲连接回收配置，对应 application.yaml 中的 sse.heartbeat。
+ * 所有连接共用一个调度线程上的时间轮，每个连接每隔 interval 检查一次。
+ */
+@Setter
+@Getter
+@Configuration
+@ConfigurationProperties(prefix = "sse.heartbeat")
+public class SseHeartbeatConfig {
+    
+    private boolean enabled = true;
+    
+    // 连接超过这么久没有任何写出就发送一个注释帧，防止代理断开静默连接
+    private Duration interval = Duration.ofSeconds(15);
+    
+    // 时间轮每格的时长，interval / tick 即槽位数
+    private Duration tick = Duration.ofSeconds(1);
+    
+    // 连接超过这么久没有发送任何事件（心跳不算）就被回收
+    private Duration idleTtl = Duration.ofMinutes(5);
+}
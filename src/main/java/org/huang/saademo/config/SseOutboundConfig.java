@@ -0,0 +1,28 @@
+package org.huang.saademo.config;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * SSE 出站队列配置，对应 application.yaml 中的 sse.outbound。
+ * 每个连接一个有界队列，由单独的写线程发送，生产者（Reactor 回调线程）只入队不阻塞。
+ */
+@Setter
+@Getter
+@Configuration
+@ConfigurationProperties(prefix = "sse.outbound")
+public class SseOutboundConfig {
+    
+    public enum OverflowPolicy {
+        DROP_OLDEST, // 丢弃最早的事件
+        COALESCE, // 与队尾同名的文本事件合并，无法合并时退化为丢弃最早的事件
+        DISCONNECT // 断开连接，上游运行随之被取消
+    }
+    
+    // 单个连接最多积压的事件数
+    private int capacity = 256;
+    
+    private OverflowPolicy overflowPolicy = OverflowPolicy.COALESCE;
+}
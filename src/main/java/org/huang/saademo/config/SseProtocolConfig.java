@@ -0,0 +1,24 @@
+package org.huang.saademo.config;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * 多智能体、agent-as-tool 的 SseEmitter 接口使用的流协议，对应 application.yaml 中的 sse.protocol，格式见 StreamDeltaEncoder
+ */
+@Setter
+@Getter
+@Configuration
+@ConfigurationProperties(prefix = "sse.protocol")
+public class SseProtocolConfig {
+    
+    public enum Mode {
+        FULL, // 每个输出都是完整的 JSON
+        COMPACT, // 静态字段每段只发一次、metadata 变化时才发，节点输出只发状态差异
+        MULTIPLEXED // 在 COMPACT 的基础上每个 Agent 一个数字频道，模型输出只带频道号和文本
+    }
+    
+    private Mode mode = Mode.FULL;
+}
@@ -0,0 +1,36 @@
+package org.huang.saademo.config;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+
+/**
+ * SSE 断线续传配置，对应 application.yaml 中的 sse.replay。
+ * 每个会话保留最近发送的事件，客户端带 Last-Event-ID 重连时补发缺失的部分并接回仍在运行的流。
+ */
+@Setter
+@Getter
+@Configuration
+@ConfigurationProperties(prefix = "sse.replay")
+public class SseReplayConfig {
+    
+    private boolean enabled = true;
+    
+    // 单个会话最多保留的事件数
+    private int maxEvents = 512;
+    
+    // 单个会话保留事件的字节数上限（按字符数估算）
+    private long maxBytes = 256 * 1024;
+    
+    // 所有会话合计的字节数上限，超过后淘汰最久没有写入的会话
+    private long maxTotalBytes = 64L * 1024 * 1024;
+    
+    // 会话超过这么久没有新事件就丢弃它的回放缓冲
+    private Duration ttl = Duration.ofMinutes(5);
+    
+    // 客户端断开后保留运行的时间，期间重连可以接回运行，超时后才取消
+    private Duration resumeGrace = Duration.ofSeconds(15);
+}
@@ -0,0 +1,59 @@
+package org.huang.saademo.config;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 流式输出的背压配置，对应 application.yaml 中的 stream-backpressure。
+ * endpoints 按端点名（stream-mem、stream、agent-as-tool，多 Agent 按拓扑名）覆盖默认值，没有填写的项沿用 defaults。
+ */
+@Setter
+@Getter
+@Configuration
+@ConfigurationProperties(prefix = "stream-backpressure")
+public class StreamBackpressureConfig {
+    
+    public enum Overflow {
+        ERROR, // 以错误结束流，按慢客户端处理
+        DROP_OLDEST, // 丢弃缓冲区中最早的输出
+        DROP_LATEST // 丢弃新到的输出
+    }
+    
+    private Policy defaults = new Policy(true, 32, 512, Overflow.ERROR);
+    
+    private Map<String, Policy> endpoints = new HashMap<>();
+    
+    @Setter
+    @Getter
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Policy {
+        // 关闭时按原来的方式无界订阅
+        private Boolean enabled;
+        // 每批向上游请求的输出数，消费掉四分之三后在写线程就绪时补齐
+        private Integer prefetch;
+        // 上游不遵守背压时最多缓冲的输出数
+        private Integer bufferSize;
+        // 缓冲区满时的处理方式
+        private Overflow overflow;
+    }
+    
+    public Policy forEndpoint(String endpoint) {
+        Policy override = endpoints.get(endpoint);
+        if (override == null) {
+            return defaults;
+        }
+        return new Policy(
+                override.getEnabled() != null ? override.getEnabled() : defaults.getEnabled(),
+                override.getPrefetch() != null ? override.getPrefetch() : defaults.getPrefetch(),
+                override.getBufferSize() != null ? override.getBufferSize() : defaults.getBufferSize(),
+                override.getOverflow() != null ? override.getOverflow() : defaults.getOverflow());
+    }
+}
@@ -0,0 +1,27 @@
+package org.huang.saademo.config;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+
+/**
+ * 模型输出 token 合并配置，对应 application.yaml 中的 stream-coalesce，默认关闭。
+ * 开启后连续的同类模型输出块在 window 时间内或累计到 max-bytes 时合并成一个 SSE 事件发送。
+ */
+@Setter
+@Getter
+@Configuration
+@ConfigurationProperties(prefix = "stream-coalesce")
+public class StreamCoalesceConfig {
+    
+    private boolean enabled = false;
+    
+    // 一批输出块从第一块到发出的最长等待时间
+    private Duration window = Duration.ofMillis(40);
+    
+    // 一批输出块累计的 UTF-8 字节数上限，达到后立即发出
+    private int maxBytes = 1024;
+}
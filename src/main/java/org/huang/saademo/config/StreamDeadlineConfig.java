@@ -0,0 +1,51 @@
+package org.huang.saademo.config;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 流式输出的超时配置，对应 application.yaml 中的 stream-deadline。
+ * models 中按模型名覆盖默认值，没有填写的项沿用 defaults；某一项为 0 表示不限制。
+ */
+@Setter
+@Getter
+@Configuration
+@ConfigurationProperties(prefix = "stream-deadline")
+public class StreamDeadlineConfig {
+    
+    private Deadlines defaults = new Deadlines(Duration.ofSeconds(30), Duration.ofSeconds(20), Duration.ofMinutes(5));
+    
+    private Map<String, Deadlines> models = new HashMap<>();
+    
+    @Setter
+    @Getter
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Deadlines {
+        // 等待模型第一个 token 的最长时间（每次模型调用都重新计时）
+        private Duration timeToFirstToken;
+        // 模型输出过程中两个 token 之间的最长间隔
+        private Duration interTokenGap;
+        // 整个运行的最长时间
+        private Duration total;
+    }
+    
+    public Deadlines forModel(String model) {
+        Deadlines override = models.get(model);
+        if (override == null) {
+            return defaults;
+        }
+        return new Deadlines(
+                override.getTimeToFirstToken() != null ? override.getTimeToFirstToken() : defaults.getTimeToFirstToken(),
+                override.getInterTokenGap() != null ? override.getInterTokenGap() : defaults.getInterTokenGap(),
+                override.getTotal() != null ? override.getTotal() : defaults.getTotal());
+    }
+}
@@ -1,16 +1,30 @@
 package org.huang.saademo.config;
 
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.AsyncTaskExecutor;
 import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 
+import java.time.Duration;
 import java.util.concurrent.ThreadPoolExecutor;
 
 @Configuration
 public class ThreadPoolConfig {
     
+    // platform：平台线程池（默认）；virtual：每个会话一个虚拟线程，用信号量限制同时在线的会话数
+    @Value("${stream-executor.mode:platform}")
+    private String mode;
+    
+    @Value("${stream-executor.virtual.max-in-flight:1000}")
+    private int maxInFlight;
+    
     @Bean(name= "streamAgentTaskExecutor")
-    public ThreadPoolTaskExecutor taskExecutor(){
+    public AsyncTaskExecutor taskExecutor(){
+        if ("virtual".equalsIgnoreCase(mode)) {
+            return new VirtualThreadTaskExecutor("SaaDemo-vt-", maxInFlight);
+        }
         ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
         executor.setCorePoolSize(10);
         executor.setMaxPoolSize(20);
@@ -21,5 +35,27 @@ public class ThreadPoolConfig {
         executor.initialize();
         return executor;
     }
-
+    
+    // 后台提前压缩上下文，并发由 background-compression 舱壁限制，队列满了本轮就不提前压缩
+    @Bean(name= "contextCompressionExecutor")
+    public AsyncTaskExecutor contextCompressionExecutor(){
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(2);
+        executor.setMaxPoolSize(4);
+        executor.setQueueCapacity(50);
+        executor.setKeepAliveSeconds(60);
+        executor.setThreadNamePrefix("SaaDemo-compress-");
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.AbortPolicy());
+        executor.initialize();
+        return executor;
+    }
+    
+    // 虚拟线程模式下监听 pinning 事件，阻塞超过阈值就打印栈并计数
+    @Bean
+    @ConditionalOnExpression("'${stream-executor.mode:platform}' == 'virtual' and ${stream-executor.virtual.pinning-diagnostics:true}")
+    public VirtualThreadPinningMonitor virtualThreadPinningMonitor(
+            @Value("${stream-executor.virtual.pinning-threshold:20ms}") Duration threshold){
+        return new VirtualThreadPinningMonitor(threshold);
+    }
+    
 }
@@ -0,0 +1,72 @@
+package org.huang.saademo.config;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Metrics;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedFrame;
+import jdk.jfr.consumer.RecordedStackTrace;
+import jdk.jfr.consumer.RecordingStream;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * 虚拟线程 pinning 诊断：通过 JFR 监听 jdk.VirtualThreadPinned 事件。
+ * 虚拟线程在 synchronized 块或本地方法中阻塞时无法从载体线程上卸载（pinned），会占住一个载体线程，
+ * 这类阻塞多了虚拟线程模式就退化成了一个很小的平台线程池。每次 pinning 都会打印栈顶几帧并计数，方便定位是哪段代码。
+ */
+@Slf4j
+public class VirtualThreadPinningMonitor implements DisposableBean {
+    
+    public static final String PINNED_METRIC = "stream.executor.virtual.pinned";
+    
+    private static final String PINNED_EVENT = "jdk.VirtualThreadPinned";
+    private static final int LOGGED_FRAMES = 8;
+    
+    private final RecordingStream recordingStream;
+    private final AtomicLong pinnedCount = new AtomicLong();
+    private final Counter pinnedCounter;
+    
+    public VirtualThreadPinningMonitor(Duration threshold) {
+        this.pinnedCounter = Counter.builder(PINNED_METRIC)
+                .description("Virtual threads pinned to their carrier longer than the threshold")
+                .register(Metrics.globalRegistry);
+        this.recordingStream = new RecordingStream();
+        recordingStream.enable(PINNED_EVENT).withThreshold(threshold).withStackTrace();
+        recordingStream.onEvent(PINNED_EVENT, this::onPinned);
+        recordingStream.startAsync();
+        log.info("Virtual thread pinning monitor started, threshold {} ms", threshold.toMillis());
+    }
+    
+    public long getPinnedCount() {
+        return pinnedCount.get();
+    }
+    
+    @Override
+    public void destroy() {
+        recordingStream.close();
+    }
+    
+    private void onPinned(RecordedEvent event) {
+        pinnedCount.incrementAndGet();
+        pinnedCounter.increment();
+        log.warn("Virtual thread pinned for {} ms on {}:\n{}", event.getDuration().toMillis(),
+                event.getThread() == null ? "N/A" : event.getThread().getJavaName(), formatStackTrace(event.getStackTrace()));
+    }
+    
+    private static String formatStackTrace(RecordedStackTrace stackTrace) {
+        if (stackTrace == null) {
+            return "\t(no stack trace)";
+        }
+        List<RecordedFrame> frames = stackTrace.getFrames();
+        return frames.stream()
+                .limit(LOGGED_FRAMES)
+                .map(frame -> "\tat " + frame.getMethod().getType().getName() + "." + frame.getMethod().getName()
+                        + "(line " + frame.getLineNumber() + ")")
+                .collect(Collectors.joining("\n"));
+    }
+}
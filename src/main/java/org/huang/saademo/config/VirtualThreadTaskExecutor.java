@@ -0,0 +1,123 @@
+package org.huang.saademo.config;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Metrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.core.task.TaskRejectedException;
+import reactor.core.Disposable;
+import reactor.core.Disposables;
+import reactor.core.publisher.BaseSubscriber;
+import reactor.core.publisher.Flux;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.function.Consumer;
+
+/**
+ * 虚拟线程模式的 streamAgentTaskExecutor：每个任务一个虚拟线程，不排队。
+ * 同时在途的任务数由信号量限制，拿不到许可时立即抛出 TaskRejectedException（和平台线程池的 AbortPolicy 行为一致）。
+ * 配合 {@link #subscribe} 使用时，一个任务就是一整个流式会话，所以信号量限制的就是同时在线的会话数。
+ */
+@Slf4j
+public class VirtualThreadTaskExecutor implements AsyncTaskExecutor, DisposableBean {
+    
+    public static final String IN_FLIGHT_METRIC = "stream.executor.in.flight";
+    
+    private final int maxInFlight;
+    private final Semaphore permits;
+    private final ExecutorService executor;
+    
+    public VirtualThreadTaskExecutor(String threadNamePrefix, int maxInFlight) {
+        this.maxInFlight = maxInFlight;
+        this.permits = new Semaphore(maxInFlight);
+        this.executor = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name(threadNamePrefix, 0).factory());
+        Gauge.builder(IN_FLIGHT_METRIC, this, VirtualThreadTaskExecutor::getInFlight)
+                .description("In-flight tasks on the virtual-thread stream executor")
+                .register(Metrics.globalRegistry);
+    }
+    
+    @Override
+    public void execute(Runnable task) {
+        if (!permits.tryAcquire()) {
+            throw new TaskRejectedException("Virtual-thread executor reached max in-flight tasks: " + maxInFlight);
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    task.run();
+                } finally {
+                    permits.release();
+                }
+            });
+        } catch (RuntimeException e) {
+            permits.release();
+            throw new TaskRejectedException("Virtual-thread executor did not accept task", e);
+        }
+    }
+    
+    public int getInFlight() {
+        return maxInFlight - permits.availablePermits();
+    }
+    
+    public int getMaxInFlight() {
+        return maxInFlight;
+    }
+    
+    @Override
+    public void destroy() {
+        executor.shutdownNow();
+    }
+    
+    /**
+     * 订阅流式输出，语义和 {@link Flux#subscribe(Consumer, Consumer, Runnable)} 一致。
+     * 在虚拟线程上会阻塞到流结束：虚拟线程挂起几乎没有成本，任务（以及信号量许可）覆盖整个会话；
+     * 在平台线程上直接订阅后返回，不占用线程池里有限的线程。
+     */
+    public static <T> void subscribe(Flux<T> stream, Consumer<? super T> onNext, Consumer<? super Throwable> onError, Runnable onComplete) {
+        subscribe(stream, onNext, onError, onComplete, Disposables.swap());
+    }
+    
+    /**
+     * 同上，订阅放进 cancellation 中，dispose 它即可取消上游（包括正在进行的 HTTP 流），阻塞中的虚拟线程也会随之返回。
+     * cancellation 在订阅前已经被 dispose 时，订阅建立后立即被取消
+     */
+    public static <T> void subscribe(Flux<T> stream, Consumer<? super T> onNext, Consumer<? super Throwable> onError, Runnable onComplete,
+                                     Disposable.Swap cancellation) {
+        if (!Thread.currentThread().isVirtual()) {
+            cancellation.update(stream.subscribe(onNext, onError, onComplete));
+            return;
+        }
+        CountDownLatch terminated = new CountDownLatch(1);
+        cancellation.update(stream.doFinally(signal -> terminated.countDown())
+                .subscribe(onNext, onError, onComplete));
+        try {
+            terminated.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            cancellation.dispose();
+        }
+    }
+    
+    /**
+     * 同上，由调用方提供订阅者（例如按批请求的背压订阅者）。订阅者先放进 cancellation，取消早于订阅时订阅一建立就会被取消
+     */
+    public static <T> void subscribe(Flux<T> stream, BaseSubscriber<T> subscriber, Disposable.Swap cancellation) {
+        cancellation.update(subscriber);
+        if (!Thread.currentThread().isVirtual()) {
+            stream.subscribe(subscriber);
+            return;
+        }
+        CountDownLatch terminated = new CountDownLatch(1);
+        stream.doFinally(signal -> terminated.countDown()).subscribe(subscriber);
+        try {
+            terminated.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            cancellation.dispose();
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package org.huang.saademo.config;
+
+import jakarta.annotation.Resource;
+import org.huang.saademo.controller.StreamMemSocketHandler;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.socket.config.annotation.EnableWebSocket;
+import org.springframework.web.socket.config.annotation.WebSocketConfigurer;
+import org.springframework.web.socket.config.annotation.WebSocketHandlerRegistry;
+
+@Configuration
+@EnableWebSocket
+public class WebSocketConfig implements WebSocketConfigurer {
+    
+    @Resource
+    private StreamMemSocketHandler streamMemSocketHandler;
+    
+    @Override
+    public void registerWebSocketHandlers(WebSocketHandlerRegistry registry) {
+        // 与页面同源，不额外放开跨域
+        registry.addHandler(streamMemSocketHandler, "/ws/stream/mem");
+    }
+}
@@ -0,0 +1,23 @@
+package org.huang.saademo.controller;
+
+import lombok.extern.slf4j.Slf4j;
+import org.huang.saademo.common.AdmissionRejectedException;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.RestControllerAdvice;
+
+@RestControllerAdvice
+@Slf4j
+public class AdmissionExceptionHandler {
+    
+    // 在 SSE 连接建立之前直接返回 429，客户端按 Retry-After 退避重试，而不是收到一个立即出错的流
+    @ExceptionHandler(AdmissionRejectedException.class)
+    public ResponseEntity<Void> handleAdmissionRejected(AdmissionRejectedException e) {
+        log.warn("Request rejected by admission control: {}, retry after {} s", e.getMessage(), e.getRetryAfterSeconds());
+        return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(e.getRetryAfterSeconds()))
+                .build();
+    }
+}
@@ -1,14 +1,17 @@
 package org.huang.saademo.controller;
 
 import jakarta.annotation.Resource;
+import org.huang.saademo.manager.AdmissionManager;
 import org.huang.saademo.manager.SSEManager;
 import org.huang.saademo.service.AgentAsToolService;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
 import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 @RestController
+@ConditionalOnProperty(name = "streaming.stack", havingValue = "emitter", matchIfMissing = true)
 @RequestMapping("/agent-as-tool")
 public class AgentAsToolController {
     @Resource
@@ -17,11 +20,13 @@ public class AgentAsToolController {
     @Resource
     private AgentAsToolService agentAsToolService;
     
+    @Resource
+    private AdmissionManager admissionManager;
+    
     @GetMapping("/tool")
     public SseEmitter multiToolAgentCall(String input){
-        SseEmitter emitter = sseManager.createEmitter();
-        agentAsToolService.multiToolAgentStreamCall(emitter, input);
-        return emitter;
+        return admissionManager.open(sseManager::createEmitter,
+                emitter -> agentAsToolService.multiToolAgentStreamCall(emitter, input));
     }
     
     
@@ -1,8 +1,10 @@
 package org.huang.saademo.controller;
 
 import jakarta.annotation.Resource;
+import org.huang.saademo.manager.AdmissionManager;
 import org.huang.saademo.manager.SSEManager;
 import org.huang.saademo.service.MultiAgentService;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
@@ -10,6 +12,7 @@ import org.springframework.web.bind.annotation.RestController;
 import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 @RestController
+@ConditionalOnProperty(name = "streaming.stack", havingValue = "emitter", matchIfMissing = true)
 @RequestMapping("/multi-agent")
 public class MultiAgentController {
     
@@ -18,33 +21,32 @@ public class MultiAgentController {
     
     @Resource
     private MultiAgentService multiAgentService;
+    
+    @Resource
+    private AdmissionManager admissionManager;
 
     @GetMapping("/sequential") // 顺序执行多个Agent
     public SseEmitter sequentialAgents(@RequestParam String input) {
-        SseEmitter emitter = sseManager.createEmitter();
-        multiAgentService.sequentialAgentStreamCall(input, emitter);
-        return emitter;
+        return admissionManager.open(sseManager::createEmitter,
+                emitter -> multiAgentService.sequentialAgentStreamCall(input, emitter));
     }
     
     @GetMapping("/parallel") // 并行执行多个Agent
     public SseEmitter parallelAgents(@RequestParam String input) {
-        SseEmitter emitter = sseManager.createEmitter();
-        multiAgentService.parallelAgentStreamCall(input, emitter);
-        return emitter;
+        return admissionManager.open(sseManager::createEmitter,
+                emitter -> multiAgentService.parallelAgentStreamCall(input, emitter));
     }
     
     @GetMapping("/routing") // 根据输入内容路由到不同Agent
     public SseEmitter routingAgents(@RequestParam String input) {
-        SseEmitter emitter = sseManager.createEmitter();
-        multiAgentService.llmRoutingAgentStreamCall(input, emitter);
-        return emitter;
+        return admissionManager.open(sseManager::createEmitter,
+                emitter -> multiAgentService.llmRoutingAgentStreamCall(input, emitter));
     }
     
     @GetMapping("/supervisor") // 使用SupervisorAgent协调多个Agent执行
     public SseEmitter supervisorAgents(@RequestParam String input) {
-        SseEmitter emitter = sseManager.createEmitter();
-        multiAgentService.supervisorAgentStreamCall(input, emitter);
-        return emitter;
+        return admissionManager.open(sseManager::createEmitter,
+                emitter -> multiAgentService.supervisorAgentStreamCall(input, emitter));
     }
 
 }
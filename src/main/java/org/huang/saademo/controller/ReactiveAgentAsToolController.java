@@ -0,0 +1,32 @@
+package org.huang.saademo.controller;
+
+import jakarta.annotation.Resource;
+import org.huang.saademo.manager.AdmissionManager;
+import org.huang.saademo.service.AgentAsToolService;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+import reactor.core.publisher.Flux;
+
+/**
+ * streaming.stack=reactive 时替代 AgentAsToolController
+ */
+@RestController
+@RequestMapping("/agent-as-tool")
+@ConditionalOnProperty(name = "streaming.stack", havingValue = "reactive")
+public class ReactiveAgentAsToolController {
+    
+    @Resource
+    private AgentAsToolService agentAsToolService;
+    
+    @Resource
+    private AdmissionManager admissionManager;
+    
+    @GetMapping(value = "/tool", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public Flux<ServerSentEvent<String>> multiToolAgentCall(String input){
+        return admissionManager.openStream(() -> agentAsToolService.multiToolAgentEvents(input));
+    }
+}
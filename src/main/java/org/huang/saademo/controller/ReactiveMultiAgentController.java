@@ -0,0 +1,48 @@
+package org.huang.saademo.controller;
+
+import jakarta.annotation.Resource;
+import org.huang.saademo.manager.AdmissionManager;
+import org.huang.saademo.service.MultiAgentService;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import reactor.core.publisher.Flux;
+
+/**
+ * streaming.stack=reactive 时替代 MultiAgentController
+ */
+@RestController
+@RequestMapping("/multi-agent")
+@ConditionalOnProperty(name = "streaming.stack", havingValue = "reactive")
+public class ReactiveMultiAgentController {
+    
+    @Resource
+    private MultiAgentService multiAgentService;
+    
+    @Resource
+    private AdmissionManager admissionManager;
+    
+    @GetMapping(value = "/sequential", produces = MediaType.TEXT_EVENT_STREAM_VALUE) // 顺序执行多个Agent
+    public Flux<ServerSentEvent<String>> sequentialAgents(@RequestParam String input) {
+        return admissionManager.openStream(() -> multiAgentService.sequentialAgentEvents(input));
+    }
+    
+    @GetMapping(value = "/parallel", produces = MediaType.TEXT_EVENT_STREAM_VALUE) // 并行执行多个Agent
+    public Flux<ServerSentEvent<String>> parallelAgents(@RequestParam String input) {
+        return admissionManager.openStream(() -> multiAgentService.parallelAgentEvents(input));
+    }
+    
+    @GetMapping(value = "/routing", produces = MediaType.TEXT_EVENT_STREAM_VALUE) // 根据输入内容路由到不同Agent
+    public Flux<ServerSentEvent<String>> routingAgents(@RequestParam String input) {
+        return admissionManager.openStream(() -> multiAgentService.llmRoutingAgentEvents(input));
+    }
+    
+    @GetMapping(value = "/supervisor", produces = MediaType.TEXT_EVENT_STREAM_VALUE) // 使用SupervisorAgent协调多个Agent执行
+    public Flux<ServerSentEvent<String>> supervisorAgents(@RequestParam String input) {
+        return admissionManager.openStream(() -> multiAgentService.supervisorAgentEvents(input));
+    }
+}
@@ -0,0 +1,33 @@
+package org.huang.saademo.controller;
+
+import jakarta.annotation.Resource;
+import org.huang.saademo.manager.AdmissionManager;
+import org.huang.saademo.service.StreamMemService;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import reactor.core.publisher.Flux;
+
+/**
+ * streaming.stack=reactive 时替代 StreamMemController：返回 Flux 由 Spring MVC 直接订阅写出，不为每个连接占用线程
+ */
+@RestController
+@RequestMapping("/stream/mem")
+@ConditionalOnProperty(name = "streaming.stack", havingValue = "reactive")
+public class ReactiveStreamMemController {
+    
+    @Resource
+    private StreamMemService streamMemService;
+    
+    @Resource
+    private AdmissionManager admissionManager;
+    
+    @GetMapping(value="/agent", produces = "text/event-stream; charset=utf-8")
+    public Flux<ServerSentEvent<String>> streamAgent(@RequestParam(required = false) String prompt, String sessionId,
+                                                     @RequestParam(required = false) Integer humanResponse) {
+        return admissionManager.openStream(() -> streamMemService.streamEvents(prompt, sessionId, humanResponse));
+    }
+}
@@ -1,6 +1,7 @@
 package org.huang.saademo.controller;
 
 import jakarta.annotation.Resource;
+import org.huang.saademo.manager.AdmissionManager;
 import org.huang.saademo.service.StreamAgent;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
@@ -15,6 +16,9 @@ public class StreamController {
     @Resource
     private StreamAgent streamAgent;
     
+    @Resource
+    private AdmissionManager admissionManager;
+    
     private SseEmitter generateEmitter() {
         // 设置5分钟超时
         SseEmitter emitter = new SseEmitter(5 * 60 * 1000L);
@@ -30,9 +34,8 @@ public class StreamController {
     
     @GetMapping("/agent")
     public SseEmitter streamAgent(@RequestParam String prompt) {
-        SseEmitter emitter = generateEmitter();
-        streamAgent.StreamCall(emitter, prompt);
-        return emitter;
+        return admissionManager.open(this::generateEmitter,
+                emitter -> streamAgent.StreamCall(emitter, prompt));
     }
     
 }
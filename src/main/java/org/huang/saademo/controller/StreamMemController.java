@@ -1,15 +1,22 @@
 package org.huang.saademo.controller;
 
 import jakarta.annotation.Resource;
+import org.huang.saademo.manager.AdmissionManager;
 import org.huang.saademo.manager.SSEManager;
 import org.huang.saademo.service.StreamMemService;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
 import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 @RestController
+@ConditionalOnProperty(name = "streaming.stack", havingValue = "emitter", matchIfMissing = true)
 @RequestMapping("/stream/mem")
 public class StreamMemController {
     
@@ -19,13 +26,43 @@ public class StreamMemController {
     @Resource
     private SSEManager sseManager;
     
+    @Resource
+    private AdmissionManager admissionManager;
+    
     @GetMapping(value="/agent", produces = "text/event-stream; charset=utf-8")
     public SseEmitter streamAgent(@RequestParam(required = false) String prompt, String sessionId,
-                                  @RequestParam(required = false) Integer humanResponse) {
-        SseEmitter emitter = sseManager.createEmitter(sessionId);
-        streamMemService.streamCall(prompt, sessionId, humanResponse);
+                                  @RequestParam(required = false) Integer humanResponse,
+                                  @RequestHeader(value = "Last-Event-ID", required = false) Long lastEventId) {
+        return admissionManager.open(() -> sseManager.createEmitter(sessionId),
+                emitter -> streamMemService.streamCall(prompt, sessionId, humanResponse, lastEventId));
+    }
+    
+    /**
+     * 多路复用连接：第一帧 [CONNECTION] 带着连接 ID，之后用 /agent/attach 把多个会话挂到这一个连接上
+     */
+    @GetMapping(value="/connect", produces = "text/event-stream; charset=utf-8")
+    public SseEmitter connect() {
+        SseEmitter emitter = sseManager.createEmitter();
+        sseManager.multiplex(emitter);
         return emitter;
     }
-
-
+    
+    /**
+     * 在多路复用连接上启动会话，事件从 connection 对应的连接上返回，这个请求本身立即返回 202
+     */
+    @GetMapping("/agent/attach")
+    public ResponseEntity<Void> attachAgent(@RequestParam String connection, @RequestParam(required = false) String prompt, String sessionId,
+                                            @RequestParam(required = false) Integer humanResponse,
+                                            @RequestHeader(value = "Last-Event-ID", required = false) Long lastEventId) {
+        admissionManager.open(() -> {
+            SseEmitter channel = sseManager.attach(connection, sessionId);
+            if (channel == null) {
+                throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Unknown SSE connection " + connection);
+            }
+            return channel;
+        }, emitter -> streamMemService.streamCall(prompt, sessionId, humanResponse, lastEventId));
+        return ResponseEntity.accepted().build();
+    }
+    
+    
 }
@@ -0,0 +1,188 @@
+package org.huang.saademo.controller;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.Resource;
+import lombok.extern.slf4j.Slf4j;
+import org.huang.saademo.common.AdmissionRejectedException;
+import org.huang.saademo.common.Constants;
+import org.huang.saademo.manager.AdmissionManager;
+import org.huang.saademo.service.StreamMemService;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.ConcurrentWebSocketSessionDecorator;
+import org.springframework.web.socket.handler.TextWebSocketHandler;
+import reactor.core.Disposable;
+import reactor.core.Disposables;
+import reactor.core.publisher.Flux;
+import reactor.core.scheduler.Schedulers;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * StreamMem 的 WebSocket 传输：一个长连接上发送问题、接收输出和中断、回传审批结果，审批后恢复的运行直接在同一个连接上输出，
+ * 不需要像 SSE 那样为每次审批重新建立连接。运行本身与 /stream/mem/agent 的响应式版本相同（会话邮箱串行、重复请求合并、准入控制）。
+ * <p>
+ * 客户端消息：
+ * <ul>
+ *     <li>{"type": "prompt", "sessionId": ..., "prompt": ...}</li>
+ *     <li>{"type": "decision", "sessionId": ..., "decision": "approve" | "edit" | "reject", "prompt": ..., "arguments": {工具调用 ID 或工具名: 新参数 JSON}}</li>
+ *     <li>{"type": "cancel", "sessionId": ...}：取消这个连接上该会话正在进行的运行</li>
+ * </ul>
+ * 服务端消息：{"session": ..., "event": "[MODEL]" 等与 SSE 相同的事件名, "data": ...}
+ */
+@Component
+@Slf4j
+public class StreamMemSocketHandler extends TextWebSocketHandler {
+    
+    public record Command(String type, String sessionId, String prompt, String decision, Map<String, String> arguments) {}
+    
+    public record Event(String session, String event, String data) {}
+    
+    private static final Map<String, Integer> DECISIONS = Map.of(
+            "approve", Constants.TOOL_APPROVE,
+            "edit", Constants.TOOL_EDIT,
+            "reject", Constants.TOOL_REJECT);
+    
+    @Resource
+    private StreamMemService streamMemService;
+    
+    @Resource
+    private AdmissionManager admissionManager;
+    
+    // 单个连接发送阻塞的最长时间和最多积压的字节数，超过后断开慢客户端，运行随之取消
+    @Value("${stream-socket.send-time-limit-ms:10000}")
+    private int sendTimeLimitMillis;
+    
+    @Value("${stream-socket.buffer-size-limit:524288}")
+    private int bufferSizeLimit;
+    
+    private final ObjectMapper objectMapper = new ObjectMapper()
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+    private final Map<String, Connection> connections = new ConcurrentHashMap<>();
+    
+    @Override
+    public void afterConnectionEstablished(WebSocketSession session) {
+        connections.put(session.getId(), new Connection(
+                new ConcurrentWebSocketSessionDecorator(session, sendTimeLimitMillis, bufferSizeLimit)));
+    }
+    
+    @Override
+    protected void handleTextMessage(WebSocketSession session, TextMessage message) throws IOException {
+        Connection connection = connections.get(session.getId());
+        if (connection == null) {
+            return;
+        }
+        Command command;
+        try {
+            command = objectMapper.readValue(message.getPayload(), Command.class);
+        } catch (IOException e) {
+            connection.send(null, Constants.SSE_EVENT_ERROR, "Invalid message: " + e.getMessage());
+            return;
+        }
+        if (command.sessionId() == null || command.type() == null) {
+            connection.send(command.sessionId(), Constants.SSE_EVENT_ERROR, "type and sessionId are required");
+            return;
+        }
+        switch (command.type()) {
+            case "prompt" -> start(connection, command.sessionId(), command.prompt(), null, Map.of());
+            case "decision" -> {
+                Integer humanResponse = command.decision() == null ? null : DECISIONS.get(command.decision());
+                if (humanResponse == null) {
+                    connection.send(command.sessionId(), Constants.SSE_EVENT_ERROR, "Unknown decision: " + command.decision());
+                    return;
+                }
+                Map<String, String> arguments = command.arguments() == null ? Map.of() : command.arguments();
+                start(connection, command.sessionId(), command.prompt(), humanResponse, arguments);
+            }
+            case "cancel" -> connection.cancel(command.sessionId());
+            default -> connection.send(command.sessionId(), Constants.SSE_EVENT_ERROR, "Unknown message type: " + command.type());
+        }
+    }
+    
+    @Override
+    public void afterConnectionClosed(WebSocketSession session, CloseStatus status) {
+        Connection connection = connections.remove(session.getId());
+        if (connection != null) {
+            connection.close();
+        }
+    }
+    
+    @Override
+    public void handleTransportError(WebSocketSession session, Throwable exception) {
+        log.warn("WebSocket[{}] transport error: {}", session.getId(), exception.getMessage());
+    }
+    
+    private void start(Connection connection, String sessionId, String prompt, Integer humanResponse, Map<String, String> arguments) {
+        Flux<ServerSentEvent<String>> events;
+        try {
+            events = admissionManager.openStream(() -> streamMemService.streamEvents(prompt, sessionId, humanResponse,
+                    arguments, StreamMemService.TRANSPORT_WEBSOCKET));
+        } catch (AdmissionRejectedException e) {
+            connection.send(sessionId, Constants.SSE_EVENT_ERROR,
+                    "Too many requests, retry after " + e.getRetryAfterSeconds() + " s");
+            return;
+        }
+        Disposable.Composite runs = connection.runs(sessionId);
+        Disposable.Swap run = Disposables.swap();
+        runs.add(run);
+        // 运行的输出在模型 HTTP 客户端的 IO 线程上产生，发送可能阻塞，切换到弹性线程上写出
+        run.update(events.publishOn(Schedulers.boundedElastic())
+                .doFinally(signal -> runs.remove(run))
+                .subscribe(event -> connection.send(sessionId, event.event(), event.data()),
+                        error -> connection.send(sessionId, Constants.SSE_EVENT_ERROR,
+                                error instanceof AdmissionRejectedException rejected
+                                        ? "Too many requests, retry after " + rejected.getRetryAfterSeconds() + " s"
+                                        : error.getMessage())));
+    }
+    
+    /**
+     * 一个 WebSocket 连接：发送经 ConcurrentWebSocketSessionDecorator 串行化，按会话记录这个连接上正在进行的运行
+     */
+    private final class Connection {
+        private final ConcurrentWebSocketSessionDecorator session;
+        private final Map<String, Disposable.Composite> runs = new ConcurrentHashMap<>();
+        
+        private Connection(ConcurrentWebSocketSessionDecorator session) {
+            this.session = session;
+        }
+        
+        private Disposable.Composite runs(String sessionId) {
+            return runs.computeIfAbsent(sessionId, key -> Disposables.composite());
+        }
+        
+        private void cancel(String sessionId) {
+            Disposable.Composite sessionRuns = runs.remove(sessionId);
+            if (sessionRuns != null) {
+                log.info("WebSocket[{}] Session[{}]: run cancelled by client", session.getId(), sessionId);
+                sessionRuns.dispose();
+            }
+        }
+        
+        // 连接断开：取消这个连接上所有还在进行的运行
+        private void close() {
+            runs.values().forEach(Disposable::dispose);
+            runs.clear();
+        }
+        
+        private void send(String sessionId, String event, String data) {
+            if (!session.isOpen()) {
+                return;
+            }
+            try {
+                session.sendMessage(new TextMessage(objectMapper.writeValueAsString(new Event(sessionId, event, data))));
+            } catch (IOException e) {
+                // 包括发送超时、积压超限（装饰器已经关闭了连接），afterConnectionClosed 会取消运行
+                log.warn("WebSocket[{}] Session[{}]: failed to send {}: {}", session.getId(), sessionId, event, e.getMessage());
+            } catch (IllegalStateException e) {
+                log.warn("WebSocket[{}] Session[{}]: connection closed, skipping {}", session.getId(), sessionId, event);
+            }
+        }
+    }
+}
@@ -8,21 +8,24 @@ import com.alibaba.cloud.ai.graph.agent.hook.messages.MessagesModelHook;
 import com.alibaba.cloud.ai.graph.agent.hook.messages.UpdatePolicy;
 import jakarta.annotation.Resource;
 import lombok.extern.slf4j.Slf4j;
+import org.huang.saademo.common.BulkheadFullException;
 import org.huang.saademo.common.Constants;
+import org.huang.saademo.config.ContextCompressionConfig;
 import org.huang.saademo.manager.SSEManager;
+import org.huang.saademo.manager.TokenCounter;
 import org.huang.saademo.service.CompressContextService;
+import org.springframework.ai.chat.messages.AssistantMessage;
 import org.springframework.ai.chat.messages.Message;
-import org.springframework.ai.chat.messages.UserMessage;
 import org.springframework.stereotype.Component;
 import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
+import java.time.Duration;
 import java.util.List;
 import java.util.Optional;
-import java.util.concurrent.atomic.AtomicInteger;
 
 @Component
 @Slf4j
-@HookPositions(value = {HookPosition.BEFORE_MODEL}) // 指定该 Hook 在模型调用前执行
+@HookPositions(value = {HookPosition.BEFORE_MODEL, HookPosition.AFTER_MODEL}) // 模型调用前压缩或换上后台压缩的结果，模型调用后按软阈值提交后台压缩
 public class MessageManageHook extends MessagesModelHook {
     @Override
     public String getName() {
@@ -35,105 +38,76 @@ public class MessageManageHook extends MessagesModelHook {
     @Resource
     private CompressContextService compressContextService;
     
-    // 100K tokens 上限，触发就会进行上下文压缩
-    private static final int TOKEN_LIMIT = 100000; // 100K tokens
+    @Resource
+    private TokenCounter tokenCounter;
+    
+    @Resource
+    private ContextCompressionConfig compressionConfig;
     
     @Override
     public AgentCommand beforeModel(List<Message> previousMessages, RunnableConfig config) {
         // 在这里可以对 previousMessages 进行管理，例如添加、修改或删除消息
-        List<Message> messages = delEmptyMessages(previousMessages);
-        int totalTokens = calculateTokenCount(messages);
-        if (totalTokens > TOKEN_LIMIT) {
-            Optional<String> s = config.threadId();
+        // 同一会话只计算上一次之后新增的消息，见 TokenCounter
+        Optional<String> s = config.threadId();
+        int totalTokens = tokenCounter.count(s.orElse(null), previousMessages);
+        int tokenLimit = compressionConfig.getTokenLimit();
+        if (s.isPresent()) {
+            // 上一轮结束后已经在后台压缩过，直接换上；超过硬上限时等一等进行中的后台压缩，避免重复压缩
+            Duration wait = totalTokens > tokenLimit ? compressionConfig.getAwaitInFlight() : Duration.ZERO;
+            List<Message> precomputed = compressContextService.takePrecomputed(s.get(), previousMessages, wait);
+            if (precomputed != null) {
+                log.info("Session ID: {}, Total Tokens: {}, swapped in precomputed context summary.", s.get(), totalTokens);
+                return new AgentCommand(precomputed, UpdatePolicy.REPLACE);
+            }
+        }
+        if (totalTokens > tokenLimit) {
             if(s.isPresent()){
-                log.info("Session ID: {}, Total Tokens: {} exceed limit: {}, performing context compression.", s.get(), totalTokens, TOKEN_LIMIT);
+                log.info("Session ID: {}, Total Tokens: {} exceed limit: {}, performing context compression.", s.get(), totalTokens, tokenLimit);
             }else{
-                log.info("Total Tokens: {} exceed limit: {}, performing context compression.", totalTokens, TOKEN_LIMIT);
+                log.info("Total Tokens: {} exceed limit: {}, performing context compression.", totalTokens, tokenLimit);
             }
             long startTime = System.currentTimeMillis();
             // 超过 Token 限制，进行上下文压缩
-            SseEmitter emitter = sseManager.getEmitter(s.orElse("N/A"));
-            if (emitter != null) {
-                sseManager.sendEvent(emitter,s.orElse("N/A"), Constants.SSE_EVENT_CONTEXT, "Context tokens: " + totalTokens + " exceed limit: " + TOKEN_LIMIT + ", performing compression...");
+            // 本节点没有这个会话的连接时（多节点部署），SSEManager 会把事件转发给持有连接的节点
+            if (s.isPresent()) {
+                SseEmitter emitter = sseManager.getEmitter(s.get());
+                sseManager.sendEvent(emitter, s.get(), Constants.SSE_EVENT_CONTEXT, "Context tokens: " + totalTokens + " exceed limit: " + tokenLimit + ", performing compression...");
+            }
+            // 只压缩新过期的那段对话，之前的摘要和最近几轮对话原样保留，见 CompressContextService
+            List<Message> newMessages;
+            try {
+                newMessages = compressContextService.compact(previousMessages);
+            } catch (BulkheadFullException e) {
+                // 压缩舱壁已满时本轮先不压缩，避免对话被阻塞，下一次模型调用前会再次尝试
+                log.warn("Session ID: {}, context compression skipped: {}", s.orElse("N/A"), e.getMessage());
+                return new AgentCommand(previousMessages);
+            }
+            if (newMessages == null) {
+                return new AgentCommand(previousMessages);
             }
-            String compressedContext = compressContextService.compressContext(messages);
-            List<Message> newMessages = List.of(new UserMessage(compressedContext));
             long endTime = System.currentTimeMillis();
-            log.info("Session ID: {}, Context compression completed in {} ms.", s.orElse("N/A"), (endTime - startTime));
+            log.info("Session ID: {}, Context compression completed in {} ms, {} -> {} messages.", s.orElse("N/A"), (endTime - startTime), previousMessages.size(), newMessages.size());
             return new AgentCommand(newMessages, UpdatePolicy.REPLACE);
         }
         
         return new AgentCommand(previousMessages);
     }
     
-    /**
-     * 计算消息列表的总 Token 数量，此处仅仅是简单估算
-     * 由于不同模型的分词器不同，实际 Token 数量可能会有所差异
-     * @param messages
-     * @return 估算的 Token 数量
-     */
-    private int calculateTokenCount(List<Message> messages) {
-        if (messages == null || messages.isEmpty()) {
-            return 0;
-        }
-        
-        AtomicInteger totalTokens = new AtomicInteger();
-        
-        for (Message message : messages) {
-            // 1. 基础开销：每条消息包含角色和格式占用的 Token (通常估算为 4)
-            totalTokens.addAndGet(4);
-            
-            // 2. 计算正文 Token
-            String text = message.getText();
-            if (text != null && !text.isEmpty()) {
-                totalTokens.addAndGet(estimateStringTokens(text));
-            }
-            
-            // 3. 计算消息类型 (MessageType)
-            if (message.getMessageType() != null) {
-                totalTokens.addAndGet(estimateStringTokens(message.getMessageType().toString()));
-            }
-            
-            // 4. 计算元数据 (Metadata) - 如果存在，通常是 Key-Value 形式
-            if (message.getMetadata() != null && !message.getMetadata().isEmpty()) {
-                message.getMetadata().forEach((key, value) -> {
-                    totalTokens.addAndGet(estimateStringTokens(key));
-                    if (value != null) {
-                        totalTokens.addAndGet(estimateStringTokens(value.toString()));
-                    }
-                });
+    @Override
+    public AgentCommand afterModel(List<Message> previousMessages, RunnableConfig config) {
+        Optional<String> s = config.threadId();
+        if (compressionConfig.isBackgroundEnabled() && s.isPresent() && isTurnComplete(previousMessages)) {
+            int totalTokens = tokenCounter.count(s.get(), previousMessages);
+            int softLimit = compressionConfig.getSoftLimit();
+            if (totalTokens > softLimit && compressContextService.compressAhead(s.get(), previousMessages)) {
+                log.info("Session ID: {}, Total Tokens: {} exceed soft limit: {}, compressing context in background.", s.get(), totalTokens, softLimit);
             }
         }
-        
-        // 5. 整个对话结束的固定开销
-        totalTokens.addAndGet(3);
-        
-        return totalTokens.get();
-    }
-    
-    private List<Message> delEmptyMessages(List<Message> messages) {
-        return messages.stream()
-                .filter(message -> message.getText() != null && !message.getText().trim().isEmpty())
-                .toList();
+        return new AgentCommand(previousMessages);
     }
     
-    private int estimateStringTokens(String content) {
-        if (content == null || content.isEmpty()) return 0;
-        
-        double tokenCount = 0;
-        for (int i = 0; i < content.length(); i++) {
-            char c = content.charAt(i);
-            // 简单判断：如果是 ASCII 字符（英文字母、数字、普通标点）
-            if (c <= 127) {
-                // 英文和数字平均 0.25 ~ 0.5 个 token (4个字母约等于1个token)
-                // 但为了保险，我们按 0.5 算
-                tokenCount += 0.5;
-            } else {
-                // 中文字符、复杂符号，通常一个字符就是 1.5 到 2 个 token
-                tokenCount += 1.5;
-            }
-        }
-        // 向上取整，并加上基础权重
-        return (int) Math.ceil(tokenCount);
+    // 最后一条是没有工具调用的助手回复，这一轮已经结束，之后只会接上新的用户消息，压缩结果可以替换这段历史
+    private static boolean isTurnComplete(List<Message> messages) {
+        return !messages.isEmpty() && messages.get(messages.size() - 1) instanceof AssistantMessage reply && !reply.hasToolCalls();
     }
 }
@@ -0,0 +1,161 @@
+package org.huang.saademo.interceptor;
+
+import com.alibaba.cloud.ai.graph.agent.interceptor.ModelCallHandler;
+import com.alibaba.cloud.ai.graph.agent.interceptor.ModelInterceptor;
+import com.alibaba.cloud.ai.graph.agent.interceptor.ModelRequest;
+import com.alibaba.cloud.ai.graph.agent.interceptor.ModelResponse;
+import org.huang.saademo.config.ModelConcurrencyConfig;
+import org.huang.saademo.manager.AdaptiveConcurrencyLimiter;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.prompt.ChatOptions;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.RestClientResponseException;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.publisher.Flux;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 按模型名做自适应并发限制的模型拦截器，从观察到的延迟和 429 中学习 DashScope 实际能承受的并发。
+ * 流式调用返回的 Flux 在订阅时才占名额、流结束时归还，没有被订阅的流不占名额；
+ * 延迟信号取首包耗时（总耗时取决于输出长度，不能反映服务端负载）。
+ * Agent 一般不在请求里指定模型名，构建 Agent 时用 {@link #forModel(ChatModel)} 绑定它的 ChatModel，按默认选项里的模型名限流。
+ */
+@Component
+public class AdaptiveConcurrencyInterceptor extends ModelInterceptor {
+    
+    // 请求和 ChatModel 的默认选项里都没有模型名时共用的限流器
+    private static final String DEFAULT_MODEL = "default";
+    
+    private final ModelConcurrencyConfig config;
+    private final Map<String, AdaptiveConcurrencyLimiter> limiters = new ConcurrentHashMap<>();
+    
+    @Autowired
+    public AdaptiveConcurrencyInterceptor(ModelConcurrencyConfig config) {
+        this.config = config;
+    }
+    
+    @Override
+    public ModelResponse interceptModel(ModelRequest request, ModelCallHandler handler) {
+        return intercept(request, handler, DEFAULT_MODEL);
+    }
+    
+    /**
+     * 绑定到一个 ChatModel 的拦截器，与本拦截器共用各模型的限流器；请求里没有模型名时按这个 ChatModel 默认选项里的模型名限流
+     */
+    public ModelInterceptor forModel(ChatModel chatModel) {
+        ChatOptions defaults = chatModel == null ? null : chatModel.getDefaultOptions();
+        String fallback = defaults != null && defaults.getModel() != null ? defaults.getModel() : DEFAULT_MODEL;
+        return new ModelInterceptor() {
+            @Override
+            public ModelResponse interceptModel(ModelRequest request, ModelCallHandler handler) {
+                return intercept(request, handler, fallback);
+            }
+            
+            @Override
+            public String getName() {
+                return AdaptiveConcurrencyInterceptor.this.getName();
+            }
+        };
+    }
+    
+    private ModelResponse intercept(ModelRequest request, ModelCallHandler handler, String fallbackModel) {
+        if (!config.isEnabled()) {
+            return handler.call(request);
+        }
+        AdaptiveConcurrencyLimiter limiter = getLimiter(modelName(request, fallbackModel));
+        limiter.acquire();
+        long start = System.nanoTime();
+        ModelResponse response;
+        try {
+            response = handler.call(request);
+        } catch (RuntimeException e) {
+            if (isThrottled(e)) {
+                limiter.onThrottled();
+            }
+            limiter.release();
+            throw e;
+        }
+        
+        if (response != null && response.getMessage() instanceof Flux<?> stream) {
+            // 组装流不发起请求，先归还名额，订阅时再占
+            limiter.release();
+            @SuppressWarnings("unchecked")
+            Flux<ChatResponse> chunks = (Flux<ChatResponse>) stream;
+            return new ModelResponse(limitStream(chunks, limiter), response.getChatResponse());
+        }
+        limiter.onLatency(System.nanoTime() - start);
+        limiter.release();
+        return response;
+    }
+    
+    public AdaptiveConcurrencyLimiter getLimiter(String model) {
+        return limiters.computeIfAbsent(model, name -> new AdaptiveConcurrencyLimiter(name, config));
+    }
+    
+    private Flux<ChatResponse> limitStream(Flux<ChatResponse> chunks, AdaptiveConcurrencyLimiter limiter) {
+        return Flux.defer(() -> {
+            limiter.acquire();
+            return limitStream(chunks, limiter, System.nanoTime());
+        });
+    }
+    
+    private Flux<ChatResponse> limitStream(Flux<ChatResponse> chunks, AdaptiveConcurrencyLimiter limiter, long start) {
+        AtomicBoolean firstChunk = new AtomicBoolean(true);
+        AtomicBoolean released = new AtomicBoolean();
+        return chunks
+                .doOnNext(chunk -> {
+                    if (firstChunk.compareAndSet(true, false)) {
+                        limiter.onLatency(System.nanoTime() - start);
+                    }
+                })
+                .doOnError(error -> {
+                    if (isThrottled(error)) {
+                        limiter.onThrottled();
+                    }
+                })
+                .doFinally(signal -> {
+                    if (released.compareAndSet(false, true)) {
+                        limiter.release();
+                    }
+                });
+    }
+    
+    private static String modelName(ModelRequest request, String fallbackModel) {
+        if (request.getOptions() != null && request.getOptions().getModel() != null) {
+            return request.getOptions().getModel();
+        }
+        return fallbackModel;
+    }
+    
+    /**
+     * DashScope 限流时返回 HTTP 429，错误码为 Throttling 开头；只看状态码和错误码，消息里碰巧出现的 429（请求 ID、token 数等）不算
+     */
+    static boolean isThrottled(Throwable error) {
+        for (Throwable t = error; t != null; t = t.getCause()) {
+            if (t instanceof WebClientResponseException e && e.getStatusCode().value() == 429) {
+                return true;
+            }
+            if (t instanceof RestClientResponseException e && e.getStatusCode().value() == 429) {
+                return true;
+            }
+            String message = t.getMessage();
+            if (message != null && message.contains("Throttling")) {
+                return true;
+            }
+            if (t.getCause() == t) {
+                break;
+            }
+        }
+        return false;
+    }
+    
+    @Override
+    public String getName() {
+        return "AdaptiveConcurrencyInterceptor";
+    }
+}
@@ -0,0 +1,30 @@
+package org.huang.saademo.interceptor;
+
+import com.alibaba.cloud.ai.graph.agent.interceptor.ModelCallHandler;
+import com.alibaba.cloud.ai.graph.agent.interceptor.ModelInterceptor;
+import com.alibaba.cloud.ai.graph.agent.interceptor.ModelRequest;
+import com.alibaba.cloud.ai.graph.agent.interceptor.ModelResponse;
+import org.huang.saademo.manager.CancellationManager;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.CancellationException;
+
+/**
+ * 客户端已经断开的运行不再发起新的模型调用（例如多智能体流程中还没轮到的子 Agent）
+ */
+@Component
+public class CancellationModelInterceptor extends ModelInterceptor {
+    @Override
+    public ModelResponse interceptModel(ModelRequest request, ModelCallHandler handler) {
+        CancellationManager.Handle handle = CancellationManager.handleOf(request.getContext());
+        if (handle != null && handle.isCancelled()) {
+            throw new CancellationException("Stream cancelled, model call skipped");
+        }
+        return handler.call(request);
+    }
+    
+    @Override
+    public String getName() {
+        return "CancellationModelInterceptor";
+    }
+}
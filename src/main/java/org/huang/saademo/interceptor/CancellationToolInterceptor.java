@@ -0,0 +1,30 @@
+package org.huang.saademo.interceptor;
+
+import com.alibaba.cloud.ai.graph.agent.interceptor.ToolCallHandler;
+import com.alibaba.cloud.ai.graph.agent.interceptor.ToolCallRequest;
+import com.alibaba.cloud.ai.graph.agent.interceptor.ToolCallResponse;
+import com.alibaba.cloud.ai.graph.agent.interceptor.ToolInterceptor;
+import org.huang.saademo.manager.CancellationManager;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.CancellationException;
+
+/**
+ * 客户端已经断开的运行不再执行还没开始的工具调用
+ */
+@Component
+public class CancellationToolInterceptor extends ToolInterceptor {
+    @Override
+    public ToolCallResponse interceptToolCall(ToolCallRequest request, ToolCallHandler handler) {
+        CancellationManager.Handle handle = CancellationManager.handleOf(request.getContext());
+        if (handle != null && handle.isCancelled()) {
+            throw new CancellationException("Stream cancelled, tool " + request.getToolName() + " skipped");
+        }
+        return handler.call(request);
+    }
+    
+    @Override
+    public String getName() {
+        return "CancellationToolInterceptor";
+    }
+}
@@ -0,0 +1,29 @@
+package org.huang.saademo.interceptor;
+
+import com.alibaba.cloud.ai.graph.agent.interceptor.ModelCallHandler;
+import com.alibaba.cloud.ai.graph.agent.interceptor.ModelInterceptor;
+import com.alibaba.cloud.ai.graph.agent.interceptor.ModelRequest;
+import com.alibaba.cloud.ai.graph.agent.interceptor.ModelResponse;
+import org.huang.saademo.manager.StreamDeadlineGuard;
+import org.springframework.stereotype.Component;
+
+/**
+ * 模型请求真正发出时通知 StreamDeadlineGuard 开始首 token 计时，放在拦截器链的最后，
+ * 之前的 Hook（上下文压缩）和拦截器（并发限流排队）都不计入首 token 时限
+ */
+@Component
+public class StreamDeadlineInterceptor extends ModelInterceptor {
+    @Override
+    public ModelResponse interceptModel(ModelRequest request, ModelCallHandler handler) {
+        StreamDeadlineGuard.ModelCalls calls = StreamDeadlineGuard.ModelCalls.of(request.getContext());
+        if (calls != null) {
+            calls.issued();
+        }
+        return handler.call(request);
+    }
+    
+    @Override
+    public String getName() {
+        return "StreamDeadlineInterceptor";
+    }
+}
@@ -0,0 +1,171 @@
+package org.huang.saademo.manager;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Metrics;
+import lombok.extern.slf4j.Slf4j;
+import org.huang.saademo.common.ConcurrencyLimitExceededException;
+import org.huang.saademo.config.ModelConcurrencyConfig;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 单个模型的自适应并发上限（AIMD）：
+ * 调用成功且延迟不超过基线的 latencyTolerance 倍时，上限每次加 1/limit（约每轮加 1）；延迟超标时乘 backoffRatio；被限流（429）时乘 throttleBackoffRatio。
+ * 基线是观察到的最小延迟，并缓慢向上漂移，以适应模型整体变慢的情况。超出上限的调用排队等待，队列和等待时间都有上限。
+ * 指标：model.concurrency.limit、model.concurrency.in.flight、model.concurrency.queue、model.concurrency.throttled、model.concurrency.rejected，均带 model 标签。
+ */
+@Slf4j
+public final class AdaptiveConcurrencyLimiter {
+    
+    // 基线每次向观察值靠近的比例
+    private static final double BASELINE_DRIFT = 0.01;
+    
+    private final String model;
+    private final ModelConcurrencyConfig config;
+    
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition permitReleased = lock.newCondition();
+    private double limit;
+    private int inFlight;
+    private int waiting;
+    private double baselineLatencyNanos;
+    
+    private final Counter throttledCounter;
+    private final Counter rejectedCounter;
+    
+    public AdaptiveConcurrencyLimiter(String model, ModelConcurrencyConfig config) {
+        this.model = model;
+        this.config = config;
+        this.limit = config.getInitialLimit();
+        this.throttledCounter = Counter.builder("model.concurrency.throttled").tag("model", model).register(Metrics.globalRegistry);
+        this.rejectedCounter = Counter.builder("model.concurrency.rejected").tag("model", model).register(Metrics.globalRegistry);
+        Gauge.builder("model.concurrency.limit", this, AdaptiveConcurrencyLimiter::getLimit).tag("model", model).register(Metrics.globalRegistry);
+        Gauge.builder("model.concurrency.in.flight", this, AdaptiveConcurrencyLimiter::getInFlight).tag("model", model).register(Metrics.globalRegistry);
+        Gauge.builder("model.concurrency.queue", this, AdaptiveConcurrencyLimiter::getWaiting).tag("model", model).register(Metrics.globalRegistry);
+    }
+    
+    /**
+     * 获取一个调用名额，超出上限时排队，队列已满或等待超时抛出 ConcurrencyLimitExceededException
+     */
+    public void acquire() {
+        lock.lock();
+        try {
+            if (inFlight < currentLimit()) {
+                inFlight++;
+                return;
+            }
+            if (waiting >= config.getMaxQueue()) {
+                throw reject("queue is full (" + config.getMaxQueue() + ")");
+            }
+            waiting++;
+            try {
+                long remaining = config.getMaxWait().toNanos();
+                while (inFlight >= currentLimit()) {
+                    if (remaining <= 0) {
+                        throw reject("no permit within " + config.getMaxWait().toMillis() + " ms");
+                    }
+                    remaining = permitReleased.awaitNanos(remaining);
+                }
+                inFlight++;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw reject("interrupted while waiting");
+            } finally {
+                waiting--;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * 记录一次成功调用的延迟（非流式调用的耗时，或流式调用的首包耗时）并据此调整上限
+     */
+    public void onLatency(long latencyNanos) {
+        lock.lock();
+        try {
+            if (baselineLatencyNanos == 0 || latencyNanos < baselineLatencyNanos) {
+                baselineLatencyNanos = latencyNanos;
+            } else {
+                baselineLatencyNanos += (latencyNanos - baselineLatencyNanos) * BASELINE_DRIFT;
+            }
+            if (latencyNanos > baselineLatencyNanos * config.getLatencyTolerance()) {
+                decrease(config.getBackoffRatio());
+            } else if (inFlight * 2 >= limit) {
+                // 只有并发真正用到一半以上才加大上限，避免空闲时上限无限增长
+                limit = Math.min(config.getMaxLimit(), limit + 1.0 / limit);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    public void onThrottled() {
+        lock.lock();
+        try {
+            throttledCounter.increment();
+            decrease(config.getThrottleBackoffRatio());
+            log.warn("Model[{}] throttled by provider, concurrency limit lowered to {}", model, currentLimit());
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * 归还 acquire 拿到的名额，每次 acquire 成功后必须调用且只调用一次
+     */
+    public void release() {
+        lock.lock();
+        try {
+            inFlight--;
+            permitReleased.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    public int getLimit() {
+        lock.lock();
+        try {
+            return currentLimit();
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    public int getInFlight() {
+        lock.lock();
+        try {
+            return inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    public int getWaiting() {
+        lock.lock();
+        try {
+            return waiting;
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    // 以下方法都在持有锁时调用
+    private int currentLimit() {
+        return Math.max(config.getMinLimit(), (int) limit);
+    }
+    
+    private void decrease(double ratio) {
+        limit = Math.max(config.getMinLimit(), limit * ratio);
+    }
+    
+    private ConcurrencyLimitExceededException reject(String reason) {
+        rejectedCounter.increment();
+        long retryAfterSeconds = Math.max(1, config.getMaxWait().toSeconds());
+        return new ConcurrencyLimitExceededException("Model[" + model + "] " + reason, retryAfterSeconds);
+    }
+}
@@ -0,0 +1,199 @@
+package org.huang.saademo.manager;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Metrics;
+import lombok.extern.slf4j.Slf4j;
+import org.huang.saademo.common.AdmissionRejectedException;
+import org.huang.saademo.config.AdmissionConfig;
+import org.huang.saademo.config.BulkheadConfig;
+import org.huang.saademo.config.VirtualThreadTaskExecutor;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import reactor.core.publisher.Flux;
+
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * 流式接口的准入控制：在打开 SSE 连接之前判断是否还有容量，没有就直接返回 429 + Retry-After。
+ * 同时在线的会话占用的是 interactive 舱壁的名额（见 {@link BulkheadRegistry}）。
+ * <p>
+ * 容量满时，用最近会话耗时的加权平均估算多久会空出一个名额（平均耗时 / 并发上限），
+ * 每个被拒绝的请求依次预约后面的一个名额，Retry-After 就是到该名额的时间。
+ * 这样被拒绝的客户端会按照服务端释放容量的速度分散回来，而不是同一时刻一起重试把负载再推高。
+ */
+@Component
+@Slf4j
+public class AdmissionManager {
+    
+    private final AdmissionConfig config;
+    private final AsyncTaskExecutor executor;
+    private final Bulkhead interactive;
+    
+    private volatile double avgServiceTimeMillis;
+    // 已经分配给被拒绝客户端的最后一个重试时间点
+    private final AtomicLong lastReservedRetryMillis = new AtomicLong();
+    
+    private final Counter admittedCounter;
+    private final Counter rejectedCounter;
+    
+    @Autowired
+    public AdmissionManager(AdmissionConfig config, @Qualifier("streamAgentTaskExecutor") AsyncTaskExecutor executor,
+                            BulkheadRegistry bulkheadRegistry) {
+        this.config = config;
+        this.executor = executor;
+        this.interactive = bulkheadRegistry.get(BulkheadConfig.INTERACTIVE);
+        this.avgServiceTimeMillis = config.getInitialServiceTime().toMillis();
+        this.admittedCounter = Counter.builder("admission.admitted").register(Metrics.globalRegistry);
+        this.rejectedCounter = Counter.builder("admission.rejected").register(Metrics.globalRegistry);
+        Gauge.builder("admission.service.time.avg", this, AdmissionManager::getAvgServiceTimeMillis)
+                .baseUnit("milliseconds")
+                .register(Metrics.globalRegistry);
+    }
+    
+    /**
+     * 准入后创建 SSE 并启动会话，会话结束（完成、超时、出错）时归还名额。
+     * 如果执行器在准入之后仍然拒绝了任务（并发竞争），同样转换成 429，不会把一个立即出错的流返回给客户端。
+     * @param emitterFactory 创建 SseEmitter
+     * @param session 启动流式会话，需要在执行器拒绝时把 TaskRejectedException 抛出来
+     */
+    public SseEmitter open(Supplier<SseEmitter> emitterFactory, Consumer<SseEmitter> session) {
+        Ticket ticket = admit();
+        SseEmitter emitter;
+        try {
+            emitter = emitterFactory.get();
+            session.accept(emitter);
+        } catch (TaskRejectedException e) {
+            ticket.release(false);
+            throw reject("executor rejected task");
+        } catch (RuntimeException e) {
+            ticket.release(false);
+            throw e;
+        }
+        emitter.onCompletion(() -> ticket.release(true));
+        emitter.onTimeout(() -> ticket.release(true));
+        emitter.onError(error -> ticket.release(true));
+        return emitter;
+    }
+    
+    /**
+     * 响应式流的准入：返回的 Flux 直接交给 Spring MVC 订阅，不经过执行器，所以只占用 interactive 舱壁的名额。
+     * 流结束（完成、出错、客户端断开取消订阅）时归还名额；session 抛出的 TaskRejectedException 同样转换成 429
+     */
+    public <T> Flux<T> openStream(Supplier<Flux<T>> session) {
+        Ticket ticket = acquire(false);
+        Flux<T> stream;
+        try {
+            stream = session.get();
+        } catch (TaskRejectedException e) {
+            ticket.release(false);
+            throw reject("executor rejected task");
+        } catch (RuntimeException e) {
+            ticket.release(false);
+            throw e;
+        }
+        // 会话邮箱在订阅时才提交运行，这时的拒绝同样转换成 429
+        return stream
+                .onErrorMap(TaskRejectedException.class, e -> {
+                    ticket.release(false);
+                    return reject("executor rejected task");
+                })
+                .doFinally(signal -> ticket.release(true));
+    }
+    
+    public Ticket admit() {
+        return acquire(true);
+    }
+    
+    private Ticket acquire(boolean usesExecutor) {
+        if (usesExecutor && executorSaturated()) {
+            throw reject("executor saturated");
+        }
+        if (!interactive.tryAcquire()) {
+            throw reject("max concurrent sessions reached: " + interactive.getActive());
+        }
+        admittedCounter.increment();
+        return new Ticket();
+    }
+    
+    public int getInFlight() {
+        return interactive.getActive();
+    }
+    
+    public double getAvgServiceTimeMillis() {
+        return avgServiceTimeMillis;
+    }
+    
+    private AdmissionRejectedException reject(String reason) {
+        rejectedCounter.increment();
+        return new AdmissionRejectedException(reason, reserveRetryAfterSeconds());
+    }
+    
+    // 预约下一个空出来的名额，返回距离该名额的秒数
+    private long reserveRetryAfterSeconds() {
+        long interval = Math.max(1, (long) (avgServiceTimeMillis / config.getMaxConcurrentSessions()));
+        long maxRetryAfter = config.getMaxRetryAfter().toMillis();
+        long now = System.currentTimeMillis();
+        long slot;
+        while (true) {
+            long last = lastReservedRetryMillis.get();
+            slot = Math.min(Math.max(now, last) + interval, now + maxRetryAfter);
+            if (lastReservedRetryMillis.compareAndSet(last, slot)) {
+                break;
+            }
+        }
+        long retryAfterMillis = Math.max(slot - now, config.getMinRetryAfter().toMillis());
+        return (retryAfterMillis + 999) / 1000;
+    }
+    
+    // 执行器已经满了，即使会话数没到上限，提交任务也会被拒绝
+    private boolean executorSaturated() {
+        if (executor instanceof ThreadPoolTaskExecutor pool) {
+            ThreadPoolExecutor threadPool = pool.getThreadPoolExecutor();
+            return threadPool.getActiveCount() >= threadPool.getMaximumPoolSize()
+                    && threadPool.getQueue().remainingCapacity() == 0;
+        }
+        if (executor instanceof VirtualThreadTaskExecutor virtual) {
+            return virtual.getInFlight() >= virtual.getMaxInFlight();
+        }
+        return false;
+    }
+    
+    private void recordServiceTime(long millis) {
+        double alpha = config.getServiceTimeAlpha();
+        avgServiceTimeMillis = alpha * millis + (1 - alpha) * avgServiceTimeMillis;
+    }
+    
+    /**
+     * 一个会话占用的名额，只会归还一次
+     */
+    public final class Ticket {
+        private final long startMillis = System.currentTimeMillis();
+        private final AtomicBoolean released = new AtomicBoolean();
+        
+        private Ticket() {
+        }
+        
+        /**
+         * @param completed 会话是否真正执行过，只有执行过的会话才计入平均耗时
+         */
+        public void release(boolean completed) {
+            if (!released.compareAndSet(false, true)) {
+                return;
+            }
+            interactive.release();
+            if (completed) {
+                recordServiceTime(System.currentTimeMillis() - startMillis);
+            }
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package org.huang.saademo.manager;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+import org.huang.saademo.common.BulkheadFullException;
+
+import java.time.Duration;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 一个命名舱壁：独立的并发上限和有界等待队列。
+ * 批处理类的舱壁获取名额前会先让位于正处于饱和状态的更高优先级舱壁，保证批处理任务不会和交互式请求争抢下游（模型配额、连接池）。
+ * 指标：bulkhead.active、bulkhead.queue.depth、bulkhead.wait（排队耗时）、bulkhead.rejected，均带 name 标签。
+ */
+public final class Bulkhead {
+    
+    private static final long YIELD_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(20);
+    
+    private final String name;
+    private final int priority;
+    private final int maxConcurrent;
+    private final int maxQueue;
+    private final Duration maxWait;
+    private final boolean yielding;
+    private final BulkheadRegistry registry;
+    
+    private final Semaphore permits;
+    private final AtomicInteger queued = new AtomicInteger();
+    
+    private final Timer waitTimer;
+    private final Counter rejectedCounter;
+    
+    @FunctionalInterface
+    public interface Task<T, E extends Exception> {
+        T run() throws E;
+    }
+    
+    Bulkhead(String name, int priority, int maxConcurrent, int maxQueue, Duration maxWait, boolean yielding, BulkheadRegistry registry) {
+        this.name = name;
+        this.priority = priority;
+        this.maxConcurrent = maxConcurrent;
+        this.maxQueue = maxQueue;
+        this.maxWait = maxWait;
+        this.yielding = yielding;
+        this.registry = registry;
+        this.permits = new Semaphore(maxConcurrent, true);
+        this.waitTimer = Timer.builder("bulkhead.wait").tag("name", name).register(Metrics.globalRegistry);
+        this.rejectedCounter = Counter.builder("bulkhead.rejected").tag("name", name).register(Metrics.globalRegistry);
+        Gauge.builder("bulkhead.active", this, Bulkhead::getActive).tag("name", name).register(Metrics.globalRegistry);
+        Gauge.builder("bulkhead.queue.depth", queued, AtomicInteger::get).tag("name", name).register(Metrics.globalRegistry);
+    }
+    
+    public <T, E extends Exception> T call(Task<T, E> task) throws E {
+        acquire();
+        try {
+            return task.run();
+        } finally {
+            release();
+        }
+    }
+    
+    public void run(Runnable task) {
+        call(() -> {
+            task.run();
+            return null;
+        });
+    }
+    
+    /**
+     * 不等待：有名额且不需要让位时立即获取，否则返回 false
+     */
+    public boolean tryAcquire() {
+        if (!mustYield() && permits.tryAcquire()) {
+            waitTimer.record(0, TimeUnit.NANOSECONDS);
+            return true;
+        }
+        return false;
+    }
+    
+    /**
+     * 排队获取名额，队列已满或等待超时抛出 BulkheadFullException
+     */
+    public void acquire() {
+        if (tryAcquire()) {
+            return;
+        }
+        if (queued.incrementAndGet() > maxQueue) {
+            queued.decrementAndGet();
+            throw reject("queue is full (" + maxQueue + ")");
+        }
+        long start = System.nanoTime();
+        long deadline = start + maxWait.toNanos();
+        try {
+            // 更高优先级的舱壁饱和时先不占用名额
+            while (mustYield()) {
+                if (System.nanoTime() >= deadline) {
+                    throw reject("yielded to higher priority work for " + maxWait.toMillis() + " ms");
+                }
+                LockSupport.parkNanos(YIELD_PARK_NANOS);
+            }
+            if (!permits.tryAcquire(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS)) {
+                throw reject("no permit within " + maxWait.toMillis() + " ms");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw reject("interrupted while waiting");
+        } finally {
+            queued.decrementAndGet();
+            waitTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+    
+    public void release() {
+        permits.release();
+    }
+    
+    private boolean mustYield() {
+        return yielding && registry.hasHigherPriorityPressure(priority);
+    }
+    
+    // 有调用在排队，或者名额已经用完
+    boolean isUnderPressure() {
+        return queued.get() > 0 || permits.availablePermits() == 0;
+    }
+    
+    public String getName() {
+        return name;
+    }
+    
+    public int getPriority() {
+        return priority;
+    }
+    
+    public int getActive() {
+        return maxConcurrent - permits.availablePermits();
+    }
+    
+    public int getQueueDepth() {
+        return queued.get();
+    }
+    
+    public Timer getWaitTimer() {
+        return waitTimer;
+    }
+    
+    private BulkheadFullException reject(String reason) {
+        rejectedCounter.increment();
+        long retryAfterSeconds = Math.max(1, maxWait.toSeconds());
+        return new BulkheadFullException("Bulkhead[" + name + "] " + reason, retryAfterSeconds);
+    }
+}
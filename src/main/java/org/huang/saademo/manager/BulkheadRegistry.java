@@ -0,0 +1,59 @@
+package org.huang.saademo.manager;
+
+import lombok.extern.slf4j.Slf4j;
+import org.huang.saademo.config.AdmissionConfig;
+import org.huang.saademo.config.BulkheadConfig;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 舱壁注册表：把交互式流、同步调用、上下文压缩、文档入库分到互相独立的舱壁中，各自限流、各自排队。
+ * interactive 舱壁优先级最高且不排队（满了由 AdmissionManager 直接返回 429），批处理类的舱壁（yield-to-higher-priority）按优先级让位。
+ */
+@Component
+@Slf4j
+public class BulkheadRegistry {
+    
+    private static final int INTERACTIVE_PRIORITY = 100;
+    
+    private final Map<String, Bulkhead> bulkheads = new ConcurrentHashMap<>();
+    
+    @Autowired
+    public BulkheadRegistry(BulkheadConfig config, AdmissionConfig admissionConfig) {
+        register(BulkheadConfig.INTERACTIVE, INTERACTIVE_PRIORITY, admissionConfig.getMaxConcurrentSessions(), 0, Duration.ZERO, false);
+        config.getSpecs().forEach((name, spec) ->
+                register(name, spec.getPriority(), spec.getMaxConcurrent(), spec.getMaxQueue(), spec.getMaxWait(), spec.isYieldToHigherPriority()));
+    }
+    
+    public Bulkhead get(String name) {
+        Bulkhead bulkhead = bulkheads.get(name);
+        if (bulkhead == null) {
+            throw new IllegalArgumentException("Unknown bulkhead: " + name);
+        }
+        return bulkhead;
+    }
+    
+    public List<Bulkhead> getAll() {
+        return List.copyOf(bulkheads.values());
+    }
+    
+    // 是否有优先级更高的舱壁正处于饱和状态
+    boolean hasHigherPriorityPressure(int priority) {
+        for (Bulkhead bulkhead : bulkheads.values()) {
+            if (bulkhead.getPriority() > priority && bulkhead.isUnderPressure()) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    private void register(String name, int priority, int maxConcurrent, int maxQueue, Duration maxWait, boolean yielding) {
+        bulkheads.put(name, new Bulkhead(name, priority, maxConcurrent, maxQueue, maxWait, yielding, this));
+        log.info("Bulkhead[{}]: priority={}, maxConcurrent={}, maxQueue={}, maxWait={}, yielding={}", name, priority, maxConcurrent, maxQueue, maxWait, yielding);
+    }
+}
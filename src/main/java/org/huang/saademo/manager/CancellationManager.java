@@ -0,0 +1,134 @@
+package org.huang.saademo.manager;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Metrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.Disposables;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 流式运行的取消控制：客户端断开后释放订阅（上游的 DashScope HTTP 流随之被中止），
+ * 句柄通过 RunnableConfig 的 metadata 传给子 Agent，CancellationModelInterceptor / CancellationToolInterceptor 据此跳过还没开始的模型和工具调用。
+ * 节省的 token 数按同类运行正常结束时输出 token 数的滑动平均估算：期望输出 - 取消时已经输出的部分。
+ */
+@Component
+@Slf4j
+public class CancellationManager {
+    
+    public static final String METADATA_KEY = "_stream_cancellation";
+    
+    private static final double OUTPUT_TOKENS_ALPHA = 0.2;
+    
+    // 每类运行（拓扑名、会话类型）正常结束时输出 token 数的滑动平均
+    private final Map<String, Double> avgOutputTokens = new ConcurrentHashMap<>();
+    private final AtomicInteger active = new AtomicInteger();
+    
+    private final Counter cancelledCounter;
+    private final Counter tokensSavedCounter;
+    
+    public CancellationManager() {
+        this.cancelledCounter = Counter.builder("stream.cancelled")
+                .description("Streaming runs cancelled because the client went away")
+                .register(Metrics.globalRegistry);
+        this.tokensSavedCounter = Counter.builder("stream.cancel.tokens.saved")
+                .description("Estimated output tokens not generated thanks to cancellation")
+                .register(Metrics.globalRegistry);
+        Gauge.builder("stream.active", active, AtomicInteger::get).register(Metrics.globalRegistry);
+    }
+    
+    public Handle open(String runType) {
+        active.incrementAndGet();
+        return new Handle(runType);
+    }
+    
+    /**
+     * 从模型/工具调用的 context（即 RunnableConfig 的 metadata）中取出当前运行的句柄，没有则返回 null
+     */
+    public static Handle handleOf(Map<String, Object> context) {
+        if (context == null) {
+            return null;
+        }
+        return context.get(METADATA_KEY) instanceof Handle handle ? handle : null;
+    }
+    
+    /**
+     * 模型输出按流式分片逐段分词，分片边界一般就是 token 边界
+     */
+    public static long estimateTokens(String text) {
+        return QwenTokenizer.getInstance().count(text);
+    }
+    
+    public double getAvgOutputTokens(String runType) {
+        return avgOutputTokens.getOrDefault(runType, 0.0);
+    }
+    
+    public int getActive() {
+        return active.get();
+    }
+    
+    /**
+     * 单次流式运行的取消句柄。subscription 由 VirtualThreadTaskExecutor.subscribe 填入，取消早于订阅时订阅一建立就会被释放
+     */
+    public final class Handle {
+        private final String runType;
+        private final Disposable.Swap subscription = Disposables.swap();
+        private final AtomicBoolean cancelled = new AtomicBoolean();
+        private final AtomicBoolean closed = new AtomicBoolean();
+        private final AtomicLong outputTokens = new AtomicLong();
+        
+        private Handle(String runType) {
+            this.runType = runType;
+        }
+        
+        public Disposable.Swap subscription() {
+            return subscription;
+        }
+        
+        public void recordOutput(String text) {
+            outputTokens.addAndGet(estimateTokens(text));
+        }
+        
+        /**
+         * 客户端断开时调用。运行已经结束则什么都不做，返回是否真正取消了运行
+         */
+        public boolean cancel() {
+            if (closed.get() || !cancelled.compareAndSet(false, true)) {
+                return false;
+            }
+            subscription.dispose();
+            long saved = Math.max(0, Math.round(getAvgOutputTokens(runType)) - outputTokens.get());
+            cancelledCounter.increment();
+            tokensSavedCounter.increment(saved);
+            log.info("Stream[{}] cancelled after {} output tokens, ~{} tokens saved", runType, outputTokens.get(), saved);
+            close(false);
+            return true;
+        }
+        
+        public boolean isCancelled() {
+            return cancelled.get();
+        }
+        
+        /**
+         * 运行结束（正常完成、出错或被取消）。只有正常完成的运行计入输出 token 的平均值
+         */
+        public void close(boolean completed) {
+            if (!closed.compareAndSet(false, true)) {
+                return;
+            }
+            active.decrementAndGet();
+            if (completed && !cancelled.get()) {
+                long tokens = outputTokens.get();
+                avgOutputTokens.merge(runType, (double) tokens,
+                        (avg, sample) -> avg + OUTPUT_TOKENS_ALPHA * (sample - avg));
+            }
+        }
+    }
+}
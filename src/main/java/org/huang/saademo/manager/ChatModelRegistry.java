@@ -0,0 +1,76 @@
+package org.huang.saademo.manager;
+
+import com.alibaba.cloud.ai.dashscope.api.DashScopeApi;
+import com.alibaba.cloud.ai.dashscope.chat.DashScopeChatModel;
+import com.alibaba.cloud.ai.dashscope.chat.DashScopeChatOptions;
+import lombok.extern.slf4j.Slf4j;
+import org.huang.saademo.config.ApiKeyConfig;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * ChatModel 单例注册表：按模型名称和选项缓存 DashScopeChatModel，所有模型共享同一个 DashScopeApi（底层连接池由 {@link DashScopeTransport} 提供）。
+ * DashScopeChatModel 本身是无状态的，每次调用的选项都由 Prompt 携带，因此可以安全地在多个请求、多个 Agent 之间复用。
+ */
+@Component
+@Slf4j
+public class ChatModelRegistry {
+    
+    private final ApiKeyConfig apiKeyConfig;
+    private final DashScopeTransport transport;
+    
+    // 所有模型共用一个 DashScopeApi，延迟到第一次使用时创建，避免启动时缺少 apiKey 导致应用无法启动
+    private volatile DashScopeApi dashScopeApi;
+    
+    // 常用路径：只按模型名称获取，避免每次都构建一个 DashScopeChatOptions 作为 key
+    private final ConcurrentHashMap<String, ChatModel> modelsByName = new ConcurrentHashMap<>();
+    
+    // 通用路径：按完整的选项获取，DashScopeChatOptions 实现了 equals/hashCode
+    private final ConcurrentHashMap<DashScopeChatOptions, ChatModel> modelsByOptions = new ConcurrentHashMap<>();
+    
+    @Autowired
+    public ChatModelRegistry(ApiKeyConfig apiKeyConfig, DashScopeTransport transport) {
+        this.apiKeyConfig = apiKeyConfig;
+        this.transport = transport;
+    }
+    
+    public ChatModel getChatModel(String modelName) {
+        return modelsByName.computeIfAbsent(modelName,
+                name -> getChatModel(DashScopeChatOptions.builder().model(name).build()));
+    }
+    
+    public ChatModel getChatModel(DashScopeChatOptions options) {
+        // 拷贝一份作为 key，防止调用方之后修改选项导致 key 的 hashCode 变化
+        DashScopeChatOptions key = DashScopeChatOptions.fromOptions(options);
+        return modelsByOptions.computeIfAbsent(key, this::createChatModel);
+    }
+    
+    public DashScopeApi getDashScopeApi() {
+        DashScopeApi api = dashScopeApi;
+        if (api == null) {
+            synchronized (this) {
+                api = dashScopeApi;
+                if (api == null) {
+                    api = transport.dashScopeApiBuilder().apiKey(apiKeyConfig.getQwenKey()).build();
+                    dashScopeApi = api;
+                }
+            }
+        }
+        return api;
+    }
+    
+    public int size() {
+        return modelsByOptions.size();
+    }
+    
+    private ChatModel createChatModel(DashScopeChatOptions options) {
+        log.info("ChatModelRegistry: creating chat model for: {}", options.getModel());
+        return DashScopeChatModel.builder()
+                .dashScopeApi(getDashScopeApi())
+                .defaultOptions(DashScopeChatOptions.fromOptions(options))
+                .build();
+    }
+}
@@ -0,0 +1,116 @@
+package org.huang.saademo.manager;
+
+import com.alibaba.cloud.ai.dashscope.api.DashScopeApi;
+import io.netty.channel.ChannelOption;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.huang.saademo.config.HttpTransportConfig;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.client.ReactorClientHttpRequestFactory;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.RestClient;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.netty.http.HttpProtocol;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+import reactor.netty.transport.AddressUtils;
+
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.util.Map;
+
+/**
+ * DashScope 出站 HTTP 传输层：所有 DashScopeApi（对话模型和向量模型）共用同一个 reactor-netty 连接池。
+ * 同步调用（RestClient）和流式调用（WebClient）都走这个连接池，连接可以在两者之间复用。
+ * 开启指标后，连接池会在 Micrometer 中注册 reactor.netty.connection.provider.* 指标，
+ * 其中 active/idle/pending/max.connections 用来观察连接池饱和度，pending.connections.time 是获取连接的等待耗时。
+ */
+@Component
+@Slf4j
+public class DashScopeTransport {
+    
+    public static final String POOL_NAME = "dashscope";
+    
+    private final ConnectionProvider connectionProvider;
+    private final HttpClient httpClient;
+    private final ReactorClientHttpRequestFactory requestFactory;
+    private final ReactorClientHttpConnector connector;
+    
+    @Autowired
+    public DashScopeTransport(HttpTransportConfig config) {
+        this.connectionProvider = buildConnectionProvider(config);
+        this.httpClient = buildHttpClient(connectionProvider, config);
+        this.requestFactory = new ReactorClientHttpRequestFactory(httpClient);
+        // RestClient 默认的读超时只有 10 秒，非流式调用等待整段输出时很容易超时，这里和流式保持一致
+        this.requestFactory.setReadTimeout(config.getResponseTimeout());
+        this.connector = new ReactorClientHttpConnector(httpClient);
+        log.info("DashScopeTransport: maxConnections={}, hostMaxConnections={}, http2={}",
+                config.getMaxConnections(), config.getHostMaxConnections(), config.isHttp2Enabled());
+    }
+    
+    /**
+     * 返回已经接入共享连接池的 DashScopeApi.Builder，调用方只需要再设置 apiKey（以及可选的 baseUrl）
+     */
+    public DashScopeApi.Builder dashScopeApiBuilder() {
+        // RestClient.Builder 和 WebClient.Builder 是可变的，每次都新建，底层的连接池是共享的
+        return DashScopeApi.builder()
+                .restClientBuilder(RestClient.builder().requestFactory(requestFactory))
+                .webClientBuilder(WebClient.builder().clientConnector(connector));
+    }
+    
+    public ConnectionProvider getConnectionProvider() {
+        return connectionProvider;
+    }
+    
+    @PreDestroy
+    public void close() {
+        connectionProvider.disposeLater().block(Duration.ofSeconds(5));
+    }
+    
+    private static ConnectionProvider buildConnectionProvider(HttpTransportConfig config) {
+        ConnectionProvider.Builder builder = ConnectionProvider.builder(POOL_NAME)
+                .maxConnections(config.getMaxConnections())
+                .pendingAcquireMaxCount(config.getPendingAcquireMaxCount())
+                .pendingAcquireTimeout(config.getPendingAcquireTimeout())
+                .maxIdleTime(config.getMaxIdleTime())
+                .maxLifeTime(config.getMaxLifeTime())
+                .metrics(config.isMetricsEnabled());
+        if (!config.getEvictionInterval().isZero()) {
+            builder.evictInBackground(config.getEvictionInterval());
+        }
+        for (Map.Entry<String, Integer> entry : config.getHostMaxConnections().entrySet()) {
+            InetSocketAddress address = parseHost(entry.getKey());
+            int maxConnections = entry.getValue();
+            // 主机级配置不会继承全局配置，需要逐项设置
+            builder.forRemoteHost(address, spec -> spec.maxConnections(maxConnections)
+                    .pendingAcquireMaxCount(config.getPendingAcquireMaxCount())
+                    .pendingAcquireTimeout(config.getPendingAcquireTimeout())
+                    .maxIdleTime(config.getMaxIdleTime())
+                    .maxLifeTime(config.getMaxLifeTime())
+                    .metrics(config.isMetricsEnabled()));
+        }
+        return builder.build();
+    }
+    
+    private static HttpClient buildHttpClient(ConnectionProvider provider, HttpTransportConfig config) {
+        HttpClient client = HttpClient.create(provider)
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, (int) config.getConnectTimeout().toMillis())
+                .option(ChannelOption.SO_KEEPALIVE, true)
+                .responseTimeout(config.getResponseTimeout());
+        if (config.isHttp2Enabled()) {
+            // https 下通过 ALPN 协商，多个流式请求可以复用同一条连接；http 地址仍然使用 HTTP/1.1
+            client = client.protocol(HttpProtocol.H2, HttpProtocol.HTTP11);
+        }
+        return client;
+    }
+    
+    // host:port -> 远端地址，和 reactor-netty 根据请求 URI 生成的地址保持一致，主机级配置才能匹配上
+    private static InetSocketAddress parseHost(String hostAndPort) {
+        int index = hostAndPort.lastIndexOf(':');
+        if (index <= 0) {
+            throw new IllegalArgumentException("dashscope.transport.host-max-connections key must be host:port, but was: " + hostAndPort);
+        }
+        return AddressUtils.createUnresolved(hostAndPort.substring(0, index), Integer.parseInt(hostAndPort.substring(index + 1)));
+    }
+}
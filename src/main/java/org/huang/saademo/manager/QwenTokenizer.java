@@ -0,0 +1,673 @@
+package org.huang.saademo.manager;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * 通义千问（Qwen）的 BPE 分词器，编码结果与 DashScope SDK 的 QwenTokenizer.encodeOrdinary 相同，用于精确计算上下文的 token 数。
+ * 词表 tokenizer/qwen.tiktoken 取自 dashscope-sdk-java，每行是 base64 编码的 token 字节和它的 rank（也就是 token id），rank 越小越先合并。
+ * <ul>
+ *     <li>预分词：手写的扫描器按码点逐个判断，切分结果与 Qwen 的预分词正则相同，不经过 Matcher 和 substring</li>
+ *     <li>词表索引：所有 token 的字节序列建成一个双数组 trie，每个节点的 base、check 和 rank 相邻存放在同一个 int 数组里，每走一个字节只访问一处内存；
+ *     两个字节组成的段再用一张 64K 的表直接查到节点</li>
+ *     <li>合并：整个片段本身就是 token 时直接返回（英文单词大多如此）；否则拆成单字节，用小根堆按 rank（相同时取最左边）反复合并相邻两段，
+ *     长的中文片段也是 O(n log n)。每段记住自己在 trie 中的节点，计算与下一段合并后的 rank 时只需从这个节点继续走下一段的字节</li>
+ * </ul>
+ * 编码用到的缓冲区从一个按线程分槽的小池子里借用，稳定后 {@link #count} 不分配对象。特殊 token（&lt;|im_start|&gt; 等）按普通文本处理。
+ * 线程安全，词表在第一次使用时加载。
+ */
+@Slf4j
+public final class QwenTokenizer {
+    
+    public static final String VOCABULARY = "tokenizer/qwen.tiktoken";
+    // 特殊 token 排在普通 token 之后：<|endoftext|>、<|im_start|>、<|im_end|>、<|extra_0|> ... <|extra_204|>
+    public static final int ENDOFTEXT = 151643;
+    public static final int IM_START = 151644;
+    public static final int IM_END = 151645;
+    private static final int EXTRA_TOKENS = 205;
+    
+    // 预分词的字符类别：\p{L}、\p{N}、除换行外的 \s、\r\n、其余字符
+    private static final byte OTHER = 0;
+    private static final byte LETTER = 1;
+    private static final byte NUMBER = 2;
+    private static final byte SPACE = 3;
+    private static final byte NEWLINE = 4;
+    private static final byte[] ASCII_CLASSES = new byte[128];
+    
+    private static final int POOL_SIZE = 64;
+    // 超过这个长度的缓冲区用完后不放回池子
+    private static final int MAX_POOLED_BYTES = 1 << 16;
+    
+    static {
+        for (int c = 0; c < 128; c++) {
+            ASCII_CLASSES[c] = Character.isLetter(c) ? LETTER : Character.isDigit(c) ? NUMBER : OTHER;
+        }
+        for (char c : new char[]{' ', '\t', '\u000B', '\f'}) {
+            ASCII_CLASSES[c] = SPACE;
+        }
+        ASCII_CLASSES['\r'] = NEWLINE;
+        ASCII_CLASSES['\n'] = NEWLINE;
+    }
+    
+    // 按 rank 排列的 token 字节：第 i 个 token 是 tokenBytes[offsets[i], offsets[i + 1])
+    private final byte[] tokenBytes;
+    private final int[] offsets;
+    // 双数组 trie，节点 s 占 trie[3s, 3s + 3)：base、check、rank。从节点 s 经过字节 b 到达 t = base(s) + b + 1，要求 check(t) == s；
+    // rank(t) 是以 t 结尾的 token 的 rank，没有则为 -1
+    private final int[] trie;
+    private final int slots;
+    // 两个字节 b1 b2 对应的节点：bytePairs[b1 << 8 | b2]，不存在则为 -1
+    private final int[] bytePairs = new int[1 << 16];
+    private final AtomicReferenceArray<Scratch> pool = new AtomicReferenceArray<>(POOL_SIZE);
+    
+    private QwenTokenizer(byte[] tokenBytes, int[] offsets) {
+        this.tokenBytes = tokenBytes;
+        this.offsets = offsets;
+        TrieBuilder builder = new TrieBuilder(tokenBytes, offsets);
+        this.slots = builder.check.length;
+        this.trie = new int[slots * 3];
+        for (int i = 0; i < slots; i++) {
+            trie[3 * i] = builder.base[i];
+            trie[3 * i + 1] = builder.check[i];
+            trie[3 * i + 2] = builder.ranks[i];
+        }
+        byte[] pair = new byte[2];
+        for (int i = 0; i < bytePairs.length; i++) {
+            pair[0] = (byte) (i >> 8);
+            pair[1] = (byte) i;
+            bytePairs[i] = walk(0, pair, 0, 2);
+        }
+    }
+    
+    public static QwenTokenizer getInstance() {
+        return Holder.INSTANCE;
+    }
+    
+    /**
+     * 普通 token 的个数，不含特殊 token
+     */
+    public int getVocabularySize() {
+        return offsets.length - 1;
+    }
+    
+    /**
+     * text 的 token 数，等于 encode(text).length，但不创建结果数组
+     */
+    public int count(CharSequence text) {
+        if (text == null || text.isEmpty()) {
+            return 0;
+        }
+        Scratch scratch = borrow();
+        try {
+            return encode(text, scratch, null);
+        } finally {
+            release(scratch);
+        }
+    }
+    
+    public int[] encode(CharSequence text) {
+        if (text == null || text.isEmpty()) {
+            return new int[0];
+        }
+        IntList out = new IntList(text.length() / 2 + 8);
+        Scratch scratch = borrow();
+        try {
+            encode(text, scratch, out);
+        } finally {
+            release(scratch);
+        }
+        return Arrays.copyOf(out.values, out.size);
+    }
+    
+    public String decode(int[] tokens) {
+        ByteBuffer buffer = ByteBuffer.allocate(tokens.length * 4 + 16);
+        for (int token : tokens) {
+            byte[] bytes;
+            int from;
+            int length;
+            if (token >= 0 && token < getVocabularySize()) {
+                bytes = tokenBytes;
+                from = offsets[token];
+                length = offsets[token + 1] - from;
+            } else {
+                bytes = specialToken(token).getBytes(StandardCharsets.UTF_8);
+                from = 0;
+                length = bytes.length;
+            }
+            if (buffer.remaining() < length) {
+                buffer = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + length)).put(buffer.flip());
+            }
+            buffer.put(bytes, from, length);
+        }
+        return new String(buffer.array(), 0, buffer.position(), StandardCharsets.UTF_8);
+    }
+    
+    private String specialToken(int token) {
+        return switch (token - ENDOFTEXT) {
+            case 0 -> "<|endoftext|>";
+            case 1 -> "<|im_start|>";
+            case 2 -> "<|im_end|>";
+            default -> {
+                int extra = token - IM_END - 1;
+                if (extra < 0 || extra >= EXTRA_TOKENS) {
+                    throw new IllegalArgumentException("Unknown token id: " + token);
+                }
+                yield "<|extra_" + extra + "|>";
+            }
+        };
+    }
+    
+    // 逐个片段编码，返回 token 数；out 为 null 时只计数
+    private int encode(CharSequence text, Scratch scratch, IntList out) {
+        int length = text.length();
+        int tokens = 0;
+        for (int start = 0; start < length; ) {
+            int end = pieceEnd(text, start, length);
+            int size = utf8(text, start, end, scratch);
+            tokens += mergePiece(scratch, size, out);
+            start = end;
+        }
+        return tokens;
+    }
+    
+    /**
+     * 从 start 开始的片段的结束位置，依次对应 Qwen 预分词正则的各个分支：
+     * (?i:'s|'t|'re|'ve|'m|'ll|'d)|[^\r\n\p{L}\p{N}]?\p{L}+|\p{N}| ?[^\s\p{L}\p{N}]+[\r\n]*|\s*[\r\n]+|\s+(?!\S)|\s+
+     * 与 java.util.regex 的默认行为一致，\s 只包含 ASCII 空白，(?i) 只忽略 ASCII 字母的大小写
+     */
+    static int pieceEnd(CharSequence text, int start, int length) {
+        int c = Character.codePointAt(text, start);
+        int next = start + Character.charCount(c);
+        byte type = classOf(c);
+        if (c == '\'' && next < length) {
+            int end = contractionEnd(text, next, length);
+            if (end > 0) {
+                return end;
+            }
+        }
+        if (type == LETTER) {
+            return skip(text, next, length, LETTER);
+        }
+        if (type != NEWLINE && type != NUMBER && next < length && classAt(text, next) == LETTER) {
+            return skip(text, next, length, LETTER);
+        }
+        if (type == NUMBER) {
+            return next;
+        }
+        if (type == OTHER) {
+            return skip(text, skip(text, next, length, OTHER), length, NEWLINE);
+        }
+        if (c == ' ' && next < length && classAt(text, next) == OTHER) {
+            return skip(text, skip(text, next, length, OTHER), length, NEWLINE);
+        }
+        // 空白：连续的 ASCII 空白里有换行时到最后一个换行为止；否则后面还有非空白字符时留下最后一个空白给下一个片段
+        int end = start;
+        int lastNewline = -1;
+        while (end < length) {
+            char ch = text.charAt(end);
+            if (ch >= 128 || ASCII_CLASSES[ch] < SPACE) {
+                break;
+            }
+            if (ch == '\r' || ch == '\n') {
+                lastNewline = end;
+            }
+            end++;
+        }
+        if (lastNewline >= 0) {
+            return lastNewline + 1;
+        }
+        return end == length || end - start == 1 ? end : end - 1;
+    }
+    
+    private static int contractionEnd(CharSequence text, int from, int length) {
+        int c = text.charAt(from) | 0x20;
+        if (c == 's' || c == 't' || c == 'm' || c == 'd') {
+            return from + 1;
+        }
+        if (from + 1 < length) {
+            int following = text.charAt(from + 1) | 0x20;
+            if ((c == 'r' || c == 'v') && following == 'e' || c == 'l' && following == 'l') {
+                return from + 2;
+            }
+        }
+        return -1;
+    }
+    
+    private static int skip(CharSequence text, int from, int length, byte type) {
+        while (from < length) {
+            int c = Character.codePointAt(text, from);
+            if (classOf(c) != type) {
+                break;
+            }
+            from += Character.charCount(c);
+        }
+        return from;
+    }
+    
+    private static byte classAt(CharSequence text, int index) {
+        return classOf(Character.codePointAt(text, index));
+    }
+    
+    private static byte classOf(int c) {
+        if (c < 128) {
+            return ASCII_CLASSES[c];
+        }
+        return switch (Character.getType(c)) {
+            case Character.UPPERCASE_LETTER, Character.LOWERCASE_LETTER, Character.TITLECASE_LETTER,
+                 Character.MODIFIER_LETTER, Character.OTHER_LETTER -> LETTER;
+            case Character.DECIMAL_DIGIT_NUMBER, Character.LETTER_NUMBER, Character.OTHER_NUMBER -> NUMBER;
+            default -> OTHER;
+        };
+    }
+    
+    // 片段按 UTF-8 编码进 scratch.bytes，返回字节数；单独的代理字符与 String.getBytes 一样替换成 '?'
+    private static int utf8(CharSequence text, int start, int end, Scratch scratch) {
+        byte[] bytes = scratch.bytes((end - start) * 3);
+        int size = 0;
+        for (int i = start; i < end; i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                bytes[size++] = (byte) c;
+            } else if (c < 0x800) {
+                bytes[size++] = (byte) (0xC0 | (c >> 6));
+                bytes[size++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < end && Character.isLowSurrogate(text.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, text.charAt(++i));
+                bytes[size++] = (byte) (0xF0 | (codePoint >> 18));
+                bytes[size++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                bytes[size++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                bytes[size++] = (byte) (0x80 | (codePoint & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                bytes[size++] = '?';
+            } else {
+                bytes[size++] = (byte) (0xE0 | (c >> 12));
+                bytes[size++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                bytes[size++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        return size;
+    }
+    
+    /**
+     * 一个片段的 BPE：段用链表串起来（next / prev 以段的起始字节为下标），nodes[i] 是段 i 在 trie 中的节点，
+     * pairs[i] / pairNodes[i] 是段 i 与下一段合并后的 rank 和节点。
+     * 堆里的元素是 rank << 32 | i，弹出最小的，pairs[i] 已经变了（段被合并或 rank 被重新计算）的是过期元素，直接跳过
+     */
+    private int mergePiece(Scratch scratch, int size, IntList out) {
+        byte[] bytes = scratch.bytes;
+        int whole = walk(0, bytes, 0, size);
+        if (whole >= 0 && rankOf(whole) >= 0) {
+            if (out != null) {
+                out.add(rankOf(whole));
+            }
+            return 1;
+        }
+        scratch.parts(size);
+        int[] next = scratch.next;
+        int[] prev = scratch.prev;
+        int[] nodes = scratch.nodes;
+        int[] pairs = scratch.pairs;
+        int[] pairNodes = scratch.pairNodes;
+        scratch.heapSize = 0;
+        for (int i = 0; i < size; i++) {
+            next[i] = i + 1;
+            prev[i] = i - 1;
+            // 每个字节都是一个 token
+            nodes[i] = trie[0] + (bytes[i] & 0xFF) + 1;
+            int node = i + 1 < size ? bytePairs[(bytes[i] & 0xFF) << 8 | bytes[i + 1] & 0xFF] : -1;
+            pairs[i] = node < 0 ? -1 : rankOf(node);
+            pairNodes[i] = node;
+            if (pairs[i] >= 0) {
+                scratch.push(pairs[i], i);
+            }
+        }
+        int parts = size;
+        while (scratch.heapSize > 0) {
+            long top = scratch.pop();
+            int i = (int) top;
+            if (pairs[i] != (int) (top >>> 32)) {
+                continue;
+            }
+            int merged = next[i];
+            int following = next[merged];
+            next[i] = following;
+            if (following < size) {
+                prev[following] = i;
+            }
+            nodes[i] = pairNodes[i];
+            pairs[merged] = -1;
+            parts--;
+            pair(scratch, i, size);
+            if (prev[i] >= 0) {
+                pair(scratch, prev[i], size);
+            }
+        }
+        if (out != null) {
+            for (int i = 0; i < size; i = next[i]) {
+                out.add(rankOf(nodes[i]));
+            }
+        }
+        return parts;
+    }
+    
+    // 段 i 与下一段合并后的 rank：从段 i 的节点继续走下一段的字节，能合并时压入堆
+    private void pair(Scratch scratch, int i, int size) {
+        int right = scratch.next[i];
+        int node = right < size ? walk(scratch.nodes[i], scratch.bytes, right, scratch.next[right]) : -1;
+        int rank = node < 0 ? -1 : rankOf(node);
+        scratch.pairs[i] = rank;
+        scratch.pairNodes[i] = node;
+        if (rank >= 0) {
+            scratch.push(rank, i);
+        }
+    }
+    
+    // 从 node 出发依次走过 bytes[from, to)，返回到达的节点，中途走不通返回 -1
+    private int walk(int node, byte[] bytes, int from, int to) {
+        int[] trie = this.trie;
+        for (int i = from; i < to; i++) {
+            int target = trie[node * 3] + (bytes[i] & 0xFF) + 1;
+            if (target >= slots || trie[target * 3 + 1] != node) {
+                return -1;
+            }
+            node = target;
+        }
+        return node;
+    }
+    
+    private int rankOf(int node) {
+        return trie[node * 3 + 2];
+    }
+    
+    private Scratch borrow() {
+        Scratch scratch = pool.getAndSet(slot(), null);
+        return scratch != null ? scratch : new Scratch();
+    }
+    
+    private void release(Scratch scratch) {
+        if (scratch.bytes.length <= MAX_POOLED_BYTES) {
+            pool.lazySet(slot(), scratch);
+        }
+    }
+    
+    private static int slot() {
+        return (int) (Thread.currentThread().threadId() & (POOL_SIZE - 1));
+    }
+    
+    private static QwenTokenizer load() {
+        long started = System.nanoTime();
+        byte[] file;
+        try (InputStream in = QwenTokenizer.class.getClassLoader().getResourceAsStream(VOCABULARY)) {
+            if (in == null) {
+                throw new IllegalStateException("Tokenizer vocabulary not found on classpath: " + VOCABULARY);
+            }
+            file = in.readAllBytes();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read tokenizer vocabulary " + VOCABULARY, e);
+        }
+        Base64.Decoder decoder = Base64.getDecoder();
+        ByteBuffer bytes = ByteBuffer.allocate(file.length);
+        int[] offsets = new int[ENDOFTEXT + 1];
+        int count = 0;
+        for (int lineStart = 0; lineStart < file.length; ) {
+            int lineEnd = lineStart;
+            while (lineEnd < file.length && file[lineEnd] != '\n') {
+                lineEnd++;
+            }
+            int space = lineStart;
+            while (space < lineEnd && file[space] != ' ') {
+                space++;
+            }
+            if (lineEnd > lineStart) {
+                int rank = 0;
+                for (int i = space + 1; i < lineEnd && file[i] >= '0' && file[i] <= '9'; i++) {
+                    rank = rank * 10 + file[i] - '0';
+                }
+                // ranks 必须从 0 开始连续，token id 就是行号
+                if (space == lineEnd || rank != count || count == ENDOFTEXT) {
+                    throw new IllegalStateException("Unexpected rank " + rank + " at line " + (count + 1) + " of " + VOCABULARY);
+                }
+                offsets[count++] = bytes.position();
+                bytes.put(decoder.decode(Arrays.copyOfRange(file, lineStart, space)));
+            }
+            lineStart = lineEnd + 1;
+        }
+        if (count != ENDOFTEXT) {
+            throw new IllegalStateException("Expected " + ENDOFTEXT + " tokens in " + VOCABULARY + " but found " + count);
+        }
+        offsets[count] = bytes.position();
+        QwenTokenizer tokenizer = new QwenTokenizer(Arrays.copyOf(bytes.array(), bytes.position()), offsets);
+        log.info("Qwen tokenizer loaded: {} tokens, {} trie slots in {} ms", count, tokenizer.slots,
+                (System.nanoTime() - started) / 1_000_000);
+        return tokenizer;
+    }
+    
+    private static final class Holder {
+        private static final QwenTokenizer INSTANCE = load();
+    }
+    
+    /**
+     * 双数组 trie 的构建：从根节点开始，把共享同一个前缀的 token 按下一个字节做计数排序分成若干组，每组是一个子节点，
+     * 为一个节点的所有子节点找一组空位后再逐个递归
+     */
+    private static final class TrieBuilder {
+        private final byte[] tokenBytes;
+        private final int[] offsets;
+        // token id，递归到每个节点时 order[from, to) 就是以该节点为前缀的 token
+        private final int[] order;
+        private final int[] sorted;
+        private int[] base = new int[1 << 20];
+        private int[] check = new int[1 << 20];
+        private int[] ranks = new int[1 << 20];
+        // 每一层的子节点字节和对应的 order 区间，递归时按深度复用
+        private int[][] labels = new int[0][];
+        private int[][] starts = new int[0][];
+        private final int[] counts = new int[257];
+        // 在此之前的位置都已经被占用
+        private int firstFree = 1;
+        private int used;
+        
+        private TrieBuilder(byte[] tokenBytes, int[] offsets) {
+            this.tokenBytes = tokenBytes;
+            this.offsets = offsets;
+            int count = offsets.length - 1;
+            order = new int[count];
+            sorted = new int[count];
+            for (int i = 0; i < count; i++) {
+                order[i] = i;
+            }
+            Arrays.fill(check, -1);
+            Arrays.fill(ranks, -1);
+            check[0] = 0;
+            insert(0, 0, count, 0);
+            base = Arrays.copyOf(base, used + 1);
+            check = Arrays.copyOf(check, used + 1);
+            ranks = Arrays.copyOf(ranks, used + 1);
+        }
+        
+        // order[from, to) 的 token 有共同的长度为 depth 的前缀，对应节点 node
+        private void insert(int node, int from, int to, int depth) {
+            // 前缀本身也是 token 时它是这一段里唯一长度为 depth 的
+            for (int i = from; i < to; i++) {
+                if (length(order[i]) == depth) {
+                    ranks[node] = order[i];
+                    order[i] = order[from++];
+                    break;
+                }
+            }
+            if (from == to) {
+                return;
+            }
+            Arrays.fill(counts, 0);
+            for (int i = from; i < to; i++) {
+                counts[(tokenBytes[offsets[order[i]] + depth] & 0xFF) + 1]++;
+            }
+            for (int i = 1; i < counts.length; i++) {
+                counts[i] += counts[i - 1];
+            }
+            for (int i = from; i < to; i++) {
+                int token = order[i];
+                sorted[from + counts[tokenBytes[offsets[token] + depth] & 0xFF]++] = token;
+            }
+            System.arraycopy(sorted, from, order, from, to - from);
+            if (depth == labels.length) {
+                labels = Arrays.copyOf(labels, depth + 16);
+                starts = Arrays.copyOf(starts, depth + 16);
+            }
+            if (labels[depth] == null) {
+                labels[depth] = new int[256];
+                starts[depth] = new int[257];
+            }
+            int[] labels = this.labels[depth];
+            int[] starts = this.starts[depth];
+            int children = 0;
+            for (int i = from; i < to; i++) {
+                int label = tokenBytes[offsets[order[i]] + depth] & 0xFF;
+                if (children == 0 || labels[children - 1] != label) {
+                    labels[children] = label;
+                    starts[children++] = i;
+                }
+            }
+            starts[children] = to;
+            int nodeBase = findBase(labels, children);
+            base[node] = nodeBase;
+            for (int i = 0; i < children; i++) {
+                int slot = nodeBase + labels[i] + 1;
+                check[slot] = node;
+                used = Math.max(used, slot);
+            }
+            while (check[firstFree] != -1) {
+                firstFree++;
+            }
+            for (int i = 0; i < children; i++) {
+                insert(nodeBase + labels[i] + 1, starts[i], starts[i + 1], depth + 1);
+            }
+        }
+        
+        private int findBase(int[] labels, int children) {
+            int first = labels[0] + 1;
+            for (int slot = Math.max(firstFree, first); ; slot++) {
+                ensure(slot - first + 257);
+                if (check[slot] != -1) {
+                    continue;
+                }
+                int candidate = slot - first;
+                boolean fits = true;
+                for (int i = 1; i < children && fits; i++) {
+                    fits = check[candidate + labels[i] + 1] == -1;
+                }
+                if (fits) {
+                    return candidate;
+                }
+            }
+        }
+        
+        private void ensure(int capacity) {
+            if (capacity > check.length) {
+                int size = Math.max(capacity, check.length * 2);
+                int old = check.length;
+                base = Arrays.copyOf(base, size);
+                check = Arrays.copyOf(check, size);
+                ranks = Arrays.copyOf(ranks, size);
+                Arrays.fill(check, old, size, -1);
+                Arrays.fill(ranks, old, size, -1);
+            }
+        }
+        
+        private int length(int token) {
+            return offsets[token + 1] - offsets[token];
+        }
+    }
+    
+    /**
+     * 一次编码用到的可复用缓冲区，不够时按需扩大
+     */
+    private static final class Scratch {
+        private byte[] bytes = new byte[256];
+        private int[] next = new int[256];
+        private int[] prev = new int[256];
+        private int[] nodes = new int[256];
+        private int[] pairs = new int[256];
+        private int[] pairNodes = new int[256];
+        private long[] heap = new long[768];
+        private int heapSize;
+        
+        private byte[] bytes(int capacity) {
+            if (capacity > bytes.length) {
+                bytes = new byte[Math.max(capacity, bytes.length * 2)];
+            }
+            return bytes;
+        }
+        
+        // 每次合并最多压入两个元素，堆的容量为 3 倍
+        private void parts(int size) {
+            if (size > next.length) {
+                int capacity = Math.max(size, next.length * 2);
+                next = new int[capacity];
+                prev = new int[capacity];
+                nodes = new int[capacity];
+                pairs = new int[capacity];
+                pairNodes = new int[capacity];
+                heap = new long[capacity * 3];
+            }
+        }
+        
+        private void push(int rank, int index) {
+            long value = (long) rank << 32 | index;
+            int i = heapSize++;
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (heap[parent] <= value) {
+                    break;
+                }
+                heap[i] = heap[parent];
+                i = parent;
+            }
+            heap[i] = value;
+        }
+        
+        private long pop() {
+            long top = heap[0];
+            long last = heap[--heapSize];
+            int i = 0;
+            int half = heapSize >>> 1;
+            while (i < half) {
+                int child = 2 * i + 1;
+                if (child + 1 < heapSize && heap[child + 1] < heap[child]) {
+                    child++;
+                }
+                if (last <= heap[child]) {
+                    break;
+                }
+                heap[i] = heap[child];
+                i = child;
+            }
+            heap[i] = last;
+            return top;
+        }
+    }
+    
+    private static final class IntList {
+        private int[] values;
+        private int size;
+        
+        private IntList(int capacity) {
+            this.values = new int[capacity];
+        }
+        
+        private void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+    }
+}
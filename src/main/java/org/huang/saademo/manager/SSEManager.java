@@ -1,20 +1,93 @@
 package org.huang.saademo.manager;
 
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Metrics;
 import lombok.extern.slf4j.Slf4j;
+import org.huang.saademo.config.SseHeartbeatConfig;
+import org.huang.saademo.config.SseOutboundConfig;
+import org.huang.saademo.config.SseReplayConfig;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.WeakHashMap;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
+/**
+ * SSE 连接管理。发送事件只是放进连接自己的出站队列（SseOutboundQueue），由写线程执行阻塞的 send，
+ * 慢客户端不会拖住投递模型输出的 Reactor 线程；队列满时按 sse.outbound.overflow-policy 处理。
+ * 事件经过 SSEManager 发送的连接，也要通过 {@link #complete} / {@link #completeWithError} 结束，保证已入队的事件先发出去。
+ * 每个事件都带有单调递增的 ID，并按会话记录在回放缓冲中（sse.replay），客户端带 Last-Event-ID 重连时通过 {@link #replay} 补发。
+ * 所有创建出来的连接（包括不绑定会话的）都挂在一个心跳时间轮上，由唯一的调度线程定期检查：静默的连接发注释帧保活，
+ * 超过 sse.heartbeat.idle-ttl 没有事件的连接被回收；回放缓冲的过期清理也在这个线程上执行。
+ * 多节点部署时（sse.cluster.enabled），本节点没有连接的会话事件通过 SseClusterRelay 转发给持有连接的节点。
+ * 一个连接也可以通过 {@link #multiplex} 变成多路复用连接，再用 {@link #attach} 把多个会话挂上去，每个会话是连接上的一个频道（见 SseChannelMux）。
+ */
 @Component
 @Slf4j
-public class SSEManager {
+public class SSEManager implements DisposableBean {
     private Map<String, SseEmitter> sseHolder = new ConcurrentHashMap<>();
+    // 被同一会话的新连接替换掉的旧连接，关闭它们不算客户端断开；弱引用，连接对象回收后自动移除
+    private final Set<SseEmitter> replaced = Collections.synchronizedSet(Collections.newSetFromMap(new WeakHashMap<>()));
+    // 每个连接的出站队列，SseEmitter 没有重写 equals，按实例区分
+    private final Map<SseEmitter, SseOutboundQueue> outboundQueues = new ConcurrentHashMap<>();
+    // 写线程：每次排空队列占用一个虚拟线程，队列空了就退出
+    private final ExecutorService writer = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("sse-writer-", 0).factory());
+    // 出站队列已经结束的连接，之后的事件只记录到回放缓冲，不再为它创建队列
+    private final Set<SseEmitter> closedEmitters = Collections.synchronizedSet(Collections.newSetFromMap(new WeakHashMap<>()));
+    // 多路复用连接，分别按物理连接和连接 ID 索引
+    private final Map<SseEmitter, SseChannelMux> multiplexed = new ConcurrentHashMap<>();
+    private final Map<String, SseChannelMux> multiplexedById = new ConcurrentHashMap<>();
+    private final SseOutboundConfig outboundConfig;
+    private final SseReplayStore replayStore;
+    private final SseHeartbeatConfig heartbeatConfig;
+    private final SseHeartbeatWheel<TrackedEmitter> heartbeatWheel;
+    // 心跳、空闲回收、回放缓冲清理共用的唯一调度线程
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(
+            Thread.ofPlatform().name("sse-heartbeat").daemon().factory());
+    private final AtomicInteger liveConnections = new AtomicInteger();
+    // 开启 sse.cluster 时由 SseClusterRelay 注入
+    private volatile SseClusterRelay relay;
+    
+    private final Counter heartbeatCounter;
+    private final Counter idleEvictedCounter;
+    private final Counter writeFailedEvictedCounter;
+    
+    @Autowired
+    public SSEManager(SseOutboundConfig outboundConfig, SseReplayConfig replayConfig, SseHeartbeatConfig heartbeatConfig) {
+        this.outboundConfig = outboundConfig;
+        this.replayStore = new SseReplayStore(replayConfig);
+        this.heartbeatConfig = heartbeatConfig;
+        long tickMillis = Math.max(1, heartbeatConfig.getTick().toMillis());
+        this.heartbeatWheel = new SseHeartbeatWheel<>((int) Math.max(1, heartbeatConfig.getInterval().toMillis() / tickMillis));
+        this.heartbeatCounter = Counter.builder("sse.heartbeat.sent").register(Metrics.globalRegistry);
+        this.idleEvictedCounter = Counter.builder("sse.evicted").tag("reason", "idle").register(Metrics.globalRegistry);
+        this.writeFailedEvictedCounter = Counter.builder("sse.evicted").tag("reason", "write-failed").register(Metrics.globalRegistry);
+        Gauge.builder("sse.outbound.queues", outboundQueues, Map::size).register(Metrics.globalRegistry);
+        Gauge.builder("sse.connections.live", liveConnections, AtomicInteger::get).register(Metrics.globalRegistry);
+        
+        if (heartbeatConfig.isEnabled()) {
+            scheduler.scheduleAtFixedRate(this::tick, tickMillis, tickMillis, TimeUnit.MILLISECONDS);
+        }
+        long sweepMillis = Math.max(1000, replayConfig.getTtl().toMillis() / 4);
+        scheduler.scheduleAtFixedRate(replayStore::evictExpired, sweepMillis, sweepMillis, TimeUnit.MILLISECONDS);
+    }
     
     public SseEmitter createEmitter(){
-        SseEmitter emitter = new SseEmitter(10 * 60 * 1000L); // 10分钟超时
+        SseEmitter emitter = track(new TrackedEmitter(10 * 60 * 1000L, null)); // 10分钟超时
         
         emitter.onCompletion(() -> log.info("SSE completed"));
         emitter.onTimeout(() -> {
@@ -27,28 +100,66 @@ public class SSEManager {
     }
     
     public SseEmitter createEmitter(String sessionId) {
-        SseEmitter emitter = new SseEmitter(10 * 60 * 1000L); // 10分钟超时
-        
+        return register(sessionId, track(new TrackedEmitter(10 * 60 * 1000L, sessionId))); // 10分钟超时
+    }
+    
+    /**
+     * 把一个连接变成多路复用连接，返回连接 ID。连接上的第一帧是 [CONNECTION]，客户端之后带着连接 ID 通过 {@link #attach} 挂载会话
+     */
+    public String multiplex(SseEmitter connection) {
+        SseChannelMux mux = new SseChannelMux(UUID.randomUUID().toString(), () -> queue(connection, null));
+        multiplexed.put(connection, mux);
+        multiplexedById.put(mux.getId(), mux);
+        connection.onCompletion(() -> closeMultiplexed(connection));
+        connection.onTimeout(() -> closeMultiplexed(connection));
+        connection.onError(e -> closeMultiplexed(connection));
+        mux.announce();
+        log.info("SSE connection {} multiplexed", mux.getId());
+        return mux.getId();
+    }
+    
+    /**
+     * 把会话挂到多路复用连接上，返回代表这个会话的频道，之后像普通连接一样用它发送和结束事件；连接不存在或已经关闭时返回 null。
+     * 会话已有的连接（普通连接或另一个频道）被替换
+     */
+    public SseEmitter attach(String connectionId, String sessionId) {
+        SseChannelMux mux = multiplexedById.get(connectionId);
+        SseChannelMux.Channel channel = mux == null ? null : mux.open(sessionId);
+        if (channel == null) {
+            return null;
+        }
+        return register(sessionId, channel);
+    }
+    
+    private SseEmitter register(String sessionId, SseEmitter emitter) {
         // 关键点：使用 remove(k, v) 而不是 remove(k)
         emitter.onCompletion(() -> {
             log.info("SSE completed for session: {}", sessionId);
-            sseHolder.remove(sessionId, emitter);
+            release(sessionId, emitter);
         });
         
         emitter.onTimeout(() -> {
             log.warn("SSE timeout for session: {}", sessionId);
-            sseHolder.remove(sessionId, emitter);
+            release(sessionId, emitter);
             emitter.complete();
         });
         
         emitter.onError((e) -> {
             log.error("SSE error for session: {}, error: {}", sessionId, e.getMessage());
-            sseHolder.remove(sessionId, emitter);
+            release(sessionId, emitter);
         });
         
         SseEmitter oldEmitter = sseHolder.put(sessionId, emitter);
+        SseClusterRelay clusterRelay = relay;
+        if (clusterRelay != null) {
+            clusterRelay.listen(sessionId);
+        }
         if (oldEmitter != null) {
             log.info("SSE Session[{}]: Old connection replaced", sessionId);
+            replaced.add(oldEmitter);
+            if (oldEmitter instanceof TrackedEmitter tracked) {
+                markClosed(tracked);
+            }
             try {
                 oldEmitter.complete(); // 显式关闭旧连接，释放资源
             } catch (Exception ignored) {}
@@ -58,36 +169,48 @@ public class SSEManager {
         return emitter;
     }
     
+    /**
+     * 连接结束（超时、出错、关闭）时执行 action，用于取消还在运行的上游流；被同一会话的新连接替换掉的旧连接不会触发。
+     * 服务端正常结束流之后也会触发，action 需要自己忽略已经结束的运行
+     */
+    public void onDisconnect(SseEmitter emitter, Runnable action){
+        Runnable onClose = () -> {
+            if (!replaced.contains(emitter)) {
+                action.run();
+            }
+        };
+        emitter.onTimeout(onClose);
+        emitter.onError(e -> onClose.run());
+        emitter.onCompletion(onClose);
+    }
+    
     public SseEmitter getEmitter(String sessionId){
         return sseHolder.get(sessionId);
     }
     
+    /**
+     * 撤销一个还没有返回给客户端的连接（例如任务提交被拒绝），只在它仍是当前连接时移除
+     */
+    public void removeEmitter(String sessionId, SseEmitter emitter){
+        release(sessionId, emitter);
+    }
+    
     public void completeEmitter(String sessionId){
-        SseEmitter emitter = sseHolder.remove(sessionId);
+        SseEmitter emitter = sseHolder.get(sessionId);
         if(emitter != null){
-            try{
-                emitter.complete();
-            }catch (Exception e){
-                log.error("SSEManager completeEmitter with sessionId: {} found error: {}",
-                        sessionId, e.getMessage());
-            }
+            release(sessionId, emitter);
+            complete(emitter, sessionId);
         }
     }
     
     public void completeEmitterWithError(String sessionId, Throwable t){
-        SseEmitter emitter = sseHolder.remove(sessionId);
+        SseEmitter emitter = sseHolder.get(sessionId);
         if(emitter != null){
-            synchronized (emitter) {
-                try{
-                    emitter.completeWithError(t);
-                } catch (Exception e){
-                    log.error("SSEManager completeEmitterWithError with sessionId: {} found error: {}",
-                            sessionId, e.getMessage());
-                }
-            }
+            release(sessionId, emitter);
+            completeWithError(emitter, sessionId, t);
         }
     }
-    
+
 //    public void sendEvent(String sessionId, String name, Object data){
 //        SseEmitter emitter = sseHolder.get(sessionId);
 //        if(emitter == null){
@@ -110,8 +233,16 @@ public class SSEManager {
 //        }
 //    }
     
+    // 写出失败（客户端已经断开）时回收连接
     private void cleanup(String sessionId, SseEmitter emitter) {
-        sseHolder.remove(sessionId, emitter);
+        writeFailedEvictedCounter.increment();
+        closeMultiplexed(emitter);
+        if (emitter instanceof TrackedEmitter tracked) {
+            markClosed(tracked);
+        }
+        if (sessionId != null) {
+            release(sessionId, emitter);
+        }
         try {
             emitter.complete();
         } catch (Exception e) {
@@ -120,18 +251,264 @@ public class SSEManager {
     }
     
     /**
-     * 直接对指定的 Emitter 实例发送数据，而不是从 Map 里找
+     * 直接对指定的 Emitter 实例发送数据，而不是从 Map 里找。只入队不阻塞，发送失败时由写线程清理连接。
+     * 连接已经断开时事件仍会记录到会话的回放缓冲中，等客户端重连后补发。
+     * 开启 sse.cluster 时，emitter 为空（本节点没有这个会话的连接）的事件转发给持有连接的节点
      */
     public void sendEvent(SseEmitter emitter, String sessionId, String name, Object data) {
-        if (emitter == null) return;
-        
-        synchronized (emitter) {
-            try {
-                emitter.send(SseEmitter.event().name(name).data(data));
-            } catch (Exception e) {
-                log.warn("Direct send failed for session: {}, reason: {}", sessionId, e.getMessage());
-                cleanup(sessionId, emitter); // 使用之前写的双参数 remove 清理
+        SseClusterRelay clusterRelay = relay;
+        if (emitter == null && sessionId != null && clusterRelay != null) {
+            clusterRelay.publish(sessionId, name, data);
+            return;
+        }
+        replayStore.record(sessionId, name, data, (id, eventName, eventData) -> {
+            SseOutbound queue = outbound(emitter, sessionId);
+            if (queue != null) {
+                queue.offer(id, eventName, eventData);
+            }
+        });
+    }
+    
+    /**
+     * 在已入队的事件发送完之后正常结束连接
+     */
+    public void complete(SseEmitter emitter, String sessionId) {
+        SseClusterRelay clusterRelay = relay;
+        if (emitter == null && sessionId != null && clusterRelay != null) {
+            clusterRelay.publishEnd(sessionId, null);
+            return;
+        }
+        replayStore.recordEnd(sessionId, () -> {
+            SseOutbound queue = outbound(emitter, sessionId);
+            if (queue != null) {
+                queue.complete(null);
+            }
+        });
+    }
+    
+    /**
+     * 在已入队的事件发送完之后以错误结束连接
+     */
+    public void completeWithError(SseEmitter emitter, String sessionId, Throwable t) {
+        SseClusterRelay clusterRelay = relay;
+        if (emitter == null && sessionId != null && clusterRelay != null) {
+            clusterRelay.publishEnd(sessionId, t);
+            return;
+        }
+        replayStore.recordEnd(sessionId, () -> {
+            SseOutbound queue = outbound(emitter, sessionId);
+            if (queue != null) {
+                queue.complete(t);
             }
+        });
+    }
+    
+    /**
+     * 把会话中 ID 大于 lastEventId 的事件补发到新连接上。回放缓冲中的流已经结束时补发完就结束连接并返回 true，
+     * 否则返回 false，调用方负责把新连接接到仍在运行的流上（在同一把锁内切换连接，才不会漏掉或重复事件）
+     */
+    public boolean replay(SseEmitter emitter, String sessionId, long lastEventId) {
+        SseOutbound queue = outbound(emitter, sessionId);
+        if (queue == null) {
+            return false;
+        }
+        boolean ended = replayStore.replay(sessionId, lastEventId, queue::offer);
+        if (ended) {
+            queue.complete(null);
+        }
+        log.info("SSE Session[{}]: resumed after event {}, stream {}", sessionId, lastEventId, ended ? "already ended" : "still live");
+        return ended;
+    }
+    
+    /**
+     * 连接的写端就绪状态，出站队列积压降到容量一半以下时就绪，供背压订阅使用
+     */
+    public WriterReadiness readiness(SseEmitter emitter, String sessionId) {
+        SseOutbound queue = outbound(emitter, sessionId);
+        return queue == null ? WriterReadiness.ALWAYS : queue;
+    }
+    
+    /**
+     * 连接出站队列中还没发送的事件数
+     */
+    public int getQueueDepth(SseEmitter emitter) {
+        SseOutboundQueue queue = outboundQueues.get(emitter);
+        return queue == null ? 0 : queue.depth();
+    }
+    
+    /**
+     * 保留了回放缓冲的会话数
+     */
+    public int getReplaySessions() {
+        return replayStore.getSessions();
+    }
+    
+    /**
+     * 所有会话回放缓冲估算的字节数
+     */
+    public long getReplayBytes() {
+        return replayStore.getTotalBytes();
+    }
+    
+    /**
+     * 还没有关闭的连接数
+     */
+    public int getLiveConnections() {
+        return liveConnections.get();
+    }
+    
+    @Override
+    public void destroy() {
+        scheduler.shutdownNow();
+        writer.shutdownNow();
+        try {
+            // 等正在执行的一次检查结束，之后不会再有心跳
+            scheduler.awaitTermination(1, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    void attachRelay(SseClusterRelay relay) {
+        this.relay = relay;
+    }
+    
+    /**
+     * 其他节点转发过来的事件，写给本节点持有的连接；连接已经不在本节点时返回 false
+     */
+    boolean deliverRelayed(String sessionId, List<SseClusterRelay.RelayEvent> events) {
+        SseEmitter emitter = sseHolder.get(sessionId);
+        if (emitter == null) {
+            return false;
+        }
+        for (SseClusterRelay.RelayEvent event : events) {
+            if (!event.end()) {
+                sendEvent(emitter, sessionId, event.name(), event.data());
+            } else if (event.error()) {
+                completeWithError(emitter, sessionId, new IllegalStateException(event.data()));
+            } else {
+                complete(emitter, sessionId);
+            }
+        }
+        return true;
+    }
+    
+    // 会话的连接不再由本节点持有时，取消订阅它的跨节点 topic
+    private void release(String sessionId, SseEmitter emitter) {
+        SseClusterRelay clusterRelay = relay;
+        if (sseHolder.remove(sessionId, emitter) && clusterRelay != null && !sseHolder.containsKey(sessionId)) {
+            clusterRelay.unlisten(sessionId);
+        }
+    }
+    
+    // 多路复用的物理连接结束，挂在上面的会话随之结束
+    private void closeMultiplexed(SseEmitter connection) {
+        SseChannelMux mux = multiplexed.remove(connection);
+        if (mux != null) {
+            multiplexedById.remove(mux.getId());
+            mux.close();
+        }
+    }
+    
+    private TrackedEmitter track(TrackedEmitter emitter) {
+        liveConnections.incrementAndGet();
+        emitter.onCompletion(() -> markClosed(emitter));
+        emitter.onTimeout(() -> markClosed(emitter));
+        emitter.onError(e -> markClosed(emitter));
+        if (heartbeatConfig.isEnabled()) {
+            heartbeatWheel.add(emitter);
+        }
+        return emitter;
+    }
+    
+    private void markClosed(TrackedEmitter emitter) {
+        if (emitter.markClosed()) {
+            liveConnections.decrementAndGet();
+        }
+    }
+    
+    private void tick() {
+        try {
+            heartbeatWheel.tick(this::checkConnection);
+        } catch (RuntimeException e) {
+            // 异常会让 scheduleAtFixedRate 停止后续调度
+            log.error("SSE heartbeat tick failed", e);
+        }
+    }
+    
+    // 返回 false 表示连接已经关闭或被回收，从时间轮中移除
+    private boolean checkConnection(TrackedEmitter emitter) {
+        if (emitter.isClosed()) {
+            return false;
+        }
+        long now = System.nanoTime();
+        if (now - emitter.getLastEventNanos() > heartbeatConfig.getIdleTtl().toNanos()) {
+            evictIdle(emitter);
+            return false;
+        }
+        // 每个连接每转一圈才被检查一次，留出一格的余量，避免刚好差一点而多等一整圈
+        long quietNanos = heartbeatConfig.getInterval().toNanos() - heartbeatConfig.getTick().toNanos();
+        if (now - emitter.getLastWriteNanos() >= quietNanos) {
+            SseOutbound queue = outbound(emitter, emitter.getSessionId());
+            if (queue != null && queue.offerHeartbeat()) {
+                heartbeatCounter.increment();
+            }
+        }
+        return true;
+    }
+    
+    private void evictIdle(TrackedEmitter emitter) {
+        String sessionId = emitter.getSessionId();
+        log.info("SSE Session[{}]: no events for {}, evicting idle connection", sessionId, heartbeatConfig.getIdleTtl());
+        idleEvictedCounter.increment();
+        markClosed(emitter);
+        if (sessionId != null) {
+            release(sessionId, emitter);
+        }
+        closeMultiplexed(emitter);
+        // 不记录到回放缓冲，客户端之后仍然可以带 Last-Event-ID 续传
+        SseOutbound queue = outbound(emitter, sessionId);
+        if (queue != null) {
+            queue.complete(null);
+        }
+    }
+    
+    // 连接为空或已经结束时返回 null；多路复用连接上的会话返回它的频道
+    private SseOutbound outbound(SseEmitter emitter, String sessionId) {
+        if (emitter instanceof SseChannelMux.Channel channel) {
+            return channel;
+        }
+        return queue(emitter, sessionId);
+    }
+    
+    private SseOutboundQueue queue(SseEmitter emitter, String sessionId) {
+        if (emitter == null) {
+            return null;
+        }
+        SseOutboundQueue queue = outboundQueues.get(emitter);
+        if (queue != null) {
+            return queue;
+        }
+        if (closedEmitters.contains(emitter)) {
+            return null;
+        }
+        boolean[] created = new boolean[1];
+        queue = outboundQueues.computeIfAbsent(emitter, key -> {
+            created[0] = true;
+            return new SseOutboundQueue(emitter, sessionId, outboundConfig, writer,
+                    () -> cleanup(sessionId, emitter), () -> {
+                        closedEmitters.add(emitter);
+                        outboundQueues.remove(emitter);
+                    });
+        });
+        if (!created[0]) {
+            return queue;
         }
+        // 容器关闭了连接（超时、客户端断开），积压的事件不再发送
+        SseOutboundQueue registered = queue;
+        emitter.onCompletion(registered::discard);
+        emitter.onTimeout(registered::discard);
+        emitter.onError(e -> registered.discard());
+        return registered;
     }
 }
@@ -0,0 +1,171 @@
+package org.huang.saademo.manager;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Metrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 按 sessionId（即 RunnableConfig 的 threadId）串行执行的邮箱：同一会话的运行一个接一个地执行，避免并发写同一个检查点；
+ * 重复提交（运行中或排队中已有相同请求）会被合并，不同会话之间完全并行。
+ * 邮箱只在会话有运行中或排队中的任务时存在，任务全部结束后立即移除，空闲会话不占内存。
+ * 对同一个 key 的修改都在 ConcurrentHashMap.compute 中完成，相当于按哈希桶分段加锁。
+ */
+@Component
+@Slf4j
+public class SessionMailbox {
+    
+    // 单个会话最多排队的任务数，超过后按执行器已满处理（AdmissionManager 会返回 429）
+    private static final int MAX_PENDING_PER_SESSION = 16;
+    
+    private final Map<String, Mailbox> mailboxes = new ConcurrentHashMap<>();
+    private final Counter coalescedCounter;
+    
+    /**
+     * 邮箱中的一次运行。运行可以是异步的，结束时（无论成功失败）必须调用 done，邮箱才会启动下一个任务
+     */
+    public interface Job {
+        
+        void start(Runnable done) throws Exception;
+        
+        /**
+         * 由前一个任务结束后串行启动时 start 抛出了异常，此时已经没有调用方可以接收这个异常
+         */
+        default void onStartFailure(Exception e) {}
+    }
+    
+    public SessionMailbox() {
+        this.coalescedCounter = Counter.builder("session.mailbox.coalesced").register(Metrics.globalRegistry);
+        Gauge.builder("session.mailbox.active", mailboxes, Map::size).register(Metrics.globalRegistry);
+    }
+    
+    /**
+     * 提交一个任务。如果该会话运行中或排队中已有 dedupKey 相同的同类任务，则不会提交新任务，直接返回已有的任务；
+     * 否则返回传入的任务本身。会话空闲时任务在当前线程立即启动，start 抛出的异常会原样抛给调用方。
+     */
+    public <T extends Job> T submit(String sessionId, String dedupKey, T job) throws Exception {
+        Entry entry = new Entry(dedupKey, job);
+        Entry[] existing = new Entry[1];
+        boolean[] startNow = new boolean[1];
+        mailboxes.compute(sessionId, (key, box) -> {
+            if (box == null) {
+                box = new Mailbox();
+            }
+            Entry duplicate = box.find(dedupKey, job.getClass());
+            if (duplicate != null) {
+                existing[0] = duplicate;
+                return box;
+            }
+            if (box.running == null) {
+                box.running = entry;
+                startNow[0] = true;
+            } else if (box.pending.size() >= MAX_PENDING_PER_SESSION) {
+                throw new TaskRejectedException("Too many pending runs for session " + sessionId);
+            } else {
+                box.pending.addLast(entry);
+            }
+            return box;
+        });
+        
+        if (existing[0] != null) {
+            coalescedCounter.increment();
+            log.info("SessionMailbox[{}]: duplicate submit coalesced", sessionId);
+            @SuppressWarnings("unchecked")
+            T coalesced = (T) existing[0].job;
+            return coalesced;
+        }
+        if (startNow[0]) {
+            try {
+                entry.job.start(entry.done(sessionId));
+            } catch (Exception e) {
+                entry.done(sessionId).run();
+                throw e;
+            }
+        }
+        return job;
+    }
+    
+    public int getActiveSessions() {
+        return mailboxes.size();
+    }
+    
+    public int getPending(String sessionId) {
+        int[] pending = new int[1];
+        mailboxes.computeIfPresent(sessionId, (key, box) -> {
+            pending[0] = box.pending.size();
+            return box;
+        });
+        return pending[0];
+    }
+    
+    private void advance(String sessionId, Entry finished) {
+        Entry[] next = new Entry[1];
+        mailboxes.computeIfPresent(sessionId, (key, box) -> {
+            if (box.running != finished) {
+                return box;
+            }
+            box.running = box.pending.pollFirst();
+            next[0] = box.running;
+            return box.running == null ? null : box;
+        });
+        if (next[0] != null) {
+            Entry entry = next[0];
+            try {
+                entry.job.start(entry.done(sessionId));
+            } catch (Exception e) {
+                log.warn("SessionMailbox[{}]: queued run failed to start: {}", sessionId, e.getMessage());
+                entry.job.onStartFailure(e);
+                entry.done(sessionId).run();
+            }
+        }
+    }
+    
+    private static final class Mailbox {
+        private Entry running;
+        private final ArrayDeque<Entry> pending = new ArrayDeque<>(2);
+        
+        private Entry find(String dedupKey, Class<?> jobType) {
+            if (running != null && running.matches(dedupKey, jobType)) {
+                return running;
+            }
+            for (Entry entry : pending) {
+                if (entry.matches(dedupKey, jobType)) {
+                    return entry;
+                }
+            }
+            return null;
+        }
+    }
+    
+    private final class Entry {
+        private final String dedupKey;
+        private final Job job;
+        private final AtomicBoolean finished = new AtomicBoolean();
+        
+        private Entry(String dedupKey, Job job) {
+            this.dedupKey = dedupKey;
+            this.job = job;
+        }
+        
+        private boolean matches(String key, Class<?> jobType) {
+            return Objects.equals(dedupKey, key) && job.getClass() == jobType;
+        }
+        
+        // done 可能被多次调用（例如错误回调和异常处理都调用了），只推进一次
+        private Runnable done(String sessionId) {
+            return () -> {
+                if (finished.compareAndSet(false, true)) {
+                    advance(sessionId, this);
+                }
+            };
+        }
+    }
+}
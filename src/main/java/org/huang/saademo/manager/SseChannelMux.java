@@ -0,0 +1,235 @@
+package org.huang.saademo.manager;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.huang.saademo.common.Constants;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * 多路复用连接：一个物理 SSE 连接上承载多个会话，浏览器对同一主机的连接数有限（HTTP/1.1 下一般是 6 个），
+ * 同时关注多个会话的客户端只需要一个连接。每个会话是连接上的一个 Channel，对 SSEManager 和 StreamMemService 来说就是一个普通的 SseEmitter。
+ * 帧格式：
+ * <ul>
+ *     <li>[CONNECTION]：{"connection": id}，连接的第一帧，客户端带着这个 ID 把会话挂到连接上</li>
+ *     <li>[CHANNEL]：{"ch": n, "session": ..., "event": ...}，会话的每种事件第一次出现时声明一次频道号</li>
+ *     <li>事件名为频道号的帧：原来的数据原样发送，客户端按事件名分发，不需要解析数据</li>
+ *     <li>[CHANNEL_END]：{"session": ..., "error": ...}，会话结束，它的频道号不再使用</li>
+ * </ul>
+ * 频道号在连接内递增分配，不会复用。声明和结束帧是控制帧，出站队列满时不会被丢弃。
+ */
+@Slf4j
+final class SseChannelMux {
+    
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+    
+    private final String id;
+    // 物理连接的出站队列，连接已经结束时返回 null
+    private final Supplier<SseOutboundQueue> queue;
+    private final Set<Channel> channels = new LinkedHashSet<>();
+    private int nextChannel = 1;
+    private boolean closed;
+    
+    SseChannelMux(String id, Supplier<SseOutboundQueue> queue) {
+        this.id = id;
+        this.queue = queue;
+    }
+    
+    String getId() {
+        return id;
+    }
+    
+    void announce() {
+        SseOutboundQueue outbound = queue.get();
+        if (outbound != null) {
+            outbound.offerPinned(Constants.SSE_EVENT_CONNECTION, json(Map.of("connection", id)));
+        }
+    }
+    
+    /**
+     * 在连接上为会话打开一个频道，连接已经关闭时返回 null
+     */
+    synchronized Channel open(String sessionId) {
+        if (closed) {
+            return null;
+        }
+        Channel channel = new Channel(this, sessionId);
+        channels.add(channel);
+        return channel;
+    }
+    
+    /**
+     * 物理连接结束：所有还开着的频道随之结束，挂在频道上的回调（取消运行、归还准入名额）被触发
+     */
+    void close() {
+        List<Channel> open;
+        synchronized (this) {
+            closed = true;
+            open = new ArrayList<>(channels);
+            channels.clear();
+            open.forEach(channel -> channel.ended = true);
+        }
+        open.forEach(Channel::fireCompletion);
+    }
+    
+    // 声明帧和数据帧在同一把锁内入队，客户端总是先收到声明
+    private synchronized boolean offer(Channel channel, long eventId, String name, Object data) {
+        SseOutboundQueue outbound = queue.get();
+        if (channel.ended || outbound == null) {
+            return false;
+        }
+        String channelName = channel.names.get(name);
+        if (channelName == null) {
+            int number = nextChannel++;
+            channelName = String.valueOf(number);
+            channel.names.put(name, channelName);
+            Map<String, Object> declaration = new LinkedHashMap<>();
+            declaration.put("ch", number);
+            declaration.put("session", channel.sessionId);
+            declaration.put("event", name);
+            outbound.offerPinned(Constants.SSE_EVENT_CHANNEL, json(declaration));
+        }
+        return outbound.offer(eventId, channelName, data);
+    }
+    
+    private void end(Channel channel, Throwable error) {
+        synchronized (this) {
+            if (channel.ended) {
+                return;
+            }
+            channel.ended = true;
+            channels.remove(channel);
+            SseOutboundQueue outbound = queue.get();
+            if (outbound != null) {
+                Map<String, Object> end = new LinkedHashMap<>();
+                end.put("session", channel.sessionId);
+                if (error != null) {
+                    end.put("error", String.valueOf(error.getMessage()));
+                }
+                outbound.offerPinned(Constants.SSE_EVENT_CHANNEL_END, json(end));
+            }
+        }
+        channel.fireCompletion();
+    }
+    
+    private void whenReady(Runnable action) {
+        SseOutboundQueue outbound = queue.get();
+        if (outbound == null) {
+            action.run();
+        } else {
+            outbound.whenReady(action);
+        }
+    }
+    
+    private static String json(Map<String, Object> value) {
+        try {
+            return OBJECT_MAPPER.writeValueAsString(value);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+    
+    /**
+     * 多路复用连接上的一个会话。事件经 SSEManager 写入时翻译成频道帧进入物理连接的出站队列；
+     * 频道没有自己的超时和网络错误，结束（服务端结束会话、被新连接替换或物理连接关闭）时只触发 onCompletion 回调
+     */
+    static final class Channel extends SseEmitter implements SseOutbound {
+        private final SseChannelMux mux;
+        private final String sessionId;
+        // 事件名 -> 频道号，由 mux 的锁保护
+        private final Map<String, String> names = new HashMap<>();
+        private final List<Runnable> completionCallbacks = new CopyOnWriteArrayList<>();
+        // 由 mux 的锁保护
+        private boolean ended;
+        private volatile boolean completed;
+        
+        private Channel(SseChannelMux mux, String sessionId) {
+            this.mux = mux;
+            this.sessionId = sessionId;
+        }
+        
+        String getSessionId() {
+            return sessionId;
+        }
+        
+        // 结束之后注册的回调立即执行，与容器在连接结束后才触发回调的效果一致
+        @Override
+        public void onCompletion(Runnable callback) {
+            completionCallbacks.add(callback);
+            if (completed && completionCallbacks.remove(callback)) {
+                callback.run();
+            }
+        }
+        
+        @Override
+        public void onTimeout(Runnable callback) {
+            // 频道不会单独超时，物理连接超时时按结束处理
+        }
+        
+        @Override
+        public void onError(Consumer<Throwable> callback) {
+            // 频道没有自己的网络错误，物理连接出错时按结束处理
+        }
+        
+        @Override
+        public void send(SseEventBuilder builder) throws IOException {
+            throw new IllegalStateException("Multiplexed channel of session " + sessionId + " must be written through SSEManager");
+        }
+        
+        @Override
+        public void complete() {
+            mux.end(this, null);
+        }
+        
+        @Override
+        public void completeWithError(Throwable ex) {
+            mux.end(this, ex);
+        }
+        
+        @Override
+        public boolean offer(long id, String name, Object data) {
+            return mux.offer(this, id, name, data);
+        }
+        
+        @Override
+        public void complete(Throwable error) {
+            mux.end(this, error);
+        }
+        
+        @Override
+        public boolean offerHeartbeat() {
+            // 心跳由物理连接负责
+            return false;
+        }
+        
+        @Override
+        public void whenReady(Runnable action) {
+            mux.whenReady(action);
+        }
+        
+        private void fireCompletion() {
+            completed = true;
+            for (Runnable callback : completionCallbacks) {
+                if (completionCallbacks.remove(callback)) {
+                    try {
+                        callback.run();
+                    } catch (RuntimeException e) {
+                        log.warn("SSE Session[{}]: channel completion callback failed: {}", sessionId, e.getMessage());
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package org.huang.saademo.manager;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Metrics;
+import lombok.extern.slf4j.Slf4j;
+import org.huang.saademo.config.SseClusterConfig;
+import org.redisson.api.RTopic;
+import org.redisson.api.RedissonClient;
+import org.redisson.client.codec.StringCodec;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 基于 Redis pub/sub 的跨节点 SSE 投递。每个会话一个 topic（sse.cluster.topic-prefix + sessionId）：
+ * 持有该会话连接的节点订阅它，本地没有连接的节点把事件发布过去，由订阅的节点写给客户端。
+ * 发布端按会话攒批（batch-window / batch-max-events），结束事件立即发布；所有发布在同一个线程上按顺序执行，同一会话的事件不会乱序。
+ */
+@Component
+@ConditionalOnProperty(name = "sse.cluster.enabled", havingValue = "true")
+@Slf4j
+public class SseClusterRelay implements DisposableBean {
+    
+    private final RedissonClient redissonClient;
+    private final SseClusterConfig config;
+    private final SSEManager sseManager;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final String nodeId = UUID.randomUUID().toString();
+    // 本节点订阅的会话及监听器 ID
+    private final Map<String, Integer> listeners = new ConcurrentHashMap<>();
+    private final Map<String, Batch> batches = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService publisher = Executors.newSingleThreadScheduledExecutor(
+            Thread.ofPlatform().name("sse-relay").daemon().factory());
+    
+    private final Counter publishedEventsCounter;
+    private final Counter publishedBatchesCounter;
+    private final Counter receivedEventsCounter;
+    private final Counter undeliveredCounter;
+    
+    /**
+     * 跨节点转发的一个事件，end 为 true 时表示流结束（error 表示以错误结束，data 为错误信息）
+     */
+    record RelayEvent(String name, String data, boolean end, boolean error) {}
+    
+    record RelayMessage(String origin, List<RelayEvent> events) {}
+    
+    @Autowired
+    public SseClusterRelay(RedissonClient redissonClient, SseClusterConfig config, SSEManager sseManager) {
+        this.redissonClient = redissonClient;
+        this.config = config;
+        this.sseManager = sseManager;
+        this.publishedEventsCounter = Counter.builder("sse.relay.published.events").register(Metrics.globalRegistry);
+        this.publishedBatchesCounter = Counter.builder("sse.relay.published.batches").register(Metrics.globalRegistry);
+        this.receivedEventsCounter = Counter.builder("sse.relay.received.events").register(Metrics.globalRegistry);
+        this.undeliveredCounter = Counter.builder("sse.relay.undelivered")
+                .description("Relayed batches no node was subscribed to, or that arrived after the connection was gone")
+                .register(Metrics.globalRegistry);
+        sseManager.attachRelay(this);
+        log.info("SSE cluster relay enabled, node {}", nodeId);
+    }
+    
+    /**
+     * 本节点开始持有会话的连接，订阅它的 topic；重复调用只订阅一次
+     */
+    void listen(String sessionId) {
+        listeners.computeIfAbsent(sessionId, key -> topic(key).addListener(String.class,
+                (channel, message) -> onMessage(key, message)));
+    }
+    
+    /**
+     * 本节点不再持有会话的连接
+     */
+    void unlisten(String sessionId) {
+        Integer listenerId = listeners.remove(sessionId);
+        if (listenerId != null) {
+            topic(sessionId).removeListener(listenerId);
+        }
+    }
+    
+    void publish(String sessionId, String name, Object data) {
+        enqueue(sessionId, new RelayEvent(name, data == null ? null : String.valueOf(data), false, false));
+    }
+    
+    void publishEnd(String sessionId, Throwable error) {
+        enqueue(sessionId, new RelayEvent(null, error == null ? null : error.getMessage(), true, error != null));
+    }
+    
+    @Override
+    public void destroy() {
+        publisher.shutdown();
+        listeners.keySet().forEach(this::unlisten);
+    }
+    
+    private void enqueue(String sessionId, RelayEvent event) {
+        while (true) {
+            Batch batch = batches.computeIfAbsent(sessionId, Batch::new);
+            boolean flushNow;
+            boolean schedule = false;
+            synchronized (batch) {
+                // 已经被发布线程取走的批次不能再追加，否则会和之后的新批次乱序
+                if (batch.removed) {
+                    continue;
+                }
+                batch.events.add(event);
+                flushNow = event.end() || batch.events.size() >= config.getBatchMaxEvents();
+                if (!flushNow && !batch.scheduled) {
+                    batch.scheduled = true;
+                    schedule = true;
+                }
+            }
+            if (flushNow) {
+                publisher.execute(() -> flush(batch));
+            } else if (schedule) {
+                publisher.schedule(() -> flush(batch), config.getBatchWindow().toMillis(), TimeUnit.MILLISECONDS);
+            }
+            return;
+        }
+    }
+    
+    // 只在 publisher 线程上执行
+    private void flush(Batch batch) {
+        List<RelayEvent> events;
+        synchronized (batch) {
+            if (batch.events.isEmpty()) {
+                return;
+            }
+            events = batch.events;
+            batch.events = new ArrayList<>();
+            // 每个批次只发布一次，之后的事件进入新批次
+            batch.removed = true;
+            batches.remove(batch.sessionId, batch);
+        }
+        try {
+            long receivers = topic(batch.sessionId).publish(objectMapper.writeValueAsString(new RelayMessage(nodeId, events)));
+            publishedBatchesCounter.increment();
+            publishedEventsCounter.increment(events.size());
+            if (receivers == 0) {
+                undeliveredCounter.increment();
+                log.debug("SSE Session[{}]: no node holds the connection, {} relayed events dropped", batch.sessionId, events.size());
+            }
+        } catch (JsonProcessingException | RuntimeException e) {
+            log.warn("SSE Session[{}]: failed to relay {} events: {}", batch.sessionId, events.size(), e.getMessage());
+        }
+    }
+    
+    private void onMessage(String sessionId, String message) {
+        RelayMessage relayed;
+        try {
+            relayed = objectMapper.readValue(message, RelayMessage.class);
+        } catch (JsonProcessingException e) {
+            log.warn("SSE Session[{}]: malformed relay message: {}", sessionId, e.getMessage());
+            return;
+        }
+        receivedEventsCounter.increment(relayed.events().size());
+        if (!sseManager.deliverRelayed(sessionId, relayed.events())) {
+            undeliveredCounter.increment();
+        }
+    }
+    
+    private RTopic topic(String sessionId) {
+        return redissonClient.getTopic(config.getTopicPrefix() + sessionId, StringCodec.INSTANCE);
+    }
+    
+    private static final class Batch {
+        private final String sessionId;
+        private List<RelayEvent> events = new ArrayList<>();
+        private boolean scheduled;
+        private boolean removed;
+        
+        private Batch(String sessionId) {
+            this.sessionId = sessionId;
+        }
+    }
+}
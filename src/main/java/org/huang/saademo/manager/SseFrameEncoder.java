@@ -0,0 +1,275 @@
+package org.huang.saademo.manager;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.json.JsonWriteFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.MediaType;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * SSE 帧编码器：把事件名、ID 和数据直接编码成一帧 UTF-8 字节（与 SseEmitter.event() 的输出逐字节相同），
+ * AgentOutput 的 JSON 由 Jackson 的流式 JsonGenerator 直接写进缓冲区，不再创建 AgentOutput 对象和中间的 JSON 字符串。
+ * 缓冲区和 JsonGenerator 在一个连接（或一次运行）内复用，每帧只分配交给容器的那一个 byte[]。
+ * 不是线程安全的：同一个编码器只能由一个线程串行使用（出站队列的写任务、Reactor 的 onNext）。
+ */
+@Slf4j
+public final class SseFrameEncoder {
+    
+    public static final long NO_ID = 0;
+    
+    // 默认的 UTF-8 生成器会把代理对（例如 emoji）写成两个转义序列，合并成一个 4 字节字符才与 writeValueAsString 的结果相同
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper(JsonFactory.builder()
+            .enable(JsonWriteFeature.COMBINE_UNICODE_SURROGATES_IN_UTF8)
+            .build());
+    private static final MediaType TEXT_PLAIN = new MediaType("text", "plain", StandardCharsets.UTF_8);
+    private static final byte[] ID = "id:".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] EVENT = "event:".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] DATA = "data:".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] EMPTY_JSON = "{}".getBytes(StandardCharsets.US_ASCII);
+    
+    @FunctionalInterface
+    public interface JsonBody {
+        
+        void write(JsonGenerator json) throws IOException;
+    }
+    
+    private final Buffer buffer = new Buffer();
+    // 事件名只有少数几个常量，编码一次后复用
+    private final Map<String, byte[]> names = new HashMap<>(8);
+    private JsonGenerator generator;
+    
+    /**
+     * 与 MultiAgentService.AgentOutput / AgentAsToolService.AgentOutput 序列化结果相同的事件，id 为 NO_ID 时不输出 id 行
+     */
+    public SseEmitter.SseEventBuilder agentOutput(long id, String name, String outputType, String agentName,
+                                                  String type, String text, Map<String, Object> metadata) {
+        header(id, name);
+        try {
+            JsonGenerator json = generator();
+            json.writeStartObject();
+            json.writeStringField("outputType", outputType);
+            json.writeStringField("agentName", agentName);
+            json.writeStringField("type", type);
+            json.writeStringField("text", text);
+            json.writeFieldName("metadata");
+            json.writeObject(metadata);
+            json.writeEndObject();
+            json.flush();
+        } catch (IOException e) {
+            log.error("Error converting AgentOutput to JSON", e);
+            // 出错后生成器的状态不确定，丢弃重建；写了一半的内容也一并丢弃
+            generator = null;
+            header(id, name);
+            buffer.write(EMPTY_JSON);
+        }
+        buffer.write('\n');
+        buffer.write('\n');
+        return new EncodedFrame(buffer.toByteArray());
+    }
+    
+    /**
+     * 数据由调用方用 JsonGenerator 直接写出的事件，body 必须写出且只写出一个完整的 JSON 值
+     */
+    public SseEmitter.SseEventBuilder json(long id, String name, JsonBody body) {
+        header(id, name);
+        try {
+            JsonGenerator json = generator();
+            body.write(json);
+            json.flush();
+        } catch (IOException e) {
+            log.error("Error writing SSE event {} as JSON", name, e);
+            generator = null;
+            header(id, name);
+            buffer.write(EMPTY_JSON);
+        }
+        buffer.write('\n');
+        buffer.write('\n');
+        return new EncodedFrame(buffer.toByteArray());
+    }
+    
+    /**
+     * 文本事件。与 SseEmitter.event().data(text) 一样，多行文本的每一行都加上 data: 前缀
+     */
+    public SseEmitter.SseEventBuilder text(long id, String name, String text) {
+        header(id, name);
+        writeText(text);
+        buffer.write('\n');
+        buffer.write('\n');
+        return new EncodedFrame(buffer.toByteArray());
+    }
+    
+    // 重置缓冲区并写入 id、event 行和 data 前缀
+    private void header(long id, String name) {
+        buffer.reset();
+        if (id != NO_ID) {
+            buffer.write(ID);
+            buffer.writeLong(id);
+            buffer.write('\n');
+        }
+        if (name != null) {
+            buffer.write(EVENT);
+            buffer.write(names.computeIfAbsent(name, key -> key.getBytes(StandardCharsets.UTF_8)));
+            buffer.write('\n');
+        }
+        buffer.write(DATA);
+    }
+    
+    private JsonGenerator generator() throws IOException {
+        if (generator == null) {
+            generator = OBJECT_MAPPER.getFactory().createGenerator(buffer, JsonEncoding.UTF8);
+            // 每帧一个根对象，根对象之间不要分隔符
+            generator.setRootValueSeparator(null);
+        }
+        return generator;
+    }
+    
+    // 按 UTF-8 逐字符编码，不经过 String.getBytes；单独的代理字符与 String.getBytes 一样替换成 '?'
+    private void writeText(String text) {
+        int length = text.length();
+        buffer.ensure(length);
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                buffer.write(c);
+                if (c == '\n') {
+                    buffer.write(DATA);
+                }
+            } else if (c < 0x800) {
+                buffer.write(0xC0 | (c >> 6));
+                buffer.write(0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(text.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, text.charAt(++i));
+                buffer.write(0xF0 | (codePoint >> 18));
+                buffer.write(0x80 | ((codePoint >> 12) & 0x3F));
+                buffer.write(0x80 | ((codePoint >> 6) & 0x3F));
+                buffer.write(0x80 | (codePoint & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                buffer.write('?');
+            } else {
+                buffer.write(0xE0 | (c >> 12));
+                buffer.write(0x80 | ((c >> 6) & 0x3F));
+                buffer.write(0x80 | (c & 0x3F));
+            }
+        }
+    }
+    
+    /**
+     * 可复用的字节缓冲区，同时作为 JsonGenerator 的输出流
+     */
+    private static final class Buffer extends OutputStream {
+        private byte[] bytes = new byte[256];
+        private int size;
+        
+        private void reset() {
+            size = 0;
+        }
+        
+        private void ensure(int more) {
+            if (size + more > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + more));
+            }
+        }
+        
+        @Override
+        public void write(int b) {
+            ensure(1);
+            bytes[size++] = (byte) b;
+        }
+        
+        @Override
+        public void write(byte[] b, int off, int len) {
+            ensure(len);
+            System.arraycopy(b, off, bytes, size, len);
+            size += len;
+        }
+        
+        @Override
+        public void write(byte[] b) {
+            write(b, 0, b.length);
+        }
+        
+        // 十进制写出，不经过 Long.toString
+        private void writeLong(long value) {
+            if (value < 0) {
+                write('-');
+                value = -value;
+            }
+            int digits = 1;
+            for (long rest = value / 10; rest > 0; rest /= 10) {
+                digits++;
+            }
+            ensure(digits);
+            for (int i = size + digits - 1; i >= size; i--) {
+                bytes[i] = (byte) ('0' + value % 10);
+                value /= 10;
+            }
+            size += digits;
+        }
+        
+        private byte[] toByteArray() {
+            return Arrays.copyOf(bytes, size);
+        }
+    }
+    
+    /**
+     * 已经编码好的一帧，交给 SseEmitter.send 原样写出
+     */
+    private static final class EncodedFrame implements SseEmitter.SseEventBuilder {
+        private final byte[] frame;
+        
+        private EncodedFrame(byte[] frame) {
+            this.frame = frame;
+        }
+        
+        @Override
+        public Set<ResponseBodyEmitter.DataWithMediaType> build() {
+            return Set.of(new ResponseBodyEmitter.DataWithMediaType(frame, TEXT_PLAIN));
+        }
+        
+        @Override
+        public SseEmitter.SseEventBuilder id(String id) {
+            throw immutable();
+        }
+        
+        @Override
+        public SseEmitter.SseEventBuilder name(String eventName) {
+            throw immutable();
+        }
+        
+        @Override
+        public SseEmitter.SseEventBuilder reconnectTime(long reconnectTimeMillis) {
+            throw immutable();
+        }
+        
+        @Override
+        public SseEmitter.SseEventBuilder comment(String comment) {
+            throw immutable();
+        }
+        
+        @Override
+        public SseEmitter.SseEventBuilder data(Object object) {
+            throw immutable();
+        }
+        
+        @Override
+        public SseEmitter.SseEventBuilder data(Object object, MediaType mediaType) {
+            throw immutable();
+        }
+        
+        private static UnsupportedOperationException immutable() {
+            return new UnsupportedOperationException("Encoded SSE frame cannot be modified");
+        }
+    }
+}
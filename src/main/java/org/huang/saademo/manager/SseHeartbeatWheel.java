@@ -0,0 +1,49 @@
+package org.huang.saademo.manager;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Predicate;
+
+/**
+ * 周期固定的时间轮：每次 tick 只处理当前槽位中的元素，保留下来的元素放回原槽位，转一整圈（slots 次 tick）后再次被处理。
+ * 新元素放在刚处理过的槽位上，因此同样在一整圈后第一次被处理；元素按加入时间分散在各个槽位，每次 tick 的工作量与到期的元素数成正比。
+ * add 可以在任意线程调用，tick 只在调度线程上调用。
+ */
+final class SseHeartbeatWheel<T> {
+    
+    private final List<Queue<T>> slots;
+    private volatile int cursor;
+    
+    SseHeartbeatWheel(int slots) {
+        int size = Math.max(1, slots);
+        this.slots = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            this.slots.add(new ConcurrentLinkedQueue<>());
+        }
+    }
+    
+    void add(T item) {
+        int size = slots.size();
+        slots.get((cursor + size - 1) % size).offer(item);
+    }
+    
+    /**
+     * 处理当前槽位，visitor 返回 false 的元素从时间轮中移除
+     */
+    void tick(Predicate<T> visitor) {
+        int current = cursor;
+        Queue<T> slot = slots.get(current);
+        // 先把槽位取空再放回，处理期间并发加入的元素落在前一个槽位，不会和这里冲突
+        List<T> kept = new ArrayList<>();
+        T item;
+        while ((item = slot.poll()) != null) {
+            if (visitor.test(item)) {
+                kept.add(item);
+            }
+        }
+        slot.addAll(kept);
+        cursor = (current + 1) % slots.size();
+    }
+}
@@ -0,0 +1,23 @@
+package org.huang.saademo.manager;
+
+/**
+ * SSEManager 写事件的出口：普通连接是它自己的出站队列（SseOutboundQueue），
+ * 多路复用连接上的一个会话是一个频道（ChannelEmitter），事件翻译成频道帧后进入物理连接的出站队列
+ */
+interface SseOutbound extends WriterReadiness {
+    
+    /**
+     * 入队一个事件，从不阻塞。连接已关闭时返回 false
+     */
+    boolean offer(long id, String name, Object data);
+    
+    /**
+     * 在已入队的事件之后结束，error 为 null 时正常完成
+     */
+    void complete(Throwable error);
+    
+    /**
+     * 队列为空时入队一个心跳帧
+     */
+    boolean offerHeartbeat();
+}
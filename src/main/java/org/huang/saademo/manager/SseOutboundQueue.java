@@ -0,0 +1,347 @@
+package org.huang.saademo.manager;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Metrics;
+import lombok.extern.slf4j.Slf4j;
+import org.huang.saademo.config.SseOutboundConfig;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 单个 SSE 连接的出站队列：多个生产者无锁入队，同一时刻只有一个写任务在写线程上出队并调用阻塞的 emitter.send。
+ * 写任务按 work-in-progress 计数调度：计数从 0 变为 1 的生产者负责提交写任务，写任务把计数归零后退出，不常驻线程。
+ * 完成/出错也作为队列中的最后一帧发送，保证在此之前入队的事件先写出去。
+ * 积压低于容量一半（或连接已关闭）时视为写端就绪，背压订阅据此补充向上游的请求。
+ * 每个事件带上 SseReplayStore 分配的 ID，合并后的帧使用被合并进来的最后一个事件的 ID，客户端续传时不会重复收到。
+ * 文本事件由写任务用 SseFrameEncoder 直接编码成字节写出。
+ */
+@Slf4j
+final class SseOutboundQueue implements SseOutbound {
+    
+    // 写线程已经取走的帧，不能再合并
+    private static final Payload TAKEN = new Payload(0, null);
+    
+    // 还没有结束的队列；积压只按所有连接的总数上报，不按连接注册指标
+    private static final Set<SseOutboundQueue> OPEN = ConcurrentHashMap.newKeySet();
+    
+    static {
+        Gauge.builder("sse.outbound.queue.depth", OPEN, queues -> queues.stream().mapToInt(SseOutboundQueue::depth).sum())
+                .register(Metrics.globalRegistry);
+    }
+    
+    private final SseEmitter emitter;
+    private final String sessionId;
+    private final int capacity;
+    private final SseOutboundConfig.OverflowPolicy policy;
+    private final Executor writer;
+    private final Runnable onFailure;
+    private final Runnable onFinish;
+    
+    private final Queue<Frame> frames = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger depth = new AtomicInteger();
+    private final AtomicInteger wip = new AtomicInteger();
+    private final AtomicReference<Frame> last = new AtomicReference<>();
+    private final AtomicBoolean finished = new AtomicBoolean();
+    private final Queue<Runnable> readyWaiters = new ConcurrentLinkedQueue<>();
+    // 只在写任务中使用，同一时刻只有一个写任务
+    private final SseFrameEncoder encoder = new SseFrameEncoder();
+    // 已入队终止帧或连接已失效，不再接受新事件
+    private volatile boolean closed;
+    
+    private final Counter overflowCounter;
+    
+    SseOutboundQueue(SseEmitter emitter, String sessionId, SseOutboundConfig config, Executor writer,
+                     Runnable onFailure, Runnable onFinish) {
+        this.emitter = emitter;
+        this.sessionId = sessionId;
+        this.capacity = config.getCapacity();
+        this.policy = config.getOverflowPolicy();
+        this.writer = writer;
+        this.onFailure = onFailure;
+        this.onFinish = onFinish;
+        this.overflowCounter = Counter.builder("sse.outbound.overflow")
+                .tag("policy", policy.name())
+                .register(Metrics.globalRegistry);
+        OPEN.add(this);
+    }
+    
+    /**
+     * 入队一个事件，从不阻塞。连接已关闭或按 DISCONNECT 策略断开时返回 false
+     */
+    @Override
+    public boolean offer(long id, String name, Object data) {
+        if (closed) {
+            return false;
+        }
+        if (depth.get() >= capacity) {
+            overflowCounter.increment();
+            switch (policy) {
+                case DISCONNECT -> {
+                    log.warn("SSE Session[{}]: outbound queue full ({}), disconnecting slow client", sessionId, capacity);
+                    disconnect();
+                    return false;
+                }
+                case COALESCE -> {
+                    Frame tail = last.get();
+                    if (tail != null && tail.tryAppend(id, name, data)) {
+                        return true;
+                    }
+                    dropOldest();
+                }
+                case DROP_OLDEST -> dropOldest();
+            }
+        }
+        Frame frame = new Frame(name, new Payload(id, data), false, false, null);
+        frames.offer(frame);
+        depth.incrementAndGet();
+        last.set(frame);
+        schedule();
+        return true;
+    }
+    
+    /**
+     * 入队一个控制帧（例如多路复用的频道声明），不带 ID，队列满时不会被丢弃也不会被合并，也不计入积压
+     */
+    boolean offerPinned(String name, String data) {
+        if (closed) {
+            return false;
+        }
+        frames.offer(new Frame(name, new Payload(SseFrameEncoder.NO_ID, data), false, true, null));
+        schedule();
+        return true;
+    }
+    
+    /**
+     * 队列为空时入队一个心跳帧（name 为空的非终止帧）；有积压说明正在写出，不需要心跳
+     */
+    @Override
+    public boolean offerHeartbeat() {
+        if (closed || depth.get() > 0) {
+            return false;
+        }
+        frames.offer(new Frame(null, TAKEN, false, false, null));
+        depth.incrementAndGet();
+        schedule();
+        return true;
+    }
+    
+    /**
+     * 在已入队的事件之后结束连接，error 为 null 时正常完成
+     */
+    @Override
+    public void complete(Throwable error) {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        frames.offer(new Frame(null, TAKEN, true, false, error));
+        schedule();
+    }
+    
+    /**
+     * 连接已经被容器关闭（超时、客户端断开），丢弃积压的事件
+     */
+    void discard() {
+        closed = true;
+        clear();
+        finish();
+    }
+    
+    int depth() {
+        return depth.get();
+    }
+    
+    @Override
+    public void whenReady(Runnable action) {
+        if (isReady()) {
+            action.run();
+            return;
+        }
+        readyWaiters.offer(action);
+        // 登记期间写线程可能已经把积压写完了
+        if (isReady()) {
+            runReadyWaiters();
+        }
+    }
+    
+    private boolean isReady() {
+        return closed || depth.get() < Math.max(1, capacity / 2);
+    }
+    
+    private void runReadyWaiters() {
+        Runnable action;
+        while ((action = readyWaiters.poll()) != null) {
+            try {
+                action.run();
+            } catch (RuntimeException e) {
+                log.warn("SSE Session[{}]: ready callback failed: {}", sessionId, e.getMessage());
+            }
+        }
+    }
+    
+    private void disconnect() {
+        closed = true;
+        clear();
+        frames.offer(new Frame(null, TAKEN, true, false, null));
+        schedule();
+    }
+    
+    // 丢弃最早的普通帧；终止帧（与 complete 并发时可能已入队）和控制帧跳过
+    private void dropOldest() {
+        for (Frame frame : frames) {
+            if (frame.terminal || frame.pinned) {
+                continue;
+            }
+            // 写线程可能刚好取走了这一帧
+            if (frames.remove(frame)) {
+                depth.decrementAndGet();
+            }
+            return;
+        }
+    }
+    
+    private void clear() {
+        Frame frame;
+        while ((frame = frames.poll()) != null) {
+            if (frame.counted()) {
+                depth.decrementAndGet();
+            }
+        }
+    }
+    
+    private void schedule() {
+        if (wip.getAndIncrement() != 0) {
+            return;
+        }
+        try {
+            writer.execute(this::drain);
+        } catch (RuntimeException e) {
+            log.warn("SSE Session[{}]: writer rejected task: {}", sessionId, e.getMessage());
+            discard();
+            onFailure.run();
+        }
+    }
+    
+    private void drain() {
+        int missed = 1;
+        do {
+            Frame frame;
+            while ((frame = frames.poll()) != null) {
+                if (frame.counted()) {
+                    depth.decrementAndGet();
+                }
+                if (finished.get()) {
+                    continue;
+                }
+                if (frame.terminal) {
+                    terminate(frame.error);
+                } else {
+                    write(frame);
+                }
+                if (!readyWaiters.isEmpty() && isReady()) {
+                    runReadyWaiters();
+                }
+            }
+            missed = wip.addAndGet(-missed);
+        } while (missed != 0);
+    }
+    
+    private void write(Frame frame) {
+        Payload payload = frame.take();
+        try {
+            if (frame.name == null) {
+                if (emitter instanceof TrackedEmitter tracked) {
+                    tracked.sendHeartbeat();
+                } else {
+                    emitter.send(SseEmitter.event().comment("ping"));
+                }
+                return;
+            }
+            if (payload.data() instanceof String text) {
+                emitter.send(encoder.text(payload.id(), frame.name, text));
+            } else {
+                emitter.send(SseEmitter.event().id(String.valueOf(payload.id())).name(frame.name).data(payload.data()));
+            }
+        } catch (Exception e) {
+            // IOException: 客户端断开连接；IllegalStateException: 连接已完成
+            log.warn("SSE send failed for session: {}, reason: {}", sessionId, e.getMessage());
+            closed = true;
+            clear();
+            finish();
+            onFailure.run();
+        }
+    }
+    
+    private void terminate(Throwable error) {
+        try {
+            if (error == null) {
+                emitter.complete();
+            } else {
+                emitter.completeWithError(error);
+            }
+        } catch (Exception e) {
+            log.warn("SSE complete failed for session: {}, reason: {}", sessionId, e.getMessage());
+        }
+        finish();
+    }
+    
+    private void finish() {
+        if (finished.compareAndSet(false, true)) {
+            OPEN.remove(this);
+            onFinish.run();
+            runReadyWaiters();
+        }
+    }
+    
+    private static final class Frame {
+        private final String name;
+        private final AtomicReference<Payload> payload;
+        private final boolean terminal;
+        private final boolean pinned;
+        private final Throwable error;
+        
+        private Frame(String name, Payload payload, boolean terminal, boolean pinned, Throwable error) {
+            this.name = name;
+            this.payload = new AtomicReference<>(payload);
+            this.terminal = terminal;
+            this.pinned = pinned;
+            this.error = error;
+        }
+        
+        // 终止帧和控制帧不计入积压
+        private boolean counted() {
+            return !terminal && !pinned;
+        }
+        
+        // 同名文本事件合并到还没被写线程取走的帧上
+        private boolean tryAppend(long otherId, String otherName, Object otherData) {
+            if (terminal || pinned || name == null || !name.equals(otherName) || !(otherData instanceof String text)) {
+                return false;
+            }
+            while (true) {
+                Payload current = payload.get();
+                if (current == TAKEN || !(current.data() instanceof String existing)) {
+                    return false;
+                }
+                if (payload.compareAndSet(current, new Payload(otherId, existing + text))) {
+                    return true;
+                }
+            }
+        }
+        
+        private Payload take() {
+            return payload.getAndSet(TAKEN);
+        }
+    }
+    
+    private record Payload(long id, Object data) {}
+}
@@ -0,0 +1,289 @@
+package org.huang.saademo.manager;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Metrics;
+import lombok.extern.slf4j.Slf4j;
+import org.huang.saademo.config.SseReplayConfig;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 按会话保存最近发送的 SSE 事件，用于 Last-Event-ID 断线续传。
+ * 事件 ID 全局单调递增（因此在每个会话内也单调递增）；每个会话一个按需扩容的环形数组，按条数和字节数限长，
+ * 流结束也作为一条记录保存，续传时补发到结束记录为止。
+ * 超过 ttl 没有新事件的会话整体丢弃；所有会话合计超过字节上限时，按最后写入时间从旧到新淘汰。
+ */
+@Slf4j
+final class SseReplayStore {
+    
+    private static final int INITIAL_CAPACITY = 16;
+    // 每条记录的固定开销估算（数组槽位、ID 等）
+    private static final int ENTRY_OVERHEAD = 32;
+    
+    /**
+     * 接收补发的事件
+     */
+    interface Sink {
+        void accept(long id, String name, Object data);
+    }
+    
+    private final SseReplayConfig config;
+    private final AtomicLong sequence = new AtomicLong();
+    private final Map<String, Buffer> buffers = new ConcurrentHashMap<>();
+    private final AtomicLong totalBytes = new AtomicLong();
+    private final AtomicBoolean trimming = new AtomicBoolean();
+    
+    private final Counter replayedCounter;
+    private final Counter gapCounter;
+    private final Counter ttlEvictedCounter;
+    private final Counter memoryEvictedCounter;
+    
+    SseReplayStore(SseReplayConfig config) {
+        this.config = config;
+        this.replayedCounter = Counter.builder("sse.replay.replayed").register(Metrics.globalRegistry);
+        this.gapCounter = Counter.builder("sse.replay.gaps")
+                .description("Resumes whose Last-Event-ID was older than the retained events")
+                .register(Metrics.globalRegistry);
+        this.ttlEvictedCounter = Counter.builder("sse.replay.evicted").tag("reason", "ttl").register(Metrics.globalRegistry);
+        this.memoryEvictedCounter = Counter.builder("sse.replay.evicted").tag("reason", "memory").register(Metrics.globalRegistry);
+        Gauge.builder("sse.replay.sessions", buffers, Map::size).register(Metrics.globalRegistry);
+        Gauge.builder("sse.replay.bytes", totalBytes, AtomicLong::get).register(Metrics.globalRegistry);
+    }
+    
+    /**
+     * 为事件分配 ID 并记录到会话的回放缓冲中。deliver 在会话锁内调用，同一会话的事件按 ID 顺序入队
+     */
+    void record(String sessionId, String name, Object data, Sink deliver) {
+        Buffer buffer = bufferOf(sessionId);
+        if (buffer == null) {
+            deliver.accept(sequence.incrementAndGet(), name, data);
+            return;
+        }
+        synchronized (buffer) {
+            long id = sequence.incrementAndGet();
+            append(buffer, id, name, data);
+            deliver.accept(id, name, data);
+        }
+    }
+    
+    /**
+     * 记录流结束，onEnd 在会话锁内调用
+     */
+    void recordEnd(String sessionId, Runnable onEnd) {
+        Buffer buffer = bufferOf(sessionId);
+        if (buffer == null) {
+            onEnd.run();
+            return;
+        }
+        synchronized (buffer) {
+            append(buffer, sequence.incrementAndGet(), null, null);
+            onEnd.run();
+        }
+    }
+    
+    /**
+     * 在会话锁内把 ID 大于 lastEventId 的事件交给 sink，遇到流结束记录时停止并返回 true；
+     * 会话没有缓冲或者缓冲中的流还没结束时返回 false
+     */
+    boolean replay(String sessionId, long lastEventId, Sink sink) {
+        if (sessionId == null) {
+            return false;
+        }
+        Buffer buffer = buffers.get(sessionId);
+        if (buffer == null) {
+            return false;
+        }
+        synchronized (buffer) {
+            if (lastEventId < buffer.evictedUpTo) {
+                gapCounter.increment();
+                log.warn("SSE Session[{}]: events {}..{} were evicted before the client resumed", sessionId, lastEventId + 1, buffer.evictedUpTo);
+            }
+            for (int i = 0; i < buffer.count; i++) {
+                int slot = buffer.slot(i);
+                long id = buffer.ids[slot];
+                if (id <= lastEventId) {
+                    continue;
+                }
+                if (buffer.names[slot] == null) {
+                    return true;
+                }
+                replayedCounter.increment();
+                sink.accept(id, buffer.names[slot], buffer.data[slot]);
+            }
+            return false;
+        }
+    }
+    
+    /**
+     * 丢弃超过 ttl 没有新事件的会话
+     */
+    void evictExpired() {
+        long deadline = System.nanoTime() - config.getTtl().toNanos();
+        buffers.forEach((sessionId, buffer) -> {
+            if (buffer.lastWriteNanos - deadline < 0 && buffers.remove(sessionId, buffer)) {
+                ttlEvictedCounter.increment();
+                release(buffer);
+            }
+        });
+    }
+    
+    int getSessions() {
+        return buffers.size();
+    }
+    
+    long getTotalBytes() {
+        return totalBytes.get();
+    }
+    
+    private Buffer bufferOf(String sessionId) {
+        if (sessionId == null || !config.isEnabled()) {
+            return null;
+        }
+        return buffers.computeIfAbsent(sessionId, key -> new Buffer(config.getMaxEvents(), config.getMaxBytes()));
+    }
+    
+    private void append(Buffer buffer, long id, String name, Object data) {
+        // 已经被淘汰的缓冲不再计入
+        if (buffer.released) {
+            return;
+        }
+        long delta = buffer.append(id, name, data, sizeOf(name, data));
+        if (totalBytes.addAndGet(delta) > config.getMaxTotalBytes()) {
+            trimToBudget();
+        }
+    }
+    
+    // 合计字节数超限：按最后写入时间从旧到新整体淘汰会话，直到回落到上限的 90%
+    private void trimToBudget() {
+        if (!trimming.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            List<Map.Entry<String, Buffer>> entries = new ArrayList<>(buffers.entrySet());
+            entries.sort(Comparator.comparingLong(entry -> entry.getValue().lastWriteNanos));
+            long target = config.getMaxTotalBytes() / 10 * 9;
+            for (Map.Entry<String, Buffer> entry : entries) {
+                if (totalBytes.get() <= target) {
+                    break;
+                }
+                if (buffers.remove(entry.getKey(), entry.getValue())) {
+                    memoryEvictedCounter.increment();
+                    release(entry.getValue());
+                }
+            }
+        } finally {
+            trimming.set(false);
+        }
+    }
+    
+    private void release(Buffer buffer) {
+        synchronized (buffer) {
+            totalBytes.addAndGet(-buffer.bytes);
+            buffer.released = true;
+            buffer.bytes = 0;
+            buffer.count = 0;
+        }
+    }
+    
+    private static int sizeOf(String name, Object data) {
+        int size = ENTRY_OVERHEAD;
+        if (name != null) {
+            size += name.length() * 2;
+        }
+        if (data instanceof String text) {
+            size += text.length() * 2;
+        } else if (data != null) {
+            size += ENTRY_OVERHEAD;
+        }
+        return size;
+    }
+    
+    /**
+     * 单个会话的环形缓冲，所有访问都在 synchronized (buffer) 内
+     */
+    private static final class Buffer {
+        private final int maxEvents;
+        private final long maxBytes;
+        private long[] ids;
+        private String[] names;
+        private Object[] data;
+        private int[] sizes;
+        private int head;
+        private int count;
+        private long bytes;
+        // 已经被挤出缓冲的最大 ID
+        private long evictedUpTo;
+        private boolean released;
+        private volatile long lastWriteNanos = System.nanoTime();
+        
+        private Buffer(int maxEvents, long maxBytes) {
+            this.maxEvents = Math.max(1, maxEvents);
+            this.maxBytes = maxBytes;
+            int capacity = Math.min(INITIAL_CAPACITY, this.maxEvents);
+            this.ids = new long[capacity];
+            this.names = new String[capacity];
+            this.data = new Object[capacity];
+            this.sizes = new int[capacity];
+        }
+        
+        // 返回字节数的变化量
+        private long append(long id, String name, Object value, int size) {
+            long before = bytes;
+            if (count == ids.length && ids.length < maxEvents) {
+                grow();
+            }
+            while (count > 0 && (count == ids.length || bytes + size > maxBytes)) {
+                removeOldest();
+            }
+            int slot = slot(count);
+            ids[slot] = id;
+            names[slot] = name;
+            data[slot] = value;
+            sizes[slot] = size;
+            count++;
+            bytes += size;
+            lastWriteNanos = System.nanoTime();
+            return bytes - before;
+        }
+        
+        private int slot(int index) {
+            return (head + index) % ids.length;
+        }
+        
+        private void removeOldest() {
+            evictedUpTo = ids[head];
+            bytes -= sizes[head];
+            names[head] = null;
+            data[head] = null;
+            head = (head + 1) % ids.length;
+            count--;
+        }
+        
+        private void grow() {
+            int capacity = Math.min(maxEvents, ids.length * 2);
+            long[] newIds = new long[capacity];
+            String[] newNames = new String[capacity];
+            Object[] newData = new Object[capacity];
+            int[] newSizes = new int[capacity];
+            for (int i = 0; i < count; i++) {
+                int slot = slot(i);
+                newIds[i] = ids[slot];
+                newNames[i] = names[slot];
+                newData[i] = data[slot];
+                newSizes[i] = sizes[slot];
+            }
+            ids = newIds;
+            names = newNames;
+            data = newData;
+            sizes = newSizes;
+            head = 0;
+        }
+    }
+}
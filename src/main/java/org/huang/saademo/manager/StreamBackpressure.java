@@ -0,0 +1,159 @@
+package org.huang.saademo.manager;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Metrics;
+import lombok.extern.slf4j.Slf4j;
+import org.huang.saademo.config.StreamBackpressureConfig;
+import org.huang.saademo.config.VirtualThreadTaskExecutor;
+import org.reactivestreams.Subscription;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.Disposables;
+import reactor.core.Exceptions;
+import reactor.core.publisher.BaseSubscriber;
+import reactor.core.publisher.BufferOverflowStrategy;
+import reactor.core.publisher.Flux;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * 按批请求的流式订阅：每次向上游请求 prefetch 个输出，消费掉四分之三后（和 limitRate 的补充时机一致）
+ * 等写端就绪再补齐，写端积压时上游的请求量保持不变，慢客户端不会让输出在内存里无限堆积。
+ * 上游不遵守背压（例如 Flux.create 直接推送）时，超出的输出进入有界缓冲区，缓冲区满时按端点配置的策略处理。
+ * 指标：stream.backpressure.overflow，带 endpoint、policy 标签。
+ */
+@Component
+@Slf4j
+public class StreamBackpressure {
+    
+    private final StreamBackpressureConfig config;
+    
+    @Autowired
+    public StreamBackpressure(StreamBackpressureConfig config) {
+        this.config = config;
+    }
+    
+    public <T> void subscribe(String endpoint, Flux<T> stream, WriterReadiness readiness, Consumer<? super T> onNext,
+                              Consumer<? super Throwable> onError, Runnable onComplete) {
+        subscribe(endpoint, stream, readiness, onNext, onError, onComplete, Disposables.swap());
+    }
+    
+    /**
+     * 语义同 {@link VirtualThreadTaskExecutor#subscribe(Flux, Consumer, Consumer, Runnable, Disposable.Swap)}，按 endpoint 的配置限制请求量
+     */
+    public <T> void subscribe(String endpoint, Flux<T> stream, WriterReadiness readiness, Consumer<? super T> onNext,
+                              Consumer<? super Throwable> onError, Runnable onComplete, Disposable.Swap cancellation) {
+        subscribe(endpoint, stream, Function.identity(), readiness, onNext, onError, onComplete, cancellation);
+    }
+    
+    public <T> void subscribe(String endpoint, Flux<T> stream, Function<Flux<T>, Flux<T>> stage, WriterReadiness readiness,
+                              Consumer<? super T> onNext, Consumer<? super Throwable> onError, Runnable onComplete) {
+        subscribe(endpoint, stream, stage, readiness, onNext, onError, onComplete, Disposables.swap());
+    }
+    
+    /**
+     * stage 接在有界缓冲区之后（例如 StreamCoalescer 的合并），上游不遵守背压时溢出在缓冲区处理，stage 本身需要遵守下游的请求量
+     */
+    public <T> void subscribe(String endpoint, Flux<T> stream, Function<Flux<T>, Flux<T>> stage, WriterReadiness readiness,
+                              Consumer<? super T> onNext, Consumer<? super Throwable> onError, Runnable onComplete,
+                              Disposable.Swap cancellation) {
+        StreamBackpressureConfig.Policy policy = config.forEndpoint(endpoint);
+        if (!Boolean.TRUE.equals(policy.getEnabled())) {
+            VirtualThreadTaskExecutor.subscribe(stream.transform(stage), onNext, onError, onComplete, cancellation);
+            return;
+        }
+        Counter overflowCounter = Counter.builder("stream.backpressure.overflow")
+                .tag("endpoint", endpoint)
+                .tag("policy", policy.getOverflow().name())
+                .register(Metrics.globalRegistry);
+        BoundedDemandSubscriber<T> subscriber = new BoundedDemandSubscriber<>(policy.getPrefetch(), readiness, onNext, onError, onComplete);
+        Flux<T> buffered = stream.onBackpressureBuffer(policy.getBufferSize(), dropped -> {
+            overflowCounter.increment();
+            if (policy.getOverflow() == StreamBackpressureConfig.Overflow.ERROR) {
+                // onBackpressureBuffer 的溢出错误要等缓冲区被消费完才会送达，写端卡住时永远送不到，这里直接结束
+                log.warn("Stream[{}] backpressure buffer full ({}), terminating slow consumer", endpoint, policy.getBufferSize());
+                subscriber.fail(Exceptions.failWithOverflow("Stream[" + endpoint + "] backpressure buffer full"));
+            }
+        }, strategy(policy.getOverflow())).transform(stage);
+        VirtualThreadTaskExecutor.subscribe(buffered, subscriber, cancellation);
+    }
+    
+    private static BufferOverflowStrategy strategy(StreamBackpressureConfig.Overflow overflow) {
+        return switch (overflow) {
+            case ERROR -> BufferOverflowStrategy.ERROR;
+            case DROP_OLDEST -> BufferOverflowStrategy.DROP_OLDEST;
+            case DROP_LATEST -> BufferOverflowStrategy.DROP_LATEST;
+        };
+    }
+    
+    private static final class BoundedDemandSubscriber<T> extends BaseSubscriber<T> {
+        private final int prefetch;
+        private final int replenishAt;
+        private final WriterReadiness readiness;
+        private final Consumer<? super T> onNext;
+        private final Consumer<? super Throwable> onError;
+        private final Runnable onComplete;
+        // 上次请求之后已经交付的输出数
+        private final AtomicInteger delivered = new AtomicInteger();
+        // 已经在等写端就绪，避免重复登记
+        private final AtomicBoolean awaitingWriter = new AtomicBoolean();
+        private final AtomicBoolean terminated = new AtomicBoolean();
+        
+        private BoundedDemandSubscriber(int prefetch, WriterReadiness readiness, Consumer<? super T> onNext,
+                                        Consumer<? super Throwable> onError, Runnable onComplete) {
+            this.prefetch = Math.max(1, prefetch);
+            this.replenishAt = Math.max(1, this.prefetch - (this.prefetch >> 2));
+            this.readiness = readiness;
+            this.onNext = onNext;
+            this.onError = onError;
+            this.onComplete = onComplete;
+        }
+        
+        @Override
+        protected void hookOnSubscribe(Subscription subscription) {
+            request(prefetch);
+        }
+        
+        @Override
+        protected void hookOnNext(T value) {
+            onNext.accept(value);
+            if (delivered.incrementAndGet() >= replenishAt && awaitingWriter.compareAndSet(false, true)) {
+                readiness.whenReady(this::replenish);
+            }
+        }
+        
+        @Override
+        protected void hookOnError(Throwable throwable) {
+            if (terminated.compareAndSet(false, true)) {
+                onError.accept(throwable);
+            }
+        }
+        
+        @Override
+        protected void hookOnComplete() {
+            if (terminated.compareAndSet(false, true)) {
+                onComplete.run();
+            }
+        }
+        
+        // 不经过上游直接以错误结束：取消订阅后回调 onError
+        private void fail(Throwable error) {
+            if (terminated.compareAndSet(false, true)) {
+                cancel();
+                onError.accept(error);
+            }
+        }
+        
+        private void replenish() {
+            awaitingWriter.set(false);
+            int consumed = delivered.getAndSet(0);
+            if (consumed > 0 && !isDisposed()) {
+                request(consumed);
+            }
+        }
+    }
+}
@@ -0,0 +1,220 @@
+package org.huang.saademo.manager;
+
+import com.alibaba.cloud.ai.graph.NodeOutput;
+import com.alibaba.cloud.ai.graph.streaming.OutputType;
+import com.alibaba.cloud.ai.graph.streaming.StreamingOutput;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Metrics;
+import org.huang.saademo.config.StreamCoalesceConfig;
+import org.reactivestreams.Subscription;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.publisher.BaseSubscriber;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.FluxSink;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 把连续的 AGENT_MODEL_STREAMING 输出块合并成一个输出，减少 SSE 帧数和 flush 次数。
+ * 同一 Agent、同一节点、同为正文（或同为思考内容）的块才会合并；一批块在 window 到期或累计到 max-bytes 时发出，
+ * 遇到其他类型的输出（工具结果、模型结束、中断等）、流结束或出错时先把已攒的块发出去，顺序不变。
+ * 合并发生在 StreamDeadlineGuard 之后，首 token / token 间隔的计时不受影响。
+ * 合并阶段遵守下游的请求量，和 StreamBackpressure 一起使用时作为它的 stage 放在有界缓冲区之后。
+ */
+@Component
+public class StreamCoalescer {
+    
+    private static final String REASONING_KEY = "reasoningContent";
+    
+    private final StreamCoalesceConfig config;
+    private final Counter chunksCounter;
+    private final Counter framesCounter;
+    
+    @Autowired
+    public StreamCoalescer(StreamCoalesceConfig config) {
+        this.config = config;
+        this.chunksCounter = Counter.builder("stream.coalesce.chunks")
+                .description("Model output chunks entering the coalescing stage")
+                .register(Metrics.globalRegistry);
+        this.framesCounter = Counter.builder("stream.coalesce.frames")
+                .description("Model output frames leaving the coalescing stage")
+                .register(Metrics.globalRegistry);
+    }
+    
+    public Flux<NodeOutput> coalesce(Flux<NodeOutput> stream) {
+        if (!config.isEnabled()) {
+            return stream;
+        }
+        return Flux.create(sink -> {
+            Batch batch = new Batch(sink);
+            sink.onRequest(n -> batch.pull());
+            sink.onDispose(() -> {
+                batch.dispose();
+                batch.cancelTimer();
+            });
+            stream.subscribe(batch);
+        });
+    }
+    
+    /**
+     * 可合并的输出块返回合并键，其他输出返回 null
+     */
+    private static String coalesceKey(NodeOutput output) {
+        if (!(output instanceof StreamingOutput<?> streaming) || streaming.getOutputType() != OutputType.AGENT_MODEL_STREAMING) {
+            return null;
+        }
+        if (!(streaming.message() instanceof AssistantMessage message) || message.hasToolCalls()) {
+            return null;
+        }
+        String text = message.getText();
+        boolean hasText = text != null && !text.isEmpty();
+        boolean hasReasoning = !reasoningOf(message).isEmpty();
+        if (hasText == hasReasoning) {
+            return null;
+        }
+        return streaming.agent() + "|" + streaming.node() + "|" + (hasReasoning ? "reasoning" : "text");
+    }
+    
+    private static String reasoningOf(Message message) {
+        Object reasoning = message.getMetadata().get(REASONING_KEY);
+        return reasoning == null ? "" : reasoning.toString();
+    }
+    
+    private static int utf8Length(String text) {
+        int bytes = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            bytes += c < 0x80 ? 1 : c < 0x800 ? 2 : Character.isSurrogate(c) ? 2 : 3;
+        }
+        return bytes;
+    }
+    
+    /**
+     * 一次流的合并状态。上游回调和定时器在不同线程，所有方法都加锁，保证输出顺序。
+     * 下游有需求时才向上游请求下一个输出，每次只请求一个：一个输出最多让 sink 多出两项，
+     * 下游没有需求时 sink 里最多攒下这几项和一批到期的块，不会因为合并阶段无限缓冲。
+     */
+    private final class Batch extends BaseSubscriber<NodeOutput> {
+        private final FluxSink<NodeOutput> sink;
+        // 已经向上游请求了一个输出，还没有收到
+        private final AtomicBoolean pulling = new AtomicBoolean();
+        private final List<StreamingOutput<?>> chunks = new ArrayList<>();
+        private final StringBuilder content = new StringBuilder();
+        private String key;
+        private boolean reasoning;
+        private int bytes;
+        private Disposable timer;
+        
+        private Batch(FluxSink<NodeOutput> sink) {
+            this.sink = sink;
+        }
+        
+        @Override
+        protected void hookOnSubscribe(Subscription subscription) {
+            pull();
+        }
+        
+        @Override
+        protected void hookOnNext(NodeOutput output) {
+            append(output);
+            pulling.set(false);
+            pull();
+        }
+        
+        @Override
+        protected void hookOnError(Throwable error) {
+            flushThen(() -> sink.error(error));
+        }
+        
+        @Override
+        protected void hookOnComplete() {
+            flushThen(sink::complete);
+        }
+        
+        private void pull() {
+            if (sink.requestedFromDownstream() > 0 && upstream() != null && !isDisposed() && pulling.compareAndSet(false, true)) {
+                request(1);
+            }
+        }
+        
+        private synchronized void append(NodeOutput output) {
+            String outputKey = coalesceKey(output);
+            if (outputKey == null) {
+                flush();
+                sink.next(output);
+                return;
+            }
+            chunksCounter.increment();
+            if (!outputKey.equals(key)) {
+                flush();
+            }
+            StreamingOutput<?> chunk = (StreamingOutput<?>) output;
+            Message message = chunk.message();
+            String part = outputKey.endsWith("reasoning") ? reasoningOf(message) : message.getText();
+            if (chunks.isEmpty()) {
+                key = outputKey;
+                reasoning = outputKey.endsWith("reasoning");
+                timer = Schedulers.parallel().schedule(this::onTimer, config.getWindow().toMillis(), TimeUnit.MILLISECONDS);
+            }
+            chunks.add(chunk);
+            content.append(part);
+            bytes += utf8Length(part);
+            if (bytes >= config.getMaxBytes()) {
+                flush();
+            }
+        }
+        
+        private synchronized void flushThen(Runnable terminal) {
+            flush();
+            terminal.run();
+        }
+        
+        private synchronized void onTimer() {
+            flush();
+        }
+        
+        private synchronized void cancelTimer() {
+            if (timer != null) {
+                timer.dispose();
+            }
+        }
+        
+        private void flush() {
+            if (chunks.isEmpty()) {
+                return;
+            }
+            cancelTimer();
+            sink.next(chunks.size() == 1 ? chunks.get(0) : merge());
+            framesCounter.increment();
+            chunks.clear();
+            content.setLength(0);
+            key = null;
+            bytes = 0;
+        }
+        
+        private NodeOutput merge() {
+            StreamingOutput<?> first = chunks.get(0);
+            StreamingOutput<?> last = chunks.get(chunks.size() - 1);
+            Map<String, Object> properties = new HashMap<>(first.message().getMetadata());
+            String text;
+            if (reasoning) {
+                properties.put(REASONING_KEY, content.toString());
+                text = first.message().getText();
+            } else {
+                text = content.toString();
+            }
+            AssistantMessage merged = AssistantMessage.builder().content(text).properties(properties).build();
+            return new StreamingOutput<>(merged, first.node(), first.agent(), last.state(), last.tokenUsage(), OutputType.AGENT_MODEL_STREAMING);
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package org.huang.saademo.manager;
+
+import com.alibaba.cloud.ai.graph.NodeOutput;
+import com.alibaba.cloud.ai.graph.streaming.OutputType;
+import com.alibaba.cloud.ai.graph.streaming.StreamingOutput;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Metrics;
+import org.huang.saademo.common.StreamDeadlineExceededException;
+import org.huang.saademo.common.StreamDeadlineExceededException.Kind;
+import org.huang.saademo.config.StreamDeadlineConfig;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 给 agent.stream 返回的流加上首 token、token 间隔和总时长三个时限。
+ * 计时规则：开始后以及每个非模型 token 的输出之后，按首 token 时限等待下一个输出；模型 token 之后按 token 间隔计时；
+ * 模型输出结束（AGENT_MODEL_FINISHED）到下一个输出之间是工具、Hook 的执行时间，只受总时长限制。
+ * 传入 {@link ModelCalls} 时首 token 时限从模型请求真正发出时才开始计时（见 StreamDeadlineInterceptor），
+ * 模型调用前的 Hook（例如同步的上下文压缩）不占用首 token 时限。
+ * 超时后上游订阅被取消（正在进行的 HTTP 流随之中止），下游收到 StreamDeadlineExceededException。
+ */
+@Component
+public class StreamDeadlineGuard {
+    
+    private final StreamDeadlineConfig config;
+    
+    @Autowired
+    public StreamDeadlineGuard(StreamDeadlineConfig config) {
+        this.config = config;
+    }
+    
+    public Flux<NodeOutput> guard(Flux<NodeOutput> stream, String model) {
+        return guard(stream, model, null);
+    }
+    
+    /**
+     * calls 为 null 时首 token 时限从上一个非模型 token 的输出开始计时
+     */
+    public Flux<NodeOutput> guard(Flux<NodeOutput> stream, String model, ModelCalls calls) {
+        StreamDeadlineConfig.Deadlines deadlines = config.forModel(model);
+        AtomicReference<StreamDeadlineExceededException> breach = new AtomicReference<>();
+        // 已经结束的模型调用数，下一次首 token 计时等待第 finished + 1 次模型请求发出
+        AtomicLong finished = new AtomicLong();
+        
+        Flux<NodeOutput> guarded = stream.timeout(
+                firstToken(deadlines, model, breach, calls, finished),
+                output -> nextTimeout(output, deadlines, model, breach, calls, finished),
+                Flux.defer(() -> Flux.error(breach.get())));
+        
+        Duration total = deadlines.getTotal();
+        if (!enabled(total)) {
+            return guarded;
+        }
+        AtomicBoolean totalExpired = new AtomicBoolean();
+        return guarded
+                .takeUntilOther(Mono.delay(total).doOnNext(tick -> totalExpired.set(true)))
+                .concatWith(Mono.defer(() -> totalExpired.get()
+                        ? Mono.error(exceeded(Kind.TOTAL, total, model))
+                        : Mono.empty()));
+    }
+    
+    private Mono<?> arm(Kind kind, Duration limit, String model, AtomicReference<StreamDeadlineExceededException> breach) {
+        if (!enabled(limit)) {
+            return Mono.never();
+        }
+        return Mono.delay(limit).doOnNext(tick -> breach.set(exceeded(kind, limit, model)));
+    }
+    
+    private Mono<?> nextTimeout(NodeOutput output, StreamDeadlineConfig.Deadlines deadlines, String model,
+                                AtomicReference<StreamDeadlineExceededException> breach, ModelCalls calls, AtomicLong finished) {
+        OutputType type = output instanceof StreamingOutput<?> streamingOutput ? streamingOutput.getOutputType() : null;
+        if (type == OutputType.AGENT_MODEL_STREAMING) {
+            return arm(Kind.INTER_TOKEN, deadlines.getInterTokenGap(), model, breach);
+        }
+        if (type == OutputType.AGENT_MODEL_FINISHED) {
+            finished.incrementAndGet();
+            return Mono.never();
+        }
+        if (type == OutputType.AGENT_TOOL_STREAMING) {
+            // 工具执行中，只受总时长限制
+            return Mono.never();
+        }
+        // 普通节点输出（START、工具结束、子图节点等）之后等待下一次模型调用的首 token
+        return firstToken(deadlines, model, breach, calls, finished);
+    }
+    
+    private Mono<?> firstToken(StreamDeadlineConfig.Deadlines deadlines, String model,
+                               AtomicReference<StreamDeadlineExceededException> breach, ModelCalls calls, AtomicLong finished) {
+        if (calls == null) {
+            return arm(Kind.TIME_TO_FIRST_TOKEN, deadlines.getTimeToFirstToken(), model, breach);
+        }
+        return Mono.defer(() -> calls.awaitIssued(finished.get() + 1))
+                .flatMap(issued -> arm(Kind.TIME_TO_FIRST_TOKEN, deadlines.getTimeToFirstToken(), model, breach));
+    }
+    
+    private static boolean enabled(Duration limit) {
+        return limit != null && !limit.isZero() && !limit.isNegative();
+    }
+    
+    private static StreamDeadlineExceededException exceeded(Kind kind, Duration limit, String model) {
+        Counter.builder("stream.deadline.exceeded")
+                .tag("kind", kind.name())
+                .tag("model", model)
+                .register(Metrics.globalRegistry)
+                .increment();
+        return new StreamDeadlineExceededException(kind, limit);
+    }
+    
+    /**
+     * 一次运行中已经发出的模型请求数，通过 RunnableConfig 的 metadata 传给 StreamDeadlineInterceptor，在请求发出时累加
+     */
+    public static final class ModelCalls {
+        
+        public static final String METADATA_KEY = "_stream_model_calls";
+        
+        private final Sinks.Many<Long> issued = Sinks.many().replay().latest();
+        private long count;
+        
+        public synchronized void issued() {
+            issued.tryEmitNext(++count);
+        }
+        
+        // 第 n 次模型请求发出时发出信号，已经发出过则立即发出
+        Mono<Long> awaitIssued(long n) {
+            return issued.asFlux().filter(count -> count >= n).next();
+        }
+        
+        /**
+         * 从模型调用的 context（即 RunnableConfig 的 metadata）中取出，没有则返回 null
+         */
+        public static ModelCalls of(Map<String, Object> context) {
+            return context != null && context.get(METADATA_KEY) instanceof ModelCalls calls ? calls : null;
+        }
+    }
+}
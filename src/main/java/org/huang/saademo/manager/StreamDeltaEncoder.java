@@ -0,0 +1,238 @@
+package org.huang.saademo.manager;
+
+import com.alibaba.cloud.ai.graph.NodeOutput;
+import com.alibaba.cloud.ai.graph.OverAllState;
+import com.fasterxml.jackson.core.JsonGenerator;
+import org.huang.saademo.common.Constants;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Consumer;
+
+/**
+ * 紧凑流协议（sse.protocol.mode=compact）：按流记住已经发给客户端的内容，只发送新增的部分，带宽与新内容成正比而不是与历史长度成正比。
+ * <ul>
+ *     <li>[SEGMENT]：outputType / agentName / type 变化时发送一次，之后同一段内的模型输出不再重复</li>
+ *     <li>模型输出（[STREAMING_OUTPUT] 等）：{"text": ...}，metadata 只在与上一次不同时附带</li>
+ *     <li>节点输出（[NODE_OUTPUT] 等）：节点输出相对上一次状态的差异：set（新值或被替换的值）、append（列表在末尾追加的元素）、remove（被删除的键）</li>
+ * </ul>
+ * 频道模式（sse.protocol.mode=multiplexed）下并行的 Agent 交替输出时不再反复切换段：
+ * <ul>
+ *     <li>[CHANNEL]：{"ch": n, "agent": ..., "outputType": ..., "type": ..., "metadata": ...}，Agent 第一次输出时分配频道号，
+ *     outputType / type / metadata 变化时用同一个频道号重新声明</li>
+ *     <li>事件名为频道号的帧：数据就是模型输出的文本，客户端按事件名分发，不需要解析 JSON</li>
+ * </ul>
+ * 值按 toString 输出，与原来的 [NODE_OUTPUT] 内容一致。与 SseFrameEncoder 一样不是线程安全的，由 onNext 串行调用。
+ */
+public final class StreamDeltaEncoder {
+    
+    public static final String EVENT_SEGMENT = "[SEGMENT]";
+    
+    private final SseFrameEncoder frames = new SseFrameEncoder();
+    // 模型输出和节点输出沿用各个接口原来的事件名
+    private final String outputEvent;
+    private final String nodeEvent;
+    private final Consumer<SseEmitter.SseEventBuilder> sink;
+    private final boolean agentChannels;
+    // Agent 名 -> 频道，频道号按第一次输出的顺序分配
+    private final Map<String, AgentChannel> channels = new HashMap<>();
+    
+    private String outputType;
+    private String agentName;
+    private String type;
+    private boolean segmentOpen;
+    private Map<String, Object> metadata;
+    // 已经发给客户端的状态：列表保存元素的副本，其余值保存 toString 的结果
+    private final Map<String, Object> sentState = new HashMap<>();
+    
+    public StreamDeltaEncoder(String outputEvent, String nodeEvent, Consumer<SseEmitter.SseEventBuilder> sink) {
+        this(outputEvent, nodeEvent, false, sink);
+    }
+    
+    public StreamDeltaEncoder(String outputEvent, String nodeEvent, boolean agentChannels, Consumer<SseEmitter.SseEventBuilder> sink) {
+        this.outputEvent = outputEvent;
+        this.nodeEvent = nodeEvent;
+        this.agentChannels = agentChannels;
+        this.sink = sink;
+    }
+    
+    public void streamingOutput(String outputType, String agentName, String type, String text, Map<String, Object> metadata) {
+        if (agentChannels) {
+            channelOutput(outputType, agentName, type, text, metadata);
+            return;
+        }
+        if (!segmentOpen || !Objects.equals(this.outputType, outputType) || !Objects.equals(this.agentName, agentName)
+                || !Objects.equals(this.type, type)) {
+            this.outputType = outputType;
+            this.agentName = agentName;
+            this.type = type;
+            segmentOpen = true;
+            sink.accept(frames.json(SseFrameEncoder.NO_ID, EVENT_SEGMENT, json -> {
+                json.writeStartObject();
+                json.writeStringField("outputType", outputType);
+                json.writeStringField("agentName", agentName);
+                json.writeStringField("type", type);
+                json.writeEndObject();
+            }));
+        }
+        boolean metadataChanged = !Objects.equals(this.metadata, metadata);
+        if (metadataChanged) {
+            // 复制一份，调用方之后修改同一个 Map 也能被发现
+            this.metadata = metadata == null ? null : new HashMap<>(metadata);
+        }
+        sink.accept(frames.json(SseFrameEncoder.NO_ID, outputEvent, json -> {
+            json.writeStartObject();
+            json.writeStringField("text", text);
+            if (metadataChanged) {
+                json.writeFieldName("metadata");
+                json.writeObject(metadata);
+            }
+            json.writeEndObject();
+        }));
+    }
+    
+    private void channelOutput(String outputType, String agentName, String type, String text, Map<String, Object> metadata) {
+        AgentChannel channel = channels.get(agentName);
+        if (channel == null) {
+            channel = new AgentChannel(channels.size() + 1);
+            channels.put(agentName, channel);
+        }
+        if (!channel.announced || !Objects.equals(channel.outputType, outputType) || !Objects.equals(channel.type, type)
+                || !Objects.equals(channel.metadata, metadata)) {
+            channel.announced = true;
+            channel.outputType = outputType;
+            channel.type = type;
+            channel.metadata = metadata == null ? null : new HashMap<>(metadata);
+            int number = channel.number;
+            sink.accept(frames.json(SseFrameEncoder.NO_ID, Constants.SSE_EVENT_CHANNEL, json -> {
+                json.writeStartObject();
+                json.writeNumberField("ch", number);
+                json.writeStringField("agent", agentName);
+                json.writeStringField("outputType", outputType);
+                json.writeStringField("type", type);
+                json.writeFieldName("metadata");
+                json.writeObject(metadata);
+                json.writeEndObject();
+            }));
+        }
+        sink.accept(frames.text(SseFrameEncoder.NO_ID, channel.name, text == null ? "" : text));
+    }
+    
+    /**
+     * 节点输出，状态没有变化时也会发送（只带节点名），客户端据此知道哪个节点执行完了
+     */
+    public void nodeOutput(NodeOutput output) {
+        OverAllState state = output.state();
+        Map<String, Object> data = state == null ? Map.of() : state.data();
+        Map<String, Object> set = new LinkedHashMap<>();
+        Map<String, List<?>> append = new LinkedHashMap<>();
+        List<String> remove = new ArrayList<>();
+        
+        for (Map.Entry<String, Object> entry : data.entrySet()) {
+            String key = entry.getKey();
+            Object previous = sentState.get(key);
+            if (entry.getValue() instanceof List<?> list) {
+                if (previous instanceof List<?> sent && isPrefix(sent, list)) {
+                    if (list.size() > sent.size()) {
+                        append.put(key, list.subList(sent.size(), list.size()));
+                    }
+                } else {
+                    set.put(key, list);
+                }
+                sentState.put(key, new ArrayList<>(list));
+            } else {
+                String rendered = String.valueOf(entry.getValue());
+                if (!rendered.equals(previous)) {
+                    set.put(key, rendered);
+                    sentState.put(key, rendered);
+                }
+            }
+        }
+        for (Iterator<String> keys = sentState.keySet().iterator(); keys.hasNext(); ) {
+            String key = keys.next();
+            if (!data.containsKey(key)) {
+                remove.add(key);
+                keys.remove();
+            }
+        }
+        
+        sink.accept(frames.json(SseFrameEncoder.NO_ID, nodeEvent, json -> {
+            json.writeStartObject();
+            json.writeStringField("node", output.node());
+            json.writeStringField("agent", output.agent());
+            if (!set.isEmpty()) {
+                json.writeObjectFieldStart("set");
+                for (Map.Entry<String, Object> entry : set.entrySet()) {
+                    json.writeFieldName(entry.getKey());
+                    if (entry.getValue() instanceof List<?> list) {
+                        writeList(json, list);
+                    } else {
+                        json.writeString((String) entry.getValue());
+                    }
+                }
+                json.writeEndObject();
+            }
+            if (!append.isEmpty()) {
+                json.writeObjectFieldStart("append");
+                for (Map.Entry<String, List<?>> entry : append.entrySet()) {
+                    json.writeFieldName(entry.getKey());
+                    writeList(json, entry.getValue());
+                }
+                json.writeEndObject();
+            }
+            if (!remove.isEmpty()) {
+                json.writeArrayFieldStart("remove");
+                for (String key : remove) {
+                    json.writeString(key);
+                }
+                json.writeEndArray();
+            }
+            json.writeEndObject();
+        }));
+    }
+    
+    // 消息列表通常只在末尾追加，元素一般是同一个对象，先比较引用
+    private static boolean isPrefix(List<?> sent, List<?> current) {
+        if (sent.size() > current.size()) {
+            return false;
+        }
+        for (int i = 0; i < sent.size(); i++) {
+            Object a = sent.get(i);
+            Object b = current.get(i);
+            if (a != b && !Objects.equals(a, b)) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    private static void writeList(JsonGenerator json, List<?> list) throws IOException {
+        json.writeStartArray();
+        for (Object element : list) {
+            json.writeString(String.valueOf(element));
+        }
+        json.writeEndArray();
+    }
+    
+    // 一个 Agent 的频道和最近一次声明的内容
+    private static final class AgentChannel {
+        private final int number;
+        private final String name;
+        private boolean announced;
+        private String outputType;
+        private String type;
+        private Map<String, Object> metadata;
+        
+        private AgentChannel(int number) {
+            this.number = number;
+            this.name = String.valueOf(number);
+        }
+    }
+}
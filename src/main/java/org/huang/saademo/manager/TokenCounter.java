@@ -0,0 +1,149 @@
+package org.huang.saademo.manager;
+
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.stereotype.Component;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 上下文 token 计数，MessageManageHook 在每次模型调用前后用它判断是否需要压缩。
+ * 正文用 {@link QwenTokenizer} 精确计算，每条消息再加上 ChatML 模板的固定部分：&lt;|im_start|&gt;角色\n正文&lt;|im_end|&gt;\n。
+ * 正文单独分词，以空白加换行开头的正文与模板里的换行可能合并成一个 token，这种情况会多算一个。
+ * <p>
+ * 同一个 threadId 的历史只会在末尾追加，按 threadId 记住已经计算过的消息的指纹和前缀和：
+ * 新的一步只比较指纹，从第一条不同的消息开始重新计算，其余直接复用，每一步的开销与新消息成正比而不是与整个历史成正比。
+ * 指纹由文本的 hashCode（String 会缓存，从检查点重新加载的新对象也只需要算一次）、长度和消息类型组成；
+ * 上下文被压缩替换后第一条消息的指纹不同，整体重新计算。
+ */
+@Component
+public class TokenCounter {
+    
+    // 每条消息的 <|im_start|>、角色后的换行、<|im_end|> 和其后的换行
+    private static final int MESSAGE_OVERHEAD = 4;
+    // 对话末尾引导模型回答的 <|im_start|>assistant\n
+    private static final int CONVERSATION_OVERHEAD = 3;
+    // 最多记住的会话数，超过后淘汰最久没有使用的会话，被淘汰的会话下一次整体重新计算
+    private static final int MAX_THREADS = 10_000;
+    
+    private final Map<String, Tally> tallies = new LinkedHashMap<>(256, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Tally> eldest) {
+            return size() > MAX_THREADS;
+        }
+    };
+    
+    /**
+     * messages 中非空消息的总 token 数，与 {@link #count(List)} 的结果相同；threadId 为 null 时不做记忆
+     */
+    public int count(String threadId, List<Message> messages) {
+        if (threadId == null) {
+            return count(messages);
+        }
+        Tally tally;
+        synchronized (tallies) {
+            tally = tallies.computeIfAbsent(threadId, key -> new Tally());
+        }
+        synchronized (tally) {
+            return tally.update(messages);
+        }
+    }
+    
+    /**
+     * 不做记忆，逐条计算
+     */
+    public int count(List<Message> messages) {
+        if (messages == null) {
+            return 0;
+        }
+        int total = 0;
+        boolean any = false;
+        for (Message message : messages) {
+            if (!isEmpty(message)) {
+                total += estimate(message);
+                any = true;
+            }
+        }
+        return any ? total + CONVERSATION_OVERHEAD : 0;
+    }
+    
+    public int getTrackedThreads() {
+        synchronized (tallies) {
+            return tallies.size();
+        }
+    }
+    
+    /**
+     * 没有文本的消息（例如只有工具调用的助手消息）不计入上下文。与 text.trim().isEmpty() 的判断相同，但不创建新字符串
+     */
+    public static boolean isEmpty(Message message) {
+        String text = message.getText();
+        if (text == null) {
+            return true;
+        }
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) > ' ') {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * 单条消息：模板的固定部分 + 角色 + 正文。元数据不会发给模型，不计入
+     */
+    public static int estimate(Message message) {
+        int tokens = MESSAGE_OVERHEAD + estimate(message.getText());
+        if (message.getMessageType() != null) {
+            tokens += estimate(message.getMessageType().getValue());
+        }
+        return tokens;
+    }
+    
+    public static int estimate(String content) {
+        return QwenTokenizer.getInstance().count(content);
+    }
+    
+    private static long fingerprint(Message message) {
+        String text = message.getText();
+        long print = text.hashCode();
+        print = print * 1_000_003 + text.length();
+        return print * 31 + (message.getMessageType() == null ? -1 : message.getMessageType().ordinal());
+    }
+    
+    /**
+     * 一个会话已经计算过的非空消息：prints[i] 是第 i 条的指纹，sums[i] 是前 i 条的 token 总数
+     */
+    private static final class Tally {
+        private long[] prints = new long[16];
+        private int[] sums = new int[17];
+        private int size;
+        
+        private int update(List<Message> messages) {
+            int index = 0;
+            boolean reusing = true;
+            for (Message message : messages) {
+                if (isEmpty(message)) {
+                    continue;
+                }
+                long print = fingerprint(message);
+                if (reusing && index < size && prints[index] == print) {
+                    index++;
+                    continue;
+                }
+                reusing = false;
+                if (index == prints.length) {
+                    prints = Arrays.copyOf(prints, index * 2);
+                    sums = Arrays.copyOf(sums, index * 2 + 1);
+                }
+                prints[index] = print;
+                sums[index + 1] = sums[index] + estimate(message);
+                index++;
+            }
+            size = index;
+            return index == 0 ? 0 : sums[index] + CONVERSATION_OVERHEAD;
+        }
+    }
+}
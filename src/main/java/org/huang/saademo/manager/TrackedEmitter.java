@@ -0,0 +1,60 @@
+package org.huang.saademo.manager;
+
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * SSEManager 创建的连接，记录最近一次发送事件和最近一次写出（包括心跳）的时间，供心跳时间轮判断是否需要发心跳、是否空闲超时。
+ * 直接调用 send 的调用方（例如多智能体服务）同样会被记录，不会被误判为空闲
+ */
+final class TrackedEmitter extends SseEmitter {
+    
+    private final String sessionId;
+    private final AtomicBoolean closed = new AtomicBoolean();
+    private volatile long lastEventNanos = System.nanoTime();
+    private volatile long lastWriteNanos = lastEventNanos;
+    
+    TrackedEmitter(long timeout, String sessionId) {
+        super(timeout);
+        this.sessionId = sessionId;
+    }
+    
+    @Override
+    public void send(SseEventBuilder builder) throws IOException {
+        super.send(builder);
+        long now = System.nanoTime();
+        lastEventNanos = now;
+        lastWriteNanos = now;
+    }
+    
+    /**
+     * 发送一个注释帧，只刷新写出时间，不算作活跃
+     */
+    void sendHeartbeat() throws IOException {
+        super.send(SseEmitter.event().comment("ping"));
+        lastWriteNanos = System.nanoTime();
+    }
+    
+    String getSessionId() {
+        return sessionId;
+    }
+    
+    long getLastEventNanos() {
+        return lastEventNanos;
+    }
+    
+    long getLastWriteNanos() {
+        return lastWriteNanos;
+    }
+    
+    boolean isClosed() {
+        return closed.get();
+    }
+    
+    // 只有第一次调用返回 true
+    boolean markClosed() {
+        return closed.compareAndSet(false, true);
+    }
+}
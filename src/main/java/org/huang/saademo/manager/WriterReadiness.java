@@ -0,0 +1,17 @@
+package org.huang.saademo.manager;
+
+/**
+ * 写端是否还能接收更多输出。背压订阅在写端就绪时才向上游补充请求
+ */
+public interface WriterReadiness {
+    
+    /**
+     * 直接在订阅线程上阻塞发送的写端（例如直接调用 emitter.send），onNext 返回即视为就绪
+     */
+    WriterReadiness ALWAYS = action -> action.run();
+    
+    /**
+     * 写端就绪时执行一次 action：当前已就绪则立即在调用线程执行，否则由写线程在积压降下来之后执行
+     */
+    void whenReady(Runnable action);
+}
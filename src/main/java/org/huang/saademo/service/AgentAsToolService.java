@@ -1,8 +1,5 @@
 package org.huang.saademo.service;
 
-import com.alibaba.cloud.ai.dashscope.api.DashScopeApi;
-import com.alibaba.cloud.ai.dashscope.chat.DashScopeChatModel;
-import com.alibaba.cloud.ai.dashscope.chat.DashScopeChatOptions;
 import com.alibaba.cloud.ai.graph.NodeOutput;
 import com.alibaba.cloud.ai.graph.OverAllState;
 import com.alibaba.cloud.ai.graph.agent.AgentTool;
@@ -14,17 +11,32 @@ import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import jakarta.annotation.Resource;
 import lombok.extern.slf4j.Slf4j;
-import org.huang.saademo.config.ApiKeyConfig;
+import org.huang.saademo.common.Constants;
+import org.huang.saademo.common.StreamDeadlineExceededException;
+import org.huang.saademo.config.SseProtocolConfig;
+import org.huang.saademo.interceptor.AdaptiveConcurrencyInterceptor;
 import org.huang.saademo.interceptor.ToolRecordInterceptor;
+import org.huang.saademo.manager.ChatModelRegistry;
+import org.huang.saademo.manager.SseFrameEncoder;
+import org.huang.saademo.manager.StreamBackpressure;
+import org.huang.saademo.manager.StreamCoalescer;
+import org.huang.saademo.manager.StreamDeadlineGuard;
+import org.huang.saademo.manager.StreamDeltaEncoder;
+import org.huang.saademo.manager.WriterReadiness;
 import org.springframework.ai.chat.messages.Message;
 import org.springframework.ai.chat.messages.MessageType;
 import org.springframework.ai.chat.messages.ToolResponseMessage;
 import org.springframework.ai.chat.model.ChatModel;
-import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.http.codec.ServerSentEvent;
 import org.springframework.stereotype.Service;
 import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 
@@ -33,10 +45,25 @@ import java.util.Optional;
 public class AgentAsToolService {
     
     @Resource
-    private ApiKeyConfig apiKeyConfig;
+    private ChatModelRegistry chatModelRegistry;
     
     @Resource(name= "streamAgentTaskExecutor")
-    private ThreadPoolTaskExecutor executor;
+    private AsyncTaskExecutor executor;
+    
+    @Resource
+    private StreamDeadlineGuard streamDeadlineGuard;
+    
+    @Resource
+    private StreamCoalescer streamCoalescer;
+    
+    @Resource
+    private StreamBackpressure streamBackpressure;
+    
+    @Resource
+    private AdaptiveConcurrencyInterceptor adaptiveConcurrencyInterceptor;
+    
+    @Resource
+    private SseProtocolConfig sseProtocolConfig;
     
     private static final String MODEL_NAME = "qwen3-max-2026-01-23";
     
@@ -50,8 +77,17 @@ public class AgentAsToolService {
         try{
             executor.submit(()->{
                 try{
-                    Flux<NodeOutput> stream = agent.stream(input);
-                    stream.subscribe(
+                    Flux<NodeOutput> stream = streamDeadlineGuard.guard(agent.stream(input), MODEL_NAME);
+                    // onNext 串行执行，整个运行复用一个编码器
+                    SseFrameEncoder encoder = new SseFrameEncoder();
+                    SseProtocolConfig.Mode protocol = sseProtocolConfig.getMode();
+                    StreamDeltaEncoder deltas = protocol == SseProtocolConfig.Mode.FULL ? null : new StreamDeltaEncoder("[Stream-Output]", "[Node-Output]",
+                            protocol == SseProtocolConfig.Mode.MULTIPLEXED, event -> sendEvent(emitter, event));
+                    streamBackpressure.subscribe(
+                            "agent-as-tool",
+                            stream,
+                            streamCoalescer::coalesce,
+                            WriterReadiness.ALWAYS,
                             output -> {
                                 if(output instanceof StreamingOutput modelRes){
                                     OutputType outputType = modelRes.getOutputType();
@@ -68,13 +104,25 @@ public class AgentAsToolService {
                                         MessageType messageType = message.getMessageType();
                                         Map<String, Object> metadata = message.getMetadata();
                                         String text = message.getText();
-                                        sendEvent(emitter,"[Stream-Output]", buildOutputJson(outputType.name(), agentName, messageType.getValue(), text, metadata));
+                                        if(deltas != null){
+                                            deltas.streamingOutput(outputType.name(), agentName, messageType.getValue(), text, metadata);
+                                        }else{
+                                            sendEvent(emitter, encoder.agentOutput(SseFrameEncoder.NO_ID, "[Stream-Output]", outputType.name(), agentName, messageType.getValue(), text, metadata));
+                                        }
                                     }
+                                }else if(deltas != null){
+                                    deltas.nodeOutput(output);
                                 }else{
                                     sendEvent(emitter,"[Node-Output]", output.toString());
                                 }
                             },
                             error -> {
+                                if(error instanceof StreamDeadlineExceededException timeout){
+                                    log.warn("Agent stream timed out: {}", timeout.getMessage());
+                                    sendEvent(emitter, Constants.SSE_EVENT_TIMEOUT, timeout.getMessage());
+                                    emitter.complete();
+                                    return;
+                                }
                                 log.error("Agent stream error", error);
                                 emitter.completeWithError(error);
                             },
@@ -88,12 +136,58 @@ public class AgentAsToolService {
                     emitter.completeWithError(e);
                 }
             });
+        } catch (TaskRejectedException e) {
+            throw e; // 执行器已满，交给 AdmissionManager 返回 429
         } catch (Exception e) {
             log.error("Submit agent task failed", e);
             emitter.completeWithError(e);
         }
     }
     
+    /**
+     * 响应式版本：agent.stream 的输出直接映射成 SSE 事件，由 Spring MVC 订阅并写出，不经过执行器
+     */
+    public Flux<ServerSentEvent<String>> multiToolAgentEvents(String input){
+        return Flux.defer(() -> {
+            ReactAgent agent = buildMultiToolAgent();
+            Flux<NodeOutput> stream;
+            try {
+                stream = streamCoalescer.coalesce(streamDeadlineGuard.guard(agent.stream(input), MODEL_NAME));
+            } catch (GraphRunnerException e) {
+                return Flux.error(e);
+            }
+            return stream
+                    .concatMapIterable(this::toEvents)
+                    .concatWith(Mono.fromSupplier(() -> event("[Stream-Complete]", "Agent task completed")))
+                    .onErrorResume(StreamDeadlineExceededException.class, timeout -> {
+                        log.warn("Agent stream timed out: {}", timeout.getMessage());
+                        return Flux.just(event(Constants.SSE_EVENT_TIMEOUT, timeout.getMessage()));
+                    });
+        });
+    }
+    
+    private List<ServerSentEvent<String>> toEvents(NodeOutput output){
+        if(!(output instanceof StreamingOutput modelRes)){
+            return List.of(event("[Node-Output]", output.toString()));
+        }
+        Message message = modelRes.message();
+        if(message == null){
+            return List.of();
+        }
+        List<ServerSentEvent<String>> events = new ArrayList<>();
+        if(modelRes.getOutputType() == OutputType.AGENT_TOOL_FINISHED && message instanceof ToolResponseMessage toolResponse){
+            toolResponse.getResponses().forEach(response ->
+                    events.add(event("[Tool Result]", response.name() + ": " + response.responseData())));
+        }
+        events.add(event("[Stream-Output]", buildOutputJson(modelRes.getOutputType().name(), modelRes.agent(),
+                message.getMessageType().getValue(), message.getText(), message.getMetadata())));
+        return events;
+    }
+    
+    private static ServerSentEvent<String> event(String name, String data){
+        return ServerSentEvent.<String>builder().event(name).data(data).build();
+    }
+    
     public void multiToolAgentCall(String input){
         ReactAgent agent = buildMultiToolAgent();
         
@@ -107,11 +201,7 @@ public class AgentAsToolService {
     
     
     private ChatModel buildChatModel(){
-        DashScopeApi api = DashScopeApi.builder().apiKey(apiKeyConfig.getQwenKey()).build();
-        
-        DashScopeChatOptions options = DashScopeChatOptions.builder().model(MODEL_NAME).build();
-        
-        return DashScopeChatModel.builder().dashScopeApi(api).defaultOptions(options).build();
+        return chatModelRegistry.getChatModel(MODEL_NAME);
     }
     
     private ReactAgent buildMultiToolAgent(){
@@ -129,7 +219,7 @@ public class AgentAsToolService {
                         "如果用户的输入内容是关于翻译需求的，你需要使用翻译工具进行翻译。" +
                         "调用工具时编写的json需要符合json的格式规范（字符串不要漏了双引号），确保工具能够正确解析输入参数。对于没有明确需求的输入，你需要根据输入内容进行合理的推断，选择合适的工具进行处理，生成符合用户需求的结果。")
                 .model(chatModel)
-                .interceptors(new ToolRecordInterceptor())
+                .interceptors(adaptiveConcurrencyInterceptor.forModel(chatModel), new ToolRecordInterceptor())
                 .tools(
                         AgentTool.getFunctionToolCallback(writeAgent),
                         AgentTool.getFunctionToolCallback(translateAgent)
@@ -188,8 +278,12 @@ public class AgentAsToolService {
     }
     
     private void sendEvent(SseEmitter emitter, String eventName, Object data){
+        sendEvent(emitter, SseEmitter.event().name(eventName).data(data));
+    }
+    
+    private void sendEvent(SseEmitter emitter, SseEmitter.SseEventBuilder event){
         try {
-            emitter.send(SseEmitter.event().name(eventName).data(data));
+            emitter.send(event);
         } catch (Exception e) {
             log.error("Error sending SSE event", e);
             emitter.completeWithError(e);
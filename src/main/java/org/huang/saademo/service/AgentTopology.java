@@ -0,0 +1,108 @@
+package org.huang.saademo.service;
+
+import com.alibaba.cloud.ai.graph.NodeOutput;
+import com.alibaba.cloud.ai.graph.OverAllState;
+import com.alibaba.cloud.ai.graph.RunnableConfig;
+import com.alibaba.cloud.ai.graph.agent.Agent;
+import com.alibaba.cloud.ai.graph.checkpoint.BaseCheckpointSaver;
+import com.alibaba.cloud.ai.graph.exception.GraphRunnerException;
+import lombok.extern.slf4j.Slf4j;
+import org.huang.saademo.manager.CancellationManager;
+import reactor.core.publisher.Flux;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+
+/**
+ * 预先构建并编译好的多智能体拓扑模板，启动时创建一次，之后所有请求共享。
+ * 每次请求通过 {@link #newRun()} 拿到一个只包含独立 threadId 的执行句柄，运行结束后释放该 threadId 以及各子 Agent 子图
+ * （threadId_subgraph_子 Agent 名）对应的检查点，这样并发请求之间的状态互不干扰，MemorySaver 也不会随请求数增长。
+ */
+@Slf4j
+public final class AgentTopology {
+    
+    // 框架为子 Agent 的子图派生 threadId 时使用的分隔符
+    private static final String SUBGRAPH_THREAD_SEPARATOR = "_subgraph_";
+    
+    private final String name;
+    private final Agent agent;
+    private final List<BaseCheckpointSaver> savers; // 拓扑中所有 Agent（包括子 Agent）使用的存储器
+    private final List<String> subAgentNames;
+    
+    public AgentTopology(String name, Agent agent, List<BaseCheckpointSaver> savers, List<String> subAgentNames) {
+        this.name = name;
+        this.agent = agent;
+        this.savers = List.copyOf(savers);
+        this.subAgentNames = List.copyOf(subAgentNames);
+        // 在构建时就完成编译，第一次请求不再承担编译开销
+        agent.getAndCompileGraph();
+    }
+    
+    public String name() {
+        return name;
+    }
+    
+    public Agent agent() {
+        return agent;
+    }
+    
+    public Run newRun() {
+        return new Run(RunnableConfig.builder().threadId(name + "-" + UUID.randomUUID()).build());
+    }
+    
+    /**
+     * 带取消句柄的执行句柄，子 Agent 的模型、工具调用通过 metadata 拿到同一个句柄
+     */
+    public Run newRun(CancellationManager.Handle cancellation) {
+        return new Run(RunnableConfig.builder()
+                .threadId(name + "-" + UUID.randomUUID())
+                .addMetadata(CancellationManager.METADATA_KEY, cancellation)
+                .build());
+    }
+    
+    /**
+     * 单次执行句柄，创建代价只有一个 RunnableConfig
+     */
+    public final class Run implements AutoCloseable {
+        private final RunnableConfig config;
+        
+        private Run(RunnableConfig config) {
+            this.config = config;
+        }
+        
+        public RunnableConfig config() {
+            return config;
+        }
+        
+        public Flux<NodeOutput> stream(String input) throws GraphRunnerException {
+            return agent.stream(input, config);
+        }
+        
+        public Optional<OverAllState> invoke(String input) throws GraphRunnerException {
+            return agent.invoke(input, config);
+        }
+        
+        @Override
+        public void close() {
+            String threadId = config.threadId().orElse(null);
+            List<RunnableConfig> threads = new ArrayList<>();
+            threads.add(config);
+            if (threadId != null) {
+                subAgentNames.forEach(subAgent -> threads.add(RunnableConfig.builder()
+                        .threadId(threadId + SUBGRAPH_THREAD_SEPARATOR + subAgent)
+                        .build()));
+            }
+            for (BaseCheckpointSaver saver : savers) {
+                for (RunnableConfig thread : threads) {
+                    try {
+                        saver.release(thread);
+                    } catch (Exception e) {
+                        log.warn("AgentTopology[{}] release thread {} failed: {}", name, thread.threadId().orElse("N/A"), e.getMessage());
+                    }
+                }
+            }
+        }
+    }
+}
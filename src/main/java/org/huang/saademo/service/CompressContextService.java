@@ -1,46 +1,303 @@
 package org.huang.saademo.service;
 
-import com.alibaba.cloud.ai.dashscope.api.DashScopeApi;
-import com.alibaba.cloud.ai.dashscope.chat.DashScopeChatModel;
-import com.alibaba.cloud.ai.dashscope.chat.DashScopeChatOptions;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Metrics;
 import jakarta.annotation.Resource;
-import org.huang.saademo.config.ApiKeyConfig;
+import lombok.extern.slf4j.Slf4j;
+import org.huang.saademo.config.BulkheadConfig;
+import org.huang.saademo.config.ContextCompressionConfig;
+import org.huang.saademo.manager.BulkheadRegistry;
+import org.huang.saademo.manager.ChatModelRegistry;
+import org.huang.saademo.manager.TokenCounter;
 import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.MessageType;
 import org.springframework.ai.chat.messages.SystemMessage;
+import org.springframework.ai.chat.messages.UserMessage;
 import org.springframework.ai.chat.model.ChatModel;
 import org.springframework.ai.chat.model.ChatResponse;
 import org.springframework.ai.chat.prompt.Prompt;
 import org.springframework.stereotype.Service;
 
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
+/**
+ * 上下文压缩，按段滚动进行：历史 = 开头若干条摘要 + 尚未压缩的对话，最近 recent-turns 轮对话始终原样保留，
+ * 每次只把新过期的那段对话压缩成一条 0 层摘要，同一层的摘要攒够 fold-fan-in 条再合并成上一层的一条。
+ * 摘要的层级记在消息的 metadata 里，随检查点一起保存，每次压缩的开销与新增的对话成正比而不是与整个历史成正比。
+ * <p>
+ * 除了模型调用前的同步压缩，还支持在一轮对话结束后提前在后台压缩：
+ * 结果按 threadId 记下，连同它覆盖的历史前缀的指纹；下一次模型调用前前缀没有变化就用压缩结果替换这段前缀，之后新增的消息原样保留。
+ */
+@Slf4j
 @Service
 public class CompressContextService {
     
+    /**
+     * 摘要消息 metadata 中的层级：0 层由一段对话压缩而来，L + 1 层由 fold-fan-in 条 L 层摘要合并而来
+     */
+    public static final String SUMMARY_LEVEL = "contextSummaryLevel";
+    
+    @Resource
+    private ChatModelRegistry chatModelRegistry;
+    
     @Resource
-    private ApiKeyConfig apiKeyConfig;
+    private BulkheadRegistry bulkheadRegistry;
+    
+    @Resource
+    private ContextCompressionConfig compressionConfig;
+    
+    @Resource(name= "contextCompressionExecutor")
+    private Executor compressionExecutor;
     
     private static final String MODEL_NAME = "qwen-flash";
     
-    public String compressContext(List<Message> messages) {
+    // 后台压缩的结果（或进行中的压缩），按 threadId 记录，被取用、作废或过期后移除
+    private final Map<String, Precomputed> precomputed = new ConcurrentHashMap<>();
+    
+    private final Counter syncCounter = Counter.builder("context.compression").tag("mode", "sync").register(Metrics.globalRegistry);
+    private final Counter backgroundCounter = Counter.builder("context.compression").tag("mode", "background").register(Metrics.globalRegistry);
+    private final Counter swappedCounter = Counter.builder("context.compression.swapped").register(Metrics.globalRegistry);
+    private final Counter discardedCounter = Counter.builder("context.compression.discarded").register(Metrics.globalRegistry);
+    // 每次调用压缩模型发送的 token 数，分段压缩后应当与单段对话的长度相当，不随历史增长
+    private final DistributionSummary inputTokens = DistributionSummary.builder("context.compression.input.tokens").register(Metrics.globalRegistry);
+    
+    /**
+     * 同步压缩，走 compression 舱壁，返回压缩后的完整历史。
+     * 最近几轮之前没有可压缩的对话时（例如只有一轮很长的对话）整体压缩成一条摘要；没有任何内容时返回 null
+     */
+    public List<Message> compact(List<Message> messages) {
+        syncCounter.increment();
+        return compact(messages, BulkheadConfig.COMPRESSION, true);
+    }
+    
+    /**
+     * 在后台压缩 messages，结果记在 threadId 下，由 {@link #takePrecomputed} 取用。
+     * 同一会话已有进行中的后台压缩时不重复提交；执行器队列已满时放弃，返回 false
+     */
+    public boolean compressAhead(String threadId, List<Message> messages) {
+        List<Message> snapshot = List.copyOf(messages);
+        Precomputed entry = new Precomputed(snapshot.size(), prefixPrint(snapshot, snapshot.size()), System.nanoTime());
+        Precomputed existing = precomputed.putIfAbsent(threadId, entry);
+        if (existing != null) {
+            if (!existing.compacted.isDone() && !isExpired(existing)) {
+                return false;
+            }
+            // 之前的结果没有被取用（例如下一轮对话还没开始就又超过了软阈值），换成覆盖范围更大的这一次
+            precomputed.put(threadId, entry);
+        }
+        evictExpired();
+        try {
+            compressionExecutor.execute(() -> {
+                try {
+                    backgroundCounter.increment();
+                    List<Message> compacted = compact(snapshot, BulkheadConfig.BACKGROUND_COMPRESSION, false);
+                    entry.compacted.complete(compacted);
+                    if (compacted == null) {
+                        // 对话都还在最近几轮之内，没有需要压缩的
+                        precomputed.remove(threadId, entry);
+                    }
+                } catch (Exception e) {
+                    // 包括舱壁排队超时，下一轮超过软阈值时会再次提交，超过硬上限则同步压缩
+                    log.warn("Session ID: {}, background context compression failed: {}", threadId, e.getMessage());
+                    entry.compacted.completeExceptionally(e);
+                    precomputed.remove(threadId, entry);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            precomputed.remove(threadId, entry);
+            log.warn("Session ID: {}, background context compression rejected: {}", threadId, e.getMessage());
+            return false;
+        }
+        return true;
+    }
+    
+    /**
+     * 取出 threadId 的后台压缩结果，返回压缩结果加上其后新增的消息；没有可用的结果时返回 null。
+     * 压缩还在进行中时最多等待 wait；messages 的前缀与压缩时的历史不一致（例如上下文已经被同步压缩替换）时结果作废
+     */
+    public List<Message> takePrecomputed(String threadId, List<Message> messages, Duration wait) {
+        Precomputed entry = precomputed.get(threadId);
+        if (entry == null) {
+            return null;
+        }
+        if (isExpired(entry) || messages.size() < entry.covered || prefixPrint(messages, entry.covered) != entry.print) {
+            if (precomputed.remove(threadId, entry)) {
+                discardedCounter.increment();
+            }
+            return null;
+        }
+        List<Message> compacted;
+        try {
+            compacted = entry.compacted.get(wait.toNanos(), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException | ExecutionException e) {
+            // 还没有完成，或者已经失败（失败的结果已经移除）
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+        // 没有需要压缩的内容；并发的两次模型调用只有一次能取到
+        if (compacted == null || !precomputed.remove(threadId, entry)) {
+            return null;
+        }
+        swappedCounter.increment();
+        List<Message> swapped = new ArrayList<>(compacted.size() + messages.size() - entry.covered);
+        swapped.addAll(compacted);
+        swapped.addAll(messages.subList(entry.covered, messages.size()));
+        return swapped;
+    }
+    
+    public int getPrecomputedSessions() {
+        return precomputed.size();
+    }
+    
+    /**
+     * 消息的摘要层级，不是摘要时返回 -1
+     */
+    public static int summaryLevel(Message message) {
+        if (message.getMessageType() != MessageType.USER) {
+            return -1;
+        }
+        return message.getMetadata().get(SUMMARY_LEVEL) instanceof Number level ? level.intValue() : -1;
+    }
+    
+    private List<Message> compact(List<Message> messages, String bulkhead, boolean force) {
+        // 开头的摘要原样保留，不再重新压缩
+        List<Message> summaries = new ArrayList<>();
+        int bodyStart = 0;
+        while (bodyStart < messages.size() && summaryLevel(messages.get(bodyStart)) >= 0) {
+            summaries.add(messages.get(bodyStart++));
+        }
+        int recentStart = recentStart(messages, bodyStart);
+        List<Message> aged = nonEmpty(messages.subList(bodyStart, recentStart));
+        if (aged.isEmpty()) {
+            if (!force) {
+                return null;
+            }
+            // 最近的对话本身就超过了上限，只能整体压缩
+            recentStart = messages.size();
+            aged = nonEmpty(messages.subList(bodyStart, recentStart));
+            if (aged.isEmpty()) {
+                return null;
+            }
+        }
+        summaries.add(summaryMessage(summarize(genSystemPrompt(), aged, bulkhead), 0));
+        fold(summaries, bulkhead);
+        
+        List<Message> compacted = new ArrayList<>(summaries.size() + messages.size() - recentStart);
+        compacted.addAll(summaries);
+        compacted.addAll(messages.subList(recentStart, messages.size()));
+        return compacted;
+    }
+    
+    // 最近 recent-turns 轮对话的起点，每轮从一条用户消息开始；这几轮超过 token 上限的一半时少保留几轮，但至少保留最后一轮
+    private int recentStart(List<Message> messages, int bodyStart) {
+        int budget = compressionConfig.getTokenLimit() / 2;
+        int start = messages.size();
+        int turns = 0;
+        int tokens = 0;
+        for (int i = messages.size() - 1; i >= bodyStart && turns < compressionConfig.getRecentTurns(); i--) {
+            Message message = messages.get(i);
+            if (!TokenCounter.isEmpty(message)) {
+                tokens += TokenCounter.estimate(message);
+            }
+            if (message.getMessageType() == MessageType.USER) {
+                if (turns > 0 && tokens > budget) {
+                    break;
+                }
+                start = i;
+                turns++;
+            }
+        }
+        return start;
+    }
+    
+    // 末尾同一层的摘要攒够 fold-fan-in 条就合并成上一层的一条，合并后可能又凑够上一层，层数随历史长度对数增长
+    private void fold(List<Message> summaries, String bulkhead) {
+        int fanIn = compressionConfig.getFoldFanIn();
+        while (summaries.size() >= fanIn) {
+            int level = summaryLevel(summaries.get(summaries.size() - 1));
+            List<Message> group = summaries.subList(summaries.size() - fanIn, summaries.size());
+            if (group.stream().anyMatch(summary -> summaryLevel(summary) != level)) {
+                return;
+            }
+            Message merged = summaryMessage(summarize(genFoldPrompt(), group, bulkhead), level + 1);
+            group.clear();
+            summaries.add(merged);
+        }
+    }
+    
+    private String summarize(String systemPrompt, List<Message> messages, String bulkhead) {
         ChatModel chatModel = genChatModel();
         List<Message> messagesWithPrompt = new ArrayList<>();
-        messagesWithPrompt.add(new SystemMessage(genSystemPrompt()));
+        messagesWithPrompt.add(new SystemMessage(systemPrompt));
         messagesWithPrompt.addAll(messages);
+        inputTokens.record(messagesWithPrompt.stream().mapToInt(TokenCounter::estimate).sum());
         
-        ChatResponse response = chatModel.call(new Prompt(messagesWithPrompt));
+        // 同步压缩走 compression 舱壁，后台压缩走优先级更低的 background-compression 舱壁，排队超时会抛出 BulkheadFullException
+        ChatResponse response = bulkheadRegistry.get(bulkhead).call(() -> chatModel.call(new Prompt(messagesWithPrompt)));
         return response.getResult().getOutput().getText();
     }
     
-    private ChatModel genChatModel() {
-        DashScopeApi api = DashScopeApi.builder().apiKey(apiKeyConfig.getQwenKey()).build();
-        
-        DashScopeChatOptions options = DashScopeChatOptions.builder().model(MODEL_NAME).build();
-        
-        DashScopeChatModel chatModel = DashScopeChatModel.builder().dashScopeApi(api).defaultOptions(options).build();
+    private static Message summaryMessage(String text, int level) {
+        return UserMessage.builder().text(text).metadata(Map.of(SUMMARY_LEVEL, level)).build();
+    }
+    
+    private static List<Message> nonEmpty(List<Message> messages) {
+        return messages.stream()
+                .filter(message -> !TokenCounter.isEmpty(message))
+                .toList();
+    }
+    
+    private boolean isExpired(Precomputed entry) {
+        return System.nanoTime() - entry.createdAt > compressionConfig.getTtl().toNanos();
+    }
+    
+    private void evictExpired() {
+        precomputed.values().removeIf(this::isExpired);
+    }
+    
+    // 前 count 条消息的指纹：文本（String 缓存了 hashCode）和消息类型
+    private static long prefixPrint(List<Message> messages, int count) {
+        long print = count;
+        for (int i = 0; i < count; i++) {
+            Message message = messages.get(i);
+            print = print * 1_000_003 + Objects.hashCode(message.getText());
+            print = print * 31 + (message.getMessageType() == null ? -1 : message.getMessageType().ordinal());
+        }
+        return print;
+    }
+    
+    /**
+     * 一次后台压缩：覆盖历史的前 covered 条消息，print 是这段前缀的指纹，compacted 是这段前缀压缩后的消息
+     */
+    private static final class Precomputed {
+        private final int covered;
+        private final long print;
+        private final long createdAt;
+        private final CompletableFuture<List<Message>> compacted = new CompletableFuture<>();
         
-        return chatModel;
+        private Precomputed(int covered, long print, long createdAt) {
+            this.covered = covered;
+            this.print = print;
+            this.createdAt = createdAt;
+        }
+    }
+    
+    private ChatModel genChatModel() {
+        return chatModelRegistry.getChatModel(MODEL_NAME);
     }
     
     private String genSystemPrompt(){
@@ -58,5 +315,15 @@ public class CompressContextService {
                 """;
     }
     
-    
+    private String genFoldPrompt(){
+        return """
+                以下是同一段对话按时间先后分段压缩得到的若干条摘要，请把它们合并成一条摘要。
+                合并规则：
+                1. 按时间顺序合并，后面的内容与前面冲突时以后面为准。
+                2. 必须完整保留人名、日期、具体数值、结论以及尚未解决的争议点。
+                3. 删除各段之间重复的背景和已经被后续内容推翻的信息。
+                4. 只输出合并后的摘要，禁止输出任何解释、注释或额外信息。
+                5. 输出语言必须与输入内容一致。
+                """;
+    }
 }
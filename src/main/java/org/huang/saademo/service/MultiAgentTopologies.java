@@ -0,0 +1,263 @@
+package org.huang.saademo.service;
+
+import com.alibaba.cloud.ai.graph.agent.Agent;
+import com.alibaba.cloud.ai.graph.agent.ReactAgent;
+import com.alibaba.cloud.ai.graph.agent.flow.agent.LlmRoutingAgent;
+import com.alibaba.cloud.ai.graph.agent.flow.agent.ParallelAgent;
+import com.alibaba.cloud.ai.graph.agent.flow.agent.SequentialAgent;
+import com.alibaba.cloud.ai.graph.agent.flow.agent.SupervisorAgent;
+import com.alibaba.cloud.ai.graph.agent.interceptor.Interceptor;
+import com.alibaba.cloud.ai.graph.checkpoint.BaseCheckpointSaver;
+import com.alibaba.cloud.ai.graph.checkpoint.savers.MemorySaver;
+import org.huang.saademo.interceptor.CancellationModelInterceptor;
+import org.huang.saademo.interceptor.CancellationToolInterceptor;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+import org.springframework.ai.chat.prompt.Prompt;
+import reactor.core.publisher.Flux;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 多智能体拓扑的构建方法。MultiAgentService 在启动时用真实模型构建一次作为模板，预热时用 {@link WarmUpChatModel} 构建。
+ */
+public final class MultiAgentTopologies {
+    
+    public static final String SEQUENTIAL = "blog-writing-agent";
+    public static final String PARALLEL = "parallel-creator-agent";
+    public static final String LLM_ROUTING = "routing-agent";
+    public static final String SUPERVISOR = "supervisor-agent";
+    
+    private MultiAgentTopologies() {
+    }
+    
+    public static AgentTopology sequential(ChatModel chatModel, Interceptor... extraInterceptors) {
+        List<BaseCheckpointSaver> savers = new ArrayList<>();
+        List<Interceptor> interceptors = agentInterceptors(extraInterceptors);
+        
+        ReactAgent writeAgent = buildWriteAgent(chatModel, interceptors, savers);
+        ReactAgent reviewAgent = buildReviewAgent(chatModel, interceptors, savers);
+        
+        SequentialAgent sequentialAgent = SequentialAgent.builder()
+                .name(SEQUENTIAL)
+                .description("An agent that can write a blog article and review it.")
+                .subAgents(List.of(writeAgent, reviewAgent)) // 按照顺序执行子 Agent，先执行 writeAgent，再执行 reviewAgent
+                .saver(newSaver(savers))
+                .build();
+        return new AgentTopology(SEQUENTIAL, sequentialAgent, savers, names(writeAgent, reviewAgent));
+    }
+    
+    public static AgentTopology parallel(ChatModel chatModel, Interceptor... extraInterceptors) {
+        List<BaseCheckpointSaver> savers = new ArrayList<>();
+        List<Interceptor> interceptors = agentInterceptors(extraInterceptors);
+        
+        ReactAgent writeAgent = buildWriteAgent(chatModel, interceptors, savers);
+        ReactAgent poemAgent = buildPoemAgent(chatModel, interceptors, savers);
+        ReactAgent summaryAgent = buildSummaryAgent(chatModel, interceptors, savers);
+        
+        ParallelAgent parallelAgent = ParallelAgent.builder()
+                .name(PARALLEL)
+                .description("An agent that can write an article and a poem in parallel, then summarize at the same time.")
+                .mergeOutputKey("mergedContent")
+                .subAgents(List.of(writeAgent, poemAgent, summaryAgent)) // 并行执行子 Agent
+                .mergeStrategy(new ParallelAgent.DefaultMergeStrategy()) // 自定义合并策略：实现ParallelAgent.MergeStrategy接口
+                .saver(newSaver(savers))
+                .build();
+        return new AgentTopology(PARALLEL, parallelAgent, savers, names(writeAgent, poemAgent, summaryAgent));
+    }
+    
+    public static AgentTopology llmRouting(ChatModel chatModel, Interceptor... extraInterceptors) {
+        List<BaseCheckpointSaver> savers = new ArrayList<>();
+        List<Interceptor> interceptors = agentInterceptors(extraInterceptors);
+        
+        ReactAgent writeAgent = buildWriteAgent(chatModel, interceptors, savers);
+        ReactAgent poemAgent = buildPoemAgent(chatModel, interceptors, savers);
+        ReactAgent translationAgent = buildTranslationAgent(chatModel, interceptors, savers);
+        
+        // 由于是根据大模型来决定路由到哪个子agent，所以子agent的description要写得清晰具体，方便大模型理解和区分它们的能力和职责，从而做出正确的路由决策。
+        // 另外，每次请求只能路由到一个子agent执行，子agent执行完直接返回。此外，不支持instruction的占位符（比如{input}）。
+        // systemPrompt 用于设置路由决策的系统提示，会替换默认的系统提示。使用 systemPrompt 来定义路由Agent的整体行为和决策框架
+        // instruction 用于设置路由决策的用户指令，会作为 UserMessage 添加到消息列表中。使用 instruction 来提供特定场景的路由指导或额外上下文
+        LlmRoutingAgent routingAgent = LlmRoutingAgent.builder()
+                .name(LLM_ROUTING)
+                .model(chatModel)
+                .systemPrompt("You are a helpful assistant that can route the user input to the most suitable agent based on the content of the input. " +
+                        "The available agents are: write-agent, poem-agent, translation-agent. " +
+                        "If the input is a writing requirement, route to write-agent. " +
+                        "If the input is a poetry writing requirement, route to poem-agent. " +
+                        "If the input is a translation requirement, route to translation-agent.")
+                .instruction("Please analyze the user input and decide which agent is the most suitable to handle it. " +
+                        "Only choose one agent for each input. " +
+                        "If the input does not match any agent's capabilities, you can choose not to route to any agent.")
+                .description("An agent that can route the input to different agents based on the content.")
+                .subAgents(List.of(writeAgent, poemAgent, translationAgent))
+                .saver(newSaver(savers))
+                .build();
+        return new AgentTopology(LLM_ROUTING, routingAgent, savers, names(writeAgent, poemAgent, translationAgent));
+    }
+    
+    public static AgentTopology supervisor(ChatModel chatModel, Interceptor... extraInterceptors) {
+        List<BaseCheckpointSaver> savers = new ArrayList<>();
+        List<Interceptor> interceptors = agentInterceptors(extraInterceptors);
+        
+        ReactAgent writeAgent = buildWriteAgent(chatModel, interceptors, savers);
+        ReactAgent translationAgent = buildTranslationAgent(chatModel, interceptors, savers);
+        ReactAgent mainAgent = buildMainAgent(chatModel, interceptors, savers);
+        
+        // 和llmRoutingAgent不同，SupervisorAgent会同时调用多个子Agent。
+        // 子Agent执行完成后会返回监督者，监督者可以继续路由到其他Agent，实现多步骤任务处理
+        // Instruction占位符支持：instruction 支持使用占位符（如 {article_content}）读取前序Agent的输出
+        // 自动重试机制：内置重试机制（最多2次），确保路由决策的可靠性
+        // 任务完成控制：监督者可以返回 FINISH 来结束任务流程
+        // 嵌套使用：可以将 SupervisorAgent 作为 SequentialAgent 的子Agent，实现更复杂的工作流
+        
+        // ps：就目前的稳定想来看，个人感觉SupervisorAgent的表现可能不如预期，尤其是在复杂任务和多轮路由场景下，可能会出现路由错误或者无法正确结束任务的情况。
+        SupervisorAgent supervisorAgent = SupervisorAgent.builder()
+                .name(SUPERVISOR)
+                .model(chatModel)
+                .description("An agent that can supervise the execution of other agents and give feedback.")
+                .mainAgent(mainAgent) // 版本更新后，使用mainAgent来做路由决策。
+                .subAgents(List.of(writeAgent, translationAgent))
+                .saver(newSaver(savers))
+                .build();
+        return new AgentTopology(SUPERVISOR, supervisorAgent, savers, names(writeAgent, translationAgent, mainAgent));
+    }
+    
+    // 每个子 Agent 都带上取消拦截器，再加上调用方传入的拦截器（例如并发限流）
+    private static List<Interceptor> agentInterceptors(Interceptor... extraInterceptors) {
+        List<Interceptor> interceptors = new ArrayList<>();
+        interceptors.add(new CancellationModelInterceptor());
+        interceptors.add(new CancellationToolInterceptor());
+        interceptors.addAll(List.of(extraInterceptors));
+        return interceptors;
+    }
+    
+    private static List<String> names(Agent... agents) {
+        return Arrays.stream(agents).map(Agent::name).toList();
+    }
+    
+    private static MemorySaver newSaver(List<BaseCheckpointSaver> savers) {
+        MemorySaver saver = new MemorySaver();
+        savers.add(saver);
+        return saver;
+    }
+    
+    private static ReactAgent buildWriteAgent(ChatModel chatModel, List<Interceptor> interceptors, List<BaseCheckpointSaver> savers){
+        return ReactAgent.builder().name("write-agent")
+                .description("An agent that can write an article based on user input")
+                .instruction("You are a helpful assistant that can write articles based on user input: {input}")
+                .outputKey("article")
+                .model(chatModel)
+                .interceptors(interceptors)
+//                .returnReasoningContents(true)
+                // 控制子 Agent 的上下文是否返回父流程中。如果设置为 false，则其他 Agent 不会有机会看到这个子 Agent 内部的推理过程，它们只能看到这个 Agent 输出的内容（比如通过 outputKey 引用）。这对于减少上下文大小、提高效率非常有用。默认为false
+//                .includeContents(false)
+                // 父流程中可能包含非常多子 Agent 的推理过程、每个子 Agent 的输出等。includeContents 用来控制当前子 Agent 执行时，是只基于自己的 instruction 给到的内容工作，还是会带上所有父流程的上下文。设置为 false 可以让子 Agent 专注于自己的任务，不受父流程复杂上下文的影响。默认为true
+                .saver(newSaver(savers))
+                .build();
+    }
+    
+    private static ReactAgent buildPoemAgent(ChatModel chatModel, List<Interceptor> interceptors, List<BaseCheckpointSaver> savers){
+        return ReactAgent.builder().name("poem-agent")
+                .description("An agent that can write a poem based on user input")
+                .instruction("You are a poet that can write a poem based on user input: {input}")
+                .outputKey("poem")
+                .model(chatModel)
+                .interceptors(interceptors)
+                .saver(newSaver(savers))
+                .build();
+    }
+    
+    private static ReactAgent buildSummaryAgent(ChatModel chatModel, List<Interceptor> interceptors, List<BaseCheckpointSaver> savers){
+        return ReactAgent.builder().name("summary-agent")
+                .description("An agent that can summarize the content")
+                .instruction("You are a helpful assistant that can summarize a topic based on user input: {input}")
+                .outputKey("summary")
+                .model(chatModel)
+                .interceptors(interceptors)
+                .saver(newSaver(savers))
+                .build();
+    }
+    
+    private static ReactAgent buildReviewAgent(ChatModel chatModel, List<Interceptor> interceptors, List<BaseCheckpointSaver> savers){
+        return ReactAgent.builder().name("review-agent")
+                .description("An agent that can review the article written by others and give feedback.")
+                .instruction("You are a strict reviewer that can review the article written by write-agent and give feedback. The article is: {article}")
+                .outputKey("feedback")
+                .model(chatModel)
+                .interceptors(interceptors)
+                .saver(newSaver(savers))
+                .build();
+    }
+    
+    private static ReactAgent buildTranslationAgent(ChatModel chatModel, List<Interceptor> interceptors, List<BaseCheckpointSaver> savers){
+        return ReactAgent.builder().name("translation-agent")
+                .description("An agent that can translate the input into English.")
+                .instruction("You are a helpful assistant that can translate the input into English.")
+                .outputKey("translation")
+                .model(chatModel)
+                .interceptors(interceptors)
+                .saver(newSaver(savers))
+                .build();
+    }
+    
+    private static ReactAgent buildMainAgent(ChatModel chatModel, List<Interceptor> interceptors, List<BaseCheckpointSaver> savers){
+        return ReactAgent.builder().name("main-agent")
+                .description("The main agent that can route to different agents based on the input.")
+                .instruction("用户的请求：{input}")
+                // 需要自己在系统提示词定义好mainAgent的输出格式，确保可以进行正确的路由决策
+                // 参见issue：https://github.com/alibaba/spring-ai-alibaba/issues/4266
+                .systemPrompt("""
+                        你是一个智能的内容处理监督者，需要根据用户的输入内容，智能地路由到最合适的子Agent去处理，并且可以多轮路由，直到任务完成。
+                        可用的子Agent：write-agent（写作）、translation-agent（翻译）
+                        ## 路由决策输出格式（仅在选择子Agent时适用）
+                        当且仅当需要做出路由决策（选择下一个要调用的子Agent或结束任务）时，请以 JSON 数组格式输出，供系统解析路由；此格式仅用于本次路由，不影响你在其他场景下的主要任务输出格式。
+                        - 选择单个子Agent 时输出: ["write-agent"] 或 ["translation-agent"]
+                        - 选择多个子Agent 并行时输出: ["write-agent", "translation-agent"]
+                        - 任务全部完成时输出: [] 或 ["FINISH"]
+                        合法元素仅限: write-agent、translation-agent、FINISH。做路由决策时只输出上述 JSON 数组，不要包含其他解释
+                        """)
+                .model(chatModel)
+                .interceptors(interceptors)
+                .saver(newSaver(savers))
+                .build();
+    }
+    
+    /**
+     * 预热用的本地模型，不发起任何网络请求。
+     * 路由决策返回第一个子Agent（write-agent），监督者决策返回 FINISH，其他情况返回固定文本，保证每种拓扑都能跑完整个图。
+     */
+    public static class WarmUpChatModel implements ChatModel {
+        
+        @Override
+        public ChatResponse call(Prompt prompt) {
+            return new ChatResponse(List.of(new Generation(new AssistantMessage(reply(prompt)))));
+        }
+        
+        @Override
+        public Flux<ChatResponse> stream(Prompt prompt) {
+            return Flux.just(call(prompt));
+        }
+        
+        private String reply(Prompt prompt) {
+            for (Message message : prompt.getInstructions()) {
+                String text = message.getText();
+                if (text == null) {
+                    continue;
+                }
+                if (text.contains("FINISH")) {
+                    return "[\"FINISH\"]";
+                }
+                if (text.contains("route") || text.contains("Return ONLY the exact agent name")) {
+                    return "{\"agent\": \"write-agent\"}";
+                }
+            }
+            return "warm-up";
+        }
+    }
+}
@@ -1,16 +1,16 @@
 package org.huang.saademo.service;
 
-import com.alibaba.cloud.ai.dashscope.api.DashScopeApi;
-import com.alibaba.cloud.ai.dashscope.chat.DashScopeChatModel;
-import com.alibaba.cloud.ai.dashscope.chat.DashScopeChatOptions;
 import com.alibaba.cloud.ai.graph.OverAllState;
 import com.alibaba.cloud.ai.graph.agent.ReactAgent;
 import com.alibaba.cloud.ai.graph.exception.GraphRunnerException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import jakarta.annotation.Resource;
 import lombok.extern.slf4j.Slf4j;
-import org.huang.saademo.config.ApiKeyConfig;
+import org.huang.saademo.config.BulkheadConfig;
 import org.huang.saademo.hook.RAGHook;
+import org.huang.saademo.manager.Bulkhead;
+import org.huang.saademo.manager.BulkheadRegistry;
+import org.huang.saademo.manager.ChatModelRegistry;
 import org.huang.saademo.tools.RAGTool;
 import org.springframework.ai.chat.model.ChatModel;
 import org.springframework.ai.document.Document;
@@ -21,7 +21,6 @@ import org.springframework.ai.vectorstore.VectorStore;
 import org.springframework.ai.vectorstore.pinecone.PineconeVectorStore;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
-import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 import org.springframework.stereotype.Service;
 
 import java.io.File;
@@ -35,10 +34,10 @@ import java.util.Optional;
 @Slf4j
 public class RAGAgentService {
     @Resource
-    private ApiKeyConfig apiKeyConfig;
+    private ChatModelRegistry chatModelRegistry;
     
-    @Resource(name= "streamAgentTaskExecutor")
-    private ThreadPoolTaskExecutor executor;
+    @Resource
+    private BulkheadRegistry bulkheadRegistry;
     
     @Resource(name = "customPineconeVectorStore")
     private PineconeVectorStore vectorStore;
@@ -58,7 +57,7 @@ public class RAGAgentService {
     public OverAllState agentCall(String userInput){
         ReactAgent agent = buildRAGAgent();
         try {
-            Optional<OverAllState> allState = agent.invoke(userInput);
+            Optional<OverAllState> allState = bulkheadRegistry.get(BulkheadConfig.BLOCKING).call(() -> agent.invoke(userInput));
             if(allState.isPresent()){
                 return allState.get();
             } else {
@@ -83,16 +82,12 @@ public class RAGAgentService {
     }
     
     private ChatModel buildChatModel(){
-        DashScopeApi api = DashScopeApi.builder().apiKey(apiKeyConfig.getQwenKey()).build();
-        
-        DashScopeChatOptions options =
-                DashScopeChatOptions.builder().model(MODEL_NAME).build();
-        
-        return DashScopeChatModel.builder().dashScopeApi(api).defaultOptions(options).build();
+        return chatModelRegistry.getChatModel(MODEL_NAME);
     }
     
     /**
      * 将markdown文档中的内容添加到向量数据库中，一次性添加，后续可以增加增量添加的功能
+     * 每个批次单独占用 ingestion 舱壁的名额，交互式请求饱和时批次之间会暂停让位
      */
     public void addMarkdownToVectorDB(){
         PathMatchingResourcePatternResolver resolver = new PathMatchingResourcePatternResolver();
@@ -101,15 +96,16 @@ public class RAGAgentService {
             org.springframework.core.io.Resource[] resources = resolver.getResources("classpath:rags/*.md");
             MarkdownDocumentReader documentReader = new MarkdownDocumentReader(List.of(resources), MarkdownDocumentReaderConfig.defaultConfig());
             List<Document> documents = documentReader.get();
+            Bulkhead ingestion = bulkheadRegistry.get(BulkheadConfig.INGESTION);
             // 阿里云的v4版本嵌入模型单次只能处理8192个token，并且条数不可以超过10条，所以需要分批次添加到向量数据库中
             if(documents.size() > 10){
                 for (int i = 0; i < documents.size(); i += 10) {
                     int end = Math.min(i + 10, documents.size());
                     List<Document> batch = documents.subList(i, end);
-                    vectorStore.add(batch);
+                    ingestion.run(() -> vectorStore.add(batch));
                 }
             } else {
-                vectorStore.add(documents);
+                ingestion.run(() -> vectorStore.add(documents));
             }
         } catch (IOException e) {
             log.error("Error reading markdown files: ", e);
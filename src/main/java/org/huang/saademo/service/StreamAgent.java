@@ -1,8 +1,5 @@
 package org.huang.saademo.service;
 
-import com.alibaba.cloud.ai.dashscope.api.DashScopeApi;
-import com.alibaba.cloud.ai.dashscope.chat.DashScopeChatModel;
-import com.alibaba.cloud.ai.dashscope.chat.DashScopeChatOptions;
 import com.alibaba.cloud.ai.graph.NodeOutput;
 import com.alibaba.cloud.ai.graph.RunnableConfig;
 import com.alibaba.cloud.ai.graph.agent.ReactAgent;
@@ -12,12 +9,20 @@ import com.alibaba.cloud.ai.graph.streaming.OutputType;
 import com.alibaba.cloud.ai.graph.streaming.StreamingOutput;
 import jakarta.annotation.Resource;
 import lombok.extern.slf4j.Slf4j;
-import org.huang.saademo.config.ApiKeyConfig;
+import org.huang.saademo.common.Constants;
+import org.huang.saademo.common.StreamDeadlineExceededException;
+import org.huang.saademo.manager.ChatModelRegistry;
+import org.huang.saademo.manager.StreamBackpressure;
+import org.huang.saademo.manager.StreamCoalescer;
+import org.huang.saademo.manager.StreamDeadlineGuard;
+import org.huang.saademo.manager.WriterReadiness;
 import org.huang.saademo.tools.TimeTool;
 import org.huang.saademo.tools.WeatherSearchTool;
 import org.springframework.ai.chat.messages.Message;
 import org.springframework.ai.chat.messages.ToolResponseMessage;
-import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.core.task.TaskRejectedException;
 import org.springframework.stereotype.Service;
 import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 import reactor.core.publisher.Flux;
@@ -27,10 +32,19 @@ import reactor.core.publisher.Flux;
 public class StreamAgent {
     
     @Resource
-    private ApiKeyConfig apiKeyConfig;
+    private ChatModelRegistry chatModelRegistry;
     
     @Resource(name= "streamAgentTaskExecutor")
-    private ThreadPoolTaskExecutor executor;
+    private AsyncTaskExecutor executor;
+    
+    @Resource
+    private StreamDeadlineGuard streamDeadlineGuard;
+    
+    @Resource
+    private StreamCoalescer streamCoalescer;
+    
+    @Resource
+    private StreamBackpressure streamBackpressure;
     
     private static final String MODEL_NAME = "qwen3-max-2026-01-23";
     
@@ -43,8 +57,8 @@ public class StreamAgent {
         try{
             executor.submit(()->{
                 try {
-                    Flux<NodeOutput> stream = agent.stream(prompt, config);
-                    stream.subscribe(output->{
+                    Flux<NodeOutput> stream = streamDeadlineGuard.guard(agent.stream(prompt, config), MODEL_NAME);
+                    streamBackpressure.subscribe("stream", stream, streamCoalescer::coalesce, WriterReadiness.ALWAYS, output->{
                         if(output instanceof StreamingOutput streamingOutput){
                             OutputType type = streamingOutput.getOutputType();
                             Message message = streamingOutput.message();
@@ -65,6 +79,12 @@ public class StreamAgent {
                             }
                         }
                     },error ->{
+                        if(error instanceof StreamDeadlineExceededException timeout){
+                            log.warn("Stream timed out: {}", timeout.getMessage());
+                            sendEvent(emitter, Constants.SSE_EVENT_TIMEOUT, timeout.getMessage());
+                            emitter.complete();
+                            return;
+                        }
                         log.error("Error in streaming", error);
                         emitter.completeWithError(error);
                     },()->{
@@ -75,6 +95,8 @@ public class StreamAgent {
                     emitter.completeWithError(e);
                 }
             });
+        }catch (TaskRejectedException e){
+            throw e; // 执行器已满，交给 AdmissionManager 返回 429
         }catch (Exception e){
             log.error("Error submitting task to executor", e);
             emitter.completeWithError(e);
@@ -82,11 +104,7 @@ public class StreamAgent {
     }
     
     private ReactAgent createAgent(){
-        DashScopeApi api = DashScopeApi.builder().apiKey(apiKeyConfig.getQwenKey()).build();
-        
-        DashScopeChatOptions options = DashScopeChatOptions.builder().model(MODEL_NAME).build();
-        
-        DashScopeChatModel chatModel = DashScopeChatModel.builder().dashScopeApi(api).defaultOptions(options).build();
+        ChatModel chatModel = chatModelRegistry.getChatModel(MODEL_NAME);
         
         ReactAgent agent = ReactAgent.builder()
                 .name("chat-agent")
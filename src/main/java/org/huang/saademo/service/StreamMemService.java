@@ -1,8 +1,5 @@
 package org.huang.saademo.service;
 
-import com.alibaba.cloud.ai.dashscope.api.DashScopeApi;
-import com.alibaba.cloud.ai.dashscope.chat.DashScopeChatModel;
-import com.alibaba.cloud.ai.dashscope.chat.DashScopeChatOptions;
 import com.alibaba.cloud.ai.graph.NodeOutput;
 import com.alibaba.cloud.ai.graph.RunnableConfig;
 import com.alibaba.cloud.ai.graph.action.InterruptionMetadata;
@@ -12,27 +9,55 @@ import com.alibaba.cloud.ai.graph.agent.hook.hip.ToolConfig;
 import com.alibaba.cloud.ai.graph.checkpoint.savers.redis.RedisSaver;
 import com.alibaba.cloud.ai.graph.streaming.OutputType;
 import com.alibaba.cloud.ai.graph.streaming.StreamingOutput;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
 import jakarta.annotation.Resource;
 import lombok.extern.slf4j.Slf4j;
 import org.huang.saademo.common.Constants;
-import org.huang.saademo.config.ApiKeyConfig;
+import org.huang.saademo.common.StreamDeadlineExceededException;
+import org.huang.saademo.config.SseReplayConfig;
+import org.huang.saademo.config.StreamBackpressureConfig;
 import org.huang.saademo.hook.MessageManageHook;
 import org.huang.saademo.hook.TimeRecordAgentHook;
+import org.huang.saademo.interceptor.AdaptiveConcurrencyInterceptor;
+import org.huang.saademo.interceptor.CancellationModelInterceptor;
+import org.huang.saademo.interceptor.CancellationToolInterceptor;
+import org.huang.saademo.interceptor.StreamDeadlineInterceptor;
 import org.huang.saademo.interceptor.TimeRecordModelInterceptor;
 import org.huang.saademo.interceptor.ToolRecordInterceptor;
+import org.huang.saademo.manager.CancellationManager;
+import org.huang.saademo.manager.ChatModelRegistry;
 import org.huang.saademo.manager.InterruptMetadataManager;
 import org.huang.saademo.manager.SSEManager;
+import org.huang.saademo.manager.SessionMailbox;
+import org.huang.saademo.manager.StreamBackpressure;
+import org.huang.saademo.manager.StreamCoalescer;
+import org.huang.saademo.manager.StreamDeadlineGuard;
+import org.huang.saademo.manager.WriterReadiness;
 import org.huang.saademo.tools.TimeTool;
 import org.huang.saademo.tools.WeatherSearchTool;
 import org.redisson.api.RedissonClient;
 import org.springframework.ai.chat.messages.Message;
 import org.springframework.ai.chat.messages.ToolResponseMessage;
-import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.http.codec.ServerSentEvent;
 import org.springframework.stereotype.Service;
 import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import reactor.core.Disposable;
 import reactor.core.publisher.Flux;
+import reactor.core.publisher.Sinks;
+import reactor.core.scheduler.Schedulers;
 
+import java.time.Duration;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
 
 
 @Service
@@ -40,16 +65,19 @@ import java.util.List;
 public class StreamMemService {
     
     @Resource
-    private ApiKeyConfig apiKeyConfig;
+    private ChatModelRegistry chatModelRegistry;
     
     @Resource(name= "streamAgentTaskExecutor")
-    private ThreadPoolTaskExecutor executor;
+    private AsyncTaskExecutor executor;
     
     @Resource
     private SSEManager sseManager;
     
     private static final String MODEL_NAME = "qwen3-max-2026-01-23";
     
+    // 审批迟迟不来的会话，超过这么久就丢弃保留的 Agent，之后的审批恢复改用新建的 Agent（从 RedisSaver 的检查点恢复）
+    public static final Duration INTERRUPTED_AGENT_TTL = Duration.ofMinutes(30);
+    
     @Resource(name="redissonClient")
     private RedissonClient redissonClient;
     
@@ -68,9 +96,360 @@ public class StreamMemService {
     @Resource
     private InterruptMetadataManager metadataManager;
     
-    public void streamCall(String prompt, String sessionId, Integer humanResponse) {
-        ReactAgent agent = createAgent();
+    @Resource
+    private SessionMailbox sessionMailbox;
+    
+    @Resource
+    private CancellationManager cancellationManager;
+    
+    @Resource
+    private StreamDeadlineGuard streamDeadlineGuard;
+    
+    @Resource
+    private StreamCoalescer streamCoalescer;
+    
+    @Resource
+    private StreamBackpressure streamBackpressure;
+    
+    @Resource
+    private StreamBackpressureConfig streamBackpressureConfig;
+    
+    @Resource
+    private SseReplayConfig sseReplayConfig;
+    
+    public static final String TRANSPORT_SSE = "sse";
+    public static final String TRANSPORT_WEBSOCKET = "websocket";
+    
+    // 正在运行的会话，带 Last-Event-ID 的重连据此接回运行
+    private final Map<String, SessionRun> liveRuns = new ConcurrentHashMap<>();
+    
+    // 停在人工审批上的会话保留中断时的 Agent，审批结果到达后直接用它恢复
+    private final Map<String, InterruptedAgent> interruptedAgents = new ConcurrentHashMap<>();
+    
+    @Resource
+    private CancellationModelInterceptor cancellationModelInterceptor;
+    
+    @Resource
+    private CancellationToolInterceptor cancellationToolInterceptor;
+    
+    @Resource
+    private AdaptiveConcurrencyInterceptor adaptiveConcurrencyInterceptor;
+    
+    @Resource
+    private StreamDeadlineInterceptor streamDeadlineInterceptor;
+    
+    /**
+     * 同一个 sessionId 的请求通过 SessionMailbox 串行执行，重复提交（例如双击、HITL 恢复与新问题赛跑时的重复请求）会被合并，
+     * 合并后的请求不会再发起模型调用，而是接管已有运行的输出。
+     * 带 Last-Event-ID 的重连先补发断线期间错过的事件，再接回仍在运行的流；运行已经结束时补发完直接结束，都不会重新调用模型
+     */
+    public void streamCall(String prompt, String sessionId, Integer humanResponse, Long lastEventId) {
+        SseEmitter emitter = sseManager.getEmitter(sessionId);
+        if(lastEventId != null && resume(sessionId, emitter, lastEventId)){
+            return;
+        }
+        SessionRun run = new SessionRun(prompt, sessionId, humanResponse, emitter);
         
+        try{
+            SessionRun accepted = sessionMailbox.submit(sessionId, run.dedupKey(), run);
+            if(accepted != run){
+                run.cancellation.close(false);
+                accepted.attach(emitter);
+            }
+        } catch (TaskRejectedException e) {
+            // 执行器已满：撤销刚注册的连接，交给 AdmissionManager 返回 429
+            run.cancellation.close(false);
+            sseManager.removeEmitter(sessionId, emitter);
+            throw e;
+        } catch (Exception e) {
+            log.error("Error submitting task to executor", e);
+            run.cancellation.close(false);
+            sseManager.sendEvent(emitter, sessionId, Constants.SSE_EVENT_ERROR, e.getMessage());
+            sseManager.completeWithError(emitter, sessionId, e);
+        }
+        
+    }
+    
+    // 返回 false 表示没有可以续传的运行（例如宽限期内没有重连，运行已被取消），按新请求处理
+    private boolean resume(String sessionId, SseEmitter emitter, long lastEventId) {
+        SessionRun live = liveRuns.get(sessionId);
+        if(live != null && live.resume(emitter, lastEventId)){
+            return true;
+        }
+        if(sseManager.replay(emitter, sessionId, lastEventId)){
+            return true;
+        }
+        log.info("Session[{}]: no live run to resume after event {}, starting a new run", sessionId, lastEventId);
+        return false;
+    }
+    
+    /**
+     * 响应式版本：直接把 agent.stream 映射成 ServerSentEvent 返回给 Spring MVC 写出，不占用执行器线程，也不经过 SseEmitter。
+     * 串行、合并语义与 streamCall 相同，合并后的请求订阅同一个运行的输出
+     */
+    public Flux<ServerSentEvent<String>> streamEvents(String prompt, String sessionId, Integer humanResponse) {
+        return streamEvents(prompt, sessionId, humanResponse, Map.of(), TRANSPORT_SSE);
+    }
+    
+    /**
+     * 带编辑后工具参数的响应式版本，WebSocket 传输使用。editedArguments 的键是工具调用 ID 或工具名，值是新的参数 JSON，
+     * 只在 humanResponse 为 TOOL_EDIT 时生效；transport 只用于区分 hitl.resume.first.output 指标
+     */
+    public Flux<ServerSentEvent<String>> streamEvents(String prompt, String sessionId, Integer humanResponse,
+                                                      Map<String, String> editedArguments, String transport) {
+        return Flux.defer(() -> {
+            ReactiveSessionRun run = new ReactiveSessionRun(prompt, sessionId, humanResponse, editedArguments, transport);
+            ReactiveSessionRun accepted;
+            try {
+                accepted = sessionMailbox.submit(sessionId, run.dedupKey(), run);
+            } catch (TaskRejectedException e) {
+                run.cancellation.close(false);
+                return Flux.error(e);
+            } catch (Exception e) {
+                log.error("Error submitting reactive run", e);
+                run.cancellation.close(false);
+                return Flux.just(event(Constants.SSE_EVENT_ERROR, e.getMessage()));
+            }
+            if (accepted != run) {
+                run.cancellation.close(false);
+                log.info("Session[{}]: duplicate request attached to the in-flight run", sessionId);
+            }
+            return accepted.attach();
+        });
+    }
+    
+    /**
+     * 一次会话运行。人工审批结果在真正开始运行时才读取，保证能看到前一次运行保存的中断元数据。
+     * 发送事件和切换连接都在运行自己的锁内进行，续传时补发与实时事件之间不会漏掉也不会重复
+     */
+    private final class SessionRun implements SessionMailbox.Job {
+        private final String prompt;
+        private final String sessionId;
+        private final Integer humanResponse;
+        // 重复提交合并或断线续传后会切换到新的连接上继续输出
+        private volatile SseEmitter emitter;
+        // 排队期间客户端就断开的运行不会再启动
+        private final CancellationManager.Handle cancellation = cancellationManager.open("stream-mem");
+        private final BiConsumer<String, String> output;
+        // 运行已经结束（所有事件都已写入重放缓冲），不能再接回
+        private volatile boolean ended;
+        
+        private SessionRun(String prompt, String sessionId, Integer humanResponse, SseEmitter emitter) {
+            this.prompt = prompt;
+            this.sessionId = sessionId;
+            this.humanResponse = humanResponse;
+            this.emitter = emitter;
+            this.output = timeResume(humanResponse, TRANSPORT_SSE, this::send);
+            cancelOnDisconnect(emitter);
+        }
+        
+        // 只有当前输出的连接断开才取消，已经被合并请求接管的旧连接关闭不影响运行；断开后等待 resume-grace，期间重连的客户端可以接回运行
+        private void cancelOnDisconnect(SseEmitter target) {
+            sseManager.onDisconnect(target, () -> {
+                if (this.emitter != target || cancellation.isCancelled()) {
+                    return;
+                }
+                Duration grace = sseReplayConfig.getResumeGrace();
+                if (grace.isZero()) {
+                    cancellation.cancel();
+                    return;
+                }
+                Schedulers.parallel().schedule(() -> {
+                    if (this.emitter == target) {
+                        cancellation.cancel();
+                    }
+                }, grace.toMillis(), TimeUnit.MILLISECONDS);
+            });
+        }
+        
+        private String dedupKey() {
+            return humanResponse + ":" + prompt;
+        }
+        
+        private synchronized void attach(SseEmitter newEmitter) {
+            log.info("Session[{}]: duplicate request attached to the in-flight run", sessionId);
+            this.emitter = newEmitter;
+            cancelOnDisconnect(newEmitter);
+        }
+        
+        // 返回 false 表示运行已经结束，交给重放缓冲或新的运行处理
+        private synchronized boolean resume(SseEmitter newEmitter, long lastEventId) {
+            if (ended) {
+                return false;
+            }
+            this.emitter = newEmitter;
+            cancelOnDisconnect(newEmitter);
+            sseManager.replay(newEmitter, sessionId, lastEventId);
+            return true;
+        }
+        
+        private synchronized void send(String eventName, String data) {
+            sseManager.sendEvent(emitter, sessionId, eventName, data);
+        }
+        
+        private synchronized void end(String eventName, String data, Throwable error) {
+            sseManager.sendEvent(emitter, sessionId, eventName, data);
+            if (error == null) {
+                sseManager.complete(emitter, sessionId);
+            } else {
+                sseManager.completeWithError(emitter, sessionId, error);
+            }
+        }
+        
+        @Override
+        public void start(Runnable done) {
+            if (cancellation.isCancelled()) {
+                log.info("Session[{}]: client left before the queued run started, skipped", sessionId);
+                done.run();
+                return;
+            }
+            Runnable finished = () -> {
+                ended = true;
+                liveRuns.remove(sessionId, this);
+                done.run();
+            };
+            ReactAgent agent = agentFor(sessionId, humanResponse);
+            StreamDeadlineGuard.ModelCalls modelCalls = new StreamDeadlineGuard.ModelCalls();
+            RunnableConfig config = buildConfig(sessionId, humanResponse, Map.of(), cancellation, modelCalls);
+            
+            executor.submit(()->{
+                try{
+                    Flux<NodeOutput> stream = streamDeadlineGuard.guard(agent.stream(prompt, config), MODEL_NAME, modelCalls);
+                    // 写端就绪按当前连接判断，合并的重复请求接管后跟随新连接
+                    WriterReadiness readiness = action -> sseManager.readiness(emitter, sessionId).whenReady(action);
+                    // 被取消时不会再回调 onError / onComplete，在合并阶段的 doFinally 里推进邮箱
+                    streamBackpressure.subscribe("stream-mem", stream,
+                            guarded -> streamCoalescer.coalesce(guarded).doFinally(signal -> finished.run()), readiness,
+                            output -> emitOutput(output, sessionId, agent, cancellation, this.output),
+                            error ->{
+                        cancellation.close(false);
+                        if(error instanceof StreamDeadlineExceededException timeout){
+                            log.warn("Session[{}] stream timed out: {}", sessionId, timeout.getMessage());
+                            end(Constants.SSE_EVENT_TIMEOUT, timeout.getMessage(), null);
+                            return;
+                        }
+                        log.error("Error in streaming: ", error);
+                        end(Constants.SSE_EVENT_ERROR, error.getMessage(), error);
+                    }, ()->{
+                        cancellation.close(true);
+                        end(Constants.SSE_EVENT_COMPLETE, "Stream completed", null);
+                    }, cancellation.subscription());
+                }catch (Exception e){
+                    log.error("Error during streaming call", e);
+                    cancellation.close(false);
+                    end(Constants.SSE_EVENT_ERROR, e.getMessage(), e);
+                    finished.run();
+                }
+            });
+            // 提交成功后才登记为可续传的运行；运行在登记前就已经结束时撤销登记
+            liveRuns.put(sessionId, this);
+            if (ended) {
+                liveRuns.remove(sessionId, this);
+            }
+        }
+        
+        @Override
+        public void onStartFailure(Exception e) {
+            ended = true;
+            liveRuns.remove(sessionId, this);
+            cancellation.close(false);
+            end(Constants.SSE_EVENT_ERROR, e.getMessage(), e);
+        }
+    }
+    
+    /**
+     * 响应式的一次会话运行。输出先写入有界的多播 sink，客户端（包括合并进来的重复请求）订阅 sink；
+     * 客户端写得太慢导致 sink 写满时按溢出处理，结束运行
+     */
+    private final class ReactiveSessionRun implements SessionMailbox.Job {
+        private final String prompt;
+        private final String sessionId;
+        private final Integer humanResponse;
+        private final Map<String, String> editedArguments;
+        private final CancellationManager.Handle cancellation = cancellationManager.open("stream-mem");
+        private final Sinks.Many<ServerSentEvent<String>> sink;
+        // 只有最近一个订阅的客户端断开才取消运行
+        private final AtomicReference<Object> latestClient = new AtomicReference<>();
+        private final BiConsumer<String, String> output;
+        
+        private ReactiveSessionRun(String prompt, String sessionId, Integer humanResponse, Map<String, String> editedArguments,
+                                   String transport) {
+            this.prompt = prompt;
+            this.sessionId = sessionId;
+            this.humanResponse = humanResponse;
+            this.editedArguments = editedArguments;
+            this.sink = Sinks.many().multicast().onBackpressureBuffer(
+                    streamBackpressureConfig.forEndpoint("stream-mem").getBufferSize(), false);
+            this.output = timeResume(humanResponse, transport, this::emit);
+        }
+        
+        // 编辑内容不同的两次审批不能合并
+        private String dedupKey() {
+            return editedArguments.isEmpty() ? humanResponse + ":" + prompt : humanResponse + ":" + editedArguments + ":" + prompt;
+        }
+        
+        private Flux<ServerSentEvent<String>> attach() {
+            Object client = new Object();
+            latestClient.set(client);
+            return sink.asFlux().doOnCancel(() -> {
+                if (latestClient.get() == client) {
+                    cancellation.cancel();
+                }
+            });
+        }
+        
+        @Override
+        public void start(Runnable done) throws Exception {
+            if (cancellation.isCancelled()) {
+                log.info("Session[{}]: client left before the queued run started, skipped", sessionId);
+                done.run();
+                return;
+            }
+            ReactAgent agent = agentFor(sessionId, humanResponse);
+            StreamDeadlineGuard.ModelCalls modelCalls = new StreamDeadlineGuard.ModelCalls();
+            RunnableConfig config = buildConfig(sessionId, humanResponse, editedArguments, cancellation, modelCalls);
+            
+            // 直接在当前线程订阅，模型输出在 HTTP 客户端的 IO 线程上回调，没有执行器切换
+            Disposable subscription = streamCoalescer.coalesce(streamDeadlineGuard.guard(agent.stream(prompt, config), MODEL_NAME, modelCalls))
+                    .doFinally(signal -> done.run())
+                    .subscribe(output -> emitOutput(output, sessionId, agent, cancellation, this.output), error -> {
+                        cancellation.close(false);
+                        if (error instanceof StreamDeadlineExceededException timeout) {
+                            log.warn("Session[{}] stream timed out: {}", sessionId, timeout.getMessage());
+                            emit(Constants.SSE_EVENT_TIMEOUT, timeout.getMessage());
+                        } else {
+                            log.error("Error in streaming: ", error);
+                            emit(Constants.SSE_EVENT_ERROR, error.getMessage());
+                        }
+                        sink.tryEmitComplete();
+                    }, () -> {
+                        cancellation.close(true);
+                        emit(Constants.SSE_EVENT_COMPLETE, "Stream completed");
+                        sink.tryEmitComplete();
+                    });
+            cancellation.subscription().update(subscription);
+        }
+        
+        @Override
+        public void onStartFailure(Exception e) {
+            cancellation.close(false);
+            emit(Constants.SSE_EVENT_ERROR, e.getMessage());
+            sink.tryEmitComplete();
+        }
+        
+        private void emit(String eventName, String data) {
+            Sinks.EmitResult result = sink.tryEmitNext(event(eventName, data));
+            if (result == Sinks.EmitResult.FAIL_OVERFLOW) {
+                log.warn("Session[{}]: client too slow, reactive buffer overflowed", sessionId);
+                cancellation.subscription().dispose();
+                cancellation.close(false);
+                sink.tryEmitError(new IllegalStateException("SSE buffer overflow for session " + sessionId));
+            }
+        }
+    }
+    
+    private RunnableConfig buildConfig(String sessionId, Integer humanResponse, Map<String, String> editedArguments,
+                                       CancellationManager.Handle cancellation, StreamDeadlineGuard.ModelCalls modelCalls){
         InterruptionMetadata humanDecision = null;
         
         if(humanResponse!=null){
@@ -78,9 +457,8 @@ public class StreamMemService {
             if(humanResponse.equals(Constants.TOOL_APPROVE)){
                 humanDecision = approveAll(metadata);
             }else if(humanResponse.equals(Constants.TOOL_EDIT)){
-                // todo 编辑功能需要前端提供编辑界面，用户编辑后将修改后的结果传回后端，这个过程比较复杂，后续再完善，当前仅传递edit这个状态。
-                // todo 目前标记edit状态会当作批准处理，应该算作bug，需要后续完善
-                humanDecision = edit(metadata);
+                // SSE 接口只能传递 edit 状态，没有编辑内容的工具按原参数执行；WebSocket 接口会带上编辑后的参数
+                humanDecision = edit(metadata, editedArguments);
             }else if(humanResponse.equals(Constants.TOOL_REJECT)) {
                 humanDecision = rejectAll(metadata);
             }
@@ -89,84 +467,85 @@ public class StreamMemService {
         
         RunnableConfig.Builder configBuilder = RunnableConfig.builder()
                 .threadId(sessionId)
-                .addMetadata("user_id", "hjh");
+                .addMetadata("user_id", "hjh")
+                .addMetadata(CancellationManager.METADATA_KEY, cancellation)
+                .addMetadata(StreamDeadlineGuard.ModelCalls.METADATA_KEY, modelCalls);
         
         if(humanDecision!=null){
             configBuilder.addMetadata(RunnableConfig.HUMAN_FEEDBACK_METADATA_KEY, humanDecision);
         }
-        
-        SseEmitter emitter = sseManager.getEmitter(sessionId);
-        
-        try{
-            executor.submit(()->{
-                try{
-                    Flux<NodeOutput> stream = agent.stream(prompt, configBuilder.build());
-                    stream.subscribe(output ->{
-                        if(output instanceof StreamingOutput modelResponse){
-                            OutputType type = modelResponse.getOutputType();
-                            Message message = modelResponse.message();
-                            
-                            switch (type){
-                                case AGENT_MODEL_STREAMING -> {
-                                    Object thinkContent = message.getMetadata().get("reasoningContent");
-                                    if(thinkContent!=null && !thinkContent.toString().isEmpty()){ // 有思考内容
-                                        sseManager.sendEvent(emitter, sessionId, Constants.SSE_EVENT_THINKING, thinkContent.toString());
-                                    }else{ // 纯模型输出
-                                        sseManager.sendEvent(emitter, sessionId, Constants.SSE_EVENT_MODEL, message.getText());
-                                    }
-                                }
-                                case AGENT_TOOL_STREAMING -> log.info("Tool streaming: {}", message.toString());
-                                case AGENT_TOOL_FINISHED -> {
-                                    if(message instanceof ToolResponseMessage tool){
-                                        tool.getResponses().forEach(response->{
-                                            String toolOutput = "id: "+response.id()+", name: "+response.name()+", data: "+ response.responseData();
-                                            sseManager.sendEvent(emitter, sessionId, Constants.SSE_EVENT_TOOL, toolOutput);
-                                        });
-                                    }
-                                }
-                                default -> {
-                                    String messageText = message == null ? "[No Text]" : message.getText();
-                                    log.info("Other streaming type: {}, message: {}", type, messageText);
-                                }
-                            }
-                        }else if(output instanceof InterruptionMetadata metadata){
-                            List<InterruptionMetadata.ToolFeedback> toolFeedbacks = metadata.toolFeedbacks();
-                            toolFeedbacks.forEach(feedback->{
-                                String info = "[Tool]: " + feedback.getName() + ", [Id]: " + feedback.getId() + ", [Arguments]: "
-                                        + feedback.getArguments() + ", [Description]: " + feedback.getDescription() + ", [Result]: "
-                                        + feedback.getResult();
-                                sseManager.sendEvent(emitter, sessionId, Constants.SSE_EVENT_INTERRUPT, info);
-                            });
-                            metadataManager.put(sessionId, metadata); // 存储中断元数据，等待前端批准后使用
-                        }
-                    }, error ->{
-                        log.error("Error in streaming: ", error);
-                        sseManager.sendEvent(emitter, sessionId, Constants.SSE_EVENT_ERROR, error.getMessage());
-                        emitter.completeWithError(error);
-                    }, ()->{
-                        sseManager.sendEvent(emitter, sessionId, Constants.SSE_EVENT_COMPLETE, "Stream completed");
-                        emitter.complete();
-                    });
-                }catch (Exception e){
-                    log.error("Error during streaming call", e);
-                    sseManager.sendEvent(emitter, sessionId, Constants.SSE_EVENT_ERROR, e.getMessage());
-                    emitter.completeWithError(e);
+        return configBuilder.build();
+    }
+    
+    /**
+     * 把一条节点输出转换成 SSE 事件，两种写出方式（SseEmitter / Flux）共用
+     */
+    private void emitOutput(NodeOutput output, String sessionId, ReactAgent agent, CancellationManager.Handle cancellation,
+                            BiConsumer<String, String> send){
+        if(output instanceof StreamingOutput modelResponse){
+            OutputType type = modelResponse.getOutputType();
+            Message message = modelResponse.message();
+            
+            switch (type){
+                case AGENT_MODEL_STREAMING -> {
+                    Object thinkContent = message.getMetadata().get("reasoningContent");
+                    if(thinkContent!=null && !thinkContent.toString().isEmpty()){ // 有思考内容
+                        send.accept(Constants.SSE_EVENT_THINKING, thinkContent.toString());
+                    }else{ // 纯模型输出
+                        cancellation.recordOutput(message.getText());
+                        send.accept(Constants.SSE_EVENT_MODEL, message.getText());
+                    }
                 }
+                case AGENT_TOOL_STREAMING -> log.info("Tool streaming: {}", message.toString());
+                case AGENT_TOOL_FINISHED -> {
+                    if(message instanceof ToolResponseMessage tool){
+                        tool.getResponses().forEach(response->{
+                            String toolOutput = "id: "+response.id()+", name: "+response.name()+", data: "+ response.responseData();
+                            send.accept(Constants.SSE_EVENT_TOOL, toolOutput);
+                        });
+                    }
+                }
+                default -> {
+                    String messageText = message == null ? "[No Text]" : message.getText();
+                    log.info("Other streaming type: {}, message: {}", type, messageText);
+                }
+            }
+        }else if(output instanceof InterruptionMetadata metadata){
+            List<InterruptionMetadata.ToolFeedback> toolFeedbacks = metadata.toolFeedbacks();
+            toolFeedbacks.forEach(feedback->{
+                String info = "[Tool]: " + feedback.getName() + ", [Id]: " + feedback.getId() + ", [Arguments]: "
+                        + feedback.getArguments() + ", [Description]: " + feedback.getDescription() + ", [Result]: "
+                        + feedback.getResult();
+                send.accept(Constants.SSE_EVENT_INTERRUPT, info);
             });
-        } catch (Exception e) {
-            log.error("Error submitting task to executor", e);
-            sseManager.sendEvent(emitter, sessionId, Constants.SSE_EVENT_ERROR, e.getMessage());
-            emitter.completeWithError(e);
+            metadataManager.put(sessionId, metadata); // 存储中断元数据，等待前端批准后使用
+            interruptedAgents.put(sessionId, new InterruptedAgent(agent, System.nanoTime()));
+            interruptedAgents.values().removeIf(InterruptedAgent::isExpired);
         }
+    }
+    
+    private static ServerSentEvent<String> event(String name, String data){
+        return ServerSentEvent.<String>builder().event(name).data(data).build();
+    }
+    
+    /**
+     * 审批恢复的运行沿用中断时的 Agent，不再重新构建；会话的下一次运行无论是否是审批恢复都会取走保留的 Agent，
+     * 保留超过 INTERRUPTED_AGENT_TTL 的 Agent 不再使用
+     */
+    private ReactAgent agentFor(String sessionId, Integer humanResponse){
+        InterruptedAgent interrupted = interruptedAgents.remove(sessionId);
+        return humanResponse != null && interrupted != null && !interrupted.isExpired() ? interrupted.agent() : createAgent();
+    }
+    
+    private record InterruptedAgent(ReactAgent agent, long interruptedAt) {
         
+        private boolean isExpired() {
+            return System.nanoTime() - interruptedAt > INTERRUPTED_AGENT_TTL.toNanos();
+        }
     }
     
     private ReactAgent createAgent(){
-        DashScopeApi api = DashScopeApi.builder().apiKey(apiKeyConfig.getQwenKey()).build();
-        
-        DashScopeChatOptions options = DashScopeChatOptions.builder().model(MODEL_NAME).build();
-        
-        DashScopeChatModel chatModel = DashScopeChatModel.builder().dashScopeApi(api).defaultOptions(options).build();
+        ChatModel chatModel = chatModelRegistry.getChatModel(MODEL_NAME);
         
         // 使用RedisSaver作为存储器
         RedisSaver redisSaver = RedisSaver.builder()
@@ -184,7 +563,7 @@ public class StreamMemService {
                 .model(chatModel)
                 .hooks(timeRecordAgentHook, messageManageHook, human)
                 .systemPrompt(genSystemPrompt())
-                .interceptors(timeRecordModelInterceptor,toolRecordInterceptor)
+                .interceptors(cancellationModelInterceptor, cancellationToolInterceptor, adaptiveConcurrencyInterceptor.forModel(chatModel), timeRecordModelInterceptor,toolRecordInterceptor, streamDeadlineInterceptor)
                 .methodTools(new TimeTool(), new WeatherSearchTool())
                 .saver(redisSaver)
                 .build();
@@ -229,41 +608,41 @@ public class StreamMemService {
         return builder.build();
     }
     
-    private InterruptionMetadata edit(InterruptionMetadata metadata){
+    // editedArguments 按工具调用 ID 匹配，找不到再按工具名匹配
+    private InterruptionMetadata edit(InterruptionMetadata metadata, Map<String, String> editedArguments){
         InterruptionMetadata.Builder builder = InterruptionMetadata.builder().nodeId(metadata.node()).state(metadata.state());
         
         metadata.toolFeedbacks().forEach(feedback->{
-            builder.addToolFeedback(
-                    InterruptionMetadata.ToolFeedback.builder(feedback)
-                            .result(InterruptionMetadata.ToolFeedback.FeedbackResult.EDITED)
-                            .build()
-            );
+            String arguments = editedArguments.getOrDefault(feedback.getId(), editedArguments.get(feedback.getName()));
+            InterruptionMetadata.ToolFeedback.Builder edited = InterruptionMetadata.ToolFeedback.builder(feedback)
+                    .result(InterruptionMetadata.ToolFeedback.FeedbackResult.EDITED);
+            if(arguments != null){
+                edited.arguments(arguments);
+            }
+            builder.addToolFeedback(edited.build());
         });
         
         return builder.build();
     }
     
-    private InterruptionMetadata edit(InterruptionMetadata metadata, String toolName, String newArguments){
-        InterruptionMetadata.Builder builder = InterruptionMetadata.builder().nodeId(metadata.node()).state(metadata.state());
-        
-        metadata.toolFeedbacks().forEach(feedback->{
-            if(feedback.getName().equals(toolName)){
-                builder.addToolFeedback(
-                        InterruptionMetadata.ToolFeedback.builder(feedback)
-                                .arguments(newArguments)
-                                .result(InterruptionMetadata.ToolFeedback.FeedbackResult.EDITED)
-                                .build()
-                );
-            }else{
-                builder.addToolFeedback(
-                        InterruptionMetadata.ToolFeedback.builder(feedback)
-                                .result(InterruptionMetadata.ToolFeedback.FeedbackResult.REJECTED)
-                                .build()
-                );
+    /**
+     * 人工审批恢复的运行记录从收到审批请求到第一个输出的耗时（hitl.resume.first.output），按传输方式打标签，其余运行原样返回 send
+     */
+    private BiConsumer<String, String> timeResume(Integer humanResponse, String transport, BiConsumer<String, String> send){
+        if(humanResponse == null){
+            return send;
+        }
+        long start = System.nanoTime();
+        AtomicBoolean first = new AtomicBoolean(true);
+        return (name, data) -> {
+            if(first.compareAndSet(true, false)){
+                Timer.builder("hitl.resume.first.output")
+                        .tag("transport", transport)
+                        .register(Metrics.globalRegistry)
+                        .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
             }
-        });
-        
-        return builder.build();
+            send.accept(name, data);
+        };
     }
     
 }
\ No newline at end of file
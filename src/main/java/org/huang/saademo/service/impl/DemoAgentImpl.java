@@ -1,8 +1,5 @@
 package org.huang.saademo.service.impl;
 
-import com.alibaba.cloud.ai.dashscope.api.DashScopeApi;
-import com.alibaba.cloud.ai.dashscope.chat.DashScopeChatModel;
-import com.alibaba.cloud.ai.dashscope.chat.DashScopeChatOptions;
 import com.alibaba.cloud.ai.graph.OverAllState;
 import com.alibaba.cloud.ai.graph.RunnableConfig;
 import com.alibaba.cloud.ai.graph.agent.ReactAgent;
@@ -13,12 +10,15 @@ import com.alibaba.cloud.ai.graph.checkpoint.savers.MemorySaver;
 import com.alibaba.cloud.ai.graph.exception.GraphRunnerException;
 import jakarta.annotation.Resource;
 import lombok.extern.slf4j.Slf4j;
-import org.huang.saademo.config.ApiKeyConfig;
+import org.huang.saademo.config.BulkheadConfig;
+import org.huang.saademo.manager.BulkheadRegistry;
+import org.huang.saademo.manager.ChatModelRegistry;
 import org.huang.saademo.response.ai.AIResponseFormat;
 import org.huang.saademo.service.DemoAgent;
 import org.huang.saademo.tools.UserLocationTool;
 import org.huang.saademo.tools.WeatherSearchTool;
 import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.model.ChatModel;
 import org.springframework.stereotype.Service;
 
 import java.util.ArrayList;
@@ -28,25 +28,17 @@ import java.util.Optional;
 @Service
 public class DemoAgentImpl implements DemoAgent {
     @Resource
-    private ApiKeyConfig apiKeyConfig;
+    private ChatModelRegistry chatModelRegistry;
+    
+    @Resource
+    private BulkheadRegistry bulkheadRegistry;
     
     private static final String MODEL = "qwen-plus-latest";
     
     @Override
     public String agentInvoke(String input) throws GraphRunnerException {
-        // 初始化 DashScopeApi 客户端
-        DashScopeApi api = DashScopeApi.builder()
-                .apiKey(apiKeyConfig.getQwenKey())
-                .build();
-        
-        DashScopeChatOptions options = DashScopeChatOptions.builder()
-                .model(MODEL)
-                .build();
-        
-        DashScopeChatModel model = DashScopeChatModel.builder()
-                .dashScopeApi(api)
-                .defaultOptions(options)
-                .build();
+        // 从注册表获取共享的 ChatModel，不再每次调用都重新创建 DashScopeApi 客户端
+        ChatModel model = chatModelRegistry.getChatModel(MODEL);
         
         ModelCallLimitHook hook = ModelCallLimitHook.builder()
                 .runLimit(5)
@@ -67,7 +59,8 @@ public class DemoAgentImpl implements DemoAgent {
 //                .outputType(AIResponseFormat.class) // 控制模型进行结构化输出
                 .build();
         
-        Optional<OverAllState> res = agent.invoke(input);
+        // 同步调用走 blocking 舱壁，不和流式对话、后台任务抢占并发
+        Optional<OverAllState> res = bulkheadRegistry.get(BulkheadConfig.BLOCKING).call(() -> agent.invoke(input));
         if(res.isPresent()){
             OverAllState state = res.get();
             System.out.println("Full State:\n " + state);
@@ -83,19 +76,8 @@ public class DemoAgentImpl implements DemoAgent {
     
     @Override
     public ReactAgent genAgent() {
-        // 初始化 DashScopeApi 客户端
-        DashScopeApi api = DashScopeApi.builder()
-                .apiKey(apiKeyConfig.getQwenKey())
-                .build();
-        
-        DashScopeChatOptions options = DashScopeChatOptions.builder()
-                .model(MODEL)
-                .build();
-        
-        DashScopeChatModel model = DashScopeChatModel.builder()
-                .dashScopeApi(api)
-                .defaultOptions(options)
-                .build();
+        // 从注册表获取共享的 ChatModel，不再每次调用都重新创建 DashScopeApi 客户端
+        ChatModel model = chatModelRegistry.getChatModel(MODEL);
         
         ReactAgent agent = ReactAgent.builder()
                 .name("weather-agent")
@@ -111,19 +93,8 @@ public class DemoAgentImpl implements DemoAgent {
     
     @Override
     public ReactAgent genWriterAgent() {
-        // 初始化 DashScopeApi 客户端
-        DashScopeApi api = DashScopeApi.builder()
-                .apiKey(apiKeyConfig.getQwenKey())
-                .build();
-        
-        DashScopeChatOptions options = DashScopeChatOptions.builder()
-                .model(MODEL)
-                .build();
-        
-        DashScopeChatModel model = DashScopeChatModel.builder()
-                .dashScopeApi(api)
-                .defaultOptions(options)
-                .build();
+        // 从注册表获取共享的 ChatModel，不再每次调用都重新创建 DashScopeApi 客户端
+        ChatModel model = chatModelRegistry.getChatModel(MODEL);
         
         ReactAgent agent = ReactAgent.builder()
                 .name("writer-agent")
@@ -1,6 +1,6 @@
 /**
  * AI Chat Application
- * 与后端 SSE 接口对接，实现流式对话功能
+ * 与后端 SSE 接口对接，实现流式对话功能；WebSocket 可用时问题和人工审批都走同一个 WebSocket 连接，断开时回退到 SSE
  */
 
 // ==================== 常量定义 ====================
@@ -23,6 +23,16 @@ const HUMAN_RESPONSE = {
     REJECT: 2
 };
 
+// WebSocket 消息中的审批结果
+const SOCKET_DECISIONS = {
+    [HUMAN_RESPONSE.APPROVE]: 'approve',
+    [HUMAN_RESPONSE.EDIT]: 'edit',
+    [HUMAN_RESPONSE.REJECT]: 'reject'
+};
+
+const SOCKET_URL = `${location.protocol === 'https:' ? 'wss' : 'ws'}://${location.host}/ws/stream/mem`;
+const SOCKET_RETRY_MS = 3000;
+
 // ==================== DOM 元素 ====================
 const elements = {
     // 主要元素
@@ -56,8 +66,11 @@ let state = {
     currentRoundMessages: [], // 当前轮次的消息，用于保存历史
     isStreaming: false,
     eventSource: null,
+    socket: null,
     currentStreamingMessageId: null,
-    pendingInterrupt: false // 是否有待处理的中断
+    pendingInterrupt: false, // 是否有待处理的中断
+    interruptedTools: [], // 等待审批的工具调用：{ name, id, arguments }
+    resumeStartedAt: null // 发出审批的时间，用于统计审批到第一个输出的耗时
 };
 
 // ==================== 初始化 ====================
@@ -84,6 +97,9 @@ function init() {
 
     // 自动调整输入框高度
     autoResizeTextarea();
+
+    // 建立 WebSocket 连接
+    connectSocket();
 }
 
 // ==================== 事件绑定 ====================
@@ -229,8 +245,10 @@ function sendMessage() {
     // 显示思考中指示器
     showThinkingIndicator();
 
-    // 建立 SSE 连接
-    connectSSE(prompt);
+    // WebSocket 可用时直接在已有连接上发送，否则建立 SSE 连接
+    if (!sendSocket({ type: 'prompt', sessionId: state.currentSessionId, prompt })) {
+        connectSSE(prompt);
+    }
 }
 
 function connectSSE(prompt) {
@@ -313,9 +331,71 @@ function connectSSE(prompt) {
     }
 }
 
+// ==================== WebSocket ====================
+function connectSocket() {
+    if (typeof WebSocket === 'undefined') return;
+
+    const socket = new WebSocket(SOCKET_URL);
+
+    socket.onopen = () => {
+        state.socket = socket;
+        console.log('WebSocket 连接已建立');
+    };
+
+    socket.onmessage = (message) => {
+        const { session, event, data } = JSON.parse(message.data);
+        // 只处理当前会话的消息，切换会话后旧会话的输出忽略
+        if (session && session !== state.currentSessionId) return;
+        dispatchSocketEvent(event, data);
+    };
+
+    socket.onclose = () => {
+        const wasOpen = state.socket === socket;
+        state.socket = null;
+        if (wasOpen && state.isStreaming) {
+            handleErrorEvent('连接已断开');
+        }
+        // 断开后定时重连，期间回退到 SSE
+        setTimeout(connectSocket, SOCKET_RETRY_MS);
+    };
+}
+
+// 连接可用时发送并返回 true
+function sendSocket(message) {
+    if (!state.socket || state.socket.readyState !== WebSocket.OPEN) {
+        return false;
+    }
+    state.socket.send(JSON.stringify(message));
+    return true;
+}
+
+// 与 SSE 事件监听器相同的分发
+function dispatchSocketEvent(event, data) {
+    switch (event) {
+        case SSE_EVENTS.MODEL: handleModelEvent(data); break;
+        case SSE_EVENTS.TOOL: handleToolEvent(data); break;
+        case SSE_EVENTS.THINKING: handleThinkingEvent(data); break;
+        case SSE_EVENTS.CONTEXT: handleContextEvent(data); break;
+        case SSE_EVENTS.COMPLETE: handleCompleteEvent(data); break;
+        case SSE_EVENTS.ERROR: handleErrorEvent(data); break;
+        case SSE_EVENTS.TIMEOUT: handleTimeoutEvent(data); break;
+        case SSE_EVENTS.INTERRUPT: handleInterruptEvent(data); break;
+        default: console.log('未知事件:', event, data);
+    }
+}
+
+// 审批之后第一个输出到达时打印耗时，便于对比 SSE 重连与 WebSocket 两种方式
+function logResumeLatency() {
+    if (state.resumeStartedAt === null) return;
+    const elapsed = performance.now() - state.resumeStartedAt;
+    state.resumeStartedAt = null;
+    console.log(`审批到第一个输出耗时 ${elapsed.toFixed(1)} ms（${state.socket ? 'WebSocket' : 'SSE'}）`);
+}
+
 // ==================== SSE 事件处理 ====================
 function handleModelEvent(content) {
     removeThinkingIndicator();
+    logResumeLatency();
 
     if (!content) return;
 
@@ -331,6 +411,7 @@ function handleModelEvent(content) {
 
 function handleToolEvent(content) {
     removeThinkingIndicator();
+    logResumeLatency();
     if (content) {
         appendMessage('assistant', content, SSE_EVENTS.TOOL);
     }
@@ -338,6 +419,7 @@ function handleToolEvent(content) {
 
 function handleThinkingEvent(content) {
     removeThinkingIndicator();
+    logResumeLatency();
     if (content) {
         appendMessage('assistant', content, SSE_EVENTS.THINKING);
     }
@@ -386,6 +468,11 @@ function handleTimeoutEvent(content) {
 function handleInterruptEvent(content) {
     removeThinkingIndicator();
     state.pendingInterrupt = true;
+    // 格式：[Tool]: name, [Id]: id, [Arguments]: {...}, [Description]: ...
+    const match = /\[Tool\]: (.*?), \[Id\]: (.*?), \[Arguments\]: (.*), \[Description\]:/.exec(content || '');
+    if (match) {
+        state.interruptedTools.push({ name: match[1], id: match[2], arguments: match[3] });
+    }
     if (content) {
         appendMessage('assistant', content, SSE_EVENTS.INTERRUPT);
     }
@@ -438,10 +525,14 @@ function showInterruptActions() {
         btn.addEventListener('click', (e) => {
             const response = parseInt(btn.dataset.response);
             if (response === HUMAN_RESPONSE.EDIT) {
-                // 显示编辑区域
+                // 显示编辑区域；WebSocket 可以回传编辑后的工具参数，预先填入原参数
                 const editArea = document.getElementById('interruptEditArea');
                 editArea.classList.remove('hidden');
-                document.getElementById('interruptEditInput').focus();
+                const editInput = document.getElementById('interruptEditInput');
+                if (state.socket && state.interruptedTools.length > 0) {
+                    editInput.value = state.interruptedTools[0].arguments;
+                }
+                editInput.focus();
                 // 隐藏三个按钮
                 actionsDiv.querySelector('.interrupt-buttons').classList.add('hidden');
                 scrollToBottom();
@@ -487,13 +578,25 @@ function sendHumanResponse(humanResponse, prompt) {
     appendMessage('user', userMsg);
 
     // 重置中断状态
+    const tools = state.interruptedTools;
     state.pendingInterrupt = false;
+    state.interruptedTools = [];
 
     // 禁用输入
     setStreamingState(true);
     showThinkingIndicator();
+    state.resumeStartedAt = performance.now();
+
+    // WebSocket 可用时在同一个连接上回传审批结果，编辑内容作为第一个被中断工具的新参数
+    const message = { type: 'decision', sessionId: state.currentSessionId, decision: SOCKET_DECISIONS[humanResponse] };
+    if (humanResponse === HUMAN_RESPONSE.EDIT && prompt && tools.length > 0) {
+        message.arguments = { [tools[0].id]: prompt };
+    } else if (prompt) {
+        message.prompt = prompt;
+    }
+    if (sendSocket(message)) return;
 
-    // 建立新的 SSE 连接，携带 humanResponse 参数
+    // 否则建立新的 SSE 连接，携带 humanResponse 参数
     connectSSEWithHumanResponse(prompt, humanResponse);
 }
 
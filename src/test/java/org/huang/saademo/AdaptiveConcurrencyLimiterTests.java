@@ -0,0 +1,222 @@
+package org.huang.saademo;
+
+import com.alibaba.cloud.ai.graph.agent.interceptor.ModelInterceptor;
+import com.alibaba.cloud.ai.graph.agent.interceptor.ModelRequest;
+import com.alibaba.cloud.ai.graph.agent.interceptor.ModelResponse;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.huang.saademo.common.ConcurrencyLimitExceededException;
+import org.huang.saademo.config.ModelConcurrencyConfig;
+import org.huang.saademo.interceptor.AdaptiveConcurrencyInterceptor;
+import org.huang.saademo.manager.AdaptiveConcurrencyLimiter;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+import org.springframework.ai.chat.prompt.ChatOptions;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * 模型调用自适应并发：上限随成功调用增长、随延迟升高和 429 收缩，超出上限的调用排队或被拒绝
+ */
+public class AdaptiveConcurrencyLimiterTests {
+    
+    private static final long MILLIS = 1_000_000L;
+    
+    private SimpleMeterRegistry meterRegistry;
+    private ModelConcurrencyConfig config;
+    
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        Metrics.addRegistry(meterRegistry);
+        config = new ModelConcurrencyConfig();
+    }
+    
+    @AfterEach
+    void tearDown() {
+        Metrics.removeRegistry(meterRegistry);
+    }
+    
+    @Test
+    void testLimitGrowsWhileFullyUsedAndHealthy() {
+        config.setInitialLimit(2);
+        config.setMaxLimit(10);
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter("grow", config);
+        
+        for (int round = 0; round < 100; round++) {
+            int permits = limiter.getLimit();
+            for (int i = 0; i < permits; i++) {
+                limiter.acquire();
+            }
+            for (int i = 0; i < permits; i++) {
+                limiter.onLatency(10 * MILLIS);
+                limiter.release();
+            }
+        }
+        assertEquals(10, limiter.getLimit());
+        assertEquals(0, limiter.getInFlight());
+        assertEquals(10.0, meterRegistry.get("model.concurrency.limit").tag("model", "grow").gauge().value());
+    }
+    
+    @Test
+    void testLimitShrinksOnLatencyAndThrottle() {
+        config.setInitialLimit(20);
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter("shrink", config);
+        
+        limiter.acquire();
+        limiter.onLatency(10 * MILLIS);
+        limiter.release();
+        assertEquals(20, limiter.getLimit());
+        
+        // 延迟是基线的 10 倍，乘 0.9
+        limiter.acquire();
+        limiter.onLatency(100 * MILLIS);
+        limiter.release();
+        assertEquals(18, limiter.getLimit());
+        
+        limiter.acquire();
+        limiter.onThrottled();
+        limiter.release();
+        assertEquals(9, limiter.getLimit());
+        assertEquals(1.0, meterRegistry.get("model.concurrency.throttled").tag("model", "shrink").counter().count());
+        
+        for (int i = 0; i < 20; i++) {
+            limiter.onThrottled();
+        }
+        assertEquals(config.getMinLimit(), limiter.getLimit());
+    }
+    
+    @Test
+    void testExcessCallsQueueThenGetRejected() throws Exception {
+        config.setInitialLimit(1);
+        config.setMaxLimit(1);
+        config.setMaxQueue(1);
+        config.setMaxWait(Duration.ofMillis(300));
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter("queue", config);
+        
+        limiter.acquire();
+        CompletableFuture<Void> queued = CompletableFuture.runAsync(limiter::acquire);
+        waitUntilQueued(limiter);
+        // 队列已满，直接拒绝
+        assertThrows(ConcurrencyLimitExceededException.class, limiter::acquire);
+        // 排队的调用等待超时
+        ExecutionException timeout = assertThrows(ExecutionException.class, () -> queued.get(5, TimeUnit.SECONDS));
+        assertInstanceOf(ConcurrencyLimitExceededException.class, timeout.getCause());
+        assertEquals(2.0, meterRegistry.get("model.concurrency.rejected").tag("model", "queue").counter().count());
+        
+        // 名额归还后排队的调用拿到名额
+        config.setMaxWait(Duration.ofSeconds(5));
+        CompletableFuture<Void> admitted = CompletableFuture.runAsync(limiter::acquire);
+        waitUntilQueued(limiter);
+        limiter.release();
+        admitted.get(5, TimeUnit.SECONDS);
+        assertEquals(1, limiter.getInFlight());
+        assertEquals(0, limiter.getWaiting());
+    }
+    
+    @Test
+    void testInterceptorHoldsPermitUntilStreamEnds() {
+        AdaptiveConcurrencyInterceptor interceptor = new AdaptiveConcurrencyInterceptor(config);
+        ModelRequest request = ModelRequest.builder().messages(List.of()).build();
+        Flux<ChatResponse> chunks = Flux.just("你", "好").map(text -> new ChatResponse(List.of(new Generation(new AssistantMessage(text)))));
+        
+        ModelResponse response = interceptor.interceptModel(request, r -> ModelResponse.of(chunks));
+        AdaptiveConcurrencyLimiter limiter = interceptor.getLimiter("default");
+        // 订阅前不占名额，没有被订阅的流（例如运行在订阅前被取消）不会泄漏名额
+        assertEquals(0, limiter.getInFlight());
+        
+        @SuppressWarnings("unchecked")
+        Flux<ChatResponse> stream = (Flux<ChatResponse>) response.getMessage();
+        int[] inFlightWhileStreaming = new int[1];
+        stream.doOnNext(chunk -> inFlightWhileStreaming[0] = limiter.getInFlight()).blockLast(Duration.ofSeconds(5));
+        assertEquals(1, inFlightWhileStreaming[0]);
+        assertEquals(0, limiter.getInFlight());
+        
+        // 同步抛出的限流错误：上限减半且名额被归还
+        int before = limiter.getLimit();
+        assertThrows(RuntimeException.class, () -> interceptor.interceptModel(request, r -> {
+            throw new RuntimeException("Throttling.RateQuota: Requests rate limit exceeded");
+        }));
+        assertEquals(before / 2, limiter.getLimit());
+        assertEquals(0, limiter.getInFlight());
+        
+        // 消息里碰巧带 429 的其他错误不算限流
+        int afterThrottle = limiter.getLimit();
+        assertThrows(RuntimeException.class, () -> interceptor.interceptModel(request, r -> {
+            throw new RuntimeException("Invalid request, request id 4291-abc, 4290 tokens exceed the limit");
+        }));
+        assertEquals(afterThrottle, limiter.getLimit());
+        assertEquals(0, limiter.getInFlight());
+        
+        // 流中途出错同样归还名额
+        ModelResponse failing = interceptor.interceptModel(request, r -> ModelResponse.of(Flux.<ChatResponse>error(new IllegalStateException("boom"))));
+        @SuppressWarnings("unchecked")
+        Flux<ChatResponse> failingStream = (Flux<ChatResponse>) failing.getMessage();
+        assertThrows(IllegalStateException.class, () -> failingStream.blockLast(Duration.ofSeconds(5)));
+        assertEquals(0, limiter.getInFlight());
+    }
+    
+    @Test
+    void testAgentsOnDifferentModelsUseSeparateLimits() {
+        config.setInitialLimit(1);
+        config.setMaxLimit(1);
+        config.setMaxQueue(0);
+        AdaptiveConcurrencyInterceptor interceptor = new AdaptiveConcurrencyInterceptor(config);
+        ModelInterceptor plus = interceptor.forModel(chatModel("qwen-plus"));
+        ModelInterceptor turbo = interceptor.forModel(chatModel("qwen-turbo"));
+        ModelRequest request = ModelRequest.builder().messages(List.of()).build();
+        
+        // qwen-plus 的唯一名额被一个没结束的流占着，qwen-turbo 不受影响
+        Disposable plusStream = stream(plus.interceptModel(request, r -> ModelResponse.of(Flux.<ChatResponse>never()))).subscribe();
+        assertThrows(ConcurrencyLimitExceededException.class,
+                () -> stream(plus.interceptModel(request, r -> ModelResponse.of(Flux.<ChatResponse>never()))).blockLast(Duration.ofSeconds(5)));
+        Disposable turboStream = stream(turbo.interceptModel(request, r -> ModelResponse.of(Flux.<ChatResponse>never()))).subscribe();
+        
+        assertEquals(1, interceptor.getLimiter("qwen-plus").getInFlight());
+        assertEquals(1, interceptor.getLimiter("qwen-turbo").getInFlight());
+        assertEquals(0, interceptor.getLimiter("default").getInFlight());
+        assertEquals(1.0, meterRegistry.get("model.concurrency.rejected").tag("model", "qwen-plus").counter().count());
+        
+        plusStream.dispose();
+        turboStream.dispose();
+        assertEquals(0, interceptor.getLimiter("qwen-plus").getInFlight());
+        assertEquals(0, interceptor.getLimiter("qwen-turbo").getInFlight());
+    }
+    
+    @SuppressWarnings("unchecked")
+    private static Flux<ChatResponse> stream(ModelResponse response) {
+        return (Flux<ChatResponse>) response.getMessage();
+    }
+    
+    private static ChatModel chatModel(String model) {
+        ChatModel chatModel = mock(ChatModel.class);
+        when(chatModel.getDefaultOptions()).thenReturn(ChatOptions.builder().model(model).build());
+        return chatModel;
+    }
+    
+    private static void waitUntilQueued(AdaptiveConcurrencyLimiter limiter) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (limiter.getWaiting() == 0) {
+            assertTrue(System.currentTimeMillis() < deadline, "acquire never queued");
+            Thread.sleep(5);
+        }
+    }
+}
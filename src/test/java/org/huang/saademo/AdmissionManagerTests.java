@@ -0,0 +1,115 @@
+package org.huang.saademo;
+
+import org.huang.saademo.common.AdmissionRejectedException;
+import org.huang.saademo.config.AdmissionConfig;
+import org.huang.saademo.config.BulkheadConfig;
+import org.huang.saademo.config.VirtualThreadTaskExecutor;
+import org.huang.saademo.controller.AdmissionExceptionHandler;
+import org.huang.saademo.controller.StreamController;
+import org.huang.saademo.manager.AdmissionManager;
+import org.huang.saademo.manager.BulkheadRegistry;
+import org.huang.saademo.service.StreamAgent;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.http.HttpHeaders;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * 准入控制：容量满时在打开 SSE 之前返回 429，Retry-After 按释放容量的速度错开
+ */
+public class AdmissionManagerTests {
+    
+    private VirtualThreadTaskExecutor executor;
+    private AdmissionManager admissionManager;
+    
+    @BeforeEach
+    void setUp() {
+        AdmissionConfig config = new AdmissionConfig();
+        config.setMaxConcurrentSessions(2);
+        config.setInitialServiceTime(Duration.ofSeconds(10));
+        executor = new VirtualThreadTaskExecutor("admission-test-", 10);
+        admissionManager = new AdmissionManager(config, executor, new BulkheadRegistry(new BulkheadConfig(), config));
+    }
+    
+    @AfterEach
+    void tearDown() {
+        executor.destroy();
+    }
+    
+    @Test
+    void testRetryAfterIsSpreadAcrossRejectedClients() {
+        AdmissionManager.Ticket first = admissionManager.admit();
+        admissionManager.admit();
+        
+        // 平均耗时 10 秒、并发上限 2：平均每 5 秒空出一个名额，被拒绝的客户端依次错开 5 秒
+        List<Long> retryAfters = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            AdmissionRejectedException e = assertThrows(AdmissionRejectedException.class, admissionManager::admit);
+            retryAfters.add(e.getRetryAfterSeconds());
+        }
+        assertEquals(List.of(5L, 10L, 15L), retryAfters);
+        
+        first.release(true);
+        assertEquals(1, admissionManager.getInFlight());
+        admissionManager.admit();
+        assertEquals(2, admissionManager.getInFlight());
+        // 刚结束的会话很短，平均耗时随之下降
+        assertTrue(admissionManager.getAvgServiceTimeMillis() < 10_000);
+    }
+    
+    @Test
+    void testRejectedBeforeStreamIsOpened() throws Exception {
+        StreamAgent streamAgent = mock(StreamAgent.class);
+        MockMvc mockMvc = newMockMvc(streamAgent);
+        admissionManager.admit();
+        admissionManager.admit();
+        
+        mockMvc.perform(get("/stream/agent").param("prompt", "hi"))
+                .andExpect(status().isTooManyRequests())
+                .andExpect(header().string(HttpHeaders.RETRY_AFTER, "5"));
+        verify(streamAgent, never()).StreamCall(any(), anyString());
+    }
+    
+    @Test
+    void testExecutorRejectionBecomes429() throws Exception {
+        StreamAgent streamAgent = mock(StreamAgent.class);
+        doThrow(new TaskRejectedException("full")).when(streamAgent).StreamCall(any(), anyString());
+        MockMvc mockMvc = newMockMvc(streamAgent);
+        
+        mockMvc.perform(get("/stream/agent").param("prompt", "hi"))
+                .andExpect(status().isTooManyRequests())
+                .andExpect(header().exists(HttpHeaders.RETRY_AFTER));
+        // 名额已经归还
+        assertEquals(0, admissionManager.getInFlight());
+    }
+    
+    private MockMvc newMockMvc(StreamAgent streamAgent) {
+        StreamController controller = new StreamController();
+        ReflectionTestUtils.setField(controller, "streamAgent", streamAgent);
+        ReflectionTestUtils.setField(controller, "admissionManager", admissionManager);
+        return MockMvcBuilders.standaloneSetup(controller)
+                .setControllerAdvice(new AdmissionExceptionHandler())
+                .build();
+    }
+}
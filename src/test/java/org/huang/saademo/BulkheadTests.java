@@ -0,0 +1,156 @@
+package org.huang.saademo;
+
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.huang.saademo.common.BulkheadFullException;
+import org.huang.saademo.config.AdmissionConfig;
+import org.huang.saademo.config.BulkheadConfig;
+import org.huang.saademo.manager.Bulkhead;
+import org.huang.saademo.manager.BulkheadRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 舱壁隔离：低优先级的批处理在交互式请求饱和时让位，批处理占满自己的舱壁也不影响交互式请求
+ */
+public class BulkheadTests {
+    
+    private SimpleMeterRegistry meterRegistry;
+    private BulkheadRegistry registry;
+    private Bulkhead interactive;
+    private Bulkhead ingestion;
+    
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        Metrics.addRegistry(meterRegistry);
+        AdmissionConfig admissionConfig = new AdmissionConfig();
+        admissionConfig.setMaxConcurrentSessions(2);
+        Map<String, BulkheadConfig.Spec> specs = new LinkedHashMap<>();
+        specs.put(BulkheadConfig.INGESTION, new BulkheadConfig.Spec(10, 1, 1, Duration.ofSeconds(2), true));
+        specs.put(BulkheadConfig.COMPRESSION, new BulkheadConfig.Spec(40, 1, 1, Duration.ofSeconds(2), false));
+        BulkheadConfig config = new BulkheadConfig();
+        config.setSpecs(specs);
+        registry = new BulkheadRegistry(config, admissionConfig);
+        interactive = registry.get(BulkheadConfig.INTERACTIVE);
+        ingestion = registry.get(BulkheadConfig.INGESTION);
+    }
+    
+    @AfterEach
+    void tearDown() {
+        Metrics.removeRegistry(meterRegistry);
+    }
+    
+    @Test
+    void testIngestionYieldsWhileInteractiveIsSaturated() throws Exception {
+        assertTrue(interactive.tryAcquire());
+        assertTrue(interactive.tryAcquire());
+        assertFalse(ingestion.tryAcquire());
+        
+        long waitCountBefore = ingestion.getWaitTimer().count();
+        AtomicBoolean ran = new AtomicBoolean();
+        CompletableFuture<Void> batch = CompletableFuture.runAsync(() -> ingestion.run(() -> ran.set(true)));
+        
+        // 交互式舱壁满着，批处理只能排队
+        Thread.sleep(200);
+        assertFalse(ran.get());
+        assertEquals(1, ingestion.getQueueDepth());
+        
+        interactive.release();
+        batch.get(2, TimeUnit.SECONDS);
+        assertTrue(ran.get());
+        assertEquals(0, ingestion.getQueueDepth());
+        assertEquals(waitCountBefore + 1, ingestion.getWaitTimer().count());
+        assertTrue(ingestion.getWaitTimer().max(TimeUnit.MILLISECONDS) >= 150);
+        interactive.release();
+    }
+    
+    @Test
+    void testInteractiveUnaffectedBySaturatedIngestion() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch finish = new CountDownLatch(1);
+        CompletableFuture<Void> batch = CompletableFuture.runAsync(() -> ingestion.run(() -> {
+            started.countDown();
+            awaitQuietly(finish);
+        }));
+        assertTrue(started.await(2, TimeUnit.SECONDS));
+        assertEquals(1, ingestion.getActive());
+        
+        // 批处理占满自己的舱壁，交互式请求照样立即拿到名额
+        assertTrue(interactive.tryAcquire());
+        assertTrue(interactive.tryAcquire());
+        assertEquals(2, interactive.getActive());
+        interactive.release();
+        interactive.release();
+        
+        finish.countDown();
+        batch.get(2, TimeUnit.SECONDS);
+        assertEquals(0, ingestion.getActive());
+    }
+    
+    @Test
+    void testRejectedWhenQueueIsFullOrWaitTimesOut() throws Exception {
+        assertTrue(interactive.tryAcquire());
+        assertTrue(interactive.tryAcquire());
+        
+        // 队列长度 1：第一个调用排队，第二个直接拒绝
+        CompletableFuture<Void> queued = CompletableFuture.runAsync(() -> ingestion.run(() -> {}));
+        Thread.sleep(200);
+        BulkheadFullException full = assertThrows(BulkheadFullException.class, () -> ingestion.run(() -> {}));
+        assertTrue(full.getMessage().contains("queue is full"));
+        assertEquals(2, full.getRetryAfterSeconds());
+        
+        // 一直让位直到超时
+        Exception e = assertThrows(Exception.class, () -> queued.get(5, TimeUnit.SECONDS));
+        assertTrue(e.getCause() instanceof BulkheadFullException);
+        assertEquals(0, ingestion.getQueueDepth());
+        assertEquals(0, ingestion.getActive());
+        
+        interactive.release();
+        interactive.release();
+    }
+    
+    @Test
+    void testCompressionInsideSessionDoesNotYieldToSaturatedInteractive() {
+        assertTrue(interactive.tryAcquire());
+        assertTrue(interactive.tryAcquire());
+        
+        // 会话内的上下文压缩：interactive 已满（名额正是这些会话占着的），压缩仍然立即拿到名额
+        Bulkhead compression = registry.get(BulkheadConfig.COMPRESSION);
+        long started = System.nanoTime();
+        assertEquals("compressed", compression.call(() -> "compressed"));
+        assertTrue(System.nanoTime() - started < TimeUnit.MILLISECONDS.toNanos(500));
+        assertEquals(0, compression.getWaitTimer().max(TimeUnit.MILLISECONDS), 1.0);
+        assertFalse(ingestion.tryAcquire());
+        
+        interactive.release();
+        interactive.release();
+    }
+    
+    @Test
+    void testUnknownBulkhead() {
+        assertThrows(IllegalArgumentException.class, () -> registry.get("unknown"));
+    }
+    
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package org.huang.saademo;
+
+import com.alibaba.cloud.ai.graph.agent.interceptor.ModelRequest;
+import com.alibaba.cloud.ai.graph.agent.interceptor.ModelResponse;
+import com.alibaba.cloud.ai.graph.agent.interceptor.ToolCallRequest;
+import com.alibaba.cloud.ai.graph.agent.interceptor.ToolCallResponse;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.huang.saademo.config.VirtualThreadTaskExecutor;
+import org.huang.saademo.interceptor.CancellationModelInterceptor;
+import org.huang.saademo.interceptor.CancellationToolInterceptor;
+import org.huang.saademo.manager.CancellationManager;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 客户端断开后的取消：订阅被释放、上游收到 cancel、阻塞的虚拟线程返回、后续模型和工具调用被跳过、节省的 token 计入指标
+ */
+public class CancellationTests {
+    
+    private SimpleMeterRegistry meterRegistry;
+    private CancellationManager cancellationManager;
+    
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        Metrics.addRegistry(meterRegistry);
+        cancellationManager = new CancellationManager();
+    }
+    
+    @AfterEach
+    void tearDown() {
+        Metrics.removeRegistry(meterRegistry);
+    }
+    
+    @Test
+    void testCancelReleasesVirtualThreadAndUpstream() throws Exception {
+        CancellationManager.Handle handle = cancellationManager.open("test");
+        AtomicBoolean upstreamCancelled = new AtomicBoolean();
+        AtomicInteger received = new AtomicInteger();
+        CountDownLatch firstToken = new CountDownLatch(1);
+        CountDownLatch returned = new CountDownLatch(1);
+        Flux<String> tokens = Flux.interval(Duration.ofMillis(20)).map(i -> "tok")
+                .doOnCancel(() -> upstreamCancelled.set(true));
+        
+        Thread.ofVirtual().start(() -> {
+            VirtualThreadTaskExecutor.subscribe(tokens, token -> {
+                received.incrementAndGet();
+                firstToken.countDown();
+            }, error -> {}, () -> {}, handle.subscription());
+            returned.countDown();
+        });
+        
+        assertTrue(firstToken.await(2, TimeUnit.SECONDS));
+        assertTrue(handle.cancel());
+        assertTrue(returned.await(2, TimeUnit.SECONDS));
+        assertTrue(upstreamCancelled.get());
+        int afterCancel = received.get();
+        Thread.sleep(100);
+        assertEquals(afterCancel, received.get());
+        assertEquals(0, cancellationManager.getActive());
+    }
+    
+    @Test
+    void testCancelBeforeSubscribeDisposesImmediately() {
+        CancellationManager.Handle handle = cancellationManager.open("test");
+        handle.cancel();
+        AtomicBoolean upstreamCancelled = new AtomicBoolean();
+        AtomicInteger received = new AtomicInteger();
+        
+        VirtualThreadTaskExecutor.subscribe(Flux.interval(Duration.ofMillis(10)).doOnCancel(() -> upstreamCancelled.set(true)),
+                i -> received.incrementAndGet(), error -> {}, () -> {}, handle.subscription());
+        
+        assertTrue(upstreamCancelled.get());
+        assertEquals(0, received.get());
+    }
+    
+    @Test
+    void testTokensSavedAgainstAverageCompletedRun() {
+        String full = "北京明天多云转晴，气温 12 到 24 摄氏度。".repeat(10);
+        String partial = "北京明天多云转晴，气温 12 到 24 摄氏度。".repeat(3);
+        long fullTokens = CancellationManager.estimateTokens(full);
+        long partialTokens = CancellationManager.estimateTokens(partial);
+        assertTrue(partialTokens > 0 && partialTokens < fullTokens);
+        
+        CancellationManager.Handle completed = cancellationManager.open("test");
+        completed.recordOutput(full);
+        completed.close(true);
+        assertEquals(fullTokens, cancellationManager.getAvgOutputTokens("test"));
+        
+        CancellationManager.Handle cancelled = cancellationManager.open("test");
+        cancelled.recordOutput(partial);
+        assertTrue(cancelled.cancel());
+        assertFalse(cancelled.cancel());
+        
+        assertEquals(1.0, meterRegistry.get("stream.cancelled").counter().count());
+        assertEquals(fullTokens - partialTokens, meterRegistry.get("stream.cancel.tokens.saved").counter().count());
+        // 被取消的运行不计入平均值
+        assertEquals(fullTokens, cancellationManager.getAvgOutputTokens("test"));
+        
+        // 已经正常结束的运行，连接随后关闭不算取消
+        CancellationManager.Handle finished = cancellationManager.open("test");
+        finished.close(true);
+        assertFalse(finished.cancel());
+        assertEquals(1.0, meterRegistry.get("stream.cancelled").counter().count());
+    }
+    
+    @Test
+    void testInterceptorsSkipCallsOfCancelledRun() {
+        CancellationManager.Handle handle = cancellationManager.open("test");
+        Map<String, Object> context = Map.of(CancellationManager.METADATA_KEY, handle);
+        AtomicInteger modelCalls = new AtomicInteger();
+        AtomicInteger toolCalls = new AtomicInteger();
+        ModelRequest modelRequest = ModelRequest.builder().messages(List.of()).context(context).build();
+        ToolCallRequest toolRequest = ToolCallRequest.builder().toolName("getWeather").arguments("{}").toolCallId("1").context(context).build();
+        CancellationModelInterceptor modelInterceptor = new CancellationModelInterceptor();
+        CancellationToolInterceptor toolInterceptor = new CancellationToolInterceptor();
+        
+        modelInterceptor.interceptModel(modelRequest, request -> {
+            modelCalls.incrementAndGet();
+            return (ModelResponse) null;
+        });
+        toolInterceptor.interceptToolCall(toolRequest, request -> {
+            toolCalls.incrementAndGet();
+            return (ToolCallResponse) null;
+        });
+        assertEquals(1, modelCalls.get());
+        assertEquals(1, toolCalls.get());
+        
+        handle.cancel();
+        assertThrows(CancellationException.class, () -> modelInterceptor.interceptModel(modelRequest, request -> {
+            modelCalls.incrementAndGet();
+            return null;
+        }));
+        assertThrows(CancellationException.class, () -> toolInterceptor.interceptToolCall(toolRequest, request -> {
+            toolCalls.incrementAndGet();
+            return null;
+        }));
+        assertEquals(1, modelCalls.get());
+        assertEquals(1, toolCalls.get());
+    }
+}
@@ -0,0 +1,103 @@
+package org.huang.saademo;
+
+import com.alibaba.cloud.ai.dashscope.api.DashScopeApi;
+import com.alibaba.cloud.ai.dashscope.chat.DashScopeChatModel;
+import com.alibaba.cloud.ai.dashscope.chat.DashScopeChatOptions;
+import org.huang.saademo.config.ApiKeyConfig;
+import org.huang.saademo.config.HttpTransportConfig;
+import org.huang.saademo.manager.ChatModelRegistry;
+import org.huang.saademo.manager.DashScopeTransport;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.model.ChatModel;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 不依赖 Spring 上下文，对比每次请求重建 ChatModel 与从注册表获取共享 ChatModel 的分配量和耗时
+ */
+public class ChatModelRegistryTests {
+    
+    private static final String MODEL_NAME = "qwen3-max-2026-01-23";
+    private static final int THREADS = 8;
+    private static final int ITERATIONS = 200;
+    
+    private ChatModelRegistry newRegistry() {
+        ApiKeyConfig apiKeyConfig = new ApiKeyConfig();
+        apiKeyConfig.setQwenKey("test-key");
+        return new ChatModelRegistry(apiKeyConfig, new DashScopeTransport(new HttpTransportConfig()));
+    }
+    
+    @Test
+    void testSameModelIsShared() {
+        ChatModelRegistry registry = newRegistry();
+        ChatModel first = registry.getChatModel(MODEL_NAME);
+        ChatModel second = registry.getChatModel(DashScopeChatOptions.builder().model(MODEL_NAME).build());
+        assertSame(first, second);
+        assertSame(first, registry.getChatModel(MODEL_NAME));
+        registry.getChatModel("qwen-flash");
+        assertEquals(2, registry.size());
+    }
+    
+    @Test
+    void benchmarkRebuildVsRegistry() throws Exception {
+        ChatModelRegistry registry = newRegistry();
+        registry.getChatModel(MODEL_NAME); // 预热
+        
+        Result rebuild = runConcurrently(() -> {
+            DashScopeApi api = DashScopeApi.builder().apiKey("test-key").build();
+            DashScopeChatOptions options = DashScopeChatOptions.builder().model(MODEL_NAME).build();
+            return DashScopeChatModel.builder().dashScopeApi(api).defaultOptions(options).build();
+        });
+        Result shared = runConcurrently(() -> registry.getChatModel(MODEL_NAME));
+        
+        System.out.printf("Rebuild per request : %,d bytes/op, %,d ns/op%n", rebuild.bytesPerOp, rebuild.nanosPerOp);
+        System.out.printf("Shared registry     : %,d bytes/op, %,d ns/op%n", shared.bytesPerOp, shared.nanosPerOp);
+        
+        assertTrue(shared.bytesPerOp < rebuild.bytesPerOp);
+    }
+    
+    private record Result(long bytesPerOp, long nanosPerOp) {}
+    
+    private Result runConcurrently(Supplier<ChatModel> supplier) throws Exception {
+        com.sun.management.ThreadMXBean threadMXBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<long[]>> futures = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            futures.add(pool.submit(() -> {
+                start.await();
+                long threadId = Thread.currentThread().threadId();
+                long bytesBefore = threadMXBean.getThreadAllocatedBytes(threadId);
+                long begin = System.nanoTime();
+                for (int i = 0; i < ITERATIONS; i++) {
+                    supplier.get();
+                }
+                long elapsed = System.nanoTime() - begin;
+                long bytes = threadMXBean.getThreadAllocatedBytes(threadId) - bytesBefore;
+                return new long[]{bytes, elapsed};
+            }));
+        }
+        start.countDown();
+        long totalBytes = 0;
+        long totalNanos = 0;
+        for (Future<long[]> future : futures) {
+            long[] r = future.get();
+            totalBytes += r[0];
+            totalNanos += r[1];
+        }
+        pool.shutdown();
+        long ops = (long) THREADS * ITERATIONS;
+        return new Result(totalBytes / ops, totalNanos / ops);
+    }
+}
@@ -0,0 +1,218 @@
+package org.huang.saademo;
+
+import com.alibaba.cloud.ai.graph.RunnableConfig;
+import com.alibaba.cloud.ai.graph.agent.hook.messages.AgentCommand;
+import com.alibaba.cloud.ai.graph.agent.hook.messages.UpdatePolicy;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.huang.saademo.config.AdmissionConfig;
+import org.huang.saademo.config.BulkheadConfig;
+import org.huang.saademo.config.ContextCompressionConfig;
+import org.huang.saademo.hook.MessageManageHook;
+import org.huang.saademo.manager.BulkheadRegistry;
+import org.huang.saademo.manager.ChatModelRegistry;
+import org.huang.saademo.manager.SSEManager;
+import org.huang.saademo.manager.TokenCounter;
+import org.huang.saademo.service.CompressContextService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+import org.springframework.ai.chat.prompt.Prompt;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * 后台提前压缩：一轮对话结束后超过软阈值就在后台压缩，下一轮直接换上结果，同步压缩只在结果没有准备好时兜底
+ */
+public class ContextPrecompressionTests {
+    
+    private SimpleMeterRegistry meterRegistry;
+    private final List<Runnable> backgroundTasks = new ArrayList<>();
+    private final AtomicInteger modelCalls = new AtomicInteger();
+    private final ContextCompressionConfig compressionConfig = new ContextCompressionConfig();
+    private CompressContextService service;
+    private MessageManageHook hook;
+    private final RunnableConfig config = RunnableConfig.builder().threadId("t1").build();
+    
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        Metrics.addRegistry(meterRegistry);
+        compressionConfig.setTokenLimit(800);
+        compressionConfig.setAwaitInFlight(Duration.ofSeconds(5));
+        
+        ChatModel chatModel = mock(ChatModel.class);
+        when(chatModel.call(any(Prompt.class))).thenAnswer(invocation ->
+                new ChatResponse(List.of(new Generation(new AssistantMessage("summary-" + modelCalls.incrementAndGet())))));
+        ChatModelRegistry chatModelRegistry = mock(ChatModelRegistry.class);
+        when(chatModelRegistry.getChatModel(anyString())).thenReturn(chatModel);
+        
+        service = new CompressContextService();
+        ReflectionTestUtils.setField(service, "chatModelRegistry", chatModelRegistry);
+        ReflectionTestUtils.setField(service, "bulkheadRegistry", new BulkheadRegistry(new BulkheadConfig(), new AdmissionConfig()));
+        ReflectionTestUtils.setField(service, "compressionConfig", compressionConfig);
+        ReflectionTestUtils.setField(service, "compressionExecutor", (Executor) backgroundTasks::add);
+        
+        hook = new MessageManageHook();
+        ReflectionTestUtils.setField(hook, "sseManager", mock(SSEManager.class));
+        ReflectionTestUtils.setField(hook, "compressContextService", service);
+        ReflectionTestUtils.setField(hook, "tokenCounter", new TokenCounter());
+        ReflectionTestUtils.setField(hook, "compressionConfig", compressionConfig);
+    }
+    
+    @AfterEach
+    void tearDown() {
+        Metrics.removeRegistry(meterRegistry);
+    }
+    
+    @Test
+    void testSoftThresholdPrecomputesAndNextTurnSwapsInstantly() {
+        List<Message> history = conversation(6);
+        int tokens = new TokenCounter().count(history);
+        assertTrue(tokens > compressionConfig.getSoftLimit() && tokens < compressionConfig.getTokenLimit(), "tokens: " + tokens);
+        
+        // 一轮结束，超过软阈值：提交后台压缩，不阻塞本轮
+        hook.afterModel(history, config);
+        assertEquals(1, backgroundTasks.size());
+        assertEquals(0, modelCalls.get());
+        // 同一会话进行中的压缩不重复提交
+        hook.afterModel(history, config);
+        assertEquals(1, backgroundTasks.size());
+        
+        // 后台压缩还没完成，下一轮照常进行
+        List<Message> nextTurn = new ArrayList<>(history);
+        nextTurn.add(new UserMessage("new question"));
+        assertEquals(nextTurn, messages(hook.beforeModel(nextTurn, config)));
+        
+        backgroundTasks.remove(0).run();
+        assertEquals(1, modelCalls.get());
+        assertEquals(1, meterRegistry.get("bulkhead.wait").tag("name", BulkheadConfig.BACKGROUND_COMPRESSION).timer().count());
+        
+        // 压缩结果替换这段历史（最近三轮原样保留），之后新增的消息原样保留
+        AgentCommand command = hook.beforeModel(nextTurn, config);
+        assertEquals(UpdatePolicy.REPLACE, ReflectionTestUtils.getField(command, "updatePolicy"));
+        List<Message> swapped = messages(command);
+        assertEquals(8, swapped.size());
+        assertEquals("summary-1", swapped.get(0).getText());
+        assertEquals(history.subList(6, 12), swapped.subList(1, 7));
+        assertEquals("new question", swapped.get(7).getText());
+        assertEquals(0, service.getPrecomputedSessions());
+        assertEquals(1.0, meterRegistry.get("context.compression.swapped").counter().count());
+        assertEquals(0.0, meterRegistry.get("context.compression").tag("mode", "sync").counter().count());
+    }
+    
+    @Test
+    void testMidTurnAndBelowSoftThresholdDoNotPrecompute() {
+        hook.afterModel(conversation(1), config);
+        
+        // 助手还在调用工具，这一轮没有结束
+        List<Message> history = conversation(6);
+        history.add(AssistantMessage.builder().content("")
+                .toolCalls(List.of(new AssistantMessage.ToolCall("c1", "function", "weather", "{}"))).build());
+        hook.afterModel(history, config);
+        assertTrue(backgroundTasks.isEmpty());
+        
+        compressionConfig.setBackgroundEnabled(false);
+        hook.afterModel(conversation(6), config);
+        assertTrue(backgroundTasks.isEmpty());
+    }
+    
+    @Test
+    void testStaleSummaryIsDiscarded() {
+        List<Message> history = conversation(6);
+        assertTrue(service.compressAhead("t1", history));
+        backgroundTasks.remove(0).run();
+        
+        // 历史的前缀已经变了（例如被同步压缩替换过），结果作废
+        List<Message> replaced = new ArrayList<>(history);
+        replaced.set(0, new UserMessage("something else"));
+        assertNull(service.takePrecomputed("t1", replaced, Duration.ZERO));
+        assertEquals(0, service.getPrecomputedSessions());
+        assertEquals(1.0, meterRegistry.get("context.compression.discarded").counter().count());
+    }
+    
+    @Test
+    void testHardLimitWaitsForInFlightCompressionInsteadOfCompressingAgain() throws Exception {
+        CountDownLatch submitted = new CountDownLatch(1);
+        ReflectionTestUtils.setField(service, "compressionExecutor", (Executor) task -> {
+            Thread.ofPlatform().start(() -> {
+                try {
+                    submitted.await();
+                    Thread.sleep(200);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                task.run();
+            });
+        });
+        List<Message> history = conversation(6);
+        hook.afterModel(history, config);
+        submitted.countDown();
+        
+        // 下一轮直接超过硬上限：等进行中的后台压缩，而不是再同步压缩一次
+        List<Message> nextTurn = new ArrayList<>(history);
+        nextTurn.add(new UserMessage(filler(300)));
+        assertTrue(new TokenCounter().count(nextTurn) > compressionConfig.getTokenLimit());
+        List<Message> swapped = messages(hook.beforeModel(nextTurn, config));
+        assertEquals("summary-1", swapped.get(0).getText());
+        assertEquals(8, swapped.size());
+        assertEquals(1, modelCalls.get());
+        assertEquals(0.0, meterRegistry.get("context.compression").tag("mode", "sync").counter().count());
+    }
+    
+    @Test
+    void testHardLimitFallsBackToSyncCompression() {
+        List<Message> history = conversation(6);
+        history.add(new UserMessage(filler(300)));
+        List<Message> compressed = messages(hook.beforeModel(history, config));
+        // 最后一轮本身就超过了保留的预算，只保留这一轮
+        assertEquals(2, compressed.size());
+        assertEquals("summary-1", compressed.get(0).getText());
+        assertEquals(history.get(12), compressed.get(1));
+        assertEquals(1.0, meterRegistry.get("context.compression").tag("mode", "sync").counter().count());
+        assertTrue(backgroundTasks.isEmpty());
+    }
+    
+    // rounds 轮问答，每轮约 100 个 token，以助手回复结尾
+    private static List<Message> conversation(int rounds) {
+        List<Message> messages = new ArrayList<>();
+        for (int i = 0; i < rounds; i++) {
+            messages.add(new UserMessage("question " + i + ": " + filler(20)));
+            messages.add(new AssistantMessage("answer " + i + ": " + filler(20)));
+        }
+        return messages;
+    }
+    
+    private static String filler(int words) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < words; i++) {
+            text.append(" word").append(i % 7);
+        }
+        return text.toString();
+    }
+    
+    @SuppressWarnings("unchecked")
+    private static List<Message> messages(AgentCommand command) {
+        return (List<Message>) ReflectionTestUtils.getField(command, "messages");
+    }
+}
@@ -0,0 +1,171 @@
+package org.huang.saademo;
+
+import com.alibaba.cloud.ai.dashscope.chat.DashScopeChatModel;
+import com.alibaba.cloud.ai.dashscope.chat.DashScopeChatOptions;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.huang.saademo.config.HttpTransportConfig;
+import org.huang.saademo.manager.DashScopeTransport;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.prompt.Prompt;
+import reactor.core.publisher.Flux;
+import reactor.core.scheduler.Schedulers;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 使用本地模拟 DashScope 流式接口的桩服务验证连接池：连接复用、每主机并发上限以及连接池指标
+ */
+public class DashScopeTransportTests {
+    
+    private static final String GENERATION_PATH = "/api/v1/services/aigc/text-generation/generation";
+    private static final List<String> TOKENS = List.of("Hello", ", ", "world", "!");
+    
+    private HttpServer server;
+    private String baseUrl;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger maxInFlight = new AtomicInteger();
+    private final Set<Integer> clientPorts = ConcurrentHashMap.newKeySet(); // 每个客户端端口对应一条 TCP 连接
+    
+    private SimpleMeterRegistry meterRegistry;
+    private DashScopeTransport transport;
+    
+    @BeforeEach
+    void startStubServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext(GENERATION_PATH, this::handleGeneration);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+        baseUrl = "http://localhost:" + server.getAddress().getPort();
+        
+        meterRegistry = new SimpleMeterRegistry();
+        Metrics.addRegistry(meterRegistry);
+    }
+    
+    @AfterEach
+    void stop() {
+        if (transport != null) {
+            transport.close();
+        }
+        Metrics.removeRegistry(meterRegistry);
+        server.stop(0);
+    }
+    
+    @Test
+    void testStreamingReusesConnection() {
+        transport = new DashScopeTransport(new HttpTransportConfig());
+        ChatModel chatModel = newChatModel();
+        
+        int requests = 10;
+        for (int i = 0; i < requests; i++) {
+            assertEquals(String.join("", TOKENS), streamText(chatModel));
+        }
+        System.out.printf("%d sequential streams, connections opened %d%n", requests, clientPorts.size());
+        // 顺序请求复用 keep-alive 连接；流结束和连接归还连接池之间有极短的间隔，下一个请求偶尔会新建第二条连接
+        assertTrue(clientPorts.size() <= 2);
+    }
+    
+    @Test
+    void testPerHostCapAndPoolMetrics() {
+        int hostCap = 2;
+        int requests = 8;
+        HttpTransportConfig config = new HttpTransportConfig();
+        config.setHostMaxConnections(Map.of("localhost:" + server.getAddress().getPort(), hostCap));
+        transport = new DashScopeTransport(config);
+        ChatModel chatModel = newChatModel();
+        
+        List<String> results = Flux.range(0, requests)
+                .flatMap(i -> Flux.defer(() -> Flux.just(streamText(chatModel))).subscribeOn(Schedulers.boundedElastic()))
+                .collectList()
+                .block();
+        
+        assertNotNull(results);
+        assertEquals(requests, results.size());
+        results.forEach(text -> assertEquals(String.join("", TOKENS), text));
+        System.out.printf("per-host cap %d: max in-flight on stub server %d, connections opened %d%n",
+                hostCap, maxInFlight.get(), clientPorts.size());
+        assertTrue(maxInFlight.get() <= hostCap);
+        assertTrue(clientPorts.size() <= hostCap);
+        
+        Gauge maxConnections = meterRegistry.find("reactor.netty.connection.provider.max.connections")
+                .tag("name", DashScopeTransport.POOL_NAME).gauge();
+        assertNotNull(maxConnections);
+        assertEquals(hostCap, (int) maxConnections.value());
+        
+        Timer acquireTime = meterRegistry.find("reactor.netty.connection.provider.pending.connections.time")
+                .tags("name", DashScopeTransport.POOL_NAME, "status", "SUCCESS").timer();
+        assertNotNull(acquireTime);
+        System.out.printf("connection acquire: count %d, max %.2f ms%n",
+                acquireTime.count(), acquireTime.max(TimeUnit.MILLISECONDS));
+        // 超过上限的请求需要排队等待连接，排队等待的耗时记录在这个 Timer 中
+        assertEquals(requests - hostCap, acquireTime.count());
+        assertTrue(acquireTime.max(TimeUnit.MILLISECONDS) > 0);
+    }
+    
+    private ChatModel newChatModel() {
+        return DashScopeChatModel.builder()
+                .dashScopeApi(transport.dashScopeApiBuilder().baseUrl(baseUrl).apiKey("test-key").build())
+                .defaultOptions(DashScopeChatOptions.builder().model("qwen-stub").build())
+                .build();
+    }
+    
+    private String streamText(ChatModel chatModel) {
+        return chatModel.stream(new Prompt("hi"))
+                .map(ChatResponse::getResult)
+                .filter(Objects::nonNull)
+                .map(generation -> Objects.requireNonNullElse(generation.getOutput().getText(), ""))
+                .collect(Collectors.joining())
+                .block();
+    }
+    
+    // 按 DashScope 的 SSE 格式逐个输出 token，每个分片之间稍作停顿，模拟模型生成
+    private void handleGeneration(HttpExchange exchange) throws IOException {
+        clientPorts.add(exchange.getRemoteAddress().getPort());
+        int current = inFlight.incrementAndGet();
+        maxInFlight.accumulateAndGet(current, Math::max);
+        try (exchange) {
+            exchange.getRequestBody().readAllBytes();
+            exchange.getResponseHeaders().set("Content-Type", "text/event-stream;charset=UTF-8");
+            exchange.sendResponseHeaders(200, 0);
+            OutputStream body = exchange.getResponseBody();
+            for (int i = 0; i < TOKENS.size(); i++) {
+                String finishReason = i == TOKENS.size() - 1 ? "stop" : "null";
+                String data = "{\"request_id\":\"stub\",\"output\":{\"choices\":[{\"finish_reason\":\"" + finishReason
+                        + "\",\"message\":{\"role\":\"assistant\",\"content\":\"" + TOKENS.get(i) + "\"}}]},"
+                        + "\"usage\":{\"input_tokens\":1,\"output_tokens\":" + (i + 1) + ",\"total_tokens\":" + (i + 2) + "}}";
+                String frame = "id:" + (i + 1) + "\nevent:result\n:HTTP_STATUS/200\ndata:" + data + "\n\n";
+                body.write(frame.getBytes(StandardCharsets.UTF_8));
+                body.flush();
+                Thread.sleep(20);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            inFlight.decrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package org.huang.saademo;
+
+import com.alibaba.cloud.ai.graph.NodeOutput;
+import com.alibaba.cloud.ai.graph.checkpoint.BaseCheckpointSaver;
+import org.huang.saademo.service.AgentTopology;
+import org.huang.saademo.service.MultiAgentTopologies;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 使用本地桩模型对比 /multi-agent/* 的首个输出耗时：每次请求都构建编译拓扑（旧） vs 复用预编译模板（新）
+ */
+public class MultiAgentTopologyTests {
+    
+    private static final int ROUNDS = 20;
+    
+    @Test
+    void testTimeToFirstOutput() throws Exception {
+        ChatModel stubModel = new MultiAgentTopologies.WarmUpChatModel();
+        List<Function<ChatModel, AgentTopology>> factories = List.of(
+                MultiAgentTopologies::sequential,
+                MultiAgentTopologies::parallel,
+                MultiAgentTopologies::llmRouting,
+                MultiAgentTopologies::supervisor);
+        
+        for (Function<ChatModel, AgentTopology> factory : factories) {
+            // 模板：构建一次，预热一次
+            AgentTopology template = factory.apply(stubModel);
+            firstOutputNanos(template);
+            
+            long perRequestBuild = 0;
+            long prebuilt = 0;
+            for (int i = 0; i < ROUNDS; i++) {
+                long start = System.nanoTime();
+                AgentTopology fresh = factory.apply(stubModel);
+                long buildNanos = System.nanoTime() - start;
+                perRequestBuild += buildNanos + firstOutputNanos(fresh);
+                prebuilt += firstOutputNanos(template);
+            }
+            System.out.printf("[%s] time to first output: per-request build %.2f ms, prebuilt template %.2f ms%n",
+                    template.name(), perRequestBuild / 1e6 / ROUNDS, prebuilt / 1e6 / ROUNDS);
+            assertTrue(prebuilt < perRequestBuild);
+        }
+    }
+    
+    @Test
+    void testCloseReleasesEveryCheckpoint() throws Exception {
+        ChatModel stubModel = new MultiAgentTopologies.WarmUpChatModel();
+        for (AgentTopology topology : List.of(
+                MultiAgentTopologies.sequential(stubModel),
+                MultiAgentTopologies.parallel(stubModel),
+                MultiAgentTopologies.llmRouting(stubModel),
+                MultiAgentTopologies.supervisor(stubModel))) {
+            for (int i = 0; i < 5; i++) {
+                firstOutputNanos(topology);
+            }
+            // 父图和每个子 Agent 的子图检查点都被释放，存储器不随请求数增长
+            @SuppressWarnings("unchecked")
+            List<BaseCheckpointSaver> savers = (List<BaseCheckpointSaver>) ReflectionTestUtils.getField(topology, "savers");
+            for (BaseCheckpointSaver saver : savers) {
+                Map<?, ?> threads = (Map<?, ?>) ReflectionTestUtils.getField(saver, "_checkpointsByThread");
+                assertTrue(threads.isEmpty(), topology.name() + " kept " + threads.keySet());
+            }
+        }
+    }
+    
+    // 返回从创建执行句柄到收到第一个输出的耗时，并把整个运行跑完，避免影响下一轮
+    private long firstOutputNanos(AgentTopology topology) throws Exception {
+        long start = System.nanoTime();
+        long[] first = new long[1];
+        try (AgentTopology.Run run = topology.newRun()) {
+            NodeOutput last = run.stream("测试输入")
+                    .doOnNext(output -> {
+                        if (first[0] == 0) {
+                            first[0] = System.nanoTime();
+                        }
+                    })
+                    .blockLast();
+            assertNotNull(last);
+        }
+        return first[0] - start;
+    }
+}
@@ -0,0 +1,130 @@
+package org.huang.saademo;
+
+import com.alibaba.dashscope.tokenizers.Tokenizer;
+import com.alibaba.dashscope.tokenizers.TokenizerFactory;
+import org.huang.saademo.manager.QwenTokenizer;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * QwenTokenizer 与 DashScope SDK 的 QwenTokenizer 逐个 token 比较，并测量单线程的编码吞吐量
+ */
+public class QwenTokenizerTests {
+    
+    private final QwenTokenizer tokenizer = QwenTokenizer.getInstance();
+    private final Tokenizer reference = TokenizerFactory.qwen();
+    
+    @Test
+    void testMatchesReferenceTokenizer() throws IOException {
+        List<String> samples = new ArrayList<>(List.of(
+                "Hello world! It's a test, isn't it? They'RE here, we'll see, I'M sure, you'D know, 'VE.",
+                "北京明天多云转晴，气温 12 到 24 摄氏度，早晚温差较大，建议穿薄外套。",
+                "混合 mixed 文本：GPT-4o、Qwen2.5-72B-Instruct 和 3.1415926 以及 1,000,000 元",
+                "emoji 😀👍🏽 and 𝔘𝔫𝔦𝔠𝔬𝔡𝔢 and Ⅻ ½ ² ①",
+                "line one\r\nline two\n\n\n   indented\n\t\ttabs  \n   ",
+                "trailing spaces   ",
+                "   leading spaces",
+                "a  b   c    d e　f",
+                "{\"messages\": [{\"role\": \"user\", \"content\": \"你好\"}], \"stream\": true}",
+                "<|im_start|>user\n你好<|im_end|>\n<|endoftext|>",
+                "if (x != null && y >= 0) { return map.get(\"key\"); } // 注释",
+                "!!!???...\n\n---===***",
+                "'s 's'S'", "'", "'x", " ", "\n", "\u000B\f", "\uD800 lone \uDC00 surrogates \uD83D",
+                "ааааа русский текст ελληνικά עברית العربية हिन्दी 日本語のテキスト 한국어"
+        ));
+        for (Path file : corpusFiles()) {
+            samples.add(Files.readString(file, StandardCharsets.UTF_8));
+        }
+        samples.addAll(randomSamples(2_000));
+        
+        long tokens = 0;
+        for (String sample : samples) {
+            int[] expected = reference.encodeOrdinary(sample).stream().mapToInt(Integer::intValue).toArray();
+            int[] actual = tokenizer.encode(sample);
+            assertArrayEquals(expected, actual, () -> "sample: " + sample);
+            assertEquals(expected.length, tokenizer.count(sample));
+            tokens += expected.length;
+        }
+        System.out.printf("%d samples, %d tokens identical to the reference tokenizer%n", samples.size(), tokens);
+        
+        String text = "第一行 first line\n第二行 😀 second";
+        assertEquals(text, tokenizer.decode(tokenizer.encode(text)));
+        assertEquals("<|im_start|>user", tokenizer.decode(new int[]{QwenTokenizer.IM_START, tokenizer.encode("user")[0]}));
+        assertEquals(0, tokenizer.count(""));
+        assertEquals(0, tokenizer.count(null));
+    }
+    
+    @Test
+    void testThroughput() throws IOException {
+        StringBuilder corpus = new StringBuilder();
+        List<Path> files = corpusFiles();
+        while (corpus.length() < 4_000_000) {
+            for (Path file : files) {
+                corpus.append(Files.readString(file, StandardCharsets.UTF_8));
+            }
+        }
+        String text = corpus.toString();
+        double megabytes = text.getBytes(StandardCharsets.UTF_8).length / 1e6;
+        
+        int tokens = 0;
+        for (int i = 0; i < 5; i++) {
+            tokens = tokenizer.count(text);
+        }
+        int rounds = 5;
+        long started = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            assertEquals(tokens, tokenizer.count(text));
+        }
+        double seconds = (System.nanoTime() - started) / 1e9;
+        double throughput = megabytes * rounds / seconds;
+        
+        String sample = text.substring(0, 200_000);
+        long referenceStarted = System.nanoTime();
+        reference.encodeOrdinary(sample);
+        double referenceThroughput = sample.getBytes(StandardCharsets.UTF_8).length / 1e6 / ((System.nanoTime() - referenceStarted) / 1e9);
+        
+        System.out.printf("%.1f MB, %d tokens: %.1f MB/s (reference tokenizer %.1f MB/s)%n",
+                megabytes, tokens, throughput, referenceThroughput);
+        // 只做数量级的检查，给较慢的 CI 机器留出余量，实际吞吐量见输出
+        assertTrue(throughput > 5, throughput + " MB/s");
+    }
+    
+    // 仓库里的中英文文档和源码
+    private static List<Path> corpusFiles() throws IOException {
+        try (Stream<Path> paths = Files.walk(Path.of("src/main"))) {
+            return paths.filter(Files::isRegularFile)
+                    .filter(path -> path.toString().matches(".*\\.(md|java|yaml|js|html|css)$"))
+                    .sorted()
+                    .toList();
+        }
+    }
+    
+    // 随机拼接各类字符，覆盖预分词各个分支的边界
+    private static List<String> randomSamples(int count) {
+        String[] pieces = {"a", "Z", "é", "中", "文", "ー", "1", "٣", "½", " ", "  ", "\t", "\n", "\r\n", "\u000B",
+                "'", "'s", "'LL", "'re", ".", ",", "!?", "-", "_", "😀", "𝔘", " ", "　", "​", "$", "<|"};
+        Random random = new Random(42);
+        List<String> samples = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            StringBuilder sample = new StringBuilder();
+            int length = 1 + random.nextInt(40);
+            for (int j = 0; j < length; j++) {
+                sample.append(pieces[random.nextInt(pieces.length)]);
+            }
+            samples.add(sample.toString());
+        }
+        return samples;
+    }
+}
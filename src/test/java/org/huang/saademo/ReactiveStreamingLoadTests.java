@@ -0,0 +1,165 @@
+package org.huang.saademo;
+
+import org.huang.saademo.common.AdmissionRejectedException;
+import org.huang.saademo.config.AdmissionConfig;
+import org.huang.saademo.config.BulkheadConfig;
+import org.huang.saademo.config.ThreadPoolConfig;
+import org.huang.saademo.manager.AdmissionManager;
+import org.huang.saademo.manager.BulkheadRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.test.util.ReflectionTestUtils;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * streaming.stack 两种写出方式能承载的连接数对比：
+ * emitter 模式每个会话在 streamAgentTaskExecutor 上占住一个线程；reactive 模式把 Flux 直接交给 MVC 订阅，token 在定时器线程上回调，不占线程。
+ */
+public class ReactiveStreamingLoadTests {
+    
+    private static final int SESSIONS = 2000;
+    private static final int TOKENS_PER_SESSION = 20;
+    private static final long TOKEN_INTERVAL_MILLIS = 50;
+    
+    record LoadResult(int accepted, int rejected, int maxConcurrent, int extraThreads) {}
+    
+    @Test
+    void testConnectionsPerCore() throws Exception {
+        int cores = Runtime.getRuntime().availableProcessors();
+        
+        AsyncTaskExecutor platform = newPlatformExecutor();
+        LoadResult emitterResult = runEmitterLoad(platform);
+        ((ThreadPoolTaskExecutor) platform).shutdown();
+        
+        LoadResult reactiveResult = runReactiveLoad(newAdmissionManager(SESSIONS));
+        
+        System.out.printf("emitter:  accepted %d, rejected %d, max concurrent %d (%.1f per core), extra threads %d%n",
+                emitterResult.accepted(), emitterResult.rejected(), emitterResult.maxConcurrent(),
+                (double) emitterResult.maxConcurrent() / cores, emitterResult.extraThreads());
+        System.out.printf("reactive: accepted %d, rejected %d, max concurrent %d (%.1f per core), extra threads %d%n",
+                reactiveResult.accepted(), reactiveResult.rejected(), reactiveResult.maxConcurrent(),
+                (double) reactiveResult.maxConcurrent() / cores, reactiveResult.extraThreads());
+        
+        // emitter：同时进行的会话数等于线程池大小
+        assertTrue(emitterResult.maxConcurrent() <= 20);
+        // reactive：全部会话同时在线，额外线程只有 Reactor 的定时器线程
+        assertEquals(SESSIONS, reactiveResult.accepted());
+        assertTrue(reactiveResult.maxConcurrent() > emitterResult.maxConcurrent() * 10);
+        assertTrue(reactiveResult.extraThreads() <= cores + 4, "extra threads: " + reactiveResult.extraThreads());
+    }
+    
+    @Test
+    void testOpenStreamReleasesTicketWhenClientLeaves() {
+        AdmissionManager admissionManager = newAdmissionManager(1);
+        Flux<ServerSentEvent<String>> stream = admissionManager.openStream(() -> simulatedSession().delaySubscription(Duration.ofHours(1)));
+        assertEquals(1, admissionManager.getInFlight());
+        // 名额在 openStream 时就被占用，没有订阅之前同样计数
+        assertThrows(AdmissionRejectedException.class, () -> admissionManager.openStream(ReactiveStreamingLoadTests::simulatedSession));
+        
+        Disposable subscription = stream.subscribe();
+        subscription.dispose();
+        assertEquals(0, admissionManager.getInFlight());
+    }
+    
+    @Test
+    void testRejectionAtSubscribeBecomesAdmissionRejected() {
+        AdmissionManager admissionManager = newAdmissionManager(1);
+        // 会话邮箱在订阅时才提交运行，这时的拒绝也要变成 429
+        Flux<ServerSentEvent<String>> stream = admissionManager.openStream(
+                () -> Flux.error(new TaskRejectedException("Too many pending runs")));
+        assertThrows(AdmissionRejectedException.class, stream::blockLast);
+        assertEquals(0, admissionManager.getInFlight());
+    }
+    
+    private LoadResult runReactiveLoad(AdmissionManager admissionManager) throws InterruptedException {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        int baseline = threads.getThreadCount();
+        threads.resetPeakThreadCount();
+        
+        AtomicInteger active = new AtomicInteger();
+        AtomicInteger maxConcurrent = new AtomicInteger();
+        int accepted = 0;
+        int rejected = 0;
+        CountDownLatch finished = new CountDownLatch(SESSIONS);
+        for (int i = 0; i < SESSIONS; i++) {
+            try {
+                admissionManager.openStream(ReactiveStreamingLoadTests::simulatedSession)
+                        .doOnSubscribe(s -> maxConcurrent.accumulateAndGet(active.incrementAndGet(), Math::max))
+                        .doFinally(signal -> {
+                            active.decrementAndGet();
+                            finished.countDown();
+                        })
+                        .subscribe();
+                accepted++;
+            } catch (AdmissionRejectedException e) {
+                rejected++;
+                finished.countDown();
+            }
+        }
+        assertTrue(finished.await(60, TimeUnit.SECONDS));
+        return new LoadResult(accepted, rejected, maxConcurrent.get(), threads.getPeakThreadCount() - baseline);
+    }
+    
+    private LoadResult runEmitterLoad(AsyncTaskExecutor executor) throws InterruptedException {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        int baseline = threads.getThreadCount();
+        threads.resetPeakThreadCount();
+        
+        AtomicInteger active = new AtomicInteger();
+        AtomicInteger maxConcurrent = new AtomicInteger();
+        int accepted = 0;
+        int rejected = 0;
+        CountDownLatch finished = new CountDownLatch(SESSIONS);
+        for (int i = 0; i < SESSIONS; i++) {
+            try {
+                executor.submit(() -> {
+                    maxConcurrent.accumulateAndGet(active.incrementAndGet(), Math::max);
+                    // 执行器线程一直等到会话结束，和 SseEmitter 路径占用线程的方式一致
+                    simulatedSession().blockLast();
+                    active.decrementAndGet();
+                    finished.countDown();
+                });
+                accepted++;
+            } catch (TaskRejectedException e) {
+                rejected++;
+                finished.countDown();
+            }
+        }
+        assertTrue(finished.await(60, TimeUnit.SECONDS));
+        return new LoadResult(accepted, rejected, maxConcurrent.get(), threads.getPeakThreadCount() - baseline);
+    }
+    
+    // 模拟的模型输出：token 由定时器按固定间隔推送，不阻塞任何线程
+    private static Flux<ServerSentEvent<String>> simulatedSession() {
+        return Flux.interval(Duration.ofMillis(TOKEN_INTERVAL_MILLIS))
+                .take(TOKENS_PER_SESSION)
+                .map(token -> ServerSentEvent.<String>builder().event("model").data("token-" + token).build());
+    }
+    
+    private static AsyncTaskExecutor newPlatformExecutor() {
+        ThreadPoolConfig config = new ThreadPoolConfig();
+        ReflectionTestUtils.setField(config, "mode", "platform");
+        return config.taskExecutor();
+    }
+    
+    private static AdmissionManager newAdmissionManager(int maxConcurrentSessions) {
+        AdmissionConfig config = new AdmissionConfig();
+        config.setMaxConcurrentSessions(maxConcurrentSessions);
+        return new AdmissionManager(config, null, new BulkheadRegistry(new BulkheadConfig(), config));
+    }
+}
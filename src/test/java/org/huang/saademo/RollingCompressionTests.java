@@ -0,0 +1,176 @@
+package org.huang.saademo;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.huang.saademo.config.AdmissionConfig;
+import org.huang.saademo.config.BulkheadConfig;
+import org.huang.saademo.config.ContextCompressionConfig;
+import org.huang.saademo.manager.BulkheadRegistry;
+import org.huang.saademo.manager.ChatModelRegistry;
+import org.huang.saademo.manager.TokenCounter;
+import org.huang.saademo.service.CompressContextService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.MessageType;
+import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+import org.springframework.ai.chat.prompt.Prompt;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * 分段滚动压缩：最近几轮原样保留，每次只压缩新过期的那段对话，摘要按层合并，单次压缩的输入不随历史增长
+ */
+public class RollingCompressionTests {
+    
+    private SimpleMeterRegistry meterRegistry;
+    private final List<Prompt> prompts = new ArrayList<>();
+    private final ContextCompressionConfig compressionConfig = new ContextCompressionConfig();
+    private final TokenCounter tokenCounter = new TokenCounter();
+    private CompressContextService service;
+    
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        Metrics.addRegistry(meterRegistry);
+        compressionConfig.setTokenLimit(1_000);
+        
+        ChatModel chatModel = mock(ChatModel.class);
+        when(chatModel.call(any(Prompt.class))).thenAnswer(invocation -> {
+            prompts.add(invocation.getArgument(0));
+            return new ChatResponse(List.of(new Generation(new AssistantMessage("summary-" + prompts.size() + filler(10)))));
+        });
+        ChatModelRegistry chatModelRegistry = mock(ChatModelRegistry.class);
+        when(chatModelRegistry.getChatModel(anyString())).thenReturn(chatModel);
+        
+        service = new CompressContextService();
+        ReflectionTestUtils.setField(service, "chatModelRegistry", chatModelRegistry);
+        ReflectionTestUtils.setField(service, "bulkheadRegistry", new BulkheadRegistry(new BulkheadConfig(), new AdmissionConfig()));
+        ReflectionTestUtils.setField(service, "compressionConfig", compressionConfig);
+    }
+    
+    @AfterEach
+    void tearDown() {
+        Metrics.removeRegistry(meterRegistry);
+    }
+    
+    @Test
+    void testOnlyNewlyAgedTurnsAreSummarized() {
+        List<Message> history = new ArrayList<>();
+        history.add(summary("earlier summary", 0));
+        history.addAll(rounds(0, 5));
+        
+        List<Message> compacted = service.compact(history);
+        
+        // 已有的摘要和最近三轮不进入压缩，只压缩第 0、1 轮
+        assertEquals(1, prompts.size());
+        List<Message> input = prompts.get(0).getInstructions();
+        assertEquals(MessageType.SYSTEM, input.get(0).getMessageType());
+        assertEquals(history.subList(1, 5), input.subList(1, input.size()));
+        
+        assertEquals(8, compacted.size());
+        assertEquals(history.get(0), compacted.get(0));
+        assertEquals(0, CompressContextService.summaryLevel(compacted.get(1)));
+        assertTrue(compacted.get(1).getText().startsWith("summary-1"));
+        assertEquals(history.subList(5, 11), compacted.subList(2, 8));
+        assertEquals(-1, CompressContextService.summaryLevel(compacted.get(2)));
+        
+        // 没有过期的对话时后台不压缩
+        assertNull(ReflectionTestUtils.invokeMethod(service, "compact", rounds(0, 3), BulkheadConfig.BACKGROUND_COMPRESSION, false));
+    }
+    
+    @Test
+    void testSummariesFoldIntoHigherLevel() {
+        List<Message> history = new ArrayList<>();
+        history.add(summary("level one", 1));
+        for (int i = 0; i < 3; i++) {
+            history.add(summary("level zero " + i, 0));
+        }
+        history.addAll(rounds(0, 4));
+        
+        List<Message> compacted = service.compact(history);
+        
+        // 第 0 轮压缩成第四条 0 层摘要，四条 0 层摘要合并成一条 1 层摘要；1 层只有两条，不再合并
+        assertEquals(2, prompts.size());
+        assertEquals(List.of(history.get(4), history.get(5)), prompts.get(0).getInstructions().subList(1, 3));
+        List<Message> foldInput = prompts.get(1).getInstructions();
+        assertEquals(5, foldInput.size());
+        assertEquals(history.subList(1, 4), foldInput.subList(1, 4));
+        assertTrue(foldInput.get(4).getText().startsWith("summary-1"));
+        
+        assertEquals(8, compacted.size());
+        assertEquals(history.get(0), compacted.get(0));
+        assertEquals(1, CompressContextService.summaryLevel(compacted.get(1)));
+        assertTrue(compacted.get(1).getText().startsWith("summary-2"));
+        assertEquals(history.subList(6, 12), compacted.subList(2, 8));
+    }
+    
+    @Test
+    void testCompressionCostDoesNotGrowWithHistory() {
+        List<Message> history = new ArrayList<>();
+        int appended = 0;
+        for (int round = 0; round < 300; round++) {
+            history.addAll(rounds(round, round + 1));
+            appended += 2;
+            if (tokenCounter.count(history) > compressionConfig.getTokenLimit()) {
+                history = service.compact(history);
+            }
+        }
+        DistributionSummary inputTokens = meterRegistry.get("context.compression.input.tokens").summary();
+        int appendedTokens = tokenCounter.count(rounds(0, 300));
+        System.out.printf("%d messages / %d tokens appended, %d compressions, max input %.0f tokens, history now %d messages / %d tokens%n",
+                appended, appendedTokens, inputTokens.count(), inputTokens.max(), history.size(), tokenCounter.count(history));
+        
+        // 每次压缩的输入是系统提示词加一段对话（或几条摘要），与累积的历史总长无关；摘要的条数随历史对数增长
+        assertTrue(inputTokens.max() < 1.5 * compressionConfig.getTokenLimit(), String.valueOf(inputTokens.max()));
+        assertTrue(appendedTokens > 10 * inputTokens.max());
+        assertTrue(tokenCounter.count(history) <= compressionConfig.getTokenLimit());
+        long summaries = history.stream().filter(message -> CompressContextService.summaryLevel(message) >= 0).count();
+        assertTrue(summaries <= 3 * 4, String.valueOf(summaries));
+        // 最近三轮原样保留
+        List<Message> recent = history.subList(history.size() - 6, history.size());
+        assertEquals(rounds(297, 300).stream().map(Message::getText).toList(), recent.stream().map(Message::getText).toList());
+        for (int i = 1; i < history.size(); i++) {
+            assertTrue(CompressContextService.summaryLevel(history.get(i - 1)) >= CompressContextService.summaryLevel(history.get(i)));
+        }
+    }
+    
+    private static Message summary(String text, int level) {
+        return UserMessage.builder().text(text).metadata(Map.of(CompressContextService.SUMMARY_LEVEL, level)).build();
+    }
+    
+    // 第 from 到 to - 1 轮问答
+    private static List<Message> rounds(int from, int to) {
+        List<Message> messages = new ArrayList<>();
+        for (int i = from; i < to; i++) {
+            messages.add(new UserMessage("question " + i + ":" + filler(12)));
+            messages.add(new AssistantMessage("answer " + i + ":" + filler(12)));
+        }
+        return messages;
+    }
+    
+    private static String filler(int words) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < words; i++) {
+            text.append(" word").append(i % 7);
+        }
+        return text.toString();
+    }
+}
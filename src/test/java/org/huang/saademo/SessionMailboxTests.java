@@ -0,0 +1,173 @@
+package org.huang.saademo;
+
+import org.huang.saademo.manager.SessionMailbox;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.task.TaskRejectedException;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 会话邮箱：同一会话串行、重复提交合并、不同会话并行、空闲会话不保留邮箱
+ */
+public class SessionMailboxTests {
+    
+    private SessionMailbox mailbox;
+    private ExecutorService executor;
+    
+    @BeforeEach
+    void setUp() {
+        mailbox = new SessionMailbox();
+        executor = Executors.newCachedThreadPool();
+    }
+    
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+    
+    /**
+     * 异步任务：启动后在线程池里等待放行，结束时调用 done
+     */
+    private final class TestJob implements SessionMailbox.Job {
+        private final String name;
+        private final List<String> log;
+        private final CountDownLatch started = new CountDownLatch(1);
+        private final CountDownLatch release = new CountDownLatch(1);
+        
+        private TestJob(String name, List<String> log) {
+            this.name = name;
+            this.log = log;
+        }
+        
+        @Override
+        public void start(Runnable done) {
+            executor.submit(() -> {
+                log.add("start " + name);
+                started.countDown();
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                log.add("end " + name);
+                done.run();
+            });
+        }
+    }
+    
+    @Test
+    void testSameSessionRunsSerially() throws Exception {
+        List<String> log = new CopyOnWriteArrayList<>();
+        TestJob first = new TestJob("a", log);
+        TestJob second = new TestJob("b", log);
+        mailbox.submit("s1", "hello", first);
+        mailbox.submit("s1", "resume", second);
+        
+        assertTrue(first.started.await(2, TimeUnit.SECONDS));
+        assertEquals(1, mailbox.getPending("s1"));
+        // 第一个运行结束前第二个不会开始
+        assertEquals(1, second.started.getCount());
+        
+        first.release.countDown();
+        assertTrue(second.started.await(2, TimeUnit.SECONDS));
+        second.release.countDown();
+        awaitIdle();
+        assertEquals(List.of("start a", "end a", "start b", "end b"), log);
+    }
+    
+    @Test
+    void testDuplicateSubmitIsCoalesced() throws Exception {
+        List<String> log = new CopyOnWriteArrayList<>();
+        TestJob first = new TestJob("a", log);
+        TestJob duplicate = new TestJob("a-again", log);
+        
+        assertSame(first, mailbox.submit("s1", "hello", first));
+        assertSame(first, mailbox.submit("s1", "hello", duplicate));
+        assertEquals(0, mailbox.getPending("s1"));
+        
+        first.release.countDown();
+        awaitIdle();
+        assertEquals(List.of("start a", "end a"), log);
+        
+        // 前一次已经结束，同样的内容再提交会重新运行
+        TestJob again = new TestJob("a-later", log);
+        assertSame(again, mailbox.submit("s1", "hello", again));
+        again.release.countDown();
+        awaitIdle();
+    }
+    
+    @Test
+    void testDifferentSessionsRunInParallel() throws Exception {
+        int sessions = 50;
+        List<String> log = new CopyOnWriteArrayList<>();
+        List<TestJob> jobs = new CopyOnWriteArrayList<>();
+        for (int i = 0; i < sessions; i++) {
+            TestJob job = new TestJob("job" + i, log);
+            jobs.add(job);
+            mailbox.submit("session-" + i, "hello", job);
+        }
+        // 所有会话同时在运行，互不等待
+        for (TestJob job : jobs) {
+            assertTrue(job.started.await(2, TimeUnit.SECONDS));
+        }
+        assertEquals(sessions, mailbox.getActiveSessions());
+        
+        jobs.forEach(job -> job.release.countDown());
+        awaitIdle();
+    }
+    
+    @Test
+    void testFailedStartAdvancesMailbox() throws Exception {
+        AtomicInteger failures = new AtomicInteger();
+        SessionMailbox.Job failing = done -> {
+            throw new TaskRejectedException("full");
+        };
+        assertThrows(TaskRejectedException.class, () -> mailbox.submit("s1", "hello", failing));
+        assertEquals(0, mailbox.getActiveSessions());
+        
+        // 排队中的任务启动失败时交给 onStartFailure，随后继续下一个
+        List<String> log = new CopyOnWriteArrayList<>();
+        TestJob first = new TestJob("a", log);
+        TestJob last = new TestJob("c", log);
+        mailbox.submit("s1", "a", first);
+        mailbox.submit("s1", "b", new SessionMailbox.Job() {
+            @Override
+            public void start(Runnable done) {
+                throw new TaskRejectedException("full");
+            }
+            
+            @Override
+            public void onStartFailure(Exception e) {
+                failures.incrementAndGet();
+            }
+        });
+        mailbox.submit("s1", "c", last);
+        
+        first.release.countDown();
+        assertTrue(last.started.await(2, TimeUnit.SECONDS));
+        assertEquals(1, failures.get());
+        last.release.countDown();
+        awaitIdle();
+    }
+    
+    private void awaitIdle() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 2000;
+        while (mailbox.getActiveSessions() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, mailbox.getActiveSessions());
+    }
+}
@@ -0,0 +1,164 @@
+package org.huang.saademo;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.huang.saademo.common.Constants;
+import org.huang.saademo.config.SseHeartbeatConfig;
+import org.huang.saademo.config.SseOutboundConfig;
+import org.huang.saademo.config.SseReplayConfig;
+import org.huang.saademo.manager.SSEManager;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 多路复用连接：多个会话共用一个物理连接，每个会话的事件按频道号发送，会话结束不影响连接，连接关闭时所有会话随之结束
+ */
+public class SseChannelMuxTests {
+    
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private SimpleMeterRegistry meterRegistry;
+    private SSEManager sseManager;
+    
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        Metrics.addRegistry(meterRegistry);
+        sseManager = new SSEManager(new SseOutboundConfig(), new SseReplayConfig(), new SseHeartbeatConfig());
+    }
+    
+    @AfterEach
+    void tearDown() {
+        sseManager.destroy();
+        Metrics.removeRegistry(meterRegistry);
+    }
+    
+    @Test
+    void testSessionsShareOneConnection() throws Exception {
+        RecordingEmitter connection = new RecordingEmitter();
+        String connectionId = sseManager.multiplex(connection);
+        SseEmitter first = sseManager.attach(connectionId, "s1");
+        SseEmitter second = sseManager.attach(connectionId, "s2");
+        assertNotNull(first);
+        assertNotNull(second);
+        assertNull(sseManager.attach("unknown", "s3"));
+        AtomicInteger firstCompleted = new AtomicInteger();
+        first.onCompletion(firstCompleted::incrementAndGet);
+        
+        for (int i = 0; i < 3; i++) {
+            sseManager.sendEvent(first, "s1", "[MODEL]", "a" + i);
+            sseManager.sendEvent(second, "s2", "[MODEL]", "b" + i);
+        }
+        sseManager.sendEvent(first, "s1", "[TOOL]", "tool");
+        sseManager.complete(first, "s1");
+        connection.await(12);
+        
+        assertEquals(List.of(Constants.SSE_EVENT_CONNECTION, Constants.SSE_EVENT_CHANNEL, "1", Constants.SSE_EVENT_CHANNEL, "2",
+                "1", "2", "1", "2", Constants.SSE_EVENT_CHANNEL, "3", Constants.SSE_EVENT_CHANNEL_END), connection.names);
+        assertEquals(connectionId, json(connection, 0).get("connection").asText());
+        JsonNode declaration = json(connection, 1);
+        assertEquals(1, declaration.get("ch").asInt());
+        assertEquals("s1", declaration.get("session").asText());
+        assertEquals("[MODEL]", declaration.get("event").asText());
+        assertEquals("s2", json(connection, 3).get("session").asText());
+        assertEquals(List.of("a0", "b0", "a1", "b1", "a2", "b2"),
+                List.of(connection.data.get(2), connection.data.get(4), connection.data.get(5), connection.data.get(6),
+                        connection.data.get(7), connection.data.get(8)));
+        assertEquals("[TOOL]", json(connection, 9).get("event").asText());
+        assertEquals("s1", json(connection, 11).get("session").asText());
+        
+        // 会话结束只结束它的频道，连接和另一个会话不受影响
+        assertEquals(1, firstCompleted.get());
+        assertFalse(connection.completed);
+        sseManager.sendEvent(second, "s2", "[MODEL]", "b3");
+        connection.await(13);
+        assertEquals("2", connection.names.get(12));
+        assertEquals("b3", connection.data.get(12));
+    }
+    
+    @Test
+    void testClosingConnectionEndsAllChannels() throws Exception {
+        RecordingEmitter connection = new RecordingEmitter();
+        String connectionId = sseManager.multiplex(connection);
+        SseEmitter first = sseManager.attach(connectionId, "s1");
+        SseEmitter second = sseManager.attach(connectionId, "s2");
+        AtomicInteger completed = new AtomicInteger();
+        AtomicInteger disconnected = new AtomicInteger();
+        first.onCompletion(completed::incrementAndGet);
+        second.onCompletion(completed::incrementAndGet);
+        sseManager.onDisconnect(second, disconnected::incrementAndGet);
+        
+        // 模拟容器在物理连接断开后触发回调
+        connection.callbacks.forEach(Runnable::run);
+        assertEquals(2, completed.get());
+        assertEquals(1, disconnected.get());
+        assertNull(sseManager.attach(connectionId, "s3"));
+        sseManager.sendEvent(second, "s2", "[MODEL]", "late");
+        
+        // 同一会话重新挂到新的连接上，旧频道被替换
+        RecordingEmitter reconnected = new RecordingEmitter();
+        SseEmitter resumed = sseManager.attach(sseManager.multiplex(reconnected), "s2");
+        assertEquals(resumed, sseManager.getEmitter("s2"));
+        sseManager.sendEvent(resumed, "s2", "[MODEL]", "again");
+        reconnected.await(3);
+        assertEquals("again", reconnected.data.get(2));
+        assertFalse(connection.data.contains("late"));
+    }
+    
+    private JsonNode json(RecordingEmitter emitter, int index) throws Exception {
+        return objectMapper.readTree(emitter.data.get(index));
+    }
+    
+    private static class RecordingEmitter extends SseEmitter {
+        private final List<String> names = new CopyOnWriteArrayList<>();
+        private final List<String> data = new CopyOnWriteArrayList<>();
+        private final List<Runnable> callbacks = new CopyOnWriteArrayList<>();
+        private volatile boolean completed;
+        
+        @Override
+        public void send(SseEventBuilder builder) {
+            StringBuilder frame = new StringBuilder();
+            for (ResponseBodyEmitter.DataWithMediaType part : builder.build()) {
+                frame.append(part.getData() instanceof byte[] bytes ? new String(bytes, StandardCharsets.UTF_8) : part.getData());
+            }
+            String text = frame.toString();
+            int eventStart = text.indexOf("event:") + "event:".length();
+            names.add(text.substring(eventStart, text.indexOf('\n', eventStart)));
+            data.add(text.substring(text.indexOf("data:") + "data:".length(), text.length() - 2));
+        }
+        
+        @Override
+        public void onCompletion(Runnable callback) {
+            callbacks.add(callback);
+        }
+        
+        @Override
+        public void complete() {
+            completed = true;
+        }
+        
+        // 写线程异步发送，等到收到 count 帧
+        private void await(int count) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + 5000;
+            while (names.size() < count && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertTrue(names.size() >= count, "received " + names);
+        }
+    }
+}
@@ -0,0 +1,271 @@
+package org.huang.saademo;
+
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.huang.saademo.config.SseClusterConfig;
+import org.huang.saademo.config.SseHeartbeatConfig;
+import org.huang.saademo.config.SseOutboundConfig;
+import org.huang.saademo.config.SseReplayConfig;
+import org.huang.saademo.manager.SSEManager;
+import org.huang.saademo.manager.SseClusterRelay;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.redisson.api.RFuture;
+import org.redisson.api.RTopic;
+import org.redisson.api.RedissonClient;
+import org.redisson.api.listener.MessageListener;
+import org.redisson.api.listener.StatusListener;
+import org.redisson.client.codec.Codec;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * 跨节点 SSE 投递：两个 SSEManager 共用一个内存中的 pub/sub 代替 Redis，模拟两个节点。
+ * 没有连接的节点上产生的事件按批发布，持有连接的节点按顺序写给客户端
+ */
+public class SseClusterRelayTests {
+    
+    private SimpleMeterRegistry meterRegistry;
+    private FakeBroker broker;
+    private SseClusterConfig clusterConfig;
+    private final List<SSEManager> managers = new ArrayList<>();
+    private final List<SseClusterRelay> relays = new ArrayList<>();
+    
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        Metrics.addRegistry(meterRegistry);
+        broker = new FakeBroker();
+        clusterConfig = new SseClusterConfig();
+        clusterConfig.setEnabled(true);
+    }
+    
+    @AfterEach
+    void tearDown() {
+        relays.forEach(SseClusterRelay::destroy);
+        managers.forEach(SSEManager::destroy);
+        Metrics.removeRegistry(meterRegistry);
+    }
+    
+    @Test
+    void testEventsReachTheNodeHoldingTheConnection() throws Exception {
+        SSEManager nodeA = newNode();
+        SSEManager nodeB = newNode();
+        nodeA.createEmitter("s1");
+        
+        // 例如上下文压缩通知在另一个节点上产生：本地没有连接，只能转发
+        for (int i = 0; i < 100; i++) {
+            nodeB.sendEvent(nodeB.getEmitter("s1"), "s1", "[CONTEXT]", "e" + i);
+        }
+        nodeB.complete(null, "s1");
+        
+        RecordingEmitter received = new RecordingEmitter();
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!nodeA.replay(received, "s1", 0) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+            received = new RecordingEmitter();
+        }
+        received.awaitCompleted();
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            expected.add("e" + i);
+        }
+        assertEquals(expected, received.data);
+        // 100 个事件加一个结束标记
+        assertEquals(101.0, meterRegistry.get("sse.relay.received.events").counter().count());
+        // 攒批发布：发布次数远少于事件数
+        assertTrue(broker.published.get() < 100 / 4, "published " + broker.published.get());
+    }
+    
+    @Test
+    void testNodeStopsListeningWhenConnectionLeaves() throws Exception {
+        SSEManager nodeA = newNode();
+        SSEManager nodeB = newNode();
+        SseEmitter emitter = nodeA.createEmitter("s2");
+        assertEquals(1, broker.listenerCount("sse:session:s2"));
+        
+        nodeA.removeEmitter("s2", emitter);
+        assertEquals(0, broker.listenerCount("sse:session:s2"));
+        nodeB.sendEvent(null, "s2", "[MODEL]", "nobody");
+        nodeB.complete(null, "s2");
+        
+        long deadline = System.currentTimeMillis() + 5000;
+        while (meterRegistry.get("sse.relay.undelivered").counter().count() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertEquals(1.0, meterRegistry.get("sse.relay.undelivered").counter().count());
+    }
+    
+    private SSEManager newNode() {
+        SSEManager manager = new SSEManager(new SseOutboundConfig(), new SseReplayConfig(), new SseHeartbeatConfig());
+        RedissonClient redisson = mock(RedissonClient.class);
+        when(redisson.getTopic(anyString(), any(Codec.class))).thenAnswer(invocation -> broker.topic(invocation.getArgument(0)));
+        managers.add(manager);
+        relays.add(new SseClusterRelay(redisson, clusterConfig, manager));
+        return manager;
+    }
+    
+    /**
+     * 内存中的 pub/sub，publish 同步回调所有订阅者，返回订阅者数
+     */
+    private static class FakeBroker {
+        private final Map<String, Map<Integer, MessageListener<String>>> channels = new ConcurrentHashMap<>();
+        private final AtomicInteger listenerIds = new AtomicInteger();
+        private final AtomicInteger published = new AtomicInteger();
+        
+        private int listenerCount(String channel) {
+            return channels.getOrDefault(channel, Map.of()).size();
+        }
+        
+        private RTopic topic(String channel) {
+            return new FakeTopic(channel);
+        }
+        
+        private class FakeTopic implements RTopic {
+            private final String channel;
+            
+            private FakeTopic(String channel) {
+                this.channel = channel;
+            }
+            
+            @Override
+            public List<String> getChannelNames() {
+                return List.of(channel);
+            }
+            
+            @Override
+            public long publish(Object message) {
+                published.incrementAndGet();
+                Map<Integer, MessageListener<String>> listeners = channels.getOrDefault(channel, Map.of());
+                listeners.values().forEach(listener -> listener.onMessage(channel, (String) message));
+                return listeners.size();
+            }
+            
+            @Override
+            @SuppressWarnings("unchecked")
+            public <M> int addListener(Class<M> type, MessageListener<? extends M> listener) {
+                int id = listenerIds.incrementAndGet();
+                channels.computeIfAbsent(channel, key -> new ConcurrentHashMap<>()).put(id, (MessageListener<String>) listener);
+                return id;
+            }
+            
+            @Override
+            public int addListener(StatusListener listener) {
+                throw new UnsupportedOperationException();
+            }
+            
+            @Override
+            public void removeListener(MessageListener<?> listener) {
+                channels.getOrDefault(channel, new ConcurrentHashMap<>()).values().remove(listener);
+            }
+            
+            @Override
+            public void removeListener(Integer... listenerIds) {
+                for (Integer id : listenerIds) {
+                    channels.getOrDefault(channel, new ConcurrentHashMap<>()).remove(id);
+                }
+            }
+            
+            @Override
+            public void removeAllListeners() {
+                channels.remove(channel);
+            }
+            
+            @Override
+            public int countListeners() {
+                return listenerCount(channel);
+            }
+            
+            @Override
+            public long countSubscribers() {
+                return listenerCount(channel);
+            }
+            
+            @Override
+            public RFuture<Long> publishAsync(Object message) {
+                throw new UnsupportedOperationException();
+            }
+            
+            @Override
+            public RFuture<Integer> addListenerAsync(StatusListener listener) {
+                throw new UnsupportedOperationException();
+            }
+            
+            @Override
+            public <M> RFuture<Integer> addListenerAsync(Class<M> type, MessageListener<? extends M> listener) {
+                throw new UnsupportedOperationException();
+            }
+            
+            @Override
+            public RFuture<Void> removeListenerAsync(Integer... listenerIds) {
+                throw new UnsupportedOperationException();
+            }
+            
+            @Override
+            public RFuture<Void> removeListenerAsync(MessageListener<?> listener) {
+                throw new UnsupportedOperationException();
+            }
+            
+            @Override
+            public RFuture<Long> countSubscribersAsync() {
+                throw new UnsupportedOperationException();
+            }
+            
+            @Override
+            public RFuture<Void> removeAllListenersAsync() {
+                throw new UnsupportedOperationException();
+            }
+        }
+    }
+    
+    private static class RecordingEmitter extends SseEmitter {
+        private final List<String> data = new CopyOnWriteArrayList<>();
+        private volatile boolean completed;
+        
+        @Override
+        public void send(SseEventBuilder builder) throws IOException {
+            StringBuilder frame = new StringBuilder();
+            for (ResponseBodyEmitter.DataWithMediaType part : builder.build()) {
+                // 文本事件由 SseFrameEncoder 编码成字节
+                frame.append(part.getData() instanceof byte[] bytes ? new String(bytes, StandardCharsets.UTF_8) : part.getData());
+            }
+            for (String line : frame.toString().split("\n")) {
+                if (line.startsWith("data:")) {
+                    data.add(line.substring("data:".length()));
+                }
+            }
+        }
+        
+        @Override
+        public void complete() {
+            completed = true;
+        }
+        
+        private void awaitCompleted() throws InterruptedException {
+            long deadline = System.currentTimeMillis() + 5000;
+            while (!completed && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertTrue(completed);
+            assertNotNull(data);
+        }
+    }
+}
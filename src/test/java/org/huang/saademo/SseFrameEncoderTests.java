@@ -0,0 +1,123 @@
+package org.huang.saademo;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.huang.saademo.manager.SseFrameEncoder;
+import org.huang.saademo.service.MultiAgentService;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * SseFrameEncoder 的输出与 SseEmitter.event() + ObjectMapper 的输出逐字节相同，且每个 token 分配的字节数明显更少。
+ * 分配量用 com.sun.management.ThreadMXBean 统计当前线程的分配字节数
+ */
+public class SseFrameEncoderTests {
+    
+    private static final int WARM_UP = 20_000;
+    private static final int TOKENS = 50_000;
+    
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    
+    @Test
+    void testAgentOutputMatchesSpringFrame() throws Exception {
+        SseFrameEncoder encoder = new SseFrameEncoder();
+        Map<String, Object> metadata = new LinkedHashMap<>();
+        metadata.put("finishReason", "STOP");
+        metadata.put("index", 3);
+        
+        String[] texts = {"你好，世界", "quote \" and \\ and\nnewline", "emoji 😀", null};
+        for (String text : texts) {
+            String expected = spring(SseEmitter.event().name("[STREAMING_OUTPUT]").data(objectMapper.writeValueAsString(
+                    new MultiAgentService.AgentOutput("AGENT_MODEL_STREAMING", "writer", "assistant", text, metadata))));
+            String actual = decode(encoder.agentOutput(SseFrameEncoder.NO_ID, "[STREAMING_OUTPUT]",
+                    "AGENT_MODEL_STREAMING", "writer", "assistant", text, metadata));
+            assertEquals(expected, actual);
+        }
+        // 空 metadata 和带 ID 的帧
+        String expected = spring(SseEmitter.event().id("42").name("[STREAMING_OUTPUT]").data(objectMapper.writeValueAsString(
+                new MultiAgentService.AgentOutput("AGENT_MODEL_STREAMING", "writer", "assistant", "x", Map.of()))));
+        assertEquals(expected, decode(encoder.agentOutput(42, "[STREAMING_OUTPUT]",
+                "AGENT_MODEL_STREAMING", "writer", "assistant", "x", Map.of())));
+    }
+    
+    @Test
+    void testTextMatchesSpringFrame() throws Exception {
+        SseFrameEncoder encoder = new SseFrameEncoder();
+        String[] texts = {"plain", "第一行\n第二行\n", "é😀\uD800x", ""};
+        long id = 1;
+        for (String text : texts) {
+            id *= 97;
+            String expected = spring(SseEmitter.event().id(String.valueOf(id)).name("[MODEL]").data(text));
+            assertEquals(expected, decode(encoder.text(id, "[MODEL]", text)));
+        }
+    }
+    
+    @Test
+    void testAllocatesLessPerToken() throws Exception {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        Map<String, Object> metadata = Map.of("finishReason", "");
+        SseFrameEncoder encoder = new SseFrameEncoder();
+        
+        long sink = 0;
+        for (int i = 0; i < WARM_UP; i++) {
+            sink += springToken(metadata, i).build().size();
+            sink += encoder.agentOutput(SseFrameEncoder.NO_ID, "[STREAMING_OUTPUT]", "AGENT_MODEL_STREAMING",
+                    "writer", "assistant", token(i), metadata).build().size();
+        }
+        
+        long tid = Thread.currentThread().threadId();
+        long start = threads.getThreadAllocatedBytes(tid);
+        for (int i = 0; i < TOKENS; i++) {
+            sink += springToken(metadata, i).build().size();
+        }
+        long before = (threads.getThreadAllocatedBytes(tid) - start) / TOKENS;
+        
+        start = threads.getThreadAllocatedBytes(tid);
+        for (int i = 0; i < TOKENS; i++) {
+            sink += encoder.agentOutput(SseFrameEncoder.NO_ID, "[STREAMING_OUTPUT]", "AGENT_MODEL_STREAMING",
+                    "writer", "assistant", token(i), metadata).build().size();
+        }
+        long after = (threads.getThreadAllocatedBytes(tid) - start) / TOKENS;
+        
+        System.out.printf("bytes allocated per token: ObjectMapper + SseEmitter.event() %d, SseFrameEncoder %d (%d frames)%n",
+                before, after, sink);
+        assertTrue(after * 2 < before, "before " + before + ", after " + after);
+    }
+    
+    // 改造前的路径：AgentOutput + writeValueAsString + SseEmitter.event()
+    private SseEmitter.SseEventBuilder springToken(Map<String, Object> metadata, int i) throws Exception {
+        String json = objectMapper.writeValueAsString(
+                new MultiAgentService.AgentOutput("AGENT_MODEL_STREAMING", "writer", "assistant", token(i), metadata));
+        return SseEmitter.event().name("[STREAMING_OUTPUT]").data(json);
+    }
+    
+    // 常量池中的 token，不把创建 token 字符串的分配算进去
+    private static String token(int i) {
+        return (i & 1) == 0 ? "你好" : "world";
+    }
+    
+    private static String spring(SseEmitter.SseEventBuilder builder) {
+        StringBuilder frame = new StringBuilder();
+        for (ResponseBodyEmitter.DataWithMediaType part : builder.build()) {
+            frame.append(part.getData());
+        }
+        // 按容器写出的 UTF-8 字节比较（单独的代理字符会变成 '?'）
+        return new String(frame.toString().getBytes(StandardCharsets.UTF_8), StandardCharsets.UTF_8);
+    }
+    
+    private static String decode(SseEmitter.SseEventBuilder builder) {
+        StringBuilder frame = new StringBuilder();
+        for (ResponseBodyEmitter.DataWithMediaType part : builder.build()) {
+            frame.append(new String((byte[]) part.getData(), StandardCharsets.UTF_8));
+        }
+        return frame.toString();
+    }
+}
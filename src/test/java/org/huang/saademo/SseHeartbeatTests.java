@@ -0,0 +1,116 @@
+package org.huang.saademo;
+
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.huang.saademo.config.SseHeartbeatConfig;
+import org.huang.saademo.config.SseOutboundConfig;
+import org.huang.saademo.config.SseReplayConfig;
+import org.huang.saademo.manager.SSEManager;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.time.Duration;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * SSE 心跳时间轮：一个调度线程给所有静默连接发心跳，空闲超时或写出失败的连接被回收
+ */
+public class SseHeartbeatTests {
+    
+    private SimpleMeterRegistry meterRegistry;
+    private SseHeartbeatConfig heartbeatConfig;
+    private SSEManager sseManager;
+    
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        Metrics.addRegistry(meterRegistry);
+        heartbeatConfig = new SseHeartbeatConfig();
+        heartbeatConfig.setInterval(Duration.ofMillis(100));
+        heartbeatConfig.setTick(Duration.ofMillis(20));
+    }
+    
+    @AfterEach
+    void tearDown() {
+        if (sseManager != null) {
+            sseManager.destroy();
+        }
+        Metrics.removeRegistry(meterRegistry);
+    }
+    
+    @Test
+    void testOneSchedulerThreadPingsAllSilentConnections() throws Exception {
+        sseManager = newManager();
+        for (int i = 0; i < 500; i++) {
+            sseManager.createEmitter("session-" + i);
+            sseManager.createEmitter();
+        }
+        assertEquals(1000, sseManager.getLiveConnections());
+        
+        await(() -> heartbeats() >= 1000);
+        long schedulerThreads = Thread.getAllStackTraces().keySet().stream()
+                .filter(thread -> thread.getName().equals("sse-heartbeat"))
+                .count();
+        assertEquals(1, schedulerThreads);
+        assertEquals(1000, sseManager.getLiveConnections());
+    }
+    
+    @Test
+    void testActiveConnectionIsNotPinged() throws Exception {
+        sseManager = newManager();
+        SseEmitter emitter = sseManager.createEmitter("active");
+        long end = System.currentTimeMillis() + 400;
+        while (System.currentTimeMillis() < end) {
+            sseManager.sendEvent(emitter, "active", "[MODEL]", "token");
+            Thread.sleep(10);
+        }
+        assertEquals(0.0, heartbeats());
+    }
+    
+    @Test
+    void testIdleConnectionsAreEvicted() throws Exception {
+        heartbeatConfig.setIdleTtl(Duration.ofMillis(200));
+        sseManager = newManager();
+        sseManager.createEmitter("idle");
+        sseManager.createEmitter();
+        
+        await(() -> sseManager.getLiveConnections() == 0);
+        assertNull(sseManager.getEmitter("idle"));
+        assertEquals(2.0, meterRegistry.get("sse.evicted").tag("reason", "idle").counter().count());
+    }
+    
+    @Test
+    void testFailedWriteEvictsConnection() throws Exception {
+        sseManager = newManager();
+        SseEmitter emitter = sseManager.createEmitter("broken");
+        // 已经结束的连接再写会抛出 IllegalStateException，与客户端断开后写出失败的处理相同
+        emitter.complete();
+        sseManager.sendEvent(emitter, "broken", "[MODEL]", "lost");
+        
+        await(() -> sseManager.getLiveConnections() == 0);
+        assertNull(sseManager.getEmitter("broken"));
+        assertEquals(1.0, meterRegistry.get("sse.evicted").tag("reason", "write-failed").counter().count());
+    }
+    
+    private SSEManager newManager() {
+        return new SSEManager(new SseOutboundConfig(), new SseReplayConfig(), heartbeatConfig);
+    }
+    
+    private double heartbeats() {
+        return meterRegistry.get("sse.heartbeat.sent").counter().count();
+    }
+    
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertTrue(condition.getAsBoolean());
+    }
+}
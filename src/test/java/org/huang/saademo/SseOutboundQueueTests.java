@@ -0,0 +1,157 @@
+package org.huang.saademo;
+
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.huang.saademo.config.SseHeartbeatConfig;
+import org.huang.saademo.config.SseOutboundConfig;
+import org.huang.saademo.config.SseReplayConfig;
+import org.huang.saademo.manager.SSEManager;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * SSE 出站队列：生产者不被慢客户端阻塞，队列满时按策略丢弃、合并或断开，结束信号排在已入队的事件之后
+ */
+public class SseOutboundQueueTests {
+    
+    private SimpleMeterRegistry meterRegistry;
+    private SseOutboundConfig config;
+    private SSEManager sseManager;
+    
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        Metrics.addRegistry(meterRegistry);
+        config = new SseOutboundConfig();
+        config.setCapacity(4);
+        sseManager = new SSEManager(config, new SseReplayConfig(), new SseHeartbeatConfig());
+    }
+    
+    @AfterEach
+    void tearDown() {
+        sseManager.destroy();
+        Metrics.removeRegistry(meterRegistry);
+    }
+    
+    @Test
+    void testProducerDoesNotBlockOnSlowClient() throws Exception {
+        config.setOverflowPolicy(SseOutboundConfig.OverflowPolicy.DROP_OLDEST);
+        RecordingEmitter emitter = new RecordingEmitter();
+        
+        long start = System.nanoTime();
+        for (int i = 0; i < 1000; i++) {
+            sseManager.sendEvent(emitter, "slow", "[MODEL]", "t" + i);
+        }
+        sseManager.complete(emitter, "slow");
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertTrue(elapsedMillis < 1000, "producer blocked for " + elapsedMillis + " ms");
+        assertTrue(sseManager.getQueueDepth(emitter) <= config.getCapacity());
+        assertEquals(4.0, meterRegistry.get("sse.outbound.queue.depth").gauge().value(), 1.0);
+        
+        emitter.gate.countDown();
+        assertTrue(emitter.completed.await(5, TimeUnit.SECONDS));
+        // 写线程卡在第一帧上，之后只保留最新的 capacity 个事件
+        List<String> tail = emitter.data.subList(emitter.data.size() - 4, emitter.data.size());
+        assertEquals(List.of("t996", "t997", "t998", "t999"), tail);
+        assertTrue(meterRegistry.get("sse.outbound.overflow").tag("policy", "DROP_OLDEST").counter().count() > 0);
+        assertEquals(0, sseManager.getQueueDepth(emitter));
+        assertEquals(0.0, meterRegistry.get("sse.outbound.queue.depth").gauge().value());
+    }
+    
+    @Test
+    void testCoalesceKeepsAllText() throws Exception {
+        config.setOverflowPolicy(SseOutboundConfig.OverflowPolicy.COALESCE);
+        RecordingEmitter emitter = new RecordingEmitter();
+        
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            sseManager.sendEvent(emitter, "coalesce", "[MODEL]", i + ",");
+            expected.append(i).append(',');
+        }
+        sseManager.complete(emitter, "coalesce");
+        emitter.gate.countDown();
+        assertTrue(emitter.completed.await(5, TimeUnit.SECONDS));
+        
+        assertEquals(expected.toString(), String.join("", emitter.data));
+        assertTrue(emitter.data.size() <= 1 + config.getCapacity());
+    }
+    
+    @Test
+    void testDisconnectPolicyClosesSlowClient() throws Exception {
+        config.setOverflowPolicy(SseOutboundConfig.OverflowPolicy.DISCONNECT);
+        RecordingEmitter emitter = new RecordingEmitter();
+        
+        for (int i = 0; i < 10; i++) {
+            sseManager.sendEvent(emitter, "disconnect", "[MODEL]", "t" + i);
+        }
+        emitter.gate.countDown();
+        assertTrue(emitter.completed.await(5, TimeUnit.SECONDS));
+        // 只有断开前已经在写的第一帧发了出去，断开后的事件被丢弃
+        assertTrue(emitter.data.size() <= 1);
+        sseManager.sendEvent(emitter, "disconnect", "[MODEL]", "late");
+        assertTrue(emitter.data.size() <= 1);
+        assertEquals(1.0, meterRegistry.get("sse.outbound.overflow").tag("policy", "DISCONNECT").counter().count());
+    }
+    
+    @Test
+    void testCompletionIsSentAfterQueuedEvents() throws Exception {
+        RecordingEmitter emitter = new RecordingEmitter();
+        emitter.gate.countDown();
+        
+        sseManager.sendEvent(emitter, "order", "[MODEL]", "a");
+        sseManager.sendEvent(emitter, "order", "[TOOL]", "b");
+        sseManager.sendEvent(emitter, "order", "[COMPLETE]", "c");
+        sseManager.complete(emitter, "order");
+        assertTrue(emitter.completed.await(5, TimeUnit.SECONDS));
+        
+        assertEquals(List.of("a", "b", "c"), emitter.data);
+        assertEquals(List.of("[MODEL]", "[TOOL]", "[COMPLETE]"), emitter.names);
+    }
+    
+    /**
+     * 记录发送内容的 SseEmitter，gate 打开之前 send 一直阻塞，模拟慢客户端
+     */
+    private static class RecordingEmitter extends SseEmitter {
+        private final CountDownLatch gate = new CountDownLatch(1);
+        private final CountDownLatch completed = new CountDownLatch(1);
+        private final List<String> names = new CopyOnWriteArrayList<>();
+        private final List<String> data = new CopyOnWriteArrayList<>();
+        
+        @Override
+        public void send(SseEventBuilder builder) throws IOException {
+            try {
+                gate.await();
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+            StringBuilder frame = new StringBuilder();
+            for (ResponseBodyEmitter.DataWithMediaType part : builder.build()) {
+                // 文本事件由 SseFrameEncoder 编码成字节
+                frame.append(part.getData() instanceof byte[] bytes ? new String(bytes, StandardCharsets.UTF_8) : part.getData());
+            }
+            // 形如 id:1\nevent:[MODEL]\ndata:xxx\n\n
+            String text = frame.toString();
+            int eventStart = text.indexOf("event:") + "event:".length();
+            names.add(text.substring(eventStart, text.indexOf('\n', eventStart)));
+            data.add(text.substring(text.indexOf("data:") + "data:".length(), text.length() - 2));
+        }
+        
+        @Override
+        public void complete() {
+            completed.countDown();
+        }
+    }
+}
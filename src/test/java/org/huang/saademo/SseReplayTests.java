@@ -0,0 +1,223 @@
+package org.huang.saademo;
+
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.huang.saademo.config.SseHeartbeatConfig;
+import org.huang.saademo.config.SseOutboundConfig;
+import org.huang.saademo.config.SseReplayConfig;
+import org.huang.saademo.manager.SSEManager;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * SSE 断线续传：事件 ID 单调递增，带 Last-Event-ID 重连时只补发错过的事件；回放缓冲按条数、字节数和 ttl 限制
+ */
+public class SseReplayTests {
+    
+    private SimpleMeterRegistry meterRegistry;
+    private SseOutboundConfig outboundConfig;
+    private SseReplayConfig replayConfig;
+    private SSEManager sseManager;
+    
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        Metrics.addRegistry(meterRegistry);
+        outboundConfig = new SseOutboundConfig();
+        replayConfig = new SseReplayConfig();
+    }
+    
+    @AfterEach
+    void tearDown() {
+        if (sseManager != null) {
+            sseManager.destroy();
+        }
+        Metrics.removeRegistry(meterRegistry);
+    }
+    
+    @Test
+    void testResumeReplaysOnlyMissedEvents() throws Exception {
+        sseManager = new SSEManager(outboundConfig, replayConfig, new SseHeartbeatConfig());
+        RecordingEmitter first = new RecordingEmitter(true);
+        sseManager.sendEvent(first, "s1", "[MODEL]", "a");
+        sseManager.sendEvent(first, "s1", "[MODEL]", "b");
+        sseManager.sendEvent(first, "s1", "[TOOL]", "c");
+        first.awaitFrames(3);
+        assertTrue(first.ids.get(0) < first.ids.get(1) && first.ids.get(1) < first.ids.get(2));
+        
+        // 客户端只收到了第一帧就断线，重连后补发 b、c，然后继续接收实时事件
+        RecordingEmitter second = new RecordingEmitter(true);
+        assertFalse(sseManager.replay(second, "s1", first.ids.get(0)));
+        sseManager.sendEvent(second, "s1", "[MODEL]", "d");
+        second.awaitFrames(3);
+        
+        assertEquals(List.of("b", "c", "d"), second.data);
+        assertEquals(List.of("[MODEL]", "[TOOL]", "[MODEL]"), second.names);
+        assertEquals(first.ids.subList(1, 3), second.ids.subList(0, 2));
+        assertTrue(second.ids.get(2) > second.ids.get(1));
+    }
+    
+    @Test
+    void testResumeAfterStreamEndedCompletesConnection() throws Exception {
+        sseManager = new SSEManager(outboundConfig, replayConfig, new SseHeartbeatConfig());
+        RecordingEmitter first = new RecordingEmitter(true);
+        sseManager.sendEvent(first, "s2", "[MODEL]", "a");
+        sseManager.sendEvent(first, "s2", "[COMPLETE]", "done");
+        sseManager.complete(first, "s2");
+        assertTrue(first.completed.await(5, TimeUnit.SECONDS));
+        
+        RecordingEmitter second = new RecordingEmitter(true);
+        assertTrue(sseManager.replay(second, "s2", first.ids.get(0)));
+        assertTrue(second.completed.await(5, TimeUnit.SECONDS));
+        assertEquals(List.of("done"), second.data);
+        
+        // 已经收到最后一帧的客户端重连，直接结束
+        RecordingEmitter third = new RecordingEmitter(true);
+        assertTrue(sseManager.replay(third, "s2", first.ids.get(1)));
+        assertTrue(third.completed.await(5, TimeUnit.SECONDS));
+        assertTrue(third.data.isEmpty());
+    }
+    
+    @Test
+    void testCoalescedFrameCarriesLastMergedId() throws Exception {
+        outboundConfig.setCapacity(2);
+        outboundConfig.setOverflowPolicy(SseOutboundConfig.OverflowPolicy.COALESCE);
+        sseManager = new SSEManager(outboundConfig, replayConfig, new SseHeartbeatConfig());
+        RecordingEmitter slow = new RecordingEmitter(false);
+        
+        for (int i = 0; i < 50; i++) {
+            sseManager.sendEvent(slow, "s3", "[MODEL]", i + ",");
+        }
+        sseManager.complete(slow, "s3");
+        slow.gate.countDown();
+        assertTrue(slow.completed.await(5, TimeUnit.SECONDS));
+        
+        // 最后一帧合并了之后的所有事件，按它的 ID 续传不会重复收到任何内容
+        long lastId = slow.ids.get(slow.ids.size() - 1);
+        RecordingEmitter resumed = new RecordingEmitter(true);
+        assertTrue(sseManager.replay(resumed, "s3", lastId));
+        assertTrue(resumed.completed.await(5, TimeUnit.SECONDS));
+        assertTrue(resumed.data.isEmpty());
+    }
+    
+    @Test
+    void testBufferIsBoundedAndGapIsCounted() throws Exception {
+        replayConfig.setMaxEvents(4);
+        sseManager = new SSEManager(outboundConfig, replayConfig, new SseHeartbeatConfig());
+        RecordingEmitter first = new RecordingEmitter(true);
+        for (int i = 0; i < 10; i++) {
+            sseManager.sendEvent(first, "s4", "[MODEL]", "t" + i);
+        }
+        first.awaitFrames(10);
+        
+        RecordingEmitter second = new RecordingEmitter(true);
+        sseManager.replay(second, "s4", first.ids.get(0));
+        second.awaitFrames(4);
+        assertEquals(List.of("t6", "t7", "t8", "t9"), second.data);
+        assertEquals(1.0, meterRegistry.get("sse.replay.gaps").counter().count());
+    }
+    
+    @Test
+    void testTotalMemoryCapEvictsLeastRecentSessions() throws Exception {
+        replayConfig.setMaxTotalBytes(64 * 1024);
+        sseManager = new SSEManager(outboundConfig, replayConfig, new SseHeartbeatConfig());
+        String chunk = "x".repeat(1000);
+        for (int session = 0; session < 100; session++) {
+            for (int i = 0; i < 10; i++) {
+                sseManager.sendEvent(null, "mem-" + session, "[MODEL]", chunk);
+            }
+        }
+        assertTrue(sseManager.getReplayBytes() <= replayConfig.getMaxTotalBytes(), "bytes: " + sseManager.getReplayBytes());
+        assertTrue(sseManager.getReplaySessions() < 100);
+        assertTrue(meterRegistry.get("sse.replay.evicted").tag("reason", "memory").counter().count() > 0);
+        
+        // 最近写入的会话保留下来
+        RecordingEmitter resumed = new RecordingEmitter(true);
+        sseManager.replay(resumed, "mem-99", 0);
+        resumed.awaitFrames(10);
+    }
+    
+    @Test
+    void testIdleSessionsExpire() throws Exception {
+        replayConfig.setTtl(Duration.ofMillis(50));
+        sseManager = new SSEManager(outboundConfig, replayConfig, new SseHeartbeatConfig());
+        sseManager.sendEvent(null, "idle", "[MODEL]", "a");
+        assertEquals(1, sseManager.getReplaySessions());
+        
+        long deadline = System.currentTimeMillis() + 5000;
+        while (sseManager.getReplaySessions() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        assertEquals(0, sseManager.getReplaySessions());
+        assertEquals(0, sseManager.getReplayBytes());
+    }
+    
+    /**
+     * 记录发送内容和事件 ID 的 SseEmitter，gate 打开之前 send 一直阻塞
+     */
+    private static class RecordingEmitter extends SseEmitter {
+        private final CountDownLatch gate = new CountDownLatch(1);
+        private final CountDownLatch completed = new CountDownLatch(1);
+        private final List<Long> ids = new CopyOnWriteArrayList<>();
+        private final List<String> names = new CopyOnWriteArrayList<>();
+        private final List<String> data = new CopyOnWriteArrayList<>();
+        
+        private RecordingEmitter(boolean open) {
+            if (open) {
+                gate.countDown();
+            }
+        }
+        
+        @Override
+        public void send(SseEventBuilder builder) throws IOException {
+            try {
+                gate.await();
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+            StringBuilder frame = new StringBuilder();
+            for (ResponseBodyEmitter.DataWithMediaType part : builder.build()) {
+                // 文本事件由 SseFrameEncoder 编码成字节
+                frame.append(part.getData() instanceof byte[] bytes ? new String(bytes, StandardCharsets.UTF_8) : part.getData());
+            }
+            // 形如 id:1\nevent:[MODEL]\ndata:xxx\n\n
+            for (String line : frame.toString().split("\n")) {
+                if (line.startsWith("id:")) {
+                    ids.add(Long.parseLong(line.substring("id:".length())));
+                } else if (line.startsWith("event:")) {
+                    names.add(line.substring("event:".length()));
+                } else if (line.startsWith("data:")) {
+                    data.add(line.substring("data:".length()));
+                }
+            }
+        }
+        
+        @Override
+        public void complete() {
+            completed.countDown();
+        }
+        
+        private void awaitFrames(int count) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + 5000;
+            while (data.size() < count && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(count, data.size());
+        }
+    }
+}
@@ -0,0 +1,253 @@
+package org.huang.saademo;
+
+import com.alibaba.cloud.ai.graph.NodeOutput;
+import com.alibaba.cloud.ai.graph.streaming.OutputType;
+import com.alibaba.cloud.ai.graph.streaming.StreamingOutput;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.huang.saademo.config.StreamBackpressureConfig;
+import org.huang.saademo.config.StreamCoalesceConfig;
+import org.huang.saademo.manager.StreamBackpressure;
+import org.huang.saademo.manager.StreamCoalescer;
+import org.huang.saademo.manager.WriterReadiness;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import reactor.core.Disposable;
+import reactor.core.Disposables;
+import reactor.core.Exceptions;
+import reactor.core.publisher.Flux;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 背压订阅：按批请求上游，写端积压时不再补充请求；上游不遵守背压时内存占用受缓冲区大小限制
+ */
+public class StreamBackpressureTests {
+    
+    private static final int CLIENTS = 1000;
+    private static final int OUTPUTS_PER_CLIENT = 1000;
+    
+    private SimpleMeterRegistry meterRegistry;
+    private StreamBackpressureConfig config;
+    private StreamBackpressure backpressure;
+    
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        Metrics.addRegistry(meterRegistry);
+        config = new StreamBackpressureConfig();
+        backpressure = new StreamBackpressure(config);
+    }
+    
+    @AfterEach
+    void tearDown() {
+        Metrics.removeRegistry(meterRegistry);
+    }
+    
+    @Test
+    void testDemandIsRequestedInBoundedBatches() {
+        List<Runnable> waiters = new ArrayList<>();
+        List<Integer> received = new ArrayList<>();
+        AtomicInteger completed = new AtomicInteger();
+        
+        backpressure.subscribe("stream", Flux.range(1, 100), waiters::add, received::add, error -> {}, completed::incrementAndGet);
+        
+        // 交付 24 个（prefetch 的四分之三）后等待写端，已请求的 32 个交付完就停住
+        assertEquals(32, received.size());
+        assertEquals(1, waiters.size());
+        while (!waiters.isEmpty()) {
+            int before = received.size();
+            waiters.remove(0).run();
+            assertTrue(received.size() - before <= 32);
+        }
+        assertEquals(100, received.size());
+        assertEquals(1, completed.get());
+    }
+    
+    @Test
+    void testDisabledEndpointRequestsUnbounded() {
+        config.getEndpoints().put("legacy", new StreamBackpressureConfig.Policy(false, null, null, null));
+        List<Long> requests = new CopyOnWriteArrayList<>();
+        
+        backpressure.subscribe("legacy", Flux.range(1, 10).doOnRequest(requests::add), WriterReadiness.ALWAYS,
+                value -> {}, error -> {}, () -> {});
+        
+        assertEquals(List.of(Long.MAX_VALUE), requests);
+    }
+    
+    @Test
+    void testStalledWriterStopsDemandAndOverflowErrors() {
+        config.getEndpoints().put("stalled", new StreamBackpressureConfig.Policy(null, 8, 16, null));
+        List<Runnable> waiters = new ArrayList<>();
+        AtomicInteger received = new AtomicInteger();
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        
+        // 上游无视请求一次推送 100 个输出，写端一直不就绪
+        Flux<Integer> pushing = Flux.create(sink -> {
+            for (int i = 0; i < 100; i++) {
+                sink.next(i);
+            }
+            sink.complete();
+        });
+        backpressure.subscribe("stalled", pushing, waiters::add, value -> received.incrementAndGet(), failure::set, () -> {});
+        
+        assertEquals(8, received.get());
+        assertEquals(1, waiters.size());
+        assertTrue(Exceptions.isOverflow(failure.get()));
+        assertEquals(1.0, meterRegistry.get("stream.backpressure.overflow").tag("endpoint", "stalled").counter().count());
+    }
+    
+    @Test
+    void testCoalescerPullsFromBoundedBuffer() {
+        config.getEndpoints().put("coalesced", new StreamBackpressureConfig.Policy(null, 8, 16, StreamBackpressureConfig.Overflow.DROP_OLDEST));
+        StreamCoalesceConfig coalesceConfig = new StreamCoalesceConfig();
+        coalesceConfig.setEnabled(true);
+        // 每个输出块单独成帧，便于按个数核对
+        coalesceConfig.setMaxBytes(1);
+        StreamCoalescer coalescer = new StreamCoalescer(coalesceConfig);
+        List<Runnable> waiters = new ArrayList<>();
+        List<String> received = new ArrayList<>();
+        AtomicInteger pulled = new AtomicInteger();
+        AtomicInteger completed = new AtomicInteger();
+        
+        // 上游无视请求一次推送 1000 个输出块，写端一直不就绪：合并阶段只按下游的请求量取，其余的在有界缓冲区按策略丢弃
+        Flux<NodeOutput> pushing = Flux.create(sink -> {
+            for (int i = 0; i < OUTPUTS_PER_CLIENT; i++) {
+                sink.next(new StreamingOutput<>(new AssistantMessage("t" + i), "model", "agent", null, OutputType.AGENT_MODEL_STREAMING));
+            }
+            sink.complete();
+        });
+        backpressure.subscribe("coalesced", pushing, stream -> coalescer.coalesce(stream.doOnNext(output -> pulled.incrementAndGet())),
+                waiters::add, output -> received.add(((StreamingOutput<?>) output).message().getText()), error -> {}, completed::incrementAndGet);
+        
+        assertEquals(8, received.size());
+        assertEquals(1, waiters.size());
+        assertTrue(pulled.get() <= 8 + 1, "coalescer pulled " + pulled.get());
+        assertTrue(meterRegistry.get("stream.backpressure.overflow").tag("endpoint", "coalesced").counter().count() > 0);
+        
+        // 写端恢复后收到缓冲区里最新的输出，正常结束
+        while (!waiters.isEmpty()) {
+            waiters.remove(0).run();
+        }
+        assertEquals(8 + 16, received.size());
+        assertEquals("t" + (OUTPUTS_PER_CLIENT - 1), received.get(received.size() - 1));
+        assertEquals(1, completed.get());
+    }
+    
+    /**
+     * 1000 个慢客户端同时在线，上游一次推完所有输出：内存只和 (prefetch + buffer-size) × 客户端数相关，
+     * 客户端持续慢速消费期间也保持平稳
+     */
+    @Test
+    void testMemoryStaysFlatWithThrottledClients() throws Exception {
+        config.getEndpoints().put("soak", new StreamBackpressureConfig.Policy(null, 16, 32, StreamBackpressureConfig.Overflow.DROP_OLDEST));
+        ScheduledExecutorService ticker = Executors.newSingleThreadScheduledExecutor();
+        List<ThrottledClient> clients = new ArrayList<>();
+        List<Disposable> subscriptions = new ArrayList<>();
+        long baseline = usedHeap();
+        try {
+            for (int c = 0; c < CLIENTS; c++) {
+                ThrottledClient client = new ThrottledClient();
+                Disposable.Swap subscription = Disposables.swap();
+                backpressure.subscribe("soak", pushingSource(), client, client::onNext, error -> {}, () -> {}, subscription);
+                clients.add(client);
+                subscriptions.add(subscription);
+            }
+            long afterBurst = usedHeap() - baseline;
+            
+            // 每个客户端每 10ms 只写出 2 个输出
+            ticker.scheduleAtFixedRate(() -> clients.forEach(ThrottledClient::tick), 0, 10, TimeUnit.MILLISECONDS);
+            Thread.sleep(1000);
+            long whileDraining = usedHeap() - baseline;
+            
+            long unboundedEstimate = (long) CLIENTS * OUTPUTS_PER_CLIENT * 256;
+            System.out.printf("heap growth: after burst %d KB, while draining %d KB (unbounded would retain > %d KB)%n",
+                    afterBurst / 1024, whileDraining / 1024, unboundedEstimate / 1024);
+            
+            assertTrue(afterBurst < 64L * 1024 * 1024, "heap grew by " + afterBurst / 1024 + " KB");
+            assertTrue(whileDraining < afterBurst + 32L * 1024 * 1024, "heap kept growing: " + whileDraining / 1024 + " KB");
+            // 待写队列最多是不就绪阈值（8）加上一批请求（16）
+            assertTrue(clients.stream().allMatch(client -> client.maxPending < 8 + 16));
+            assertTrue(clients.stream().allMatch(client -> client.written > 0));
+            assertTrue(meterRegistry.get("stream.backpressure.overflow").tag("endpoint", "soak").counter().count() > 0);
+        } finally {
+            ticker.shutdownNow();
+            subscriptions.forEach(Disposable::dispose);
+        }
+    }
+    
+    // 不遵守背压的上游：订阅时一次推送全部输出
+    private static Flux<String> pushingSource() {
+        return Flux.create(sink -> {
+            for (int i = 0; i < OUTPUTS_PER_CLIENT; i++) {
+                sink.next(("token-" + i + "-").repeat(24));
+            }
+            sink.complete();
+        });
+    }
+    
+    private static long usedHeap() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(50);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+    
+    /**
+     * 慢客户端：收到的输出先进入自己的待写队列，积压到 8 个以上时写端不就绪
+     */
+    private static final class ThrottledClient implements WriterReadiness {
+        private final Queue<String> pending = new ArrayDeque<>();
+        private Runnable waiter;
+        private int maxPending;
+        private int written;
+        
+        synchronized void onNext(String output) {
+            pending.add(output);
+            maxPending = Math.max(maxPending, pending.size());
+        }
+        
+        @Override
+        public void whenReady(Runnable action) {
+            synchronized (this) {
+                if (pending.size() >= 8) {
+                    waiter = action;
+                    return;
+                }
+            }
+            action.run();
+        }
+        
+        void tick() {
+            Runnable ready = null;
+            synchronized (this) {
+                for (int i = 0; i < 2 && pending.poll() != null; i++) {
+                    written++;
+                }
+                if (waiter != null && pending.size() < 8) {
+                    ready = waiter;
+                    waiter = null;
+                }
+            }
+            if (ready != null) {
+                ready.run();
+            }
+        }
+    }
+}
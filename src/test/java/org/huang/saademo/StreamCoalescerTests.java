@@ -0,0 +1,140 @@
+package org.huang.saademo;
+
+import com.alibaba.cloud.ai.graph.NodeOutput;
+import com.alibaba.cloud.ai.graph.streaming.OutputType;
+import com.alibaba.cloud.ai.graph.streaming.StreamingOutput;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.huang.saademo.config.StreamCoalesceConfig;
+import org.huang.saademo.manager.StreamCoalescer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.ToolResponseMessage;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 模型输出合并：连续的同类输出块按时间窗口或字节数合并，其他类型的输出和流结束会先把攒着的块发出去
+ */
+public class StreamCoalescerTests {
+    
+    private SimpleMeterRegistry meterRegistry;
+    private StreamCoalesceConfig config;
+    private StreamCoalescer coalescer;
+    
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        Metrics.addRegistry(meterRegistry);
+        config = new StreamCoalesceConfig();
+        config.setEnabled(true);
+        coalescer = new StreamCoalescer(config);
+    }
+    
+    @AfterEach
+    void tearDown() {
+        Metrics.removeRegistry(meterRegistry);
+    }
+    
+    @Test
+    void testDisabledIsPassThrough() {
+        config.setEnabled(false);
+        Flux<NodeOutput> stream = Flux.just(token("agent", "a"));
+        assertSame(stream, coalescer.coalesce(stream));
+    }
+    
+    @Test
+    void testConsecutiveTokensMergeAndToolOutputFlushes() {
+        config.setWindow(Duration.ofSeconds(10));
+        Flux<NodeOutput> stream = Flux.just(
+                token("writer", "你"), token("writer", "好"), token("writer", "，"),
+                tool("writer"),
+                token("writer", "世"), token("writer", "界"),
+                token("reviewer", "好"));
+        
+        List<NodeOutput> frames = coalescer.coalesce(stream).collectList().block(Duration.ofSeconds(5));
+        
+        assertEquals(List.of("text:writer:你好，", "tool:writer", "text:writer:世界", "text:reviewer:好"), describe(frames));
+        assertEquals(6.0, meterRegistry.get("stream.coalesce.chunks").counter().count());
+        assertEquals(3.0, meterRegistry.get("stream.coalesce.frames").counter().count());
+    }
+    
+    @Test
+    void testReasoningAndTextAreNotMixed() {
+        config.setWindow(Duration.ofSeconds(10));
+        Flux<NodeOutput> stream = Flux.just(reasoning("agent", "想"), reasoning("agent", "一想"), token("agent", "答"), token("agent", "案"));
+        
+        List<NodeOutput> frames = coalescer.coalesce(stream).collectList().block(Duration.ofSeconds(5));
+        
+        assertEquals(List.of("reasoning:agent:想一想", "text:agent:答案"), describe(frames));
+    }
+    
+    @Test
+    void testFlushOnMaxBytes() {
+        config.setWindow(Duration.ofSeconds(10));
+        config.setMaxBytes(4);
+        Flux<NodeOutput> stream = Flux.just(token("agent", "ab"), token("agent", "cd"), token("agent", "ef"));
+        
+        List<NodeOutput> frames = coalescer.coalesce(stream).collectList().block(Duration.ofSeconds(5));
+        
+        assertEquals(List.of("text:agent:abcd", "text:agent:ef"), describe(frames));
+    }
+    
+    @Test
+    void testFlushOnWindowWithoutWaitingForCompletion() {
+        config.setWindow(Duration.ofMillis(50));
+        Flux<NodeOutput> stream = Flux.concat(
+                Flux.just(token("agent", "a"), token("agent", "b")),
+                Mono.delay(Duration.ofMillis(500)).then(Mono.just(token("agent", "c"))));
+        long start = System.nanoTime();
+        List<Long> arrivals = new ArrayList<>();
+        
+        List<NodeOutput> frames = coalescer.coalesce(stream)
+                .doOnNext(frame -> arrivals.add((System.nanoTime() - start) / 1_000_000))
+                .collectList().block(Duration.ofSeconds(5));
+        
+        assertEquals(List.of("text:agent:ab", "text:agent:c"), describe(frames));
+        assertTrue(arrivals.get(0) < 400, "first frame waited for " + arrivals.get(0) + " ms");
+    }
+    
+    private static NodeOutput token(String agent, String text) {
+        return new StreamingOutput<>(new AssistantMessage(text), "model", agent, null, OutputType.AGENT_MODEL_STREAMING);
+    }
+    
+    private static NodeOutput reasoning(String agent, String text) {
+        AssistantMessage message = AssistantMessage.builder().content("").properties(Map.of("reasoningContent", text)).build();
+        return new StreamingOutput<>(message, "model", agent, null, OutputType.AGENT_MODEL_STREAMING);
+    }
+    
+    private static NodeOutput tool(String agent) {
+        ToolResponseMessage message = ToolResponseMessage.builder()
+                .responses(List.of(new ToolResponseMessage.ToolResponse("1", "getWeather", "晴")))
+                .build();
+        return new StreamingOutput<>(message, "tool", agent, null, OutputType.AGENT_TOOL_FINISHED);
+    }
+    
+    private static List<String> describe(List<NodeOutput> frames) {
+        return frames.stream().map(output -> {
+            StreamingOutput<?> streaming = (StreamingOutput<?>) output;
+            if (streaming.getOutputType() != OutputType.AGENT_MODEL_STREAMING) {
+                return "tool:" + streaming.agent();
+            }
+            Object reasoning = streaming.message().getMetadata().get("reasoningContent");
+            if (reasoning != null && !reasoning.toString().isEmpty()) {
+                return "reasoning:" + streaming.agent() + ":" + reasoning;
+            }
+            return "text:" + streaming.agent() + ":" + streaming.message().getText();
+        }).toList();
+    }
+}
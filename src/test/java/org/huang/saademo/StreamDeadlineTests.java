@@ -0,0 +1,143 @@
+package org.huang.saademo;
+
+import com.alibaba.cloud.ai.graph.NodeOutput;
+import com.alibaba.cloud.ai.graph.OverAllState;
+import com.alibaba.cloud.ai.graph.streaming.OutputType;
+import com.alibaba.cloud.ai.graph.streaming.StreamingOutput;
+import org.huang.saademo.common.StreamDeadlineExceededException;
+import org.huang.saademo.config.StreamDeadlineConfig;
+import org.huang.saademo.manager.StreamDeadlineGuard;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import reactor.core.publisher.Flux;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 首 token、token 间隔、总时长三个时限：超时后取消上游并抛出 StreamDeadlineExceededException，工具执行期间不按 token 间隔计时
+ */
+public class StreamDeadlineTests {
+    
+    private static final String MODEL = "test-model";
+    
+    private StreamDeadlineGuard guard;
+    
+    @BeforeEach
+    void setUp() {
+        StreamDeadlineConfig config = new StreamDeadlineConfig();
+        config.setDefaults(new StreamDeadlineConfig.Deadlines(Duration.ofMillis(200), Duration.ofMillis(100), Duration.ofSeconds(2)));
+        guard = new StreamDeadlineGuard(config);
+    }
+    
+    @Test
+    void testTimeToFirstTokenExceeded() {
+        AtomicBoolean upstreamCancelled = new AtomicBoolean();
+        Flux<NodeOutput> stalled = Flux.<NodeOutput>never().doOnCancel(() -> upstreamCancelled.set(true));
+        
+        StreamDeadlineExceededException e = assertThrows(StreamDeadlineExceededException.class,
+                () -> guard.guard(stalled, MODEL).blockLast(Duration.ofSeconds(2)));
+        assertEquals(StreamDeadlineExceededException.Kind.TIME_TO_FIRST_TOKEN, e.getKind());
+        assertTrue(upstreamCancelled.get());
+    }
+    
+    @Test
+    void testInterTokenGapExceeded() {
+        Flux<NodeOutput> stallsAfterTwoTokens = Flux.concat(
+                Flux.just(token("a"), token("b")),
+                Flux.never());
+        
+        StreamDeadlineExceededException e = assertThrows(StreamDeadlineExceededException.class,
+                () -> guard.guard(stallsAfterTwoTokens, MODEL).blockLast(Duration.ofSeconds(2)));
+        assertEquals(StreamDeadlineExceededException.Kind.INTER_TOKEN, e.getKind());
+    }
+    
+    @Test
+    void testToolExecutionOnlyBoundedByTotal() {
+        // 模型输出结束后工具执行了 300ms，超过首 token 和 token 间隔时限，但在总时长以内
+        Flux<NodeOutput> withSlowTool = Flux.concat(
+                Flux.just(token("a"), output(OutputType.AGENT_MODEL_FINISHED, "a")),
+                Flux.just(output(OutputType.AGENT_TOOL_FINISHED, "tool")).delaySubscription(Duration.ofMillis(300)),
+                Flux.just(token("b")).delaySubscription(Duration.ofMillis(50)));
+        
+        List<NodeOutput> outputs = guard.guard(withSlowTool, MODEL).collectList().block(Duration.ofSeconds(2));
+        assertEquals(4, outputs.size());
+    }
+    
+    @Test
+    void testFirstTokenClockStartsWhenModelRequestIsIssued() {
+        // 每次模型调用前的 Hook 都同步压缩上下文 300ms，超过首 token 时限，但模型请求发出后 50ms 就有首 token
+        assertThrows(StreamDeadlineExceededException.class,
+                () -> guard.guard(slowHooks(new StreamDeadlineGuard.ModelCalls()), MODEL).blockLast(Duration.ofSeconds(2)));
+        
+        StreamDeadlineGuard.ModelCalls calls = new StreamDeadlineGuard.ModelCalls();
+        List<NodeOutput> outputs = guard.guard(slowHooks(calls), MODEL, calls).collectList().block(Duration.ofSeconds(2));
+        assertEquals(4, outputs.size());
+        
+        // 请求发出后迟迟没有首 token 仍然超时
+        StreamDeadlineGuard.ModelCalls stalledCalls = new StreamDeadlineGuard.ModelCalls();
+        Flux<NodeOutput> stalled = Flux.<NodeOutput>never().doOnSubscribe(s -> stalledCalls.issued());
+        StreamDeadlineExceededException e = assertThrows(StreamDeadlineExceededException.class,
+                () -> guard.guard(stalled, MODEL, stalledCalls).blockLast(Duration.ofSeconds(2)));
+        assertEquals(StreamDeadlineExceededException.Kind.TIME_TO_FIRST_TOKEN, e.getKind());
+    }
+    
+    @Test
+    void testTotalExceeded() {
+        StreamDeadlineConfig config = new StreamDeadlineConfig();
+        config.setDefaults(new StreamDeadlineConfig.Deadlines(Duration.ofMillis(200), Duration.ofMillis(100), Duration.ofMillis(300)));
+        StreamDeadlineGuard totalGuard = new StreamDeadlineGuard(config);
+        AtomicBoolean upstreamCancelled = new AtomicBoolean();
+        Flux<NodeOutput> endless = Flux.interval(Duration.ofMillis(20)).map(i -> token("t" + i))
+                .doOnCancel(() -> upstreamCancelled.set(true));
+        
+        StreamDeadlineExceededException e = assertThrows(StreamDeadlineExceededException.class,
+                () -> totalGuard.guard(endless, MODEL).blockLast(Duration.ofSeconds(2)));
+        assertEquals(StreamDeadlineExceededException.Kind.TOTAL, e.getKind());
+        assertTrue(upstreamCancelled.get());
+    }
+    
+    @Test
+    void testPerModelOverrideFallsBackToDefaults() {
+        StreamDeadlineConfig config = new StreamDeadlineConfig();
+        StreamDeadlineConfig.Deadlines override = new StreamDeadlineConfig.Deadlines();
+        override.setTimeToFirstToken(Duration.ofSeconds(90));
+        config.setModels(Map.of("slow-model", override));
+        
+        StreamDeadlineConfig.Deadlines deadlines = config.forModel("slow-model");
+        assertEquals(Duration.ofSeconds(90), deadlines.getTimeToFirstToken());
+        assertEquals(config.getDefaults().getInterTokenGap(), deadlines.getInterTokenGap());
+        assertEquals(config.getDefaults().getTotal(), deadlines.getTotal());
+        assertEquals(config.getDefaults(), config.forModel("other-model"));
+    }
+    
+    // 两次模型调用，每次先执行 300ms 的 Hook 再发出请求
+    private static Flux<NodeOutput> slowHooks(StreamDeadlineGuard.ModelCalls calls) {
+        return Flux.concat(
+                modelCall(calls, "a"),
+                Flux.just(output(OutputType.AGENT_MODEL_FINISHED, "a"), output(OutputType.AGENT_TOOL_FINISHED, "tool")),
+                modelCall(calls, "b"));
+    }
+    
+    private static Flux<NodeOutput> modelCall(StreamDeadlineGuard.ModelCalls calls, String text) {
+        return Flux.<NodeOutput>just(token(text))
+                .delaySubscription(Duration.ofMillis(50))
+                .doOnSubscribe(s -> calls.issued())
+                .delaySubscription(Duration.ofMillis(300));
+    }
+    
+    private static NodeOutput token(String text) {
+        return output(OutputType.AGENT_MODEL_STREAMING, text);
+    }
+    
+    private static NodeOutput output(OutputType type, String text) {
+        return new StreamingOutput<>(new AssistantMessage(text), "node", "agent", new OverAllState(), type);
+    }
+}
@@ -0,0 +1,157 @@
+package org.huang.saademo;
+
+import com.alibaba.cloud.ai.graph.NodeOutput;
+import com.alibaba.cloud.ai.graph.OverAllState;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.huang.saademo.manager.StreamDeltaEncoder;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 紧凑流协议：静态字段每段只发一次，metadata 变化时才发，节点输出只发相对上一次状态的差异
+ */
+public class StreamDeltaEncoderTests {
+    
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final List<String> names = new ArrayList<>();
+    private final List<String> frames = new ArrayList<>();
+    private final StreamDeltaEncoder encoder = new StreamDeltaEncoder("[STREAMING_OUTPUT]", "[NODE_OUTPUT]", this::record);
+    
+    @Test
+    void testStaticFieldsOncePerSegmentAndMetadataOnChange() throws Exception {
+        Map<String, Object> metadata = new HashMap<>(Map.of("finishReason", ""));
+        for (int i = 0; i < 5; i++) {
+            encoder.streamingOutput("AGENT_MODEL_STREAMING", "writer", "assistant", "t" + i, metadata);
+        }
+        metadata.put("finishReason", "STOP");
+        encoder.streamingOutput("AGENT_MODEL_STREAMING", "writer", "assistant", "end", metadata);
+        encoder.streamingOutput("AGENT_MODEL_STREAMING", "reviewer", "assistant", "r0", metadata);
+        
+        assertEquals(List.of("[SEGMENT]", "[STREAMING_OUTPUT]", "[STREAMING_OUTPUT]", "[STREAMING_OUTPUT]", "[STREAMING_OUTPUT]",
+                "[STREAMING_OUTPUT]", "[STREAMING_OUTPUT]", "[SEGMENT]", "[STREAMING_OUTPUT]"), names);
+        assertEquals("writer", data(0).get("agentName").asText());
+        // 第一个输出带 metadata，之后不变就不带
+        assertEquals("", data(1).get("metadata").get("finishReason").asText());
+        assertFalse(data(2).has("metadata"));
+        assertFalse(data(2).has("agentName"));
+        assertEquals("t1", data(2).get("text").asText());
+        // 调用方原地修改了 metadata 也能发现
+        assertEquals("STOP", data(6).get("metadata").get("finishReason").asText());
+        assertEquals("reviewer", data(7).get("agentName").asText());
+        assertFalse(data(8).has("metadata"));
+    }
+    
+    @Test
+    void testNodeOutputSendsOnlyStateDiff() throws Exception {
+        List<Message> messages = new ArrayList<>();
+        messages.add(new UserMessage("question"));
+        encoder.nodeOutput(node("writer", Map.of("messages", messages, "input", "question")));
+        messages.add(new AssistantMessage("draft"));
+        encoder.nodeOutput(node("reviewer", Map.of("messages", messages, "input", "question", "review", "ok")));
+        encoder.nodeOutput(node("reviewer", Map.of("messages", messages, "input", "question")));
+        encoder.nodeOutput(node("summary", Map.of("messages", List.of(new UserMessage("compressed")), "input", "question")));
+        
+        // 第一次出现的键整体发送
+        JsonNode first = data(0);
+        assertEquals(1, first.get("set").get("messages").size());
+        assertEquals("question", first.get("set").get("input").asText());
+        
+        JsonNode second = data(1);
+        assertEquals("reviewer", second.get("node").asText());
+        assertEquals(1, second.get("append").get("messages").size());
+        assertTrue(second.get("append").get("messages").get(0).asText().contains("draft"));
+        assertEquals("ok", second.get("set").get("review").asText());
+        assertFalse(second.get("set").has("input"));
+        
+        JsonNode third = data(2);
+        assertFalse(third.has("append"));
+        assertFalse(third.has("set"));
+        assertEquals("review", third.get("remove").get(0).asText());
+        
+        // 列表被整体替换（例如上下文压缩）时发送完整的新列表
+        JsonNode fourth = data(3);
+        assertEquals(1, fourth.get("set").get("messages").size());
+        assertTrue(fourth.get("set").get("messages").get(0).asText().contains("compressed"));
+    }
+    
+    @Test
+    void testNodeOutputBandwidthDoesNotGrowWithHistory() {
+        List<Message> messages = new ArrayList<>();
+        int firstCompact = 0;
+        int lastCompact = 0;
+        int lastFull = 0;
+        for (int i = 0; i < 200; i++) {
+            messages.add(new AssistantMessage("reply " + i + " with some content"));
+            NodeOutput output = node("agent", Map.of("messages", new ArrayList<>(messages)));
+            encoder.nodeOutput(output);
+            int compact = frames.get(frames.size() - 1).length();
+            if (i == 1) {
+                firstCompact = compact;
+            }
+            lastCompact = compact;
+            lastFull = output.toString().length();
+        }
+        System.out.printf("node output frame after 200 messages: full %d chars, compact %d chars%n", lastFull, lastCompact);
+        assertTrue(lastCompact <= firstCompact + 8, firstCompact + " -> " + lastCompact);
+        assertTrue(lastCompact * 50 < lastFull);
+    }
+    
+    @Test
+    void testAgentChannels() throws Exception {
+        StreamDeltaEncoder channels = new StreamDeltaEncoder("[STREAMING_OUTPUT]", "[NODE_OUTPUT]", true, this::record);
+        Map<String, Object> metadata = Map.of("finishReason", "");
+        channels.streamingOutput("AGENT_MODEL_STREAMING", "write-agent", "assistant", "w0", metadata);
+        channels.streamingOutput("AGENT_MODEL_STREAMING", "poem-agent", "assistant", "p0", metadata);
+        channels.streamingOutput("AGENT_MODEL_STREAMING", "write-agent", "assistant", "w1", metadata);
+        channels.streamingOutput("AGENT_MODEL_STREAMING", "poem-agent", "assistant", "p1\np2", metadata);
+        channels.streamingOutput("AGENT_MODEL_FINISHED", "write-agent", "assistant", "", Map.of("finishReason", "STOP"));
+        
+        // 交替输出不会重复声明，只有 outputType / metadata 变化时才重新声明
+        assertEquals(List.of("[CHANNEL]", "1", "[CHANNEL]", "2", "1", "2", "[CHANNEL]", "1"), names);
+        assertEquals(1, data(0).get("ch").asInt());
+        assertEquals("write-agent", data(0).get("agent").asText());
+        assertEquals("poem-agent", data(2).get("agent").asText());
+        assertEquals(1, data(6).get("ch").asInt());
+        assertEquals("AGENT_MODEL_FINISHED", data(6).get("outputType").asText());
+        assertEquals("STOP", data(6).get("metadata").get("finishReason").asText());
+        // 频道帧只有文本本身
+        assertEquals("event:1\ndata:w1\n\n", frames.get(4));
+        assertEquals("event:2\ndata:p1\ndata:p2\n\n", frames.get(5));
+    }
+    
+    private static NodeOutput node(String name, Map<String, Object> data) {
+        return NodeOutput.of(name, name, new OverAllState(new HashMap<>(data)), null);
+    }
+    
+    private JsonNode data(int index) throws Exception {
+        String frame = frames.get(index);
+        int start = frame.indexOf("data:") + "data:".length();
+        return objectMapper.readTree(frame.substring(start, frame.length() - 2));
+    }
+    
+    private void record(SseEmitter.SseEventBuilder event) {
+        StringBuilder frame = new StringBuilder();
+        for (ResponseBodyEmitter.DataWithMediaType part : event.build()) {
+            frame.append(new String((byte[]) part.getData(), StandardCharsets.UTF_8));
+        }
+        String text = frame.toString();
+        int nameStart = text.indexOf("event:") + "event:".length();
+        names.add(text.substring(nameStart, text.indexOf('\n', nameStart)));
+        frames.add(text);
+    }
+}
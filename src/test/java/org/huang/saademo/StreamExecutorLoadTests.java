@@ -0,0 +1,127 @@
+package org.huang.saademo;
+
+import org.huang.saademo.config.ThreadPoolConfig;
+import org.huang.saademo.config.VirtualThreadPinningMonitor;
+import org.huang.saademo.config.VirtualThreadTaskExecutor;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.test.util.ReflectionTestUtils;
+import reactor.core.publisher.Flux;
+
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 对比 streamAgentTaskExecutor 两种模式下能同时承载的流式会话数。
+ * 模拟的会话在整个对话期间都占住订阅它的线程（逐个 token 阻塞等待），和阻塞式模型调用的表现一致。
+ */
+public class StreamExecutorLoadTests {
+    
+    private static final int SESSIONS = 2000;
+    private static final int TOKENS_PER_SESSION = 20;
+    private static final long TOKEN_INTERVAL_MILLIS = 50;
+    private static final int VIRTUAL_MAX_IN_FLIGHT = 1000;
+    
+    record LoadResult(int accepted, int rejected, int maxConcurrent) {}
+    
+    @Test
+    void testMaxConcurrentSessions() throws Exception {
+        AsyncTaskExecutor platform = newExecutor("platform");
+        LoadResult platformResult = runLoad(platform);
+        ((ThreadPoolTaskExecutor) platform).shutdown();
+        
+        VirtualThreadTaskExecutor virtual = (VirtualThreadTaskExecutor) newExecutor("virtual");
+        LoadResult virtualResult = runLoad(virtual);
+        virtual.destroy();
+        
+        System.out.printf("platform: accepted %d, rejected %d, max concurrent sessions %d%n",
+                platformResult.accepted(), platformResult.rejected(), platformResult.maxConcurrent());
+        System.out.printf("virtual:  accepted %d, rejected %d, max concurrent sessions %d%n",
+                virtualResult.accepted(), virtualResult.rejected(), virtualResult.maxConcurrent());
+        
+        // 平台线程池：最多 20 个会话同时进行，另外 100 个在队列里等待，其余被拒绝
+        assertTrue(platformResult.accepted() <= 120);
+        assertTrue(platformResult.maxConcurrent() <= 20);
+        // 虚拟线程：同时进行的会话只受信号量限制
+        assertEquals(VIRTUAL_MAX_IN_FLIGHT, virtualResult.accepted());
+        assertTrue(virtualResult.maxConcurrent() > platformResult.maxConcurrent() * 10);
+    }
+    
+    @Test
+    void testPinningIsReported() throws Exception {
+        VirtualThreadPinningMonitor monitor = new VirtualThreadPinningMonitor(Duration.ofMillis(10));
+        VirtualThreadTaskExecutor executor = new VirtualThreadTaskExecutor("pin-test-", 10);
+        Object lock = new Object();
+        try {
+            CountDownLatch done = new CountDownLatch(1);
+            executor.execute(() -> {
+                // 在 synchronized 块里阻塞，虚拟线程无法从载体线程卸载
+                synchronized (lock) {
+                    sleep(50);
+                }
+                done.countDown();
+            });
+            assertTrue(done.await(5, TimeUnit.SECONDS));
+            // JFR 事件是批量推送的，等待一段时间
+            long deadline = System.currentTimeMillis() + 10_000;
+            while (monitor.getPinnedCount() == 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(100);
+            }
+            assertTrue(monitor.getPinnedCount() > 0);
+        } finally {
+            executor.destroy();
+            monitor.destroy();
+        }
+    }
+    
+    private AsyncTaskExecutor newExecutor(String mode) {
+        ThreadPoolConfig config = new ThreadPoolConfig();
+        ReflectionTestUtils.setField(config, "mode", mode);
+        ReflectionTestUtils.setField(config, "maxInFlight", VIRTUAL_MAX_IN_FLIGHT);
+        return config.taskExecutor();
+    }
+    
+    private LoadResult runLoad(AsyncTaskExecutor executor) throws InterruptedException {
+        AtomicInteger active = new AtomicInteger();
+        AtomicInteger maxConcurrent = new AtomicInteger();
+        int accepted = 0;
+        int rejected = 0;
+        CountDownLatch finished = new CountDownLatch(SESSIONS);
+        
+        for (int i = 0; i < SESSIONS; i++) {
+            try {
+                executor.submit(() -> {
+                    maxConcurrent.accumulateAndGet(active.incrementAndGet(), Math::max);
+                    Flux<Integer> stream = Flux.range(0, TOKENS_PER_SESSION).doOnNext(token -> sleep(TOKEN_INTERVAL_MILLIS));
+                    VirtualThreadTaskExecutor.subscribe(stream, token -> {}, error -> {
+                        active.decrementAndGet();
+                        finished.countDown();
+                    }, () -> {
+                        active.decrementAndGet();
+                        finished.countDown();
+                    });
+                });
+                accepted++;
+            } catch (Exception e) {
+                rejected++;
+                finished.countDown();
+            }
+        }
+        assertTrue(finished.await(60, TimeUnit.SECONDS));
+        return new LoadResult(accepted, rejected, maxConcurrent.get());
+    }
+    
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,232 @@
+package org.huang.saademo;
+
+import com.alibaba.cloud.ai.graph.RunnableConfig;
+import com.alibaba.cloud.ai.graph.agent.ReactAgent;
+import com.alibaba.cloud.ai.graph.action.InterruptionMetadata;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.huang.saademo.common.Constants;
+import org.huang.saademo.config.AdmissionConfig;
+import org.huang.saademo.config.BulkheadConfig;
+import org.huang.saademo.controller.StreamMemSocketHandler;
+import org.huang.saademo.manager.AdmissionManager;
+import org.huang.saademo.manager.BulkheadRegistry;
+import org.huang.saademo.manager.CancellationManager;
+import org.huang.saademo.manager.InterruptMetadataManager;
+import org.huang.saademo.manager.StreamDeadlineGuard;
+import org.huang.saademo.service.StreamMemService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+import reactor.core.publisher.Flux;
+
+import java.lang.reflect.Constructor;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * StreamMem 的 WebSocket 传输：问题、中断和审批在同一个连接上往返，编辑后的工具参数传给恢复的运行并写进审批结果，取消和断开会取消运行
+ */
+public class StreamMemSocketTests {
+    
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private SimpleMeterRegistry meterRegistry;
+    private StreamMemService streamMemService;
+    private AdmissionManager admissionManager;
+    private StreamMemSocketHandler handler;
+    private WebSocketSession session;
+    private final List<StreamMemSocketHandler.Event> received = new CopyOnWriteArrayList<>();
+    
+    @BeforeEach
+    void setUp() throws Exception {
+        meterRegistry = new SimpleMeterRegistry();
+        Metrics.addRegistry(meterRegistry);
+        streamMemService = mock(StreamMemService.class);
+        AdmissionConfig config = new AdmissionConfig();
+        config.setMaxConcurrentSessions(2);
+        admissionManager = new AdmissionManager(config, null, new BulkheadRegistry(new BulkheadConfig(), config));
+        
+        handler = new StreamMemSocketHandler();
+        ReflectionTestUtils.setField(handler, "streamMemService", streamMemService);
+        ReflectionTestUtils.setField(handler, "admissionManager", admissionManager);
+        ReflectionTestUtils.setField(handler, "sendTimeLimitMillis", 10_000);
+        ReflectionTestUtils.setField(handler, "bufferSizeLimit", 512 * 1024);
+        
+        session = mock(WebSocketSession.class);
+        when(session.getId()).thenReturn("ws-1");
+        when(session.isOpen()).thenReturn(true);
+        doAnswer(invocation -> {
+            WebSocketMessage<?> message = invocation.getArgument(0);
+            received.add(objectMapper.readValue((String) message.getPayload(), StreamMemSocketHandler.Event.class));
+            return null;
+        }).when(session).sendMessage(any());
+        handler.afterConnectionEstablished(session);
+    }
+    
+    @AfterEach
+    void tearDown() {
+        Metrics.removeRegistry(meterRegistry);
+    }
+    
+    @Test
+    void testPromptInterruptAndDecisionOverOneConnection() throws Exception {
+        when(streamMemService.streamEvents(eq("what time is it"), eq("s1"), isNull(), eq(Map.of()), eq(StreamMemService.TRANSPORT_WEBSOCKET)))
+                .thenReturn(Flux.just(event(Constants.SSE_EVENT_MODEL, "let me check"),
+                        event(Constants.SSE_EVENT_INTERRUPT, "[Tool]: getCurrentTime, [Id]: call-1, [Arguments]: {}, [Description]: ..."),
+                        event(Constants.SSE_EVENT_COMPLETE, "Stream completed")));
+        when(streamMemService.streamEvents(isNull(), eq("s1"), eq(Constants.TOOL_EDIT), eq(Map.of("call-1", "{\"zone\":\"UTC\"}")),
+                eq(StreamMemService.TRANSPORT_WEBSOCKET)))
+                .thenReturn(Flux.just(event(Constants.SSE_EVENT_MODEL, "it is noon in UTC"),
+                        event(Constants.SSE_EVENT_COMPLETE, "Stream completed")));
+        
+        send("{\"type\":\"prompt\",\"sessionId\":\"s1\",\"prompt\":\"what time is it\"}");
+        await(3);
+        // 审批结果在同一个连接上发回，编辑后的参数按工具调用 ID 传给恢复的运行
+        send("{\"type\":\"decision\",\"sessionId\":\"s1\",\"decision\":\"edit\",\"arguments\":{\"call-1\":\"{\\\"zone\\\":\\\"UTC\\\"}\"}}");
+        await(5);
+        
+        assertEquals(List.of(Constants.SSE_EVENT_MODEL, Constants.SSE_EVENT_INTERRUPT, Constants.SSE_EVENT_COMPLETE,
+                Constants.SSE_EVENT_MODEL, Constants.SSE_EVENT_COMPLETE), received.stream().map(StreamMemSocketHandler.Event::event).toList());
+        assertTrue(received.stream().allMatch(event -> "s1".equals(event.session())));
+        assertEquals("it is noon in UTC", received.get(3).data());
+        awaitInFlight(0);
+    }
+    
+    @Test
+    void testCancelAndDisconnectCancelRuns() throws Exception {
+        AtomicInteger cancelled = new AtomicInteger();
+        when(streamMemService.streamEvents(anyString(), anyString(), isNull(), anyMap(), anyString()))
+                .thenAnswer(invocation -> Flux.<ServerSentEvent<String>>never().doOnCancel(cancelled::incrementAndGet));
+        
+        send("{\"type\":\"prompt\",\"sessionId\":\"s1\",\"prompt\":\"a\"}");
+        send("{\"type\":\"prompt\",\"sessionId\":\"s2\",\"prompt\":\"b\"}");
+        assertEquals(2, admissionManager.getInFlight());
+        // 准入名额用完，第三个会话收到错误而不是断开连接
+        send("{\"type\":\"prompt\",\"sessionId\":\"s3\",\"prompt\":\"c\"}");
+        await(1);
+        assertEquals("s3", received.get(0).session());
+        assertEquals(Constants.SSE_EVENT_ERROR, received.get(0).event());
+        
+        send("{\"type\":\"cancel\",\"sessionId\":\"s1\"}");
+        assertEquals(1, cancelled.get());
+        handler.afterConnectionClosed(session, CloseStatus.GOING_AWAY);
+        assertEquals(2, cancelled.get());
+        awaitInFlight(0);
+    }
+    
+    @Test
+    void testInvalidMessagesAreReportedInBand() throws Exception {
+        send("not json");
+        send("{\"type\":\"decision\",\"sessionId\":\"s1\",\"decision\":\"maybe\"}");
+        send("{\"type\":\"subscribe\",\"sessionId\":\"s1\"}");
+        await(3);
+        assertTrue(received.stream().allMatch(event -> Constants.SSE_EVENT_ERROR.equals(event.event())));
+        assertTrue(received.get(1).data().contains("maybe"));
+    }
+    
+    @Test
+    void testEditedFeedbackCarriesNewArguments() {
+        StreamMemService service = new StreamMemService();
+        InterruptMetadataManager metadataManager = new InterruptMetadataManager();
+        ReflectionTestUtils.setField(service, "metadataManager", metadataManager);
+        metadataManager.put("s1", InterruptionMetadata.builder().nodeId("tool")
+                .addToolFeedback(feedback("call-1", "getCurrentTime"))
+                .addToolFeedback(feedback("call-2", "getCurrentTime"))
+                .addToolFeedback(feedback("call-3", "getWeather"))
+                .build());
+        
+        // 调用 ID 优先于工具名匹配，没有编辑内容的工具按原参数执行
+        RunnableConfig config = ReflectionTestUtils.invokeMethod(service, "buildConfig", "s1", Constants.TOOL_EDIT,
+                Map.of("call-1", "{\"zone\":\"UTC\"}", "getCurrentTime", "{\"zone\":\"Asia/Shanghai\"}"),
+                new CancellationManager().open("stream-mem"), new StreamDeadlineGuard.ModelCalls());
+        InterruptionMetadata decision = (InterruptionMetadata) config.metadata(RunnableConfig.HUMAN_FEEDBACK_METADATA_KEY).orElseThrow();
+        
+        List<InterruptionMetadata.ToolFeedback> feedbacks = decision.toolFeedbacks();
+        assertEquals(List.of("call-1", "call-2", "call-3"), feedbacks.stream().map(InterruptionMetadata.ToolFeedback::getId).toList());
+        assertEquals(List.of("{\"zone\":\"UTC\"}", "{\"zone\":\"Asia/Shanghai\"}", "{}"),
+                feedbacks.stream().map(InterruptionMetadata.ToolFeedback::getArguments).toList());
+        assertTrue(feedbacks.stream().allMatch(feedback -> feedback.getResult() == InterruptionMetadata.ToolFeedback.FeedbackResult.EDITED));
+        assertEquals("tool", decision.node());
+        // 审批元数据用过即删
+        assertNull(metadataManager.get("s1"));
+    }
+    
+    @Test
+    @SuppressWarnings("unchecked")
+    void testInterruptedAgentsExpire() throws Exception {
+        StreamMemService service = new StreamMemService();
+        ReflectionTestUtils.setField(service, "metadataManager", new InterruptMetadataManager());
+        CancellationManager.Handle cancellation = new CancellationManager().open("stream-mem");
+        InterruptionMetadata metadata = InterruptionMetadata.builder().nodeId("tool")
+                .addToolFeedback(feedback("call-1", "getCurrentTime"))
+                .build();
+        ReactAgent stale = mock(ReactAgent.class);
+        ReactAgent fresh = mock(ReactAgent.class);
+        
+        ReflectionTestUtils.invokeMethod(service, "emitOutput", metadata, "stale", stale, cancellation, (BiConsumer<String, String>) (name, data) -> { });
+        Map<String, Object> interruptedAgents = (Map<String, Object>) ReflectionTestUtils.getField(service, "interruptedAgents");
+        // 把 stale 会话的中断时间拨回到 TTL 之前
+        Constructor<?> entry = interruptedAgents.get("stale").getClass().getDeclaredConstructor(ReactAgent.class, long.class);
+        entry.setAccessible(true);
+        interruptedAgents.put("stale", entry.newInstance(stale, System.nanoTime() - StreamMemService.INTERRUPTED_AGENT_TTL.toNanos() - 1));
+        
+        // 新的中断顺带清掉过期的 Agent，未过期的审批恢复拿到中断时的 Agent
+        ReflectionTestUtils.invokeMethod(service, "emitOutput", metadata, "fresh", fresh, cancellation, (BiConsumer<String, String>) (name, data) -> { });
+        assertEquals(Set.of("fresh"), interruptedAgents.keySet());
+        assertSame(fresh, ReflectionTestUtils.invokeMethod(service, "agentFor", "fresh", Constants.TOOL_APPROVE));
+        assertTrue(interruptedAgents.isEmpty());
+    }
+    
+    private void send(String payload) throws Exception {
+        handler.handleMessage(session, new TextMessage(payload));
+    }
+    
+    private static InterruptionMetadata.ToolFeedback feedback(String id, String name) {
+        return InterruptionMetadata.ToolFeedback.builder().id(id).name(name).arguments("{}").description("needs approval").build();
+    }
+    
+    private static ServerSentEvent<String> event(String name, String data) {
+        return ServerSentEvent.<String>builder().event(name).data(data).build();
+    }
+    
+    // 输出切换到弹性线程上发送，等待收到 count 条消息
+    private void await(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (received.size() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(count, received.size(), "received " + received);
+    }
+    
+    private void awaitInFlight(int expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (admissionManager.getInFlight() != expected && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(expected, admissionManager.getInFlight());
+    }
+}
@@ -0,0 +1,161 @@
+package org.huang.saademo;
+
+import org.huang.saademo.manager.TokenCounter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.UserMessage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * MessageManageHook 每次模型调用前的 token 估算，历史分别约为 10K / 50K / 100K tokens：
+ * <ul>
+ *     <li>legacyFullCount：改造前每一步的开销，过滤空消息后逐条计算整个历史</li>
+ *     <li>fullCount：TokenCounter 不做记忆，逐条计算整个历史</li>
+ *     <li>incrementalStep：同一会话追加一条新消息后计算，只计算新消息</li>
+ *     <li>reloadedHistory：会话的新一次运行，历史从检查点重新加载成新的 Message 和 String 对象，需要重新计算指纹</li>
+ * </ul>
+ * 不在 mvn test 中运行，编译测试代码后执行 main：
+ * mvn -B test-compile dependency:build-classpath -Dmdep.outputFile=target/cp.txt
+ * java -cp target/test-classes:target/classes:$(cat target/cp.txt) org.huang.saademo.TokenCountBenchmark
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TokenCountBenchmark {
+    
+    @Param({"10000", "50000", "100000"})
+    private int historyTokens;
+    
+    private final TokenCounter counter = new TokenCounter();
+    private List<Message> history;
+    private List<Message> stepA;
+    private List<Message> stepB;
+    private boolean flip;
+    private List<Message> reloaded;
+    private int reloads;
+    
+    @Setup(Level.Trial)
+    public void setUp() {
+        history = history(historyTokens);
+        // 两个只有最后一条不同的历史交替计算，模拟每一步追加一条新消息
+        stepA = new ArrayList<>(history);
+        stepA.add(new UserMessage("新的问题 A: what's the weather tomorrow?"));
+        stepB = new ArrayList<>(history);
+        stepB.add(new UserMessage("新的问题 B: and the day after?"));
+        counter.count("incremental", stepA);
+    }
+    
+    @Setup(Level.Invocation)
+    public void reload() {
+        reloaded = copy(history);
+    }
+    
+    @Benchmark
+    public int legacyFullCount() {
+        return legacyCount(stepA);
+    }
+    
+    @Benchmark
+    public int fullCount() {
+        return counter.count(stepA);
+    }
+    
+    @Benchmark
+    public int incrementalStep() {
+        flip = !flip;
+        return counter.count("incremental", flip ? stepA : stepB);
+    }
+    
+    @Benchmark
+    public int reloadedHistory() {
+        return counter.count("reloaded-" + (reloads++ & 1), reloaded);
+    }
+    
+    // 改造前 MessageManageHook 的计算方式：过滤空消息后逐条计算
+    static int legacyCount(List<Message> messages) {
+        List<Message> nonEmpty = messages.stream()
+                .filter(message -> message.getText() != null && !message.getText().trim().isEmpty())
+                .toList();
+        if (nonEmpty.isEmpty()) {
+            return 0;
+        }
+        int total = 0;
+        for (Message message : nonEmpty) {
+            total += 4 + legacyEstimate(message.getText()) + legacyEstimate(message.getMessageType().toString());
+            for (Map.Entry<String, Object> entry : message.getMetadata().entrySet()) {
+                total += legacyEstimate(entry.getKey());
+                if (entry.getValue() != null) {
+                    total += legacyEstimate(entry.getValue().toString());
+                }
+            }
+        }
+        return total + 3;
+    }
+    
+    private static int legacyEstimate(String content) {
+        if (content == null || content.isEmpty()) return 0;
+        double tokenCount = 0;
+        for (int i = 0; i < content.length(); i++) {
+            tokenCount += content.charAt(i) <= 127 ? 0.5 : 1.5;
+        }
+        return (int) Math.ceil(tokenCount);
+    }
+    
+    /**
+     * 中英文混合、带元数据的对话历史，估算 token 数约为 tokens
+     */
+    static List<Message> history(int tokens) {
+        List<Message> messages = new ArrayList<>();
+        TokenCounter counter = new TokenCounter();
+        for (int i = 0; counter.count(messages) < tokens; i++) {
+            messages.add(UserMessage.builder()
+                    .text("第 " + i + " 个问题：请帮我查询一下北京明天的天气，并给出穿衣建议。Also include the UV index, please.")
+                    .metadata(Map.of("messageType", "USER"))
+                    .build());
+            messages.add(AssistantMessage.builder()
+                    .content(("北京明天多云转晴，气温 12 到 24 摄氏度，早晚温差较大，建议穿薄外套。"
+                            + "The UV index is moderate, sunscreen is recommended around noon. ").repeat(3) + i)
+                    .properties(Map.of("finishReason", "STOP", "id", "chatcmpl-" + i, "index", 0))
+                    .build());
+        }
+        return messages;
+    }
+    
+    // 内容相同的新对象，String 的 hashCode 缓存也是空的
+    static List<Message> copy(List<Message> messages) {
+        List<Message> copies = new ArrayList<>(messages.size());
+        for (Message message : messages) {
+            String text = new String(message.getText().toCharArray());
+            copies.add(message instanceof AssistantMessage
+                    ? AssistantMessage.builder().content(text).properties(message.getMetadata()).build()
+                    : UserMessage.builder().text(text).metadata(message.getMetadata()).build());
+        }
+        return copies;
+    }
+    
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(TokenCountBenchmark.class.getSimpleName()).build()).run();
+    }
+}
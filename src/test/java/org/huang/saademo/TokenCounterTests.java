@@ -0,0 +1,70 @@
+package org.huang.saademo;
+
+import com.alibaba.dashscope.tokenizers.TokenizerFactory;
+import org.huang.saademo.manager.TokenCounter;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.SystemMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * 上下文 token 数与按 ChatML 模板分词的结果相同；按会话记忆的结果与逐条计算的相同：追加、重新加载、压缩替换、空消息都不影响结果
+ */
+public class TokenCounterTests {
+    
+    private final TokenCounter counter = new TokenCounter();
+    
+    @Test
+    void testMatchesChatTemplateTokens() throws Exception {
+        List<Message> messages = TokenCountBenchmark.history(2_000);
+        messages.add(new UserMessage("   \n"));
+        messages.add(AssistantMessage.builder().content("").properties(Map.of("toolCalls", "getCurrentTime")).build());
+        messages.add(new SystemMessage("你是一个天气助手，回答要简洁。"));
+        
+        // 按 ChatML 模板拼出实际发给模型的文本，用 SDK 的分词器（识别特殊 token）计数
+        StringBuilder prompt = new StringBuilder();
+        for (Message message : messages) {
+            if (!TokenCounter.isEmpty(message)) {
+                prompt.append("<|im_start|>").append(message.getMessageType().getValue()).append('\n')
+                        .append(message.getText()).append("<|im_end|>\n");
+            }
+        }
+        prompt.append("<|im_start|>assistant\n");
+        int expected = TokenizerFactory.qwen().encode(prompt.toString(), "all").size();
+        
+        assertEquals(expected, counter.count(messages));
+        assertEquals(expected, counter.count("s1", messages));
+        assertEquals(0, counter.count("s1", List.of(new UserMessage(" "))));
+    }
+    
+    @Test
+    void testIncrementalCountMatchesFullCount() {
+        List<Message> history = TokenCountBenchmark.history(5_000);
+        List<Message> messages = new ArrayList<>();
+        for (Message message : history) {
+            messages.add(message);
+            assertEquals(counter.count(messages), counter.count("s1", messages));
+        }
+        // 新的一次运行：从检查点加载出内容相同的新对象
+        List<Message> reloaded = TokenCountBenchmark.copy(messages);
+        assertEquals(counter.count(messages), counter.count("s1", reloaded));
+        // 压缩后历史被替换
+        List<Message> compressed = new ArrayList<>(List.of(new UserMessage("压缩后的上下文：用户询问北京天气 -> 多云转晴")));
+        assertEquals(counter.count(compressed), counter.count("s1", compressed));
+        compressed.add(new AssistantMessage("好的"));
+        assertEquals(counter.count(compressed), counter.count("s1", compressed));
+        // 中间的消息被修改（例如工具结果被改写）
+        List<Message> edited = new ArrayList<>(messages);
+        edited.set(3, new UserMessage("改写后的问题"));
+        assertEquals(counter.count(edited), counter.count("s1", edited));
+        assertEquals(counter.count(messages), counter.count("s2", messages));
+        assertEquals(2, counter.getTrackedThreads());
+    }
+}